@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.openstack.keystone.v2_0.AuthenticationApi;
+import org.jclouds.openstack.keystone.v2_0.KeystoneApiMetadata;
+import org.jclouds.openstack.keystone.v2_0.domain.Access;
+import org.jclouds.openstack.keystone.v2_0.domain.Endpoint;
+import org.jclouds.openstack.keystone.v2_0.domain.PasswordCredentials;
+import org.jclouds.openstack.keystone.v2_0.domain.Service;
+
+import com.google.common.collect.Sets;
+
+/**
+ * The Keystone token and service catalog of one set of credentials, for the OpenStack
+ * services called without jclouds. The token is renewed shortly before it expires, or
+ * when a service rejects it.
+ */
+public class OpenStackAccess {
+
+	/**
+	 * How long before its expiration a token is renewed.
+	 */
+	private static final long RENEWAL_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * The accesses by endpoint and identity, replaced when the credential changes.
+	 */
+	private static final ConcurrentMap<String, OpenStackAccess> ACCESSES =
+			new ConcurrentHashMap<String, OpenStackAccess>();
+
+	/**
+	 * Returns the access shared by everything using the specified credentials. A new
+	 * access replaces the shared one once the credential changes, e.g. after a password
+	 * change.
+	 *
+	 * @param credentials the OpenStack credentials
+	 * @return the access
+	 */
+	public static OpenStackAccess forCredentials(OpenStackCredentials credentials) {
+		String key = credentials.getEndpoint() + "|" + credentials.getIdentity();
+		while (true) {
+			OpenStackAccess access = ACCESSES.get(key);
+			if (access != null && access.credentials.equals(credentials)) {
+				return access;
+			}
+			OpenStackAccess created = new OpenStackAccess(credentials);
+			if ((access == null) ? ACCESSES.putIfAbsent(key, created) == null
+					: ACCESSES.replace(key, access, created)) {
+				return created;
+			}
+		}
+	}
+
+	private final OpenStackCredentials credentials;
+
+	/*
+	 * The Keystone API, built on first use and rebuilt when the HTTP settings change
+	 */
+	private AuthenticationApi authenticationApi;
+	private int authenticationApiGeneration;
+
+	/*
+	 * The current access, null until the first authentication or after an invalidation
+	 */
+	private Access access;
+
+	protected OpenStackAccess(OpenStackCredentials credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * Returns a valid token, authenticating if needed.
+	 */
+	public synchronized String getToken() {
+		return getAccess().getToken().getId();
+	}
+
+	/**
+	 * Returns the public endpoint of a service in the specified region.
+	 *
+	 * @param serviceType the service type, e.g. <code>network</code>
+	 * @param region      the region
+	 * @return the endpoint
+	 * @throws IllegalArgumentException if the catalog has no such endpoint
+	 */
+	public synchronized URI getEndpoint(String serviceType, String region) {
+		for (Service service : getAccess()) {
+			if (!serviceType.equals(service.getType())) {
+				continue;
+			}
+			for (Endpoint endpoint : service) {
+				if (region.equals(endpoint.getRegion())) {
+					return endpoint.getPublicURL();
+				}
+			}
+		}
+		throw new IllegalArgumentException("No " + serviceType + " endpoint in region " + region);
+	}
+
+	/**
+	 * Returns the regions offering a service.
+	 *
+	 * @param serviceType the service type, e.g. <code>compute</code>
+	 * @return the regions of the service endpoints
+	 */
+	public synchronized Set<String> getRegions(String serviceType) {
+		Set<String> regions = Sets.newLinkedHashSet();
+		for (Service service : getAccess()) {
+			if (serviceType.equals(service.getType())) {
+				for (Endpoint endpoint : service) {
+					regions.add(endpoint.getRegion());
+				}
+			}
+		}
+		return regions;
+	}
+
+	/**
+	 * Forces the next call to authenticate again, e.g. after a service rejected the token.
+	 */
+	public synchronized void invalidate() {
+		access = null;
+	}
+
+	private Access getAccess() {
+		if (access == null || access.getToken().getExpires() == null
+				|| access.getToken().getExpires().getTime() - System.currentTimeMillis() < RENEWAL_MARGIN_MILLIS) {
+			access = authenticate();
+		}
+		return access;
+	}
+
+	private Access authenticate() {
+		int generation = OpenStackHttpTransport.getGeneration();
+		if (authenticationApi == null || authenticationApiGeneration != generation) {
+			authenticationApiGeneration = generation;
+			authenticationApi = ContextBuilder.newBuilder(new KeystoneApiMetadata())
+					.endpoint(credentials.getEndpoint())
+					.credentials(credentials.getIdentity(), credentials.getCredential())
+					.modules(OpenStackHttpTransport.getModules())
+					.overrides(OpenStackHttpTransport.getOverrides())
+					.buildInjector()
+					.getInstance(AuthenticationApi.class);
+		}
+		// the identity is "tenant:user"
+		String identity = credentials.getIdentity();
+		int separator = identity.indexOf(':');
+		return authenticationApi.authenticateWithTenantNameAndCredentials(identity.substring(0, separator),
+				PasswordCredentials.createWithUsernameAndPassword(identity.substring(separator + 1),
+						credentials.getCredential()));
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Supplier;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigParseOptions;
+import com.typesafe.config.ConfigSyntax;
+
+/**
+ * Publishes the plugin configuration and its settings, and reloads them when the
+ * configuration file changes. Each reload parses and validates the whole file before
+ * publishing it at once, so readers always see a consistent snapshot; an invalid file is
+ * logged and ignored. The operations in flight keep the snapshot they started with.
+ */
+public class OpenStackConfigReloader implements Supplier<OpenStackTuning> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OpenStackConfigReloader.class);
+
+	/**
+	 * How long to wait for more changes after a change, since editors often write a file
+	 * in several steps.
+	 */
+	private static final long SETTLE_MILLIS = 200;
+
+	/**
+	 * Receives the reloaded configurations.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after a new configuration is published.
+		 *
+		 * @param openstackConfig the new plugin configuration
+		 * @param tuning          the new settings
+		 */
+		void reloaded(Config openstackConfig, OpenStackTuning tuning);
+	}
+
+	/**
+	 * An immutable configuration snapshot.
+	 */
+	private static final class Snapshot {
+
+		private final Config config;
+		private final OpenStackTuning tuning;
+
+		private Snapshot(Config config, OpenStackTuning tuning) {
+			this.config = config;
+			this.tuning = tuning;
+		}
+	}
+
+	/**
+	 * Parses the specified configuration file.
+	 *
+	 * @param configFile the configuration file
+	 * @return the parsed configuration
+	 */
+	public static Config parse(File configFile) {
+		ConfigParseOptions options = ConfigParseOptions.defaults()
+				.setSyntax(ConfigSyntax.CONF)
+				.setAllowMissing(false);
+
+		return ConfigFactory.parseFileAnySyntax(configFile, options);
+	}
+
+	private final File configFile;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private volatile Snapshot snapshot;
+
+	/*
+	 * The watcher thread, null until started
+	 */
+	private Thread watcher;
+	private WatchService watchService;
+
+	/**
+	 * Creates a reloader.
+	 *
+	 * @param configFile    the configuration file
+	 * @param initialConfig the configuration read at startup, may be <code>null</code>
+	 * @throws com.typesafe.config.ConfigException if a setting is invalid
+	 */
+	public OpenStackConfigReloader(File configFile, Config initialConfig) {
+		this.configFile = configFile;
+		this.snapshot = new Snapshot(initialConfig, OpenStackTuning.fromConfig(initialConfig));
+	}
+
+	/**
+	 * Returns the current plugin configuration, may be <code>null</code> if there is no
+	 * configuration file.
+	 */
+	public Config getConfig() {
+		return snapshot.config;
+	}
+
+	/**
+	 * Returns the current settings.
+	 */
+	@Override
+	public OpenStackTuning get() {
+		return snapshot.tuning;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Starts watching the configuration file in the background.
+	 *
+	 * @throws IOException if the configuration directory cannot be watched
+	 */
+	public synchronized void start() throws IOException {
+		if (watcher != null) {
+			return;
+		}
+		final Path directory = configFile.getAbsoluteFile().getParentFile().toPath();
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		watcher = new Thread("openstack-config-reloader") {
+			@Override
+			public void run() {
+				watch(watchService);
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+		LOG.info("Watching {} for changes", configFile);
+	}
+
+	/**
+	 * Stops watching the configuration file.
+	 */
+	public synchronized void stop() {
+		if (watcher == null) {
+			return;
+		}
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LOG.warn("Unable to close the watch service", e);
+		}
+		watcher.interrupt();
+		watcher = null;
+		watchService = null;
+	}
+
+	private void watch(WatchService watchService) {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = isConfigFileEvent(key);
+				// let the editor finish writing, and take its other writes with this reload
+				WatchKey next;
+				while ((next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					changed |= isConfigFileEvent(next);
+				}
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	private boolean isConfigFileEvent(WatchKey key) {
+		boolean matches = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| configFile.getName().equals(String.valueOf(event.context()))) {
+				matches = true;
+			}
+		}
+		key.reset();
+		return matches;
+	}
+
+	/**
+	 * Reads the configuration file again, and publishes it if it changed and is valid.
+	 *
+	 * @return whether a new configuration was published
+	 */
+	public synchronized boolean reload() {
+		Config config;
+		OpenStackTuning tuning;
+		try {
+			config = parse(configFile);
+			tuning = OpenStackTuning.fromConfig(config);
+		} catch (RuntimeException e) {
+			LOG.warn("Ignoring the changes to {}, keeping the previous configuration: {}", configFile,
+					e.getMessage());
+			return false;
+		}
+		if (config.equals(snapshot.config)) {
+			return false;
+		}
+		snapshot = new Snapshot(config, tuning);
+		LOG.info("Reloaded {}: {}", configFile, tuning);
+
+		for (Listener listener : listeners) {
+			try {
+				listener.reloaded(config, tuning);
+			} catch (RuntimeException e) {
+				LOG.warn("Unable to apply the reloaded configuration", e);
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import static com.cloudera.director.openstack.Configurations.EXECUTOR_MODE;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+
+/**
+ * The executors running all the plugin-side concurrency.
+ * <p>
+ * On Java 21 and later, tasks run on virtual threads, so thousands of concurrent Nova
+ * requests blocked on HTTP only cost a small stack each. On older JVMs, or when configured
+ * so, provider operations run on a cached platform pool and the individual Nova requests
+ * they fan out run on a bounded platform pool.
+ */
+public final class OpenStackExecutors {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OpenStackExecutors.class);
+
+	/**
+	 * Use virtual threads when the JVM supports them, platform threads otherwise.
+	 */
+	public static final String MODE_AUTO = "auto";
+
+	/**
+	 * Use virtual threads, failing over to platform threads with a warning when the JVM
+	 * does not support them.
+	 */
+	public static final String MODE_VIRTUAL = "virtual";
+
+	/**
+	 * Always use platform threads.
+	 */
+	public static final String MODE_PLATFORM = "platform";
+
+	/*
+	 * The executor of the provider operations, created on first use
+	 */
+	private static ListeningExecutorService operationExecutor;
+
+	/*
+	 * The executor of the individual Nova requests, created on first use
+	 */
+	private static ListeningExecutorService requestExecutor;
+
+	private static String mode = MODE_AUTO;
+	private static int maxPlatformThreads = OpenStackTuning.DEFAULTS.getMaxPlatformThreads();
+	private static boolean virtualThreads;
+
+	private OpenStackExecutors() {
+	}
+
+	/**
+	 * Configures the executors from the plugin configuration. When the settings change,
+	 * the executors created with the previous ones finish their tasks and are replaced.
+	 *
+	 * @param openstackConfig the plugin configuration, may be <code>null</code>
+	 */
+	public static synchronized void configure(Config openstackConfig) {
+		String configuredMode = Configurations.getString(openstackConfig, EXECUTOR_MODE, MODE_AUTO);
+		if (!MODE_AUTO.equals(configuredMode) && !MODE_VIRTUAL.equals(configuredMode)
+				&& !MODE_PLATFORM.equals(configuredMode)) {
+			throw new IllegalArgumentException("Unknown " + EXECUTOR_MODE + ": " + configuredMode);
+		}
+		int configuredMaxPlatformThreads = OpenStackTuning.fromConfig(openstackConfig).getMaxPlatformThreads();
+		if (configuredMode.equals(mode) && configuredMaxPlatformThreads == maxPlatformThreads) {
+			// unchanged, keep the running executors
+			return;
+		}
+		mode = configuredMode;
+		maxPlatformThreads = configuredMaxPlatformThreads;
+		if (operationExecutor != null) {
+			operationExecutor.shutdown();
+			operationExecutor = null;
+		}
+		if (requestExecutor != null) {
+			requestExecutor.shutdown();
+			requestExecutor = null;
+		}
+	}
+
+	/**
+	 * Returns the executor of the provider operations, which may block for minutes.
+	 */
+	public static synchronized ListeningExecutorService getOperationExecutor() {
+		if (operationExecutor == null) {
+			ExecutorService executor = newVirtualThreadExecutor("nova-provider-");
+			if (executor == null) {
+				executor = Executors.newCachedThreadPool(platformThreadFactory("nova-provider-%d"));
+			}
+			operationExecutor = MoreExecutors.listeningDecorator(executor);
+		}
+		return operationExecutor;
+	}
+
+	/**
+	 * Returns the executor of the individual Nova requests, bounded when running on
+	 * platform threads.
+	 */
+	public static synchronized ListeningExecutorService getRequestExecutor() {
+		if (requestExecutor == null) {
+			ExecutorService executor = newVirtualThreadExecutor("nova-request-");
+			if (executor == null) {
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+						60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+						platformThreadFactory("nova-request-%d"));
+				pool.allowCoreThreadTimeOut(true);
+				executor = pool;
+			}
+			requestExecutor = MoreExecutors.listeningDecorator(executor);
+		}
+		return requestExecutor;
+	}
+
+	/**
+	 * Returns whether the executors run their tasks on virtual threads.
+	 */
+	public static synchronized boolean isUsingVirtualThreads() {
+		getOperationExecutor();
+		return virtualThreads;
+	}
+
+	/**
+	 * Runs the specified tasks on the request executor, at most <code>parallelism</code>
+	 * at a time, and waits for all of them. Interrupting the calling thread cancels the
+	 * tasks still running.
+	 *
+	 * @param tasks       the tasks
+	 * @param parallelism the maximum number of tasks running at the same time
+	 * @return the results of the tasks, in task order
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 * @throws ExecutionException   if a task failed, once all the tasks are done
+	 */
+	public static <T> List<T> invokeAll(final List<? extends Callable<T>> tasks, int parallelism)
+			throws InterruptedException, ExecutionException {
+		final AtomicReferenceArray<T> results = new AtomicReferenceArray<T>(tasks.size());
+		final Queue<Integer> remaining = new ConcurrentLinkedQueue<Integer>();
+		for (int i = 0; i < tasks.size(); i++) {
+			remaining.add(i);
+		}
+
+		List<Future<?>> workers = Lists.newArrayList();
+		ListeningExecutorService executor = getRequestExecutor();
+		for (int i = 0; i < Math.min(Math.max(1, parallelism), tasks.size()); i++) {
+			workers.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					Integer index;
+					while ((index = remaining.poll()) != null) {
+						results.set(index, tasks.get(index).call());
+					}
+					return null;
+				}
+			}));
+		}
+
+		ExecutionException failure = null;
+		try {
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+		} finally {
+			for (Future<?> worker : workers) {
+				worker.cancel(true);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+
+		List<T> list = Lists.newArrayListWithCapacity(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			list.add(results.get(i));
+		}
+		return list;
+	}
+
+	private static ThreadFactory platformThreadFactory(String nameFormat) {
+		return new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build();
+	}
+
+	/**
+	 * Creates a thread-per-task executor of virtual threads, through reflection since the
+	 * plugin is compiled for older JVMs.
+	 *
+	 * @param namePrefix the name prefix of the threads
+	 * @return the executor, or <code>null</code> if platform threads are configured or the
+	 *         JVM does not support virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+		virtualThreads = false;
+		if (MODE_PLATFORM.equals(mode)) {
+			return null;
+		}
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			ExecutorService executor = (ExecutorService) Executors.class
+					.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			virtualThreads = true;
+			return executor;
+		} catch (ReflectiveOperationException e) {
+			if (MODE_VIRTUAL.equals(mode)) {
+				LOG.warn("Virtual threads are not supported by Java {}, using platform threads",
+						System.getProperty("java.version"));
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import org.jclouds.http.HttpCommand;
+import org.jclouds.http.HttpCommandExecutorService;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpUtils;
+import org.jclouds.http.IOExceptionRetryHandler;
+import org.jclouds.http.config.ConfiguresHttpCommandExecutorService;
+import org.jclouds.http.config.SSLModule;
+import org.jclouds.http.handlers.DelegatingErrorHandler;
+import org.jclouds.http.handlers.DelegatingRetryHandler;
+import org.jclouds.http.internal.HttpWire;
+import org.jclouds.http.internal.JavaUrlHttpCommandExecutorService;
+import org.jclouds.io.ContentMetadataCodec;
+import org.jclouds.io.MutableContentMetadata;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.inject.AbstractModule;
+import com.google.inject.Scopes;
+
+/**
+ * The default HTTP driver of the jclouds APIs. It sends the requests like the jclouds one,
+ * through the JDK connections and their keep-alive pool, but also asks for gzip responses
+ * and decompresses them, and counts the requests and bytes for
+ * {@link OpenStackHttpTransport#getMetrics()}.
+ */
+@Singleton
+public class OpenStackHttpCommandExecutorService extends JavaUrlHttpCommandExecutorService {
+
+	/**
+	 * The jclouds property telling whether the responses are requested compressed.
+	 */
+	public static final String PROPERTY_GZIP = "openstack.http.gzip";
+
+	/**
+	 * The jclouds property telling whether the connections are kept open between requests.
+	 */
+	public static final String PROPERTY_KEEP_ALIVE = "openstack.http.keepAlive";
+
+	/**
+	 * Installs this driver in a jclouds API.
+	 */
+	@ConfiguresHttpCommandExecutorService
+	public static class Module extends AbstractModule {
+
+		@Override
+		protected void configure() {
+			install(new SSLModule());
+			bind(HttpCommandExecutorService.class).to(OpenStackHttpCommandExecutorService.class).in(Scopes.SINGLETON);
+		}
+	}
+
+	private final boolean gzip;
+	private final boolean keepAlive;
+
+	@Inject
+	public OpenStackHttpCommandExecutorService(HttpUtils utils, ContentMetadataCodec contentMetadataCodec,
+			DelegatingRetryHandler retryHandler, IOExceptionRetryHandler ioRetryHandler,
+			DelegatingErrorHandler errorHandler, HttpWire wire, @Named("untrusted") HostnameVerifier verifier,
+			@Named("untrusted") Supplier<SSLContext> untrustedSSLContextProvider, Function<URI, Proxy> proxyForURI,
+			@Named(PROPERTY_GZIP) boolean gzip, @Named(PROPERTY_KEEP_ALIVE) boolean keepAlive) {
+		super(utils, contentMetadataCodec, retryHandler, ioRetryHandler, errorHandler, wire, verifier,
+				untrustedSSLContextProvider, proxyForURI);
+		this.gzip = gzip;
+		this.keepAlive = keepAlive;
+	}
+
+	@Override
+	public HttpResponse invoke(HttpCommand command) {
+		OpenStackHttpTransport.requestStarted();
+		try {
+			return super.invoke(command);
+		} finally {
+			OpenStackHttpTransport.requestFinished();
+		}
+	}
+
+	@Override
+	protected void configureRequestHeaders(HttpURLConnection connection, HttpRequest request) {
+		super.configureRequestHeaders(connection, request);
+		if (gzip) {
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+		}
+		if (!keepAlive) {
+			connection.setRequestProperty("Connection", "close");
+		}
+	}
+
+	@Override
+	protected HttpResponse invoke(HttpURLConnection connection) throws IOException, InterruptedException {
+		HttpResponse response = super.invoke(connection);
+		Payload payload = response.getPayload();
+		if (payload == null || !(payload.getRawContent() instanceof InputStream)) {
+			return response;
+		}
+		MutableContentMetadata metadata = payload.getContentMetadata();
+		InputStream in = new CountingInputStream((InputStream) payload.getRawContent());
+		if ("gzip".equalsIgnoreCase(metadata.getContentEncoding())) {
+			OpenStackHttpTransport.gzipResponseReceived();
+			in = new GZIPInputStream(in);
+			// the parsers see the decompressed content, of unknown length
+			metadata.setContentEncoding(null);
+			metadata.setContentLength(null);
+		}
+		Payload counted = Payloads.newInputStreamPayload(in);
+		counted.setContentMetadata(metadata);
+		return response.toBuilder().payload(counted).build();
+	}
+
+	/**
+	 * Counts the bytes received on the wire, before decompression.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0) {
+				OpenStackHttpTransport.bytesReceived(1);
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				OpenStackHttpTransport.bytesReceived(read);
+			}
+			return read;
+		}
+	}
+}
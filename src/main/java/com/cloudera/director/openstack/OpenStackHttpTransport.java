@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.Constants;
+import org.jclouds.http.config.JavaUrlHttpCommandExecutorServiceModule;
+import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Module;
+
+/**
+ * The HTTP settings of the jclouds APIs built by the plugin: the driver module sending the
+ * requests, its timeouts, connection pool and compression, from the <code>http</code>
+ * settings. The APIs read them when they are built: a change increases the
+ * {@link #getGeneration() generation} of the settings, and the shared APIs are rebuilt on
+ * their next use once it differs from the one they were built with.
+ * <p>
+ * The <code>okhttp</code> and <code>apachehc</code> drivers require the matching jclouds
+ * driver jar on the plugin class path. Any driver that cannot be loaded is replaced by the
+ * default one.
+ */
+public final class OpenStackHttpTransport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OpenStackHttpTransport.class);
+
+	/**
+	 * The driver modules of the jclouds driver aliases.
+	 */
+	private static final Map<String, String> DRIVER_MODULES = ImmutableMap.of(
+			"okhttp", "org.jclouds.http.okhttp.config.OkHttpCommandExecutorServiceModule",
+			"apachehc", "org.jclouds.http.apachehc.config.ApacheHCHttpCommandExecutorServiceModule");
+
+	private static OpenStackTuning tuning = OpenStackTuning.DEFAULTS;
+
+	/*
+	 * The version of the HTTP settings, increased when they change
+	 */
+	private static volatile int generation;
+
+	private static final AtomicLong REQUESTS = new AtomicLong();
+	private static final AtomicLong IN_FLIGHT = new AtomicLong();
+	private static final AtomicLong PEAK_IN_FLIGHT = new AtomicLong();
+	private static final AtomicLong GZIP_RESPONSES = new AtomicLong();
+	private static final AtomicLong BYTES_RECEIVED = new AtomicLong();
+
+	private OpenStackHttpTransport() {
+	}
+
+	/**
+	 * Configures the transport of the jclouds APIs, and increases the generation of the
+	 * settings if they changed. The pool settings only reach the driver module, through
+	 * {@link #getOverrides()}.
+	 *
+	 * @param tuning the settings of the plugin
+	 */
+	public static synchronized void configure(OpenStackTuning tuning) {
+		if (!getOverrides().equals(getOverrides(tuning))
+				|| !tuning.getHttpDriver().equals(OpenStackHttpTransport.tuning.getHttpDriver())) {
+			generation++;
+		}
+		OpenStackHttpTransport.tuning = tuning;
+		LOG.debug("Configured the HTTP transport: driver {}, gzip {}, {} connections per host",
+				tuning.getHttpDriver(), tuning.isHttpGzip(), tuning.getHttpMaxConnectionsPerHost());
+	}
+
+	/**
+	 * Returns the modules of a jclouds API: the logging and the HTTP driver.
+	 */
+	public static synchronized Iterable<Module> getModules() {
+		return ImmutableSet.<Module>of(new SLF4JLoggingModule(), getDriverModule(tuning.getHttpDriver()));
+	}
+
+	/**
+	 * Returns the version of the HTTP settings, which changes whenever they do.
+	 */
+	public static int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the properties of a jclouds API: the timeouts, pool and compression settings.
+	 */
+	public static synchronized Properties getOverrides() {
+		return getOverrides(tuning);
+	}
+
+	private static Properties getOverrides(OpenStackTuning tuning) {
+		Properties overrides = new Properties();
+		overrides.setProperty(Constants.PROPERTY_CONNECTION_TIMEOUT, String.valueOf(tuning.getHttpConnectTimeoutMillis()));
+		overrides.setProperty(Constants.PROPERTY_SO_TIMEOUT, String.valueOf(tuning.getHttpReadTimeoutMillis()));
+		overrides.setProperty(Constants.PROPERTY_MAX_CONNECTIONS_PER_HOST,
+				String.valueOf(tuning.getHttpMaxConnectionsPerHost()));
+		overrides.setProperty(Constants.PROPERTY_MAX_CONNECTIONS_PER_CONTEXT,
+				String.valueOf(tuning.getHttpMaxConnectionsPerHost()));
+		overrides.setProperty(OpenStackHttpCommandExecutorService.PROPERTY_GZIP, String.valueOf(tuning.isHttpGzip()));
+		overrides.setProperty(OpenStackHttpCommandExecutorService.PROPERTY_KEEP_ALIVE,
+				String.valueOf(tuning.isHttpKeepAlive()));
+		return overrides;
+	}
+
+	/**
+	 * Returns the counters of the requests sent through the default driver: requests sent,
+	 * in flight and at most in flight at once, gzip responses and bytes received on the
+	 * wire, with the configured pool size.
+	 */
+	public static Map<String, Long> getMetrics() {
+		long maxConnectionsPerHost;
+		synchronized (OpenStackHttpTransport.class) {
+			maxConnectionsPerHost = tuning.getHttpMaxConnectionsPerHost();
+		}
+		return ImmutableMap.<String, Long>builder()
+				.put("requests", REQUESTS.get())
+				.put("inFlight", IN_FLIGHT.get())
+				.put("peakInFlight", PEAK_IN_FLIGHT.get())
+				.put("gzipResponses", GZIP_RESPONSES.get())
+				.put("bytesReceived", BYTES_RECEIVED.get())
+				.put("maxConnectionsPerHost", maxConnectionsPerHost)
+				.build();
+	}
+
+	static void requestStarted() {
+		REQUESTS.incrementAndGet();
+		long inFlight = IN_FLIGHT.incrementAndGet();
+		long peak = PEAK_IN_FLIGHT.get();
+		while (inFlight > peak && !PEAK_IN_FLIGHT.compareAndSet(peak, inFlight)) {
+			peak = PEAK_IN_FLIGHT.get();
+		}
+	}
+
+	static void requestFinished() {
+		IN_FLIGHT.decrementAndGet();
+	}
+
+	static void gzipResponseReceived() {
+		GZIP_RESPONSES.incrementAndGet();
+	}
+
+	static void bytesReceived(long count) {
+		BYTES_RECEIVED.addAndGet(count);
+	}
+
+	private static Module getDriverModule(String driver) {
+		if (OpenStackTuning.HTTP_DRIVER_DEFAULT.equals(driver)) {
+			return new OpenStackHttpCommandExecutorService.Module();
+		}
+		if (OpenStackTuning.HTTP_DRIVER_JDK.equals(driver)) {
+			return new JavaUrlHttpCommandExecutorServiceModule();
+		}
+		String className = DRIVER_MODULES.containsKey(driver) ? DRIVER_MODULES.get(driver) : driver;
+		try {
+			return Class.forName(className).asSubclass(Module.class).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			LOG.warn("Unable to load the HTTP driver {}, using the default one: {}", driver, e.toString());
+			return new OpenStackHttpCommandExecutorService.Module();
+		}
+	}
+}
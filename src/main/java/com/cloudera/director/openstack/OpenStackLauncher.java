@@ -16,9 +16,14 @@
 package com.cloudera.director.openstack;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Locale;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.nova.NovaApiSupplier;
 import com.cloudera.director.spi.v1.model.Configured;
 import com.cloudera.director.spi.v1.model.LocalizationContext;
 import com.cloudera.director.spi.v1.provider.CloudProvider;
@@ -26,13 +31,19 @@ import com.cloudera.director.spi.v1.provider.util.AbstractLauncher;
 import com.google.common.annotations.VisibleForTesting;
 import com.cloudera.director.spi.v1.common.http.HttpProxyParameters;
 import com.typesafe.config.Config;
-import com.typesafe.config.ConfigFactory;
-import com.typesafe.config.ConfigParseOptions;
-import com.typesafe.config.ConfigSyntax;
 
 public class OpenStackLauncher extends AbstractLauncher {
 	
-	private Config openstackConfig = null;
+	private static final Logger LOG = LoggerFactory.getLogger(OpenStackLauncher.class);
+	
+	private volatile Config openstackConfig = null;
+	
+	/*
+	 * The reloader of the configuration file, null until initialized
+	 */
+	private OpenStackConfigReloader reloader = null;
+	
+	private File configurationDirectory = null;
 	
 	@VisibleForTesting
 	protected Config config = null;
@@ -42,34 +53,51 @@ public class OpenStackLauncher extends AbstractLauncher {
 	}
 	
 	/**
-	 * The config is loaded from a "openstack.conf" file. 
+	 * The config is loaded from a "openstack.conf" file, and reloaded when it changes
+	 * unless <code>reload.enabled</code> is false.
 	 */	
 	@Override
 	public void initialize(File configurationDirectory, HttpProxyParameters httpProxyParameters) {
+		long started = System.currentTimeMillis();
+		this.configurationDirectory = configurationDirectory;
 		File configFile = new File(configurationDirectory, Configurations.CONFIGURATION_FILE_NAME);
 
 	    if (configFile.canRead()) {	    	
 	    	try{
-	    		config = parseConfigFile(configFile);
-	    		openstackConfig = parseConfigFile(configFile);
+	    		openstackConfig = OpenStackConfigReloader.parse(configFile);
+	    		config = openstackConfig;
 	    	} catch(Exception e) {
 	    		throw new RuntimeException(e);
 	    	}
 	    }
-	}
-	
-	/**
-	 * Parses the specified configuration file.
-	 *
-	 * @param configFile the configuration file
-	 * @return the parsed configuration
-	 */
-	private static Config parseConfigFile(File configFile) {
-		ConfigParseOptions options = ConfigParseOptions.defaults()
-				.setSyntax(ConfigSyntax.CONF)
-	            .setAllowMissing(false);
-
-		return ConfigFactory.parseFileAnySyntax(configFile, options);
+	    OpenStackExecutors.configure(openstackConfig);
+	    
+	    if (reloader != null) {
+	    	reloader.stop();
+	    }
+	    // Fail fast on invalid settings rather than on the first allocation
+	    reloader = new OpenStackConfigReloader(configFile, openstackConfig);
+	    OpenStackHttpTransport.configure(reloader.get());
+	    reloader.addListener(new OpenStackConfigReloader.Listener() {
+	    	@Override
+	    	public void reloaded(Config openstackConfig, OpenStackTuning tuning) {
+	    		OpenStackLauncher.this.openstackConfig = openstackConfig;
+	    		OpenStackExecutors.configure(openstackConfig);
+	    		OpenStackHttpTransport.configure(tuning);
+	    	}
+	    });
+	    if (Configurations.getBoolean(openstackConfig, Configurations.RELOAD_ENABLED, true)
+	    		&& configurationDirectory != null && configurationDirectory.isDirectory()) {
+	    	try {
+	    		reloader.start();
+	    	} catch (IOException e) {
+	    		LOG.warn("Unable to watch " + configFile + ", changes require a restart", e);
+	    	}
+	    }
+	    if (reloader.get().isPrewarmEnabled()) {
+	    	NovaApiSupplier.prewarmClasses();
+	    }
+	    LOG.info("Initialized the OpenStack plugin in {} ms", System.currentTimeMillis() - started);
 	}
 
 	public CloudProvider createCloudProvider(String cloudProviderId,
@@ -84,7 +112,8 @@ public class OpenStackLauncher extends AbstractLauncher {
 	    // At this point the configuration object will already contain
 	    // the required data for authentication.	
 		
-		return  new OpenStackProvider(configuration, openstackConfig, localizationContext);
+		return  new OpenStackProvider(configuration, openstackConfig, reloader, configurationDirectory,
+				localizationContext);
 	}
 
 }
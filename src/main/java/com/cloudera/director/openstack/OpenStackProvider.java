@@ -15,12 +15,14 @@
  */
 package com.cloudera.director.openstack;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.cloudera.director.openstack.nova.NovaApiSupplier;
 import com.cloudera.director.openstack.nova.NovaProvider;
 import com.cloudera.director.openstack.nova.NovaProviderConfigurationValidator;
 import com.cloudera.director.spi.v1.model.ConfigurationProperty;
@@ -34,6 +36,7 @@ import com.cloudera.director.spi.v1.provider.ResourceProvider;
 import com.cloudera.director.spi.v1.provider.ResourceProviderMetadata;
 import com.cloudera.director.spi.v1.provider.util.AbstractCloudProvider;
 import com.cloudera.director.spi.v1.provider.util.SimpleCloudProviderMetadataBuilder;
+import com.google.common.base.Supplier;
 import com.typesafe.config.Config;
 
 public class OpenStackProvider extends AbstractCloudProvider {
@@ -52,6 +55,8 @@ public class OpenStackProvider extends AbstractCloudProvider {
 	
 	private OpenStackCredentials credentials;
 	private Config openstackConfig;
+	private Supplier<OpenStackTuning> tuning;
+	private File configurationDirectory;
 	
 	
 	protected OpenStackCredentials getOpenStackCredentials(Configured configuration,
@@ -75,11 +80,17 @@ public class OpenStackProvider extends AbstractCloudProvider {
 			.resourceProviderMetadata(RESOURCE_PROVIDER_METADATA)
 			.build();
 
-	public OpenStackProvider(Configured configuration, Config openstackConfig,
-			LocalizationContext rootLocalizationContext) {
+	public OpenStackProvider(Configured configuration, Config openstackConfig, Supplier<OpenStackTuning> tuning,
+			File configurationDirectory, LocalizationContext rootLocalizationContext) {
 		super(METADATA, rootLocalizationContext);
 		this.openstackConfig = openstackConfig;
+		this.tuning = tuning;
+		this.configurationDirectory = configurationDirectory;
 		this.credentials = getOpenStackCredentials(configuration, rootLocalizationContext);
+		if (tuning.get().isPrewarmEnabled()) {
+			// Authenticate while Director prepares its first call
+			NovaApiSupplier.forCredentials(credentials).prewarm();
+		}
 	}
 
 	@Override
@@ -104,7 +115,7 @@ public class OpenStackProvider extends AbstractCloudProvider {
 				 getProviderMetadata().getResourceProviderMetadata(resourceProviderId);
 		if (resourceProviderMetadata.getId().equals(NovaProvider.METADATA.getId())) {
 			return new NovaProvider(configuration, this.credentials, this.openstackConfig,
-			   getLocalizationContext());
+			   this.tuning, this.configurationDirectory, getLocalizationContext());
 		}
 		
 		//TODO: add trove provider later
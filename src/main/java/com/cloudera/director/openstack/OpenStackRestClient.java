@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * The JSON over HTTP transport of the plugin's own clients of one OpenStack service in one
+ * region. Requests are authenticated with the Keystone token of the credentials, renewed
+ * once when the service rejects it. Responses are decoded while they are read, and are
+ * always read to the end so that the connection is kept alive and reused by the next
+ * request to the same endpoint.
+ */
+public abstract class OpenStackRestClient {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OpenStackRestClient.class);
+
+	/**
+	 * The maximum length of an error response kept in an exception message.
+	 */
+	private static final int MAX_ERROR_LENGTH = 1024;
+
+	/**
+	 * Decodes a response body.
+	 *
+	 * @param <T> the type of the decoded response
+	 */
+	public interface ResponseDecoder<T> {
+
+		/**
+		 * Decodes the response.
+		 *
+		 * @param reader the reader of the response body
+		 * @return the decoded response
+		 * @throws IOException if the response cannot be read or is malformed
+		 */
+		T decode(JsonReader reader) throws IOException;
+	}
+
+	private final OpenStackAccess access;
+	private final String serviceType;
+	private final String region;
+	private final String versionPath;
+
+	/*
+	 * The endpoint, versioned and without trailing slash, looked up in the service catalog
+	 * on first use
+	 */
+	private volatile String endpoint;
+
+	private volatile int connectTimeoutMillis;
+	private volatile int readTimeoutMillis;
+
+	/**
+	 * Creates a client.
+	 *
+	 * @param access      the Keystone access
+	 * @param serviceType the service type in the catalog, e.g. <code>network</code>
+	 * @param region      the region
+	 * @param versionPath the path of the API version appended to the endpoint unless
+	 *                    already there, empty for none
+	 * @param endpoint    the service endpoint, or <code>null</code> to look it up in the catalog
+	 */
+	protected OpenStackRestClient(OpenStackAccess access, String serviceType, String region, String versionPath,
+			URI endpoint) {
+		this.access = access;
+		this.serviceType = serviceType;
+		this.region = region;
+		this.versionPath = versionPath;
+		this.endpoint = (endpoint == null) ? null : versioned(endpoint);
+	}
+
+	public OpenStackAccess getAccess() {
+		return access;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	/**
+	 * Applies the request timeouts.
+	 *
+	 * @param connectTimeoutMillis the connect timeout
+	 * @param readTimeoutMillis    the read timeout
+	 */
+	protected void setTimeouts(long connectTimeoutMillis, long readTimeoutMillis) {
+		this.connectTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, connectTimeoutMillis);
+		this.readTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, readTimeoutMillis);
+	}
+
+	/**
+	 * Returns the exception of a request the service rejected.
+	 *
+	 * @param message    the message
+	 * @param statusCode the HTTP status code of the response
+	 * @return the exception
+	 */
+	protected abstract RuntimeException rejected(String message, int statusCode);
+
+	/**
+	 * Returns the exception of a request that could not reach the service.
+	 *
+	 * @param message the message
+	 * @param cause   the failure
+	 * @return the exception
+	 */
+	protected abstract RuntimeException unreachable(String message, IOException cause);
+
+	/**
+	 * Sends a request, renewing the token once if the service rejects it.
+	 *
+	 * @param method  the HTTP method
+	 * @param path    the path relative to the endpoint, with its query string
+	 * @param body    the request body, or <code>null</code>
+	 * @param decoder the decoder of the response body, or <code>null</code> to ignore it
+	 * @param <T>     the type of the decoded response
+	 * @return the decoded response, or <code>null</code> if empty
+	 * @throws RuntimeException the {@link #rejected} or {@link #unreachable} exception if
+	 *                          the service rejects the request or cannot be reached
+	 */
+	public <T> T request(String method, String path, JsonObject body, ResponseDecoder<T> decoder) {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(getEndpoint() + path).openConnection();
+				connection.setRequestMethod(method);
+				connection.setConnectTimeout(connectTimeoutMillis);
+				connection.setReadTimeout(readTimeoutMillis);
+				connection.setRequestProperty("X-Auth-Token", access.getToken());
+				connection.setRequestProperty("Accept", "application/json");
+				connection.setRequestProperty("Accept-Encoding", "gzip");
+				if (body != null) {
+					connection.setDoOutput(true);
+					connection.setRequestProperty("Content-Type", "application/json");
+					OutputStream out = connection.getOutputStream();
+					try {
+						out.write(body.toString().getBytes(Charsets.UTF_8));
+					} finally {
+						out.close();
+					}
+				}
+
+				int status = connection.getResponseCode();
+				if (status == HttpURLConnection.HTTP_UNAUTHORIZED && attempt == 0) {
+					discard(connection.getErrorStream());
+					access.invalidate();
+					continue;
+				}
+				if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+					throw rejected(method + " " + path + " failed with status " + status + ": "
+							+ readError(connection), status);
+				}
+				return decode(connection, decoder);
+			} catch (IOException e) {
+				throw unreachable(method + " " + path + " failed", e);
+			}
+		}
+	}
+
+	/**
+	 * URL-encodes a path segment or query parameter.
+	 *
+	 * @param value the value
+	 * @return the encoded value
+	 */
+	public static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, Charsets.UTF_8.name());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static <T> T decode(HttpURLConnection connection, ResponseDecoder<T> decoder) throws IOException {
+		if (decoder == null || connection.getResponseCode() == HttpURLConnection.HTTP_NO_CONTENT) {
+			discard(connection.getInputStream());
+			return null;
+		}
+		PushbackInputStream in = new PushbackInputStream(getInputStream(connection, connection.getInputStream()));
+		try {
+			int first = in.read();
+			if (first == -1) {
+				return null;
+			}
+			in.unread(first);
+			JsonReader reader = new JsonReader(new InputStreamReader(in, Charsets.UTF_8));
+			T decoded = decoder.decode(reader);
+			// let the connection be reused
+			ByteStreams.copy(in, ByteStreams.nullOutputStream());
+			return decoded;
+		} finally {
+			Closeables.close(in, true);
+		}
+	}
+
+	private static String readError(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getErrorStream();
+		if (in == null) {
+			return "";
+		}
+		Reader reader = new InputStreamReader(getInputStream(connection, in), Charsets.UTF_8);
+		try {
+			String error = CharStreams.toString(reader);
+			return (error.length() > MAX_ERROR_LENGTH) ? error.substring(0, MAX_ERROR_LENGTH) + "..." : error;
+		} finally {
+			Closeables.close(reader, true);
+		}
+	}
+
+	private static InputStream getInputStream(HttpURLConnection connection, InputStream in) throws IOException {
+		return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(in) : in;
+	}
+
+	private static void discard(InputStream in) {
+		if (in == null) {
+			return;
+		}
+		try {
+			ByteStreams.copy(in, ByteStreams.nullOutputStream());
+			in.close();
+		} catch (IOException e) {
+			LOG.debug("Unable to read the rejected response", e);
+		}
+	}
+
+	private String getEndpoint() {
+		if (endpoint == null) {
+			endpoint = versioned(access.getEndpoint(serviceType, region));
+		}
+		return endpoint;
+	}
+
+	private String versioned(URI endpoint) {
+		String url = endpoint.toString();
+		while (url.endsWith("/")) {
+			url = url.substring(0, url.length() - 1);
+		}
+		return (versionPath.isEmpty() || url.endsWith(versionPath)) ? url : url + versionPath;
+	}
+}
@@ -0,0 +1,581 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import static com.cloudera.director.openstack.Configurations.EXECUTOR_MAX_PLATFORM_THREADS;
+import static com.cloudera.director.openstack.Configurations.HTTP_CONNECT_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.HTTP_DRIVER;
+import static com.cloudera.director.openstack.Configurations.HTTP_GZIP;
+import static com.cloudera.director.openstack.Configurations.HTTP_KEEP_ALIVE;
+import static com.cloudera.director.openstack.Configurations.HTTP_MAX_CONNECTIONS_PER_HOST;
+import static com.cloudera.director.openstack.Configurations.HTTP_READ_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NEUTRON_CONNECT_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NEUTRON_PORTS_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NEUTRON_READ_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_ALLOCATE_FLOATING_IP_PARALLELISM;
+import static com.cloudera.director.openstack.Configurations.NOVA_ALLOCATE_IP_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_ALLOCATE_POLL_INTERVAL;
+import static com.cloudera.director.openstack.Configurations.NOVA_ENGINE;
+import static com.cloudera.director.openstack.Configurations.NOVA_FLEET_SNAPSHOT_DIRECTORY;
+import static com.cloudera.director.openstack.Configurations.NOVA_FLEET_SNAPSHOT_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NOVA_FLEET_SNAPSHOT_INTERVAL;
+import static com.cloudera.director.openstack.Configurations.NOVA_JOURNAL_DIRECTORY;
+import static com.cloudera.director.openstack.Configurations.NOVA_JOURNAL_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NOVA_NOTIFICATIONS_EXCHANGE;
+import static com.cloudera.director.openstack.Configurations.NOVA_NOTIFICATIONS_TOPIC;
+import static com.cloudera.director.openstack.Configurations.NOVA_NOTIFICATIONS_URI;
+import static com.cloudera.director.openstack.Configurations.NOVA_PREWARM_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_ATTEMPT_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_PORT;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_RETRY_DELAY;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_SSHJ_CHECK;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_SSHJ_PARALLELISM;
+import static com.cloudera.director.openstack.Configurations.NOVA_READINESS_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_READS_MAX_PER_SECOND;
+import static com.cloudera.director.openstack.Configurations.NOVA_REST_CONNECT_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_REST_READ_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_RECONCILER_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NOVA_RECONCILER_IDLE_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_RECONCILER_INTERVAL;
+import static com.cloudera.director.openstack.Configurations.NOVA_RECONCILER_MAX_STALENESS;
+import static com.cloudera.director.openstack.Configurations.NOVA_ROLLBACK_PARALLELISM;
+import static com.cloudera.director.openstack.Configurations.NOVA_STANDBY_ENABLED;
+import static com.cloudera.director.openstack.Configurations.NOVA_STANDBY_IDLE_TIMEOUT;
+import static com.cloudera.director.openstack.Configurations.NOVA_STANDBY_INTERVAL;
+import static com.cloudera.director.openstack.Configurations.NOVA_STANDBY_MAX_SIZE;
+import static com.cloudera.director.openstack.Configurations.NOVA_STANDBY_SIZE;
+import static com.cloudera.director.openstack.Configurations.NOVA_SYNC_CHANGES_SINCE_OVERLAP;
+import static com.cloudera.director.openstack.Configurations.NOVA_SYNC_FULL_INTERVAL;
+import static com.cloudera.director.openstack.Configurations.TUNING_REGIONS;
+import static com.cloudera.director.openstack.Configurations.TUNING_TEMPLATES;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigUtil;
+
+/**
+ * The validated performance settings of the plugin: concurrency limits, polling, timeouts,
+ * rate limits and pool sizes, read from <code>openstack-plugin.conf</code>.
+ * <p>
+ * Any setting can be overridden for one region in a <code>regions."&lt;region&gt;"</code>
+ * section, and the allocation settings for one instance template in a
+ * <code>templates."&lt;template name&gt;"</code> section, with the same paths as at the
+ * root of the file.
+ */
+public final class OpenStackTuning {
+
+	/**
+	 * The Nova engine sending the requests through jclouds.
+	 */
+	public static final String NOVA_ENGINE_JCLOUDS = "jclouds";
+
+	/**
+	 * The Nova engine sending the requests through the plugin's own REST client.
+	 */
+	public static final String NOVA_ENGINE_REST = "rest";
+
+	/**
+	 * The plugin's HTTP driver, with pooled connections and gzip.
+	 */
+	public static final String HTTP_DRIVER_DEFAULT = "default";
+
+	/**
+	 * The plain jclouds HTTP driver.
+	 */
+	public static final String HTTP_DRIVER_JDK = "jdk";
+
+	private static final int DEFAULT_MAX_PLATFORM_THREADS = 32;
+
+	private static final long DEFAULT_NOVA_REST_CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final long DEFAULT_NOVA_REST_READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(120);
+
+	private static final int DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST = 32;
+	private static final long DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+	private static final long DEFAULT_HTTP_READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+	private static final long DEFAULT_ALLOCATE_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	private static final long DEFAULT_ALLOCATE_IP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(180);
+	private static final int DEFAULT_ROLLBACK_PARALLELISM = 8;
+	private static final int DEFAULT_FLOATING_IP_PARALLELISM = 16;
+
+	private static final long DEFAULT_FULL_SYNC_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	private static final long DEFAULT_CHANGES_SINCE_OVERLAP_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	private static final double DEFAULT_MAX_READS_PER_SECOND = 0;
+
+	private static final long DEFAULT_RECONCILER_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(15);
+	private static final long DEFAULT_RECONCILER_MAX_STALENESS_MILLIS = TimeUnit.SECONDS.toMillis(60);
+	private static final long DEFAULT_RECONCILER_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private static final int DEFAULT_STANDBY_SIZE = 2;
+	private static final int DEFAULT_STANDBY_MAX_SIZE = 20;
+	private static final long DEFAULT_STANDBY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final long DEFAULT_STANDBY_IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static final int DEFAULT_READINESS_PORT = 22;
+	private static final long DEFAULT_READINESS_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	private static final long DEFAULT_READINESS_ATTEMPT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+	private static final long DEFAULT_READINESS_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(3);
+	private static final int DEFAULT_READINESS_SSHJ_PARALLELISM = 8;
+
+	private static final long DEFAULT_FLEET_SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private static final String DEFAULT_NOTIFICATIONS_EXCHANGE = "nova";
+	private static final String DEFAULT_NOTIFICATIONS_TOPIC = "versioned_notifications";
+
+	private static final long DEFAULT_NEUTRON_CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final long DEFAULT_NEUTRON_READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(120);
+
+	/**
+	 * The default settings.
+	 */
+	public static final OpenStackTuning DEFAULTS = fromConfig(null);
+
+	/**
+	 * Reads the settings of the plugin configuration.
+	 *
+	 * @param openstackConfig the plugin configuration, may be <code>null</code>
+	 * @return the validated settings
+	 * @throws ConfigException if a setting is invalid
+	 */
+	public static OpenStackTuning fromConfig(Config openstackConfig) {
+		return new OpenStackTuning((openstackConfig == null) ? ConfigFactory.empty() : openstackConfig);
+	}
+
+	/*
+	 * The configuration the settings were read from, overrides included
+	 */
+	private final Config config;
+
+	private final int maxPlatformThreads;
+	private final boolean prewarmEnabled;
+	private final String novaEngine;
+	private final long novaRestConnectTimeoutMillis;
+	private final long novaRestReadTimeoutMillis;
+
+	private final String httpDriver;
+	private final boolean httpGzip;
+	private final boolean httpKeepAlive;
+	private final int httpMaxConnectionsPerHost;
+	private final long httpConnectTimeoutMillis;
+	private final long httpReadTimeoutMillis;
+
+	private final long allocatePollIntervalMillis;
+	private final long allocateIpTimeoutMillis;
+	private final int rollbackParallelism;
+	private final int floatingIpParallelism;
+
+	private final long fullSyncIntervalMillis;
+	private final long changesSinceOverlapMillis;
+	private final double maxReadsPerSecond;
+
+	private final boolean reconcilerEnabled;
+	private final long reconcilerIntervalMillis;
+	private final long reconcilerMaxStalenessMillis;
+	private final long reconcilerIdleTimeoutMillis;
+
+	private final boolean standbyEnabled;
+	private final int standbySize;
+	private final int standbyMaxSize;
+	private final long standbyIntervalMillis;
+	private final long standbyIdleTimeoutMillis;
+
+	private final boolean readinessEnabled;
+	private final int readinessPort;
+	private final long readinessTimeoutMillis;
+	private final long readinessAttemptTimeoutMillis;
+	private final long readinessRetryDelayMillis;
+	private final boolean readinessSshjCheck;
+	private final int readinessSshjParallelism;
+
+	private final boolean journalEnabled;
+	private final String journalDirectory;
+
+	private final boolean fleetSnapshotEnabled;
+	private final String fleetSnapshotDirectory;
+	private final long fleetSnapshotIntervalMillis;
+
+	private final String notificationsUri;
+	private final String notificationsExchange;
+	private final String notificationsTopic;
+
+	private final boolean neutronPortsEnabled;
+	private final long neutronConnectTimeoutMillis;
+	private final long neutronReadTimeoutMillis;
+
+	private OpenStackTuning(Config config) {
+		this.config = config;
+
+		maxPlatformThreads = getPositiveInt(EXECUTOR_MAX_PLATFORM_THREADS, DEFAULT_MAX_PLATFORM_THREADS);
+		prewarmEnabled = Configurations.getBoolean(config, NOVA_PREWARM_ENABLED, true);
+		novaEngine = config.hasPath(NOVA_ENGINE) ? config.getString(NOVA_ENGINE) : NOVA_ENGINE_JCLOUDS;
+		check(NOVA_ENGINE_JCLOUDS.equals(novaEngine) || NOVA_ENGINE_REST.equals(novaEngine), NOVA_ENGINE,
+				"must be " + NOVA_ENGINE_JCLOUDS + " or " + NOVA_ENGINE_REST);
+		novaRestConnectTimeoutMillis = getPositiveDuration(NOVA_REST_CONNECT_TIMEOUT,
+				DEFAULT_NOVA_REST_CONNECT_TIMEOUT_MILLIS);
+		novaRestReadTimeoutMillis = getPositiveDuration(NOVA_REST_READ_TIMEOUT, DEFAULT_NOVA_REST_READ_TIMEOUT_MILLIS);
+
+		httpDriver = config.hasPath(HTTP_DRIVER) ? config.getString(HTTP_DRIVER).trim() : HTTP_DRIVER_DEFAULT;
+		check(!httpDriver.isEmpty(), HTTP_DRIVER, "must not be empty");
+		httpGzip = Configurations.getBoolean(config, HTTP_GZIP, true);
+		httpKeepAlive = Configurations.getBoolean(config, HTTP_KEEP_ALIVE, true);
+		httpMaxConnectionsPerHost = getPositiveInt(HTTP_MAX_CONNECTIONS_PER_HOST, DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST);
+		httpConnectTimeoutMillis = getPositiveDuration(HTTP_CONNECT_TIMEOUT, DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS);
+		httpReadTimeoutMillis = getPositiveDuration(HTTP_READ_TIMEOUT, DEFAULT_HTTP_READ_TIMEOUT_MILLIS);
+
+		allocatePollIntervalMillis = getPositiveDuration(NOVA_ALLOCATE_POLL_INTERVAL,
+				DEFAULT_ALLOCATE_POLL_INTERVAL_MILLIS);
+		allocateIpTimeoutMillis = getPositiveDuration(NOVA_ALLOCATE_IP_TIMEOUT, DEFAULT_ALLOCATE_IP_TIMEOUT_MILLIS);
+		rollbackParallelism = getPositiveInt(NOVA_ROLLBACK_PARALLELISM, DEFAULT_ROLLBACK_PARALLELISM);
+		floatingIpParallelism = getPositiveInt(NOVA_ALLOCATE_FLOATING_IP_PARALLELISM, DEFAULT_FLOATING_IP_PARALLELISM);
+
+		fullSyncIntervalMillis = getPositiveDuration(NOVA_SYNC_FULL_INTERVAL, DEFAULT_FULL_SYNC_INTERVAL_MILLIS);
+		changesSinceOverlapMillis = getDuration(NOVA_SYNC_CHANGES_SINCE_OVERLAP, DEFAULT_CHANGES_SINCE_OVERLAP_MILLIS);
+		maxReadsPerSecond = config.hasPath(NOVA_READS_MAX_PER_SECOND)
+				? config.getDouble(NOVA_READS_MAX_PER_SECOND) : DEFAULT_MAX_READS_PER_SECOND;
+		check(maxReadsPerSecond >= 0, NOVA_READS_MAX_PER_SECOND, "must not be negative");
+
+		reconcilerEnabled = Configurations.getBoolean(config, NOVA_RECONCILER_ENABLED, false);
+		reconcilerIntervalMillis = getPositiveDuration(NOVA_RECONCILER_INTERVAL, DEFAULT_RECONCILER_INTERVAL_MILLIS);
+		reconcilerMaxStalenessMillis = getPositiveDuration(NOVA_RECONCILER_MAX_STALENESS,
+				DEFAULT_RECONCILER_MAX_STALENESS_MILLIS);
+		reconcilerIdleTimeoutMillis = getPositiveDuration(NOVA_RECONCILER_IDLE_TIMEOUT,
+				DEFAULT_RECONCILER_IDLE_TIMEOUT_MILLIS);
+
+		standbyEnabled = Configurations.getBoolean(config, NOVA_STANDBY_ENABLED, false);
+		standbySize = getInt(NOVA_STANDBY_SIZE, DEFAULT_STANDBY_SIZE);
+		standbyMaxSize = getInt(NOVA_STANDBY_MAX_SIZE, DEFAULT_STANDBY_MAX_SIZE);
+		standbyIntervalMillis = getPositiveDuration(NOVA_STANDBY_INTERVAL, DEFAULT_STANDBY_INTERVAL_MILLIS);
+		standbyIdleTimeoutMillis = getPositiveDuration(NOVA_STANDBY_IDLE_TIMEOUT, DEFAULT_STANDBY_IDLE_TIMEOUT_MILLIS);
+
+		readinessEnabled = Configurations.getBoolean(config, NOVA_READINESS_ENABLED, false);
+		readinessPort = getPositiveInt(NOVA_READINESS_PORT, DEFAULT_READINESS_PORT);
+		check(readinessPort <= 65535, NOVA_READINESS_PORT, "must be a TCP port");
+		readinessTimeoutMillis = getPositiveDuration(NOVA_READINESS_TIMEOUT, DEFAULT_READINESS_TIMEOUT_MILLIS);
+		readinessAttemptTimeoutMillis = getPositiveDuration(NOVA_READINESS_ATTEMPT_TIMEOUT,
+				DEFAULT_READINESS_ATTEMPT_TIMEOUT_MILLIS);
+		readinessRetryDelayMillis = getDuration(NOVA_READINESS_RETRY_DELAY, DEFAULT_READINESS_RETRY_DELAY_MILLIS);
+		readinessSshjCheck = Configurations.getBoolean(config, NOVA_READINESS_SSHJ_CHECK, false);
+		readinessSshjParallelism = getPositiveInt(NOVA_READINESS_SSHJ_PARALLELISM, DEFAULT_READINESS_SSHJ_PARALLELISM);
+
+		journalEnabled = Configurations.getBoolean(config, NOVA_JOURNAL_ENABLED, true);
+		journalDirectory = Configurations.getString(config, NOVA_JOURNAL_DIRECTORY, null);
+
+		fleetSnapshotEnabled = Configurations.getBoolean(config, NOVA_FLEET_SNAPSHOT_ENABLED, true);
+		fleetSnapshotDirectory = Configurations.getString(config, NOVA_FLEET_SNAPSHOT_DIRECTORY, null);
+		fleetSnapshotIntervalMillis = getPositiveDuration(NOVA_FLEET_SNAPSHOT_INTERVAL,
+				DEFAULT_FLEET_SNAPSHOT_INTERVAL_MILLIS);
+
+		notificationsUri = Configurations.getString(config, NOVA_NOTIFICATIONS_URI, null);
+		notificationsExchange = Configurations.getString(config, NOVA_NOTIFICATIONS_EXCHANGE,
+				DEFAULT_NOTIFICATIONS_EXCHANGE);
+		notificationsTopic = Configurations.getString(config, NOVA_NOTIFICATIONS_TOPIC, DEFAULT_NOTIFICATIONS_TOPIC);
+
+		neutronPortsEnabled = Configurations.getBoolean(config, NEUTRON_PORTS_ENABLED, false);
+		neutronConnectTimeoutMillis = getPositiveDuration(NEUTRON_CONNECT_TIMEOUT,
+				DEFAULT_NEUTRON_CONNECT_TIMEOUT_MILLIS);
+		neutronReadTimeoutMillis = getPositiveDuration(NEUTRON_READ_TIMEOUT, DEFAULT_NEUTRON_READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Returns the settings of the specified region, with its overrides.
+	 *
+	 * @param region the region
+	 * @return the settings of the region
+	 * @throws ConfigException if an override is invalid
+	 */
+	public OpenStackTuning forRegion(String region) {
+		return withOverrides(ConfigUtil.joinPath(TUNING_REGIONS, region));
+	}
+
+	/**
+	 * Returns the settings of the specified instance template, with its overrides. Only
+	 * the settings used by allocations are read per template.
+	 *
+	 * @param templateName the name of the instance template, may be <code>null</code>
+	 * @return the settings of the template
+	 * @throws ConfigException if an override is invalid
+	 */
+	public OpenStackTuning forTemplate(String templateName) {
+		return (templateName == null) ? this : withOverrides(ConfigUtil.joinPath(TUNING_TEMPLATES, templateName));
+	}
+
+	private OpenStackTuning withOverrides(String path) {
+		if (!config.hasPath(path)) {
+			return this;
+		}
+		return new OpenStackTuning(config.getConfig(path).withFallback(config));
+	}
+
+	public int getMaxPlatformThreads() {
+		return maxPlatformThreads;
+	}
+
+	public boolean isPrewarmEnabled() {
+		return prewarmEnabled;
+	}
+
+	/**
+	 * Returns the Nova engine, {@link #NOVA_ENGINE_JCLOUDS} or {@link #NOVA_ENGINE_REST}.
+	 */
+	public String getNovaEngine() {
+		return novaEngine;
+	}
+
+	public long getNovaRestConnectTimeoutMillis() {
+		return novaRestConnectTimeoutMillis;
+	}
+
+	public long getNovaRestReadTimeoutMillis() {
+		return novaRestReadTimeoutMillis;
+	}
+
+	/**
+	 * Returns the HTTP driver of the jclouds APIs, {@link #HTTP_DRIVER_DEFAULT},
+	 * {@link #HTTP_DRIVER_JDK}, an alias or the class name of a jclouds driver module.
+	 */
+	public String getHttpDriver() {
+		return httpDriver;
+	}
+
+	public boolean isHttpGzip() {
+		return httpGzip;
+	}
+
+	public boolean isHttpKeepAlive() {
+		return httpKeepAlive;
+	}
+
+	public int getHttpMaxConnectionsPerHost() {
+		return httpMaxConnectionsPerHost;
+	}
+
+	public long getHttpConnectTimeoutMillis() {
+		return httpConnectTimeoutMillis;
+	}
+
+	public long getHttpReadTimeoutMillis() {
+		return httpReadTimeoutMillis;
+	}
+
+	public long getAllocatePollIntervalMillis() {
+		return allocatePollIntervalMillis;
+	}
+
+	public long getAllocateIpTimeoutMillis() {
+		return allocateIpTimeoutMillis;
+	}
+
+	public int getRollbackParallelism() {
+		return rollbackParallelism;
+	}
+
+	public int getFloatingIpParallelism() {
+		return floatingIpParallelism;
+	}
+
+	public long getFullSyncIntervalMillis() {
+		return fullSyncIntervalMillis;
+	}
+
+	public long getChangesSinceOverlapMillis() {
+		return changesSinceOverlapMillis;
+	}
+
+	/**
+	 * Returns the maximum number of Nova reads per second and region, 0 for no limit.
+	 */
+	public double getMaxReadsPerSecond() {
+		return maxReadsPerSecond;
+	}
+
+	public boolean isReconcilerEnabled() {
+		return reconcilerEnabled;
+	}
+
+	public long getReconcilerIntervalMillis() {
+		return reconcilerIntervalMillis;
+	}
+
+	public long getReconcilerMaxStalenessMillis() {
+		return reconcilerMaxStalenessMillis;
+	}
+
+	public long getReconcilerIdleTimeoutMillis() {
+		return reconcilerIdleTimeoutMillis;
+	}
+
+	public boolean isStandbyEnabled() {
+		return standbyEnabled;
+	}
+
+	public int getStandbySize() {
+		return standbySize;
+	}
+
+	public int getStandbyMaxSize() {
+		return standbyMaxSize;
+	}
+
+	public long getStandbyIntervalMillis() {
+		return standbyIntervalMillis;
+	}
+
+	public long getStandbyIdleTimeoutMillis() {
+		return standbyIdleTimeoutMillis;
+	}
+
+	public boolean isReadinessEnabled() {
+		return readinessEnabled;
+	}
+
+	public int getReadinessPort() {
+		return readinessPort;
+	}
+
+	public long getReadinessTimeoutMillis() {
+		return readinessTimeoutMillis;
+	}
+
+	public long getReadinessAttemptTimeoutMillis() {
+		return readinessAttemptTimeoutMillis;
+	}
+
+	public long getReadinessRetryDelayMillis() {
+		return readinessRetryDelayMillis;
+	}
+
+	public boolean isReadinessSshjCheck() {
+		return readinessSshjCheck;
+	}
+
+	public int getReadinessSshjParallelism() {
+		return readinessSshjParallelism;
+	}
+
+	public boolean isJournalEnabled() {
+		return journalEnabled;
+	}
+
+	/**
+	 * Returns the directory of the allocation journal, <code>null</code> for the plugin
+	 * configuration directory.
+	 */
+	public String getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	public boolean isFleetSnapshotEnabled() {
+		return fleetSnapshotEnabled;
+	}
+
+	/**
+	 * Returns the directory of the fleet snapshots, <code>null</code> for the plugin
+	 * configuration directory.
+	 */
+	public String getFleetSnapshotDirectory() {
+		return fleetSnapshotDirectory;
+	}
+
+	public long getFleetSnapshotIntervalMillis() {
+		return fleetSnapshotIntervalMillis;
+	}
+
+	/**
+	 * Returns the AMQP URI of the Nova notifications, <code>null</code> when notifications
+	 * are not used.
+	 */
+	public String getNotificationsUri() {
+		return notificationsUri;
+	}
+
+	public String getNotificationsExchange() {
+		return notificationsExchange;
+	}
+
+	public String getNotificationsTopic() {
+		return notificationsTopic;
+	}
+
+	public boolean isNeutronPortsEnabled() {
+		return neutronPortsEnabled;
+	}
+
+	public long getNeutronConnectTimeoutMillis() {
+		return neutronConnectTimeoutMillis;
+	}
+
+	public long getNeutronReadTimeoutMillis() {
+		return neutronReadTimeoutMillis;
+	}
+
+	private int getInt(String path, int defaultValue) {
+		int value = Configurations.getInt(config, path, defaultValue);
+		check(value >= 0, path, "must not be negative");
+		return value;
+	}
+
+	private int getPositiveInt(String path, int defaultValue) {
+		int value = Configurations.getInt(config, path, defaultValue);
+		check(value > 0, path, "must be positive");
+		return value;
+	}
+
+	private long getDuration(String path, long defaultMillis) {
+		long value = Configurations.getDuration(config, path, TimeUnit.MILLISECONDS, defaultMillis);
+		check(value >= 0, path, "must not be negative");
+		return value;
+	}
+
+	private long getPositiveDuration(String path, long defaultMillis) {
+		long value = Configurations.getDuration(config, path, TimeUnit.MILLISECONDS, defaultMillis);
+		check(value > 0, path, "must be positive");
+		return value;
+	}
+
+	private static void check(boolean valid, String path, String message) {
+		if (!valid) {
+			throw new ConfigException.BadValue(path, message);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("maxPlatformThreads", maxPlatformThreads)
+				.add("novaEngine", novaEngine)
+				.add("httpDriver", httpDriver)
+				.add("httpGzip", httpGzip)
+				.add("httpMaxConnectionsPerHost", httpMaxConnectionsPerHost)
+				.add("allocatePollIntervalMillis", allocatePollIntervalMillis)
+				.add("allocateIpTimeoutMillis", allocateIpTimeoutMillis)
+				.add("rollbackParallelism", rollbackParallelism)
+				.add("floatingIpParallelism", floatingIpParallelism)
+				.add("fullSyncIntervalMillis", fullSyncIntervalMillis)
+				.add("maxReadsPerSecond", maxReadsPerSecond)
+				.add("reconcilerEnabled", reconcilerEnabled)
+				.add("standbyEnabled", standbyEnabled)
+				.add("readinessEnabled", readinessEnabled)
+				.add("journalEnabled", journalEnabled)
+				.add("fleetSnapshotEnabled", fleetSnapshotEnabled)
+				.add("neutronPortsEnabled", neutronPortsEnabled)
+				.toString();
+	}
+}
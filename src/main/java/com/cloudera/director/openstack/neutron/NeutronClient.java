@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.neutron;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackAccess;
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackRestClient;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A minimal client of the Neutron v2.0 API of one region, covering the calls made by the
+ * plugin.
+ */
+public class NeutronClient extends OpenStackRestClient {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NeutronClient.class);
+
+	private static final String API_VERSION_PATH = "/v2.0";
+
+	/**
+	 * Decodes a response as a JSON object.
+	 */
+	private static final ResponseDecoder<JsonObject> JSON_OBJECT = new ResponseDecoder<JsonObject>() {
+		@Override
+		public JsonObject decode(JsonReader reader) throws IOException {
+			return new JsonParser().parse(reader).getAsJsonObject();
+		}
+	};
+
+	/**
+	 * The maximum number of IDs filtered by one listing, which keeps the request URL well
+	 * below the length the Neutron front ends accept.
+	 */
+	static final int MAX_IDS_PER_QUERY = 50;
+
+	/**
+	 * The clients by endpoint, identity and region, replaced with their access.
+	 */
+	private static final ConcurrentMap<String, NeutronClient> CLIENTS =
+			new ConcurrentHashMap<String, NeutronClient>();
+
+	/**
+	 * Returns the client shared by all providers targeting the specified region.
+	 *
+	 * @param credentials the OpenStack credentials
+	 * @param region      the region
+	 * @return the client of the region
+	 */
+	public static NeutronClient forRegion(OpenStackCredentials credentials, String region) {
+		String key = credentials.getEndpoint() + "|" + credentials.getIdentity() + "|" + region;
+		OpenStackAccess access = OpenStackAccess.forCredentials(credentials);
+		while (true) {
+			NeutronClient client = CLIENTS.get(key);
+			if (client != null && client.getAccess() == access) {
+				return client;
+			}
+			NeutronClient created = new NeutronClient(access, region, null);
+			if ((client == null) ? CLIENTS.putIfAbsent(key, created) == null
+					: CLIENTS.replace(key, client, created)) {
+				return created;
+			}
+		}
+	}
+
+	/**
+	 * Creates a client.
+	 *
+	 * @param access   the Keystone access
+	 * @param region   the region
+	 * @param endpoint the Neutron endpoint, or <code>null</code> to look it up in the catalog
+	 */
+	NeutronClient(OpenStackAccess access, String region, URI endpoint) {
+		super(access, "network", region, API_VERSION_PATH, endpoint);
+		tune(OpenStackTuning.DEFAULTS);
+	}
+
+	/**
+	 * Applies the request timeouts of the region.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		setTimeouts(tuning.getNeutronConnectTimeoutMillis(), tuning.getNeutronReadTimeoutMillis());
+	}
+
+	@Override
+	protected NeutronException rejected(String message, int statusCode) {
+		return new NeutronException(message, statusCode);
+	}
+
+	@Override
+	protected NeutronException unreachable(String message, IOException cause) {
+		return new NeutronException(message, cause);
+	}
+
+	/**
+	 * Returns the IDs of the specified security groups, looked up in a single request.
+	 *
+	 * @param names the security group names
+	 * @return the security group IDs, in name order
+	 * @throws IllegalArgumentException if a security group does not exist
+	 */
+	public List<String> getSecurityGroupIds(Collection<String> names) {
+		List<String> ids = Lists.newArrayListWithCapacity(names.size());
+		if (names.isEmpty()) {
+			return ids;
+		}
+		StringBuilder query = new StringBuilder("/security-groups?fields=id&fields=name");
+		for (String name : names) {
+			query.append("&name=").append(encode(name));
+		}
+		Map<String, String> idsByName = Maps.newHashMap();
+		for (JsonElement group : request("GET", query.toString(), null).getAsJsonArray("security_groups")) {
+			JsonObject securityGroup = group.getAsJsonObject();
+			idsByName.put(securityGroup.get("name").getAsString(), securityGroup.get("id").getAsString());
+		}
+		for (String name : names) {
+			String id = idsByName.get(name);
+			if (id == null) {
+				throw new IllegalArgumentException("Security group " + name + " does not exist");
+			}
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Creates one port per name on the specified network, in a single bulk request. Neutron
+	 * creates all of them or none.
+	 *
+	 * @param networkId        the network ID
+	 * @param names            the port names
+	 * @param securityGroupIds the security group IDs of the ports
+	 * @return the created ports, in name order
+	 */
+	public List<NeutronPort> createPorts(String networkId, List<String> names, List<String> securityGroupIds) {
+		List<NeutronPort> ports = Lists.newArrayListWithCapacity(names.size());
+		if (names.isEmpty()) {
+			return ports;
+		}
+		JsonArray securityGroups = new JsonArray();
+		for (String securityGroupId : securityGroupIds) {
+			securityGroups.add(new JsonPrimitive(securityGroupId));
+		}
+		JsonArray portRequests = new JsonArray();
+		for (String name : names) {
+			JsonObject port = new JsonObject();
+			port.addProperty("network_id", networkId);
+			port.addProperty("name", name);
+			port.addProperty("admin_state_up", true);
+			if (securityGroups.size() > 0) {
+				port.add("security_groups", securityGroups);
+			}
+			portRequests.add(port);
+		}
+		JsonObject body = new JsonObject();
+		body.add("ports", portRequests);
+
+		for (JsonElement port : request("POST", "/ports", body).getAsJsonArray("ports")) {
+			ports.add(toPort(port.getAsJsonObject()));
+		}
+		LOG.debug("Created {} port(s) on network {}", ports.size(), networkId);
+		return ports;
+	}
+
+	/**
+	 * Deletes a port, doing nothing if it does not exist.
+	 *
+	 * @param portId the port ID
+	 */
+	public void deletePort(String portId) {
+		try {
+			request("DELETE", "/ports/" + encode(portId), null);
+		} catch (NeutronException e) {
+			if (e.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Lists the ports attached to the specified servers, in one filtered request per
+	 * {@value #MAX_IDS_PER_QUERY} servers.
+	 *
+	 * @param deviceIds the server IDs
+	 * @return the ports
+	 */
+	public List<NeutronPort> listPortsByDevices(Collection<String> deviceIds) {
+		List<NeutronPort> ports = Lists.newArrayList();
+		for (List<String> batch : Iterables.partition(deviceIds, MAX_IDS_PER_QUERY)) {
+			StringBuilder query = new StringBuilder("/ports?fields=id&fields=name&fields=network_id"
+					+ "&fields=device_id&fields=fixed_ips");
+			for (String deviceId : batch) {
+				query.append("&device_id=").append(encode(deviceId));
+			}
+			for (JsonElement port : request("GET", query.toString(), null).getAsJsonArray("ports")) {
+				ports.add(toPort(port.getAsJsonObject()));
+			}
+		}
+		return ports;
+	}
+
+	/**
+	 * Returns the ID of the specified external network, looked up by name, or the
+	 * specified value itself if no network has that name.
+	 *
+	 * @param nameOrId the name or ID of the external network
+	 * @return the network ID
+	 */
+	public String getExternalNetworkId(String nameOrId) {
+		JsonArray networks = request("GET", "/networks?fields=id&router%3Aexternal=true&name=" + encode(nameOrId),
+				null).getAsJsonArray("networks");
+		return (networks.size() == 0) ? nameOrId : networks.get(0).getAsJsonObject().get("id").getAsString();
+	}
+
+	/**
+	 * Creates a floating IP on the specified external network, bound to a port.
+	 *
+	 * @param floatingNetworkId the ID of the external network
+	 * @param portId            the port ID
+	 * @return the floating IP
+	 */
+	public NeutronFloatingIp createFloatingIp(String floatingNetworkId, String portId) {
+		JsonObject floatingIp = new JsonObject();
+		floatingIp.addProperty("floating_network_id", floatingNetworkId);
+		floatingIp.addProperty("port_id", portId);
+		JsonObject body = new JsonObject();
+		body.add("floatingip", floatingIp);
+		return toFloatingIp(request("POST", "/floatingips", body).getAsJsonObject("floatingip"));
+	}
+
+	/**
+	 * Lists the floating IPs bound to the specified ports, in one filtered request per
+	 * {@value #MAX_IDS_PER_QUERY} ports.
+	 *
+	 * @param portIds the port IDs
+	 * @return the floating IPs
+	 */
+	public List<NeutronFloatingIp> listFloatingIpsByPorts(Collection<String> portIds) {
+		List<NeutronFloatingIp> floatingIps = Lists.newArrayList();
+		for (List<String> batch : Iterables.partition(portIds, MAX_IDS_PER_QUERY)) {
+			StringBuilder query = new StringBuilder(
+					"/floatingips?fields=id&fields=floating_ip_address&fields=port_id");
+			for (String portId : batch) {
+				query.append("&port_id=").append(encode(portId));
+			}
+			for (JsonElement floatingIp : request("GET", query.toString(), null).getAsJsonArray("floatingips")) {
+				floatingIps.add(toFloatingIp(floatingIp.getAsJsonObject()));
+			}
+		}
+		return floatingIps;
+	}
+
+	/**
+	 * Deletes a floating IP, doing nothing if it does not exist.
+	 *
+	 * @param floatingIpId the floating IP ID
+	 */
+	public void deleteFloatingIp(String floatingIpId) {
+		try {
+			request("DELETE", "/floatingips/" + encode(floatingIpId), null);
+		} catch (NeutronException e) {
+			if (e.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw e;
+			}
+		}
+	}
+
+	static NeutronPort toPort(JsonObject port) {
+		String fixedIp = null;
+		JsonArray fixedIps = port.getAsJsonArray("fixed_ips");
+		if (fixedIps != null && fixedIps.size() > 0) {
+			fixedIp = fixedIps.get(0).getAsJsonObject().get("ip_address").getAsString();
+		}
+		return new NeutronPort(getString(port, "id"), getString(port, "name"), getString(port, "network_id"),
+				getString(port, "device_id"), fixedIp);
+	}
+
+	static NeutronFloatingIp toFloatingIp(JsonObject floatingIp) {
+		return new NeutronFloatingIp(getString(floatingIp, "id"), getString(floatingIp, "floating_ip_address"),
+				getString(floatingIp, "port_id"));
+	}
+
+	static String getString(JsonObject object, String member) {
+		JsonElement value = object.get(member);
+		return (value == null || value.isJsonNull()) ? null : value.getAsString();
+	}
+
+	/**
+	 * Sends a request, renewing the token once if Neutron rejects it.
+	 *
+	 * @param method the HTTP method
+	 * @param path   the path relative to the versioned endpoint, with its query string
+	 * @param body   the request body, or <code>null</code>
+	 * @return the response body, or <code>null</code> if empty
+	 * @throws NeutronException if Neutron rejects the request or cannot be reached
+	 */
+	JsonObject request(String method, String path, JsonObject body) {
+		return request(method, path, body, JSON_OBJECT);
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.neutron;
+
+/**
+ * A request rejected by Neutron.
+ */
+public class NeutronException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	public NeutronException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	public NeutronException(String message, Throwable cause) {
+		super(message, cause);
+		this.statusCode = 0;
+	}
+
+	/**
+	 * Returns the HTTP status code of the response, 0 if no response was received.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.neutron;
+
+import com.google.common.base.Objects;
+
+/**
+ * A Neutron floating IP, with the only fields used by the plugin.
+ */
+public final class NeutronFloatingIp {
+
+	private final String id;
+	private final String floatingIp;
+	private final String portId;
+
+	public NeutronFloatingIp(String id, String floatingIp, String portId) {
+		this.id = id;
+		this.floatingIp = floatingIp;
+		this.portId = portId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the floating IP address.
+	 */
+	public String getFloatingIp() {
+		return floatingIp;
+	}
+
+	/**
+	 * Returns the ID of the port the floating IP is bound to, or <code>null</code> if none.
+	 */
+	public String getPortId() {
+		return portId;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("id", id)
+				.add("floatingIp", floatingIp)
+				.add("portId", portId)
+				.toString();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.neutron;
+
+import com.google.common.base.Objects;
+
+/**
+ * A Neutron port, with the only fields used by the plugin.
+ */
+public final class NeutronPort {
+
+	private final String id;
+	private final String name;
+	private final String networkId;
+	private final String deviceId;
+	private final String fixedIp;
+
+	public NeutronPort(String id, String name, String networkId, String deviceId, String fixedIp) {
+		this.id = id;
+		this.name = name;
+		this.networkId = networkId;
+		this.deviceId = deviceId;
+		this.fixedIp = fixedIp;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getNetworkId() {
+		return networkId;
+	}
+
+	/**
+	 * Returns the ID of the server the port is attached to, or <code>null</code> if none.
+	 */
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	/**
+	 * Returns the first fixed IP address of the port, or <code>null</code> if none.
+	 */
+	public String getFixedIp() {
+		return fixedIp;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("id", id)
+				.add("name", name)
+				.add("networkId", networkId)
+				.add("deviceId", deviceId)
+				.add("fixedIp", fixedIp)
+				.toString();
+	}
+}
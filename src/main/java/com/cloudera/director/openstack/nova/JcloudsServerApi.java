@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
+import org.jclouds.openstack.nova.v2_0.features.ServerApi;
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * The server calls of the jclouds engine, delegating to the jclouds server API. The
+ * records are projected from the jclouds servers once listed.
+ */
+class JcloudsServerApi implements NovaServerApi {
+
+	private final ServerApi serverApi;
+
+	JcloudsServerApi(ServerApi serverApi) {
+		this.serverApi = serverApi;
+	}
+
+	@Override
+	public Server get(String id) {
+		return serverApi.get(id);
+	}
+
+	@Override
+	public List<Server> listInDetail() {
+		return ImmutableList.copyOf(serverApi.listInDetail().concat());
+	}
+
+	@Override
+	public List<NovaServerRecord> listRecordsInDetail() {
+		return ImmutableList.copyOf(Iterables.transform(serverApi.listInDetail().concat(),
+				NovaServerRecord.FROM_SERVER));
+	}
+
+	@Override
+	public PaginatedCollection<NovaServerRecord> listRecordsInDetail(PaginationOptions options) {
+		PaginatedCollection<Server> servers = serverApi.listInDetail(options);
+		return new PaginatedCollection<NovaServerRecord>(
+				ImmutableList.copyOf(Iterables.transform(servers, NovaServerRecord.FROM_SERVER)), servers.getLinks()) {
+		};
+	}
+
+	@Override
+	public ServerCreated create(String name, String imageRef, String flavorRef, NovaCreateServerOptions options) {
+		return serverApi.create(name, imageRef, flavorRef, options);
+	}
+
+	@Override
+	public boolean delete(String id) {
+		return serverApi.delete(id);
+	}
+
+	@Override
+	public Map<String, String> updateMetadata(String id, Map<String, String> metadata) {
+		return serverApi.updateMetadata(id, metadata);
+	}
+
+	@Override
+	public void deleteMetadata(String id, String key) {
+		serverApi.deleteMetadata(id, key);
+	}
+
+	@Override
+	public void rename(String id, String newName) {
+		serverApi.rename(id, newName);
+	}
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.io.Closeables;
+
+/**
+ * Write-ahead journal of the allocation progress of each instance, so that an allocation
+ * interrupted by a crash can be resumed without booting the same instance twice.
+ * <p>
+ * The journal is an append-only file of checksummed lines. Records are forced to disk in
+ * batches: when {@link #sync()} is called at the end of an allocation phase, or every
+ * {@value #SYNC_BATCH_SIZE} records. A torn record at the end of the file is dropped when
+ * the journal is opened, and the file is compacted once most of its records belong to
+ * finished allocations.
+ */
+public class NovaAllocationJournal {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaAllocationJournal.class);
+
+	/**
+	 * The journal file name.
+	 */
+	public static final String JOURNAL_FILE_NAME = "nova-allocations.journal";
+
+	/**
+	 * The number of unforced records after which the journal is forced to disk.
+	 */
+	private static final int SYNC_BATCH_SIZE = 32;
+
+	/**
+	 * The minimum number of records before a compaction is considered.
+	 */
+	private static final int COMPACTION_THRESHOLD = 1024;
+
+	private static final char SEPARATOR = '\t';
+	private static final Joiner FIELD_JOINER = Joiner.on(SEPARATOR).useForNull("");
+	private static final Splitter FIELD_SPLITTER = Splitter.on(SEPARATOR);
+
+	/**
+	 * The journal used when journaling is disabled or the journal file cannot be opened.
+	 */
+	private static final NovaAllocationJournal DISABLED = new NovaAllocationJournal(null);
+
+	/**
+	 * The opened journals by file, shared by all the providers.
+	 */
+	private static final ConcurrentMap<File, NovaAllocationJournal> JOURNALS =
+			new ConcurrentHashMap<File, NovaAllocationJournal>();
+
+	/**
+	 * The type of a journal record.
+	 */
+	static enum RecordType {
+		REQUESTED, CREATED, IP_READY, FLOATING_IP_ALLOCATED, FLOATING_IP_ATTACHED, COMPLETED, RELEASED
+	}
+
+	/**
+	 * The journaled allocation progress of one instance.
+	 */
+	public static final class Entry {
+
+		private final String virtualInstanceId;
+		private final String novaInstanceId;
+		private final boolean ipReady;
+		private final String floatingIp;
+		private final String floatingIpId;
+		private final boolean floatingIpAttached;
+
+		private Entry(String virtualInstanceId, String novaInstanceId, boolean ipReady,
+				String floatingIp, String floatingIpId, boolean floatingIpAttached) {
+			this.virtualInstanceId = virtualInstanceId;
+			this.novaInstanceId = novaInstanceId;
+			this.ipReady = ipReady;
+			this.floatingIp = floatingIp;
+			this.floatingIpId = floatingIpId;
+			this.floatingIpAttached = floatingIpAttached;
+		}
+
+		public String getVirtualInstanceId() {
+			return virtualInstanceId;
+		}
+
+		/**
+		 * Returns the Nova ID of the instance, or <code>null</code> if it was requested but
+		 * its creation was not journaled.
+		 */
+		public String getNovaInstanceId() {
+			return novaInstanceId;
+		}
+
+		public boolean isIpReady() {
+			return ipReady;
+		}
+
+		/**
+		 * Returns the floating IP allocated for the instance, or <code>null</code> if none.
+		 */
+		public String getFloatingIp() {
+			return floatingIp;
+		}
+
+		public String getFloatingIpId() {
+			return floatingIpId;
+		}
+
+		public boolean isFloatingIpAttached() {
+			return floatingIpAttached;
+		}
+	}
+
+	/**
+	 * Returns the journal of the configured directory, the plugin configuration directory
+	 * by default. The returned journal records nothing when journaling is disabled or
+	 * the journal cannot be opened.
+	 *
+	 * @param tuning                 the settings of the region
+	 * @param configurationDirectory the plugin configuration directory, may be <code>null</code>
+	 * @return the journal
+	 */
+	public static NovaAllocationJournal forDirectory(OpenStackTuning tuning, File configurationDirectory) {
+		if (!tuning.isJournalEnabled()) {
+			return DISABLED;
+		}
+		String directory = tuning.getJournalDirectory();
+		if (directory == null) {
+			directory = (configurationDirectory == null) ? null : configurationDirectory.getPath();
+		}
+		if (directory == null) {
+			return DISABLED;
+		}
+
+		File file = new File(directory, JOURNAL_FILE_NAME).getAbsoluteFile();
+		NovaAllocationJournal journal = JOURNALS.get(file);
+		if (journal == null) {
+			synchronized (JOURNALS) {
+				journal = JOURNALS.get(file);
+				if (journal == null) {
+					journal = new NovaAllocationJournal(file);
+					try {
+						journal.open();
+					} catch (IOException e) {
+						LOG.warn("Unable to open the allocation journal " + file
+								+ ", allocations will not be resumable", e);
+						return DISABLED;
+					}
+					JOURNALS.put(file, journal);
+				}
+			}
+		}
+		return journal;
+	}
+
+	/*
+	 * The journal file, null when disabled
+	 */
+	private final File file;
+
+	/*
+	 * The entries of the unfinished allocations by virtual instance ID
+	 */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/*
+	 * The open journal file, null when disabled
+	 */
+	private RandomAccessFile journalFile;
+
+	/*
+	 * The number of records in the file, used to decide when to compact
+	 */
+	private int recordCount;
+
+	/*
+	 * The number of records written since the last force
+	 */
+	private int unsyncedRecordCount;
+
+	NovaAllocationJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns whether the journal records anything.
+	 */
+	public boolean isEnabled() {
+		return file != null;
+	}
+
+	/**
+	 * Returns the journaled progress of an unfinished allocation.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @return the entry, or <code>null</code> if no unfinished allocation is journaled
+	 */
+	public synchronized Entry get(String virtualInstanceId) {
+		return entries.get(virtualInstanceId);
+	}
+
+	/**
+	 * Records that an instance is about to be created.
+	 */
+	public void requested(String virtualInstanceId) {
+		append(RecordType.REQUESTED, virtualInstanceId);
+	}
+
+	/**
+	 * Records that an instance was created.
+	 */
+	public void created(String virtualInstanceId, String novaInstanceId) {
+		append(RecordType.CREATED, virtualInstanceId, novaInstanceId);
+	}
+
+	/**
+	 * Records that an instance got its private IP.
+	 */
+	public void ipReady(String virtualInstanceId) {
+		append(RecordType.IP_READY, virtualInstanceId);
+	}
+
+	/**
+	 * Records that a floating IP was allocated for an instance, before it is attached.
+	 */
+	public void floatingIpAllocated(String virtualInstanceId, String floatingIp, String floatingIpId) {
+		append(RecordType.FLOATING_IP_ALLOCATED, virtualInstanceId, floatingIp, floatingIpId);
+	}
+
+	/**
+	 * Records that the floating IP of an instance was attached.
+	 */
+	public void floatingIpAttached(String virtualInstanceId) {
+		append(RecordType.FLOATING_IP_ATTACHED, virtualInstanceId);
+	}
+
+	/**
+	 * Records that the allocation of an instance is finished.
+	 */
+	public void completed(String virtualInstanceId) {
+		append(RecordType.COMPLETED, virtualInstanceId);
+	}
+
+	/**
+	 * Records that an instance was deleted.
+	 */
+	public void released(String virtualInstanceId) {
+		append(RecordType.RELEASED, virtualInstanceId);
+	}
+
+	/**
+	 * Forces the records written so far to disk.
+	 */
+	public synchronized void sync() {
+		if (journalFile == null || unsyncedRecordCount == 0) {
+			return;
+		}
+		try {
+			journalFile.getChannel().force(false);
+			unsyncedRecordCount = 0;
+		} catch (IOException e) {
+			LOG.warn("Unable to force the allocation journal " + file + " to disk", e);
+		}
+	}
+
+	private synchronized void append(RecordType type, String... fields) {
+		if (journalFile == null || !apply(type, fields)) {
+			return;
+		}
+		try {
+			write(journalFile.getChannel(), type, fields);
+			recordCount++;
+			if (++unsyncedRecordCount >= SYNC_BATCH_SIZE) {
+				sync();
+			}
+			if (entries.isEmpty() && recordCount >= COMPACTION_THRESHOLD) {
+				compact();
+			}
+		} catch (IOException e) {
+			LOG.warn("Unable to write to the allocation journal " + file, e);
+		}
+	}
+
+	/**
+	 * Applies a record to the entries.
+	 *
+	 * @return <code>true</code> if the record changed an entry
+	 */
+	private boolean apply(RecordType type, String... fields) {
+		String virtualInstanceId = fields[0];
+		Entry entry = entries.get(virtualInstanceId);
+		if (entry == null && type != RecordType.REQUESTED) {
+			return false;
+		}
+		switch (type) {
+			case REQUESTED:
+				if (entry != null) {
+					return false;
+				}
+				entry = new Entry(virtualInstanceId, null, false, null, null, false);
+				break;
+			case CREATED:
+				// a replacement server starts over, but may reuse the allocated floating IP
+				entry = new Entry(virtualInstanceId, fields[1], false, entry.floatingIp,
+						entry.floatingIpId, false);
+				break;
+			case IP_READY:
+				entry = new Entry(virtualInstanceId, entry.novaInstanceId, true, entry.floatingIp,
+						entry.floatingIpId, entry.floatingIpAttached);
+				break;
+			case FLOATING_IP_ALLOCATED:
+				entry = new Entry(virtualInstanceId, entry.novaInstanceId, entry.ipReady, fields[1],
+						Strings.emptyToNull(fields[2]), false);
+				break;
+			case FLOATING_IP_ATTACHED:
+				entry = new Entry(virtualInstanceId, entry.novaInstanceId, entry.ipReady, entry.floatingIp,
+						entry.floatingIpId, true);
+				break;
+			case COMPLETED:
+			case RELEASED:
+				entries.remove(virtualInstanceId);
+				return true;
+			default:
+				throw new IllegalArgumentException("Unknown record type " + type);
+		}
+		entries.put(virtualInstanceId, entry);
+		return true;
+	}
+
+	/**
+	 * Opens the journal file, replaying its records and dropping a torn record at its end.
+	 */
+	@VisibleForTesting
+	synchronized void open() throws IOException {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create directory " + directory);
+		}
+
+		long validLength = 0;
+		if (file.exists()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), Charsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!replay(line)) {
+						LOG.warn("Dropping the torn end of the allocation journal {}", file);
+						break;
+					}
+					recordCount++;
+					validLength += line.getBytes(Charsets.UTF_8).length + 1;
+				}
+			} finally {
+				Closeables.close(reader, true);
+			}
+		}
+
+		journalFile = new RandomAccessFile(file, "rw");
+		if (journalFile.length() > validLength) {
+			journalFile.getChannel().truncate(validLength);
+		} else if (journalFile.length() < validLength) {
+			// the last valid record was written without its newline, terminate it
+			journalFile.seek(journalFile.length());
+			journalFile.write('\n');
+		}
+		journalFile.seek(validLength);
+		if (!entries.isEmpty()) {
+			LOG.info("Allocation journal {} has {} unfinished instance allocation(s)", file, entries.size());
+		}
+		if (recordCount >= COMPACTION_THRESHOLD && recordCount > 4 * entries.size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Replays a journal line.
+	 *
+	 * @return <code>false</code> if the line is not a valid record
+	 */
+	private boolean replay(String line) {
+		int separator = line.indexOf(SEPARATOR);
+		if (separator < 0) {
+			return false;
+		}
+		String payload = line.substring(separator + 1);
+		if (!line.substring(0, separator).equals(checksum(payload))) {
+			return false;
+		}
+		List<String> fields = FIELD_SPLITTER.splitToList(payload);
+		RecordType type;
+		try {
+			type = RecordType.valueOf(fields.get(0));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if (fields.size() < 2 || (type == RecordType.CREATED && fields.size() < 3)
+				|| (type == RecordType.FLOATING_IP_ALLOCATED && fields.size() < 4)) {
+			return false;
+		}
+		apply(type, fields.subList(1, fields.size()).toArray(new String[fields.size() - 1]));
+		return true;
+	}
+
+	/**
+	 * Rewrites the journal with only the records of the unfinished allocations, replacing
+	 * the file atomically.
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(file.getPath() + ".compact");
+		RandomAccessFile compactedFile = new RandomAccessFile(compacted, "rw");
+		int compactedRecordCount = 0;
+		try {
+			compactedFile.setLength(0);
+			FileChannel channel = compactedFile.getChannel();
+			for (Entry entry : entries.values()) {
+				write(channel, RecordType.REQUESTED, entry.virtualInstanceId);
+				compactedRecordCount++;
+				if (entry.novaInstanceId != null) {
+					write(channel, RecordType.CREATED, entry.virtualInstanceId, entry.novaInstanceId);
+					compactedRecordCount++;
+				}
+				if (entry.ipReady) {
+					write(channel, RecordType.IP_READY, entry.virtualInstanceId);
+					compactedRecordCount++;
+				}
+				if (entry.floatingIp != null) {
+					write(channel, RecordType.FLOATING_IP_ALLOCATED, entry.virtualInstanceId,
+							entry.floatingIp, entry.floatingIpId);
+					compactedRecordCount++;
+				}
+				if (entry.floatingIpAttached) {
+					write(channel, RecordType.FLOATING_IP_ATTACHED, entry.virtualInstanceId);
+					compactedRecordCount++;
+				}
+			}
+			channel.force(true);
+		} finally {
+			compactedFile.close();
+		}
+
+		journalFile.close();
+		if (!compacted.renameTo(file)) {
+			journalFile = new RandomAccessFile(file, "rw");
+			journalFile.seek(journalFile.length());
+			throw new IOException("Unable to replace " + file + " with its compacted copy");
+		}
+		journalFile = new RandomAccessFile(file, "rw");
+		journalFile.seek(journalFile.length());
+		recordCount = compactedRecordCount;
+		unsyncedRecordCount = 0;
+		LOG.debug("Compacted the allocation journal {} to {} record(s)", file, recordCount);
+	}
+
+	private static void write(FileChannel channel, RecordType type, String... fields) throws IOException {
+		String payload = type.name() + SEPARATOR + FIELD_JOINER.join(fields);
+		ByteBuffer record = ByteBuffer.wrap((checksum(payload) + SEPARATOR + payload + '\n')
+				.getBytes(Charsets.UTF_8));
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+	}
+
+	private static String checksum(String payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload.getBytes(Charsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+}
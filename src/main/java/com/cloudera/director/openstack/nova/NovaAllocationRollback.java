@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackExecutors;
+import com.cloudera.director.openstack.neutron.NeutronClient;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ * The in-memory record of the servers and floating IPs held by one allocation, able to
+ * release all of them concurrently when the allocation fails.
+ */
+public class NovaAllocationRollback {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaAllocationRollback.class);
+
+	/**
+	 * The outcome of the rollback of one instance.
+	 */
+	public static final class InstanceOutcome {
+
+		private final String virtualInstanceId;
+		private final String novaInstanceId;
+		private final String floatingIp;
+		private final boolean serverReleased;
+		private final boolean floatingIpReleased;
+		private final String error;
+
+		InstanceOutcome(String virtualInstanceId, String novaInstanceId, String floatingIp,
+				boolean serverReleased, boolean floatingIpReleased, String error) {
+			this.virtualInstanceId = virtualInstanceId;
+			this.novaInstanceId = novaInstanceId;
+			this.floatingIp = floatingIp;
+			this.serverReleased = serverReleased;
+			this.floatingIpReleased = floatingIpReleased;
+			this.error = error;
+		}
+
+		public String getVirtualInstanceId() {
+			return virtualInstanceId;
+		}
+
+		public String getNovaInstanceId() {
+			return novaInstanceId;
+		}
+
+		public String getFloatingIp() {
+			return floatingIp;
+		}
+
+		public boolean isServerReleased() {
+			return serverReleased;
+		}
+
+		public boolean isFloatingIpReleased() {
+			return floatingIpReleased;
+		}
+
+		/**
+		 * Returns the error that prevented a full release, or <code>null</code> if none.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return virtualInstanceId + " (server " + novaInstanceId
+					+ (serverReleased ? " released" : " kept")
+					+ ((floatingIp == null) ? "" : ", floating IP " + floatingIp
+							+ (floatingIpReleased ? " released" : " kept"))
+					+ ((error == null) ? "" : ": " + error) + ")";
+		}
+	}
+
+	/**
+	 * The report of a rollback.
+	 */
+	public static final class Report {
+
+		private final List<InstanceOutcome> outcomes;
+
+		Report(List<InstanceOutcome> outcomes) {
+			this.outcomes = Collections.unmodifiableList(outcomes);
+		}
+
+		public List<InstanceOutcome> getOutcomes() {
+			return outcomes;
+		}
+
+		/**
+		 * Returns the outcomes of the instances that could not be fully released.
+		 */
+		public List<InstanceOutcome> getFailures() {
+			List<InstanceOutcome> failures = Lists.newArrayList();
+			for (InstanceOutcome outcome : outcomes) {
+				if (outcome.getError() != null) {
+					failures.add(outcome);
+				}
+			}
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			return "Released " + (outcomes.size() - getFailures().size()) + " of " + outcomes.size()
+					+ " instance(s): " + outcomes;
+		}
+	}
+
+	/**
+	 * The resources held for one instance.
+	 */
+	private static final class HeldInstance {
+
+		private String novaInstanceId;
+		private String floatingIp;
+		private String floatingIpId;
+		private boolean neutronFloatingIp;
+		private String portId;
+	}
+
+	private final NovaServerApi serverApi;
+	private final Optional<FloatingIPApi> floatingIpApi;
+	private final NeutronClient neutronClient;
+	private final NovaAllocationJournal allocationJournal;
+	private final int parallelism;
+
+	/*
+	 * The resources held by the allocation by virtual instance ID
+	 */
+	private final Map<String, HeldInstance> heldInstances = new LinkedHashMap<String, HeldInstance>();
+
+	/**
+	 * Creates a rollback record for one allocation.
+	 *
+	 * @param serverApi         the server API
+	 * @param floatingIpApi     the floating IP API, if available
+	 * @param neutronClient     the Neutron client, <code>null</code> if Neutron is not used
+	 * @param allocationJournal the journal told about the released instances
+	 * @param parallelism       the maximum number of instances released concurrently
+	 */
+	public NovaAllocationRollback(NovaServerApi serverApi, Optional<FloatingIPApi> floatingIpApi,
+			NeutronClient neutronClient, NovaAllocationJournal allocationJournal, int parallelism) {
+		this.serverApi = serverApi;
+		this.floatingIpApi = floatingIpApi;
+		this.neutronClient = neutronClient;
+		this.allocationJournal = allocationJournal;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Records a server held by the allocation, created or reused.
+	 */
+	public synchronized void serverHeld(String virtualInstanceId, String novaInstanceId) {
+		held(virtualInstanceId).novaInstanceId = novaInstanceId;
+	}
+
+	/**
+	 * Records a floating IP allocated for an instance.
+	 */
+	public synchronized void floatingIpHeld(String virtualInstanceId, String floatingIp, String floatingIpId) {
+		HeldInstance instance = held(virtualInstanceId);
+		instance.floatingIp = floatingIp;
+		instance.floatingIpId = floatingIpId;
+		instance.neutronFloatingIp = false;
+	}
+
+	/**
+	 * Records a Neutron floating IP created for an instance.
+	 */
+	public synchronized void neutronFloatingIpHeld(String virtualInstanceId, String floatingIp,
+			String floatingIpId) {
+		HeldInstance instance = held(virtualInstanceId);
+		instance.floatingIp = floatingIp;
+		instance.floatingIpId = floatingIpId;
+		instance.neutronFloatingIp = true;
+	}
+
+	/**
+	 * Records a Neutron port created for an instance.
+	 */
+	public synchronized void portHeld(String virtualInstanceId, String portId) {
+		held(virtualInstanceId).portId = portId;
+	}
+
+	private HeldInstance held(String virtualInstanceId) {
+		HeldInstance instance = heldInstances.get(virtualInstanceId);
+		if (instance == null) {
+			instance = new HeldInstance();
+			heldInstances.put(virtualInstanceId, instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Releases the floating IPs and servers held by the allocation, at most
+	 * <code>parallelism</code> instances at a time.
+	 *
+	 * @return the rollback report
+	 * @throws InterruptedException if interrupted while waiting for the releases
+	 */
+	public synchronized Report rollback() throws InterruptedException {
+		if (heldInstances.isEmpty()) {
+			return new Report(Collections.<InstanceOutcome>emptyList());
+		}
+		List<Callable<InstanceOutcome>> releases = Lists.newArrayListWithCapacity(heldInstances.size());
+		for (final Map.Entry<String, HeldInstance> instance : heldInstances.entrySet()) {
+			releases.add(new Callable<InstanceOutcome>() {
+				@Override
+				public InstanceOutcome call() {
+					return release(instance.getKey(), instance.getValue());
+				}
+			});
+		}
+
+		List<InstanceOutcome> outcomes;
+		try {
+			outcomes = OpenStackExecutors.invokeAll(releases, parallelism);
+		} catch (ExecutionException e) {
+			// release() catches everything, this is unexpected
+			throw new IllegalStateException("Unexpected rollback failure", e.getCause());
+		}
+		allocationJournal.sync();
+		Report report = new Report(outcomes);
+		LOG.info("Allocation rollback: {}", report);
+		return report;
+	}
+
+	private InstanceOutcome release(String virtualInstanceId, HeldInstance instance) {
+		boolean floatingIpReleased = false;
+		boolean serverReleased = false;
+		try {
+			if (instance.neutronFloatingIp) {
+				// deleting a Neutron floating IP also unbinds it from its port
+				neutronClient.deleteFloatingIp(instance.floatingIpId);
+				floatingIpReleased = true;
+			} else if (instance.floatingIp != null && floatingIpApi.isPresent()) {
+				if (instance.novaInstanceId != null) {
+					try {
+						floatingIpApi.get().removeFromServer(instance.floatingIp, instance.novaInstanceId);
+					} catch (RuntimeException e) {
+						// not attached yet
+						LOG.debug("Unable to detach floating IP {}", instance.floatingIp, e);
+					}
+				}
+				if (instance.floatingIpId != null) {
+					floatingIpApi.get().delete(instance.floatingIpId);
+					floatingIpReleased = true;
+				}
+			}
+			if (instance.novaInstanceId != null) {
+				serverApi.delete(instance.novaInstanceId);
+				serverReleased = true;
+			}
+			if (instance.portId != null && neutronClient != null) {
+				neutronClient.deletePort(instance.portId);
+			}
+			allocationJournal.released(virtualInstanceId);
+			return new InstanceOutcome(virtualInstanceId, instance.novaInstanceId, instance.floatingIp,
+					serverReleased, floatingIpReleased, null);
+		} catch (RuntimeException e) {
+			LOG.warn("Unable to release instance " + virtualInstanceId, e);
+			return new InstanceOutcome(virtualInstanceId, instance.novaInstanceId, instance.floatingIp,
+					serverReleased, floatingIpReleased, String.valueOf(e.getMessage()));
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.apis.ApiMetadata;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.NovaApiMetadata;
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackExecutors;
+import com.cloudera.director.openstack.OpenStackHttpTransport;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Builds the jclouds Nova API of one set of credentials on first use, and shares it
+ * between all the providers and validators using them. Building the API creates a Guice
+ * injector and loads hundreds of classes, and its first call authenticates against
+ * Keystone, so both can be done ahead of time in the background with {@link #prewarm()}
+ * and {@link #prewarmClasses()}. The API sends its requests through the
+ * {@link OpenStackHttpTransport}. This is the default {@link NovaEngine}.
+ */
+public class NovaApiSupplier implements Supplier<NovaApi>, NovaEngine {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaApiSupplier.class);
+
+	private static final ApiMetadata NOVA_API_METADATA = new NovaApiMetadata();
+
+	/**
+	 * The suppliers by endpoint and identity, replaced when the credential changes.
+	 */
+	private static final ConcurrentMap<String, NovaApiSupplier> SUPPLIERS =
+			new ConcurrentHashMap<String, NovaApiSupplier>();
+
+	private static final AtomicBoolean CLASSES_PREWARMED = new AtomicBoolean();
+
+	/**
+	 * Returns the supplier shared by everything using the specified credentials. A new
+	 * supplier replaces the shared one once the credential changes, e.g. after a password
+	 * change; the API of the previous one is left to the operations still using it.
+	 *
+	 * @param credentials the OpenStack credentials
+	 * @return the supplier
+	 */
+	public static NovaApiSupplier forCredentials(OpenStackCredentials credentials) {
+		String key = credentials.getEndpoint() + "|" + credentials.getIdentity();
+		while (true) {
+			NovaApiSupplier supplier = SUPPLIERS.get(key);
+			if (supplier != null && supplier.credentials.equals(credentials)) {
+				return supplier;
+			}
+			NovaApiSupplier created = new NovaApiSupplier(credentials);
+			if ((supplier == null) ? SUPPLIERS.putIfAbsent(key, created) == null
+					: SUPPLIERS.replace(key, supplier, created)) {
+				return created;
+			}
+		}
+	}
+
+	/**
+	 * Loads the jclouds classes and builds a throwaway injector in the background, without
+	 * any credentials nor network access, so that the first real API is built faster. Does
+	 * nothing after the first call.
+	 */
+	public static void prewarmClasses() {
+		if (!CLASSES_PREWARMED.compareAndSet(false, true)) {
+			return;
+		}
+		OpenStackExecutors.getOperationExecutor().submit(new Runnable() {
+			@Override
+			public void run() {
+				long started = System.currentTimeMillis();
+				try {
+					NovaApi novaApi = build("http://localhost:5000/v2.0/", "prewarm:prewarm", "prewarm");
+					close(novaApi);
+					LOG.info("Pre-warmed the jclouds classes in {} ms", System.currentTimeMillis() - started);
+				} catch (RuntimeException e) {
+					LOG.warn("Unable to pre-warm the jclouds classes", e);
+				}
+			}
+		});
+	}
+
+	private static NovaApi build(String endpoint, String identity, String credential) {
+		return ContextBuilder.newBuilder(NOVA_API_METADATA)
+				.endpoint(endpoint)
+				.credentials(identity, credential)
+				.modules(OpenStackHttpTransport.getModules())
+				.overrides(OpenStackHttpTransport.getOverrides())
+				.buildApi(NovaApi.class);
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.debug("Unable to close the Nova API", e);
+		}
+	}
+
+	private final OpenStackCredentials credentials;
+
+	/*
+	 * The API, null until first use
+	 */
+	private volatile NovaApi novaApi;
+
+	/*
+	 * The generation of the HTTP settings the API was built with
+	 */
+	private volatile int novaApiGeneration;
+
+	private final AtomicBoolean prewarmed = new AtomicBoolean();
+
+	/*
+	 * How long building the API and its first authentication took, -1 until done
+	 */
+	private volatile long buildMillis = -1;
+	private volatile long authenticationMillis = -1;
+
+	NovaApiSupplier(OpenStackCredentials credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * Returns the API, building it on first use and rebuilding it once the HTTP settings
+	 * changed. The previous API is left to the operations still using it.
+	 */
+	@Override
+	public NovaApi get() {
+		int generation = OpenStackHttpTransport.getGeneration();
+		NovaApi api = novaApi;
+		if (api == null || novaApiGeneration != generation) {
+			synchronized (this) {
+				api = novaApi;
+				if (api == null || novaApiGeneration != generation) {
+					long started = System.currentTimeMillis();
+					api = build(credentials.getEndpoint(), credentials.getIdentity(), credentials.getCredential());
+					buildMillis = System.currentTimeMillis() - started;
+					LOG.info("Built the Nova API of {} in {} ms", credentials.getIdentity(), buildMillis);
+					novaApiGeneration = generation;
+					novaApi = api;
+				}
+			}
+		}
+		return api;
+	}
+
+	@Override
+	public Set<String> getConfiguredRegions() {
+		return get().getConfiguredRegions();
+	}
+
+	@Override
+	public NovaServerApi getServerApi(String region) {
+		return new JcloudsServerApi(get().getServerApi(region));
+	}
+
+	@Override
+	public Optional<FloatingIPApi> getFloatingIPApi(String region) {
+		return get().getFloatingIPApi(region);
+	}
+
+	/**
+	 * Does nothing, the jclouds timeouts are set when the API is built.
+	 */
+	@Override
+	public void tune(String region, OpenStackTuning tuning) {
+	}
+
+	/**
+	 * Builds the API and authenticates in the background, unless already done or under
+	 * way. Failures are only logged, the first provider call will report them.
+	 */
+	public void prewarm() {
+		if (!prewarmed.compareAndSet(false, true)) {
+			return;
+		}
+		OpenStackExecutors.getOperationExecutor().submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					NovaApi api = get();
+					long started = System.currentTimeMillis();
+					// the regions come from the service catalog, which requires a token
+					api.getConfiguredRegions();
+					authenticationMillis = System.currentTimeMillis() - started;
+					LOG.info("Pre-warmed the Nova API of {}: built in {} ms, authenticated in {} ms",
+							credentials.getIdentity(), buildMillis, authenticationMillis);
+				} catch (RuntimeException e) {
+					LOG.warn("Unable to pre-warm the Nova API of {}: {}", credentials.getIdentity(), e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns whether the API was built.
+	 */
+	public boolean isBuilt() {
+		return novaApi != null;
+	}
+
+	/**
+	 * Returns how long building the API and pre-warming its authentication took, -1 for
+	 * the steps not done yet.
+	 */
+	public Map<String, Long> getStartupMetrics() {
+		return ImmutableMap.of(
+				"buildMillis", buildMillis,
+				"authenticationMillis", authenticationMillis);
+	}
+}
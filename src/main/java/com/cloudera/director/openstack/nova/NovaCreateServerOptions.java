@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.options.CreateServerOptions;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The jclouds create options, also exposing the metadata, user data, admin password and
+ * files they carry, which jclouds only writes to its own requests.
+ */
+public class NovaCreateServerOptions extends CreateServerOptions {
+
+	private Map<String, String> metadata = ImmutableMap.of();
+	private byte[] userData;
+	private String adminPass;
+	private final Map<String, byte[]> personality = new LinkedHashMap<String, byte[]>();
+
+	@Override
+	public NovaCreateServerOptions metadata(Map<String, String> metadata) {
+		super.metadata(metadata);
+		this.metadata = ImmutableMap.copyOf(metadata);
+		return this;
+	}
+
+	@Override
+	public NovaCreateServerOptions userData(byte[] userData) {
+		super.userData(userData);
+		this.userData = userData;
+		return this;
+	}
+
+	@Override
+	public NovaCreateServerOptions adminPass(String adminPass) {
+		super.adminPass(adminPass);
+		this.adminPass = adminPass;
+		return this;
+	}
+
+	@Override
+	public NovaCreateServerOptions writeFileToPath(byte[] contents, String path) {
+		super.writeFileToPath(contents, path);
+		personality.put(path, contents);
+		return this;
+	}
+
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Returns the user data, <code>null</code> if none.
+	 */
+	public byte[] getUserData() {
+		return userData;
+	}
+
+	/**
+	 * Returns the admin password, <code>null</code> if none.
+	 */
+	public String getAdminPass() {
+		return adminPass;
+	}
+
+	/**
+	 * Returns the contents of the files written to the server by path, in order.
+	 */
+	public Map<String, byte[]> getPersonality() {
+		return Collections.unmodifiableMap(personality);
+	}
+}
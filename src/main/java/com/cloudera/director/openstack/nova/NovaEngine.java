@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.Set;
+
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.base.Optional;
+
+/**
+ * The Nova calls made by the providers, independent of the client sending them: either
+ * the jclouds Nova API ({@link NovaApiSupplier}) or the plugin's own REST client
+ * ({@link com.cloudera.director.openstack.nova.rest.RestNovaEngine}), selected by the
+ * <code>nova.engine</code> setting.
+ */
+public interface NovaEngine {
+
+	/**
+	 * Returns the regions with a Nova endpoint.
+	 */
+	Set<String> getConfiguredRegions();
+
+	/**
+	 * Returns the server API of a region.
+	 *
+	 * @param region the region
+	 * @return the server API
+	 */
+	NovaServerApi getServerApi(String region);
+
+	/**
+	 * Returns the floating IP API of a region, if the extension is available.
+	 *
+	 * @param region the region
+	 * @return the floating IP API
+	 */
+	Optional<FloatingIPApi> getFloatingIPApi(String region);
+
+	/**
+	 * Applies the settings of a region to its clients.
+	 *
+	 * @param region the region
+	 * @param tuning the settings of the region
+	 */
+	void tune(String region, OpenStackTuning tuning);
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Refreshes the fleet view of a region in the background, so that Director reads are
+ * served from memory instead of going to Nova on every call. The reconciler is shared by
+ * all the providers of the region. The refresh stops by itself once the region has not
+ * been read for a while, and restarts on the next read.
+ */
+public class NovaFleetReconciler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaFleetReconciler.class);
+
+	/**
+	 * The scheduler shared by the reconcilers of all regions.
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("nova-fleet-reconciler-%d").build());
+
+	/**
+	 * The reconcilers by synchronizer, one per region.
+	 */
+	private static final ConcurrentMap<NovaStateSynchronizer, NovaFleetReconciler> RECONCILERS =
+			new ConcurrentHashMap<NovaStateSynchronizer, NovaFleetReconciler>();
+
+	/**
+	 * Returns the reconciler of the synchronizer region, which then refreshes the view
+	 * through the specified engine.
+	 *
+	 * @param tuning       the settings of the region
+	 * @param synchronizer the synchronizer of the region
+	 * @param novaEngine   the Nova engine
+	 * @return the reconciler, or <code>null</code> if background reconciliation is disabled
+	 */
+	public static NovaFleetReconciler fromConfig(OpenStackTuning tuning,
+			NovaStateSynchronizer synchronizer, NovaEngine novaEngine) {
+		if (!tuning.isReconcilerEnabled()) {
+			return null;
+		}
+		NovaFleetReconciler reconciler = RECONCILERS.get(synchronizer);
+		if (reconciler == null) {
+			NovaFleetReconciler created = new NovaFleetReconciler(synchronizer, novaEngine,
+					tuning.getReconcilerIntervalMillis(), tuning.getReconcilerMaxStalenessMillis(),
+					tuning.getReconcilerIdleTimeoutMillis());
+			reconciler = RECONCILERS.putIfAbsent(synchronizer, created);
+			if (reconciler == null) {
+				reconciler = created;
+			}
+		}
+		reconciler.novaEngine = novaEngine;
+		return reconciler;
+	}
+
+	private final NovaStateSynchronizer synchronizer;
+	private volatile NovaEngine novaEngine;
+	private volatile long intervalMillis;
+	private volatile long maxStalenessMillis;
+	private volatile long idleTimeoutMillis;
+
+	/*
+	 * The local time of the last read from Director
+	 */
+	private volatile long lastReadMillis;
+
+	/*
+	 * The duration of the last background refresh
+	 */
+	private volatile long lastRefreshDurationMillis;
+
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong staleReads = new AtomicLong();
+
+	/*
+	 * The scheduled refresh, null when stopped
+	 */
+	private ScheduledFuture<?> refreshTask;
+
+	NovaFleetReconciler(NovaStateSynchronizer synchronizer, NovaEngine novaEngine,
+			long intervalMillis, long maxStalenessMillis, long idleTimeoutMillis) {
+		this.synchronizer = synchronizer;
+		this.novaEngine = novaEngine;
+		this.intervalMillis = intervalMillis;
+		this.maxStalenessMillis = maxStalenessMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Applies the refresh interval, staleness bound and idle timeout of the region. A
+	 * running refresh is rescheduled when its interval changes.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		maxStalenessMillis = tuning.getReconcilerMaxStalenessMillis();
+		idleTimeoutMillis = tuning.getReconcilerIdleTimeoutMillis();
+		long interval = tuning.getReconcilerIntervalMillis();
+		synchronized (this) {
+			if (interval == intervalMillis) {
+				return;
+			}
+			intervalMillis = interval;
+			if (refreshTask != null) {
+				refreshTask.cancel(false);
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Returns the fleet view if it is fresh enough to be served, starting the background
+	 * refresh if needed. The view is read without locking.
+	 *
+	 * @return the fleet view, or <code>null</code> if it is older than the staleness bound
+	 */
+	public NovaFleetView read() {
+		lastReadMillis = System.currentTimeMillis();
+		start();
+		if (getRefreshLagMillis() > maxStalenessMillis) {
+			staleReads.incrementAndGet();
+			return null;
+		}
+		return synchronizer.getFleetView();
+	}
+
+	/**
+	 * Returns the time elapsed since the fleet view was last synchronized.
+	 */
+	public long getRefreshLagMillis() {
+		long lastSyncMillis = synchronizer.getLastSyncMillis();
+		return (lastSyncMillis == 0) ? Long.MAX_VALUE : System.currentTimeMillis() - lastSyncMillis;
+	}
+
+	/**
+	 * Returns the refresh lag and duration, the number of background refreshes and of
+	 * reads too stale to be served, and whether the background refresh is running.
+	 */
+	public Map<String, Long> getMetrics() {
+		boolean running;
+		synchronized (this) {
+			running = refreshTask != null;
+		}
+		return ImmutableMap.<String, Long>builder()
+				.put("refreshLagMillis", getRefreshLagMillis())
+				.put("lastRefreshDurationMillis", lastRefreshDurationMillis)
+				.put("maxStalenessMillis", maxStalenessMillis)
+				.put("fleetSize", (long) synchronizer.getFleetView().size())
+				.put("refreshes", refreshes.get())
+				.put("staleReads", staleReads.get())
+				.put("running", running ? 1L : 0L)
+				.build();
+	}
+
+	private synchronized void start() {
+		if (refreshTask == null) {
+			schedule();
+		}
+	}
+
+	private synchronized void schedule() {
+		LOG.info("Starting background reconciliation of region {} every {} ms",
+				synchronizer.getRegion(), intervalMillis);
+		refreshTask = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void stop() {
+		if (refreshTask != null) {
+			LOG.info("Stopping idle background reconciliation of region {}", synchronizer.getRegion());
+			refreshTask.cancel(false);
+			refreshTask = null;
+		}
+	}
+
+	private void refresh() {
+		long started = System.currentTimeMillis();
+		if (started - lastReadMillis > idleTimeoutMillis) {
+			stop();
+			return;
+		}
+		try {
+			// another provider of the same region may just have refreshed it
+			synchronizer.synchronizeIfOlderThan(novaEngine.getServerApi(synchronizer.getRegion()), intervalMillis);
+			lastRefreshDurationMillis = System.currentTimeMillis() - started;
+			refreshes.incrementAndGet();
+			LOG.debug("Fleet reconciler metrics of region {}: {}", synchronizer.getRegion(), getMetrics());
+		} catch (InterruptedException e) {
+			// the scheduler is shutting down
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			LOG.warn("Unable to refresh the fleet view of region " + synchronizer.getRegion(), e);
+		}
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Saves the fleet view of a region to a binary snapshot file at regular intervals, and
+ * restores it when the plugin starts, so that a restarted plugin only has to list the
+ * servers changed since the snapshot to be up to date.
+ * <p>
+ * The file starts with a header: a magic number, the format version, the save time, the
+ * high-water mark of the synchronizer, the fleet identity and the names of the statuses.
+ * One row per server follows, and a CRC-32 of everything before it. The file is replaced
+ * atomically, and is ignored when its version, identity or checksum does not match.
+ */
+public class NovaFleetSnapshotStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaFleetSnapshotStore.class);
+
+	/**
+	 * The magic number at the start of a snapshot file.
+	 */
+	private static final int MAGIC = 0x4E465354;
+
+	/**
+	 * The version of the snapshot format, increased on every incompatible change.
+	 */
+	static final int FORMAT_VERSION = 2;
+
+	private static final int NULL_LENGTH = -1;
+
+	/**
+	 * The scheduler shared by the stores of all regions.
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("nova-fleet-snapshot-%d").build());
+
+	/**
+	 * The started stores by file.
+	 */
+	private static final ConcurrentMap<File, NovaFleetSnapshotStore> STORES =
+			new ConcurrentHashMap<File, NovaFleetSnapshotStore>();
+
+	/**
+	 * The content of a snapshot file.
+	 */
+	static final class Contents {
+
+		private final long savedMillis;
+		private final long highWaterMillis;
+		private final List<NovaServerRecord> records;
+
+		private Contents(long savedMillis, long highWaterMillis, List<NovaServerRecord> records) {
+			this.savedMillis = savedMillis;
+			this.highWaterMillis = highWaterMillis;
+			this.records = records;
+		}
+
+		long getSavedMillis() {
+			return savedMillis;
+		}
+
+		long getHighWaterMillis() {
+			return highWaterMillis;
+		}
+
+		List<NovaServerRecord> getRecords() {
+			return records;
+		}
+	}
+
+	/**
+	 * Restores the saved fleet view of the synchronizer region and starts saving it, unless
+	 * snapshots are disabled or already started for that region.
+	 *
+	 * @param tuning                 the settings of the region
+	 * @param configurationDirectory the plugin configuration directory, may be <code>null</code>
+	 * @param synchronizer           the synchronizer of the region
+	 */
+	public static void startIfConfigured(OpenStackTuning tuning, File configurationDirectory,
+			NovaStateSynchronizer synchronizer) {
+		if (!tuning.isFleetSnapshotEnabled()) {
+			return;
+		}
+		String directory = tuning.getFleetSnapshotDirectory();
+		if (directory == null) {
+			directory = (configurationDirectory == null) ? null : configurationDirectory.getPath();
+		}
+		if (directory == null) {
+			return;
+		}
+		long intervalMillis = tuning.getFleetSnapshotIntervalMillis();
+
+		File file = new File(directory, getFileName(synchronizer.getKey())).getAbsoluteFile();
+		NovaFleetSnapshotStore store = new NovaFleetSnapshotStore(file, synchronizer);
+		if (STORES.putIfAbsent(file, store) == null) {
+			store.restore();
+			store.start(intervalMillis);
+		}
+	}
+
+	/**
+	 * Returns the snapshot file name of a fleet, derived from its identity.
+	 *
+	 * @param key the endpoint, identity and region of the fleet
+	 * @return the file name
+	 */
+	static String getFileName(String key) {
+		return "nova-fleet-" + Hashing.sha1().hashString(key, Charsets.UTF_8).toString().substring(0, 16)
+				+ ".snapshot";
+	}
+
+	private final File file;
+	private final NovaStateSynchronizer synchronizer;
+
+	/*
+	 * The version of the fleet view last saved, guarded by this
+	 */
+	private long savedVersion = -1;
+
+	NovaFleetSnapshotStore(File file, NovaStateSynchronizer synchronizer) {
+		this.file = file;
+		this.synchronizer = synchronizer;
+	}
+
+	/**
+	 * Restores the saved fleet view, if any.
+	 *
+	 * @return <code>true</code> if the fleet view was restored
+	 */
+	boolean restore() {
+		if (!file.isFile()) {
+			return false;
+		}
+		long started = System.currentTimeMillis();
+		Contents contents;
+		try {
+			contents = read(file, synchronizer.getKey());
+		} catch (IOException e) {
+			LOG.warn("Ignoring the fleet snapshot " + file + ": " + e.getMessage());
+			return false;
+		}
+		if (contents == null || !synchronizer.restore(contents.getRecords(), contents.getHighWaterMillis(),
+				contents.getSavedMillis())) {
+			return false;
+		}
+		LOG.info("Restored {} server(s) of region {} from {} in {} ms", contents.getRecords().size(),
+				synchronizer.getRegion(), file, System.currentTimeMillis() - started);
+		return true;
+	}
+
+	/**
+	 * Saves the fleet view if it changed since it was last saved and was synchronized
+	 * with Nova at least once.
+	 *
+	 * @return <code>true</code> if the fleet view was saved
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	synchronized boolean save() throws IOException {
+		NovaFleetView fleetView = synchronizer.getFleetView();
+		long version = fleetView.getVersion();
+		// the mark is read before the view, so that the view is never older than the mark
+		Long highWaterMillis = synchronizer.getHighWaterMillis();
+		if (version == savedVersion || highWaterMillis == null || synchronizer.getLastSyncMillis() == 0) {
+			return false;
+		}
+		write(file, synchronizer.getKey(), highWaterMillis, fleetView.snapshot());
+		savedVersion = version;
+		return true;
+	}
+
+	private void start(long intervalMillis) {
+		SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					save();
+				} catch (IOException e) {
+					LOG.warn("Unable to save the fleet snapshot " + file, e);
+				} catch (RuntimeException e) {
+					LOG.warn("Unable to save the fleet snapshot " + file, e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes a snapshot file, replacing the previous one atomically.
+	 *
+	 * @param file            the snapshot file
+	 * @param key             the identity of the fleet
+	 * @param highWaterMillis the high-water mark of the synchronizer
+	 * @param snapshot        the fleet
+	 * @throws IOException if the file cannot be written
+	 */
+	@VisibleForTesting
+	static void write(File file, String key, long highWaterMillis, NovaFleetTable.Snapshot snapshot)
+			throws IOException {
+		File written = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(written);
+		try {
+			CRC32 checksum = new CRC32();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new CheckedOutputStream(fileOut, checksum), 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeLong(highWaterMillis);
+			writeString(out, key);
+			Status[] statuses = Status.values();
+			out.writeByte(statuses.length);
+			for (Status status : statuses) {
+				writeString(out, status.name());
+			}
+			out.writeInt(snapshot.size());
+			for (int row = 0; row < snapshot.size(); row++) {
+				writeString(out, snapshot.getVirtualInstanceId(row));
+				writeString(out, snapshot.getNovaInstanceId(row));
+				out.writeByte(snapshot.getStatus(row).ordinal());
+				writeString(out, snapshot.getPrivateNetwork(row));
+				writeAddress(out, snapshot.getPrivateIpAddress(row));
+				writeAddress(out, snapshot.getFloatingIpAddress(row));
+				writeString(out, snapshot.getFloatingIpId(row));
+				writeString(out, snapshot.getPortId(row));
+				writeString(out, snapshot.getFlavorId(row));
+				writeString(out, snapshot.getImageId(row));
+				writeString(out, snapshot.getKeyName(row));
+				writeString(out, snapshot.getVmState(row));
+				writeString(out, snapshot.getTaskState(row));
+				writeString(out, snapshot.getFaultMessage(row));
+				out.writeLong(snapshot.getCreatedMillis(row));
+				out.writeLong(snapshot.getUpdatedMillis(row));
+			}
+			out.flush();
+			out.writeLong(checksum.getValue());
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			Closeables.close(fileOut, true);
+		}
+		if (!written.renameTo(file) && !(file.delete() && written.renameTo(file))) {
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+
+	/**
+	 * Reads a snapshot file through a memory mapping.
+	 *
+	 * @param file the snapshot file
+	 * @param key  the identity of the fleet
+	 * @return the contents, or <code>null</code> if the file was written for another fleet
+	 *         or in another format version
+	 * @throws IOException if the file cannot be read or is corrupted
+	 */
+	@VisibleForTesting
+	static Contents read(File file, String key) throws IOException {
+		RandomAccessFile snapshotFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = snapshotFile.getChannel();
+			long length = channel.size();
+			if (length < 8 || length > Integer.MAX_VALUE) {
+				throw new IOException("unexpected size " + length);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("not a fleet snapshot");
+			}
+			if (buffer.getInt() != FORMAT_VERSION) {
+				return null;
+			}
+			verifyChecksum(buffer, (int) length - 8);
+			long savedMillis = buffer.getLong();
+			long highWaterMillis = buffer.getLong();
+			if (!key.equals(readString(buffer))) {
+				return null;
+			}
+			Status[] statuses = new Status[buffer.get() & 0xFF];
+			for (int i = 0; i < statuses.length; i++) {
+				statuses[i] = toStatus(readString(buffer));
+			}
+			int size = buffer.getInt();
+			List<NovaServerRecord> records = Lists.newArrayListWithCapacity(size);
+			for (int i = 0; i < size; i++) {
+				records.add(readRecord(buffer, statuses));
+			}
+			return new Contents(savedMillis, highWaterMillis, records);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated fleet snapshot", e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("corrupted fleet snapshot", e);
+		} finally {
+			Closeables.close(snapshotFile, true);
+		}
+	}
+
+	/**
+	 * Reads a row back into the server record it was built from.
+	 */
+	private static NovaServerRecord readRecord(ByteBuffer buffer, Status[] statuses) {
+		String virtualInstanceId = readString(buffer);
+		String novaInstanceId = readString(buffer);
+		Status status = statuses[buffer.get() & 0xFF];
+		String privateNetwork = readString(buffer);
+		String privateIp = readString(buffer);
+		String floatingIp = readString(buffer);
+		String floatingIpId = readString(buffer);
+		String portId = readString(buffer);
+
+		ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+		metadata.put(NovaFleetView.DIRECTOR_ID_METADATA_KEY, virtualInstanceId);
+		ImmutableListMultimap.Builder<String, String> addresses = ImmutableListMultimap.builder();
+		Map<String, String> addressTypes = Maps.newHashMap();
+		String network = (privateNetwork == null) ? "" : privateNetwork;
+		if (privateIp != null) {
+			addresses.put(network, privateIp);
+			addressTypes.put(privateIp, NovaServerAddresses.FIXED_ADDRESS_TYPE);
+		}
+		if (floatingIp != null) {
+			addresses.put(network, floatingIp);
+			addressTypes.put(floatingIp, NovaServerAddresses.FLOATING_ADDRESS_TYPE);
+			metadata.put(NovaServerAddresses.FLOATING_IP_METADATA_KEY, floatingIp);
+		}
+		if (floatingIpId != null) {
+			metadata.put(NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, floatingIpId);
+		}
+		if (portId != null) {
+			metadata.put(NovaServerAddresses.PORT_ID_METADATA_KEY, portId);
+		}
+		return NovaServerRecord.builder()
+				.id(novaInstanceId)
+				.status(status)
+				.metadata(metadata.build())
+				.addresses(addresses.build())
+				.addressTypes(addressTypes)
+				.flavorId(readString(buffer))
+				.imageId(readString(buffer))
+				.keyName(readString(buffer))
+				.vmState(readString(buffer))
+				.taskState(readString(buffer))
+				.faultMessage(readString(buffer))
+				.createdMillis(buffer.getLong())
+				.updatedMillis(buffer.getLong())
+				.build();
+	}
+
+	private static void verifyChecksum(ByteBuffer buffer, int checksummedLength) throws IOException {
+		ByteBuffer content = buffer.duplicate();
+		content.position(0);
+		CRC32 checksum = new CRC32();
+		byte[] chunk = new byte[64 * 1024];
+		int remaining = checksummedLength;
+		while (remaining > 0) {
+			int count = Math.min(remaining, chunk.length);
+			content.get(chunk, 0, count);
+			checksum.update(chunk, 0, count);
+			remaining -= count;
+		}
+		if (content.getLong() != checksum.getValue()) {
+			throw new IOException("checksum mismatch");
+		}
+	}
+
+	private static Status toStatus(String name) {
+		try {
+			return Status.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			return Status.UNRECOGNIZED;
+		}
+	}
+
+	private static void writeAddress(DataOutputStream out, InetAddress address) throws IOException {
+		writeString(out, (address == null) ? null : address.getHostAddress());
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(NULL_LENGTH);
+			return;
+		}
+		byte[] bytes = value.getBytes(Charsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IOException("value too long: " + value.substring(0, 64) + "...");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getShort();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,984 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.net.InetAddresses;
+
+/**
+ * The state of a large fleet in a few primitive arrays, one per column, instead of one
+ * object graph per server. The IDs in the canonical UUID form take two longs, the IPv4
+ * addresses one int, the status one byte, and the names repeated across the fleet
+ * (flavors, images, key pairs, networks) an int code into a shared dictionary. Other IDs
+ * and addresses are kept as strings in overflow columns, only allocated when needed.
+ * <p>
+ * The table is copy-on-write: every change publishes a new {@link Snapshot}, so reads
+ * take no lock and see a consistent fleet. Changes are applied in batches, a status
+ * change only copies the status column.
+ */
+public final class NovaFleetTable {
+
+	private static final Status[] STATUSES = Status.values();
+
+	/**
+	 * The code of a missing name.
+	 */
+	private static final int NO_CODE = -1;
+
+	/**
+	 * An immutable state of the fleet. The rows are only valid within the snapshot they
+	 * were found in.
+	 */
+	public static final class Snapshot {
+
+		private final int size;
+		private final IdColumn virtualInstanceIds;
+		private final IdColumn novaInstanceIds;
+		private final IdColumn floatingIpIds;
+		private final IdColumn portIds;
+		private final byte[] statuses;
+		private final AddressColumn privateIps;
+		private final AddressColumn floatingIps;
+		private final int[] privateNetworks;
+		private final int[] flavors;
+		private final int[] images;
+		private final int[] keyNames;
+		private final int[] vmStates;
+		private final int[] taskStates;
+		private final int[] faultMessages;
+		private final long[] createdMillis;
+		private final long[] updatedMillis;
+		private final String[] dictionary;
+
+		/*
+		 * Open addressing hash indexes of the rows by ID, holding row + 1, 0 for an empty slot
+		 */
+		private final int[] virtualInstanceIdIndex;
+		private final int[] novaInstanceIdIndex;
+
+		private Snapshot(int size, IdColumn virtualInstanceIds, IdColumn novaInstanceIds, IdColumn floatingIpIds,
+				IdColumn portIds, byte[] statuses, AddressColumn privateIps, AddressColumn floatingIps,
+				int[] privateNetworks, int[] flavors, int[] images, int[] keyNames, int[] vmStates, int[] taskStates,
+				int[] faultMessages, long[] createdMillis, long[] updatedMillis, String[] dictionary,
+				int[] virtualInstanceIdIndex, int[] novaInstanceIdIndex) {
+			this.size = size;
+			this.virtualInstanceIds = virtualInstanceIds;
+			this.novaInstanceIds = novaInstanceIds;
+			this.floatingIpIds = floatingIpIds;
+			this.portIds = portIds;
+			this.statuses = statuses;
+			this.privateIps = privateIps;
+			this.floatingIps = floatingIps;
+			this.privateNetworks = privateNetworks;
+			this.flavors = flavors;
+			this.images = images;
+			this.keyNames = keyNames;
+			this.vmStates = vmStates;
+			this.taskStates = taskStates;
+			this.faultMessages = faultMessages;
+			this.createdMillis = createdMillis;
+			this.updatedMillis = updatedMillis;
+			this.dictionary = dictionary;
+			this.virtualInstanceIdIndex = virtualInstanceIdIndex;
+			this.novaInstanceIdIndex = novaInstanceIdIndex;
+		}
+
+		private Snapshot withStatus(int row, Status status) {
+			byte[] updatedStatuses = statuses.clone();
+			updatedStatuses[row] = (byte) status.ordinal();
+			// the extended state of the server is only known again from its next listing
+			int[] updatedVmStates = vmStates.clone();
+			updatedVmStates[row] = NO_CODE;
+			int[] updatedTaskStates = taskStates.clone();
+			updatedTaskStates[row] = NO_CODE;
+			return new Snapshot(size, virtualInstanceIds, novaInstanceIds, floatingIpIds, portIds, updatedStatuses,
+					privateIps, floatingIps, privateNetworks, flavors, images, keyNames, updatedVmStates,
+					updatedTaskStates, faultMessages, createdMillis, updatedMillis, dictionary, virtualInstanceIdIndex,
+					novaInstanceIdIndex);
+		}
+
+		/**
+		 * Returns the number of servers.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the row of a server.
+		 *
+		 * @param virtualInstanceId the virtual instance ID
+		 * @return the row, or -1 if the server is unknown
+		 */
+		public int findByVirtualInstanceId(String virtualInstanceId) {
+			return find(virtualInstanceIdIndex, virtualInstanceIds, virtualInstanceId);
+		}
+
+		/**
+		 * Returns the row of a server.
+		 *
+		 * @param novaInstanceId the Nova instance ID
+		 * @return the row, or -1 if the server is unknown
+		 */
+		public int findByNovaInstanceId(String novaInstanceId) {
+			return find(novaInstanceIdIndex, novaInstanceIds, novaInstanceId);
+		}
+
+		public String getVirtualInstanceId(int row) {
+			return virtualInstanceIds.get(row);
+		}
+
+		public String getNovaInstanceId(int row) {
+			return novaInstanceIds.get(row);
+		}
+
+		public Status getStatus(int row) {
+			return STATUSES[statuses[row]];
+		}
+
+		/**
+		 * Returns the Director state of a server, from its extended state when known.
+		 */
+		public NovaInstanceState getInstanceState(int row) {
+			return NovaInstanceState.fromServerState(getStatus(row), getVmState(row), getTaskState(row));
+		}
+
+		/**
+		 * Returns whether the server went to an error state it will not leave on its own.
+		 */
+		public boolean isFailed(int row) {
+			return NovaInstanceState.isFailed(getStatus(row), getVmState(row));
+		}
+
+		public InetAddress getPrivateIpAddress(int row) {
+			return privateIps.get(row);
+		}
+
+		public InetAddress getFloatingIpAddress(int row) {
+			return floatingIps.get(row);
+		}
+
+		/**
+		 * Returns the Nova or Neutron ID of the floating IP allocated by the plugin, if recorded.
+		 */
+		public String getFloatingIpId(int row) {
+			return floatingIpIds.get(row);
+		}
+
+		/**
+		 * Returns the ID of the Neutron port created by the plugin, if any.
+		 */
+		public String getPortId(int row) {
+			return portIds.get(row);
+		}
+
+		public String getPrivateNetwork(int row) {
+			return decode(privateNetworks[row]);
+		}
+
+		public String getFlavorId(int row) {
+			return decode(flavors[row]);
+		}
+
+		public String getImageId(int row) {
+			return decode(images[row]);
+		}
+
+		public String getKeyName(int row) {
+			return decode(keyNames[row]);
+		}
+
+		/**
+		 * Returns the Nova VM state (OS-EXT-STS:vm_state) of a server, if listed.
+		 */
+		public String getVmState(int row) {
+			return decode(vmStates[row]);
+		}
+
+		/**
+		 * Returns the Nova task state (OS-EXT-STS:task_state) of a server, if any.
+		 */
+		public String getTaskState(int row) {
+			return decode(taskStates[row]);
+		}
+
+		/**
+		 * Returns the message of the fault of a failed server, if listed.
+		 */
+		public String getFaultMessage(int row) {
+			return decode(faultMessages[row]);
+		}
+
+		/**
+		 * Returns the creation time in milliseconds since the epoch, 0 when unknown.
+		 */
+		public long getCreatedMillis(int row) {
+			return createdMillis[row];
+		}
+
+		/**
+		 * Returns the last update time in milliseconds since the epoch, 0 when unknown.
+		 */
+		public long getUpdatedMillis(int row) {
+			return updatedMillis[row];
+		}
+
+		/**
+		 * Returns the address index of a server, as built from the server itself.
+		 */
+		public NovaServerAddresses getAddresses(int row) {
+			return NovaServerAddresses.of(getPrivateNetwork(row), getPrivateIpAddress(row), getFloatingIpAddress(row),
+					getFloatingIpId(row));
+		}
+
+		/**
+		 * Returns the number of bytes held by the columns, indexes and dictionary of this
+		 * snapshot, headers included, with 4-byte references.
+		 */
+		public long getFootprintBytes() {
+			long bytes = virtualInstanceIds.getFootprintBytes() + novaInstanceIds.getFootprintBytes()
+					+ floatingIpIds.getFootprintBytes() + portIds.getFootprintBytes()
+					+ privateIps.getFootprintBytes() + floatingIps.getFootprintBytes()
+					+ arrayBytes(statuses.length, 1)
+					+ arrayBytes(privateNetworks.length, 4) * 7
+					+ arrayBytes(createdMillis.length, 8) * 2
+					+ arrayBytes(virtualInstanceIdIndex.length, 4) + arrayBytes(novaInstanceIdIndex.length, 4)
+					+ arrayBytes(dictionary.length, 4);
+			for (String name : dictionary) {
+				bytes += stringBytes(name);
+			}
+			return bytes;
+		}
+
+		private String decode(int code) {
+			return (code == NO_CODE) ? null : dictionary[code];
+		}
+
+		private int find(int[] index, IdColumn ids, String id) {
+			if (id == null || size == 0) {
+				return -1;
+			}
+			long msb = 0;
+			long lsb = 0;
+			boolean uuid = isUuid(id);
+			if (uuid) {
+				msb = parseHex(id, 0);
+				lsb = parseHex(id, 19);
+				// the nil UUID is kept as a string
+				uuid = msb != 0 || lsb != 0;
+			}
+			int hash = uuid ? hash(msb, lsb) : mix(id.hashCode());
+			int mask = index.length - 1;
+			for (int slot = hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+				int row = index[slot] - 1;
+				if (uuid ? ids.matches(row, msb, lsb) : id.equals(ids.getOverflow(row))) {
+					return row;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * The column of an ID, as two longs in the canonical UUID form, a string otherwise.
+	 */
+	private static final class IdColumn {
+
+		private final long[] bits;
+		private final String[] overflow;
+
+		private IdColumn(long[] bits, String[] overflow) {
+			this.bits = bits;
+			this.overflow = overflow;
+		}
+
+		String get(int row) {
+			String id = getOverflow(row);
+			if (id != null) {
+				return id;
+			}
+			long msb = bits[2 * row];
+			long lsb = bits[2 * row + 1];
+			return (msb == 0 && lsb == 0) ? null : formatUuid(msb, lsb);
+		}
+
+		String getOverflow(int row) {
+			return (overflow == null) ? null : overflow[row];
+		}
+
+		boolean matches(int row, long msb, long lsb) {
+			return bits[2 * row] == msb && bits[2 * row + 1] == lsb && getOverflow(row) == null;
+		}
+
+		int hash(int row) {
+			String id = getOverflow(row);
+			return (id != null) ? mix(id.hashCode()) : NovaFleetTable.hash(bits[2 * row], bits[2 * row + 1]);
+		}
+
+		long getFootprintBytes() {
+			long bytes = arrayBytes(bits.length, 8);
+			if (overflow != null) {
+				bytes += arrayBytes(overflow.length, 4);
+				for (String id : overflow) {
+					bytes += stringBytes(id);
+				}
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * The column of an IP address, as an int for IPv4, a string otherwise.
+	 */
+	private static final class AddressColumn {
+
+		private final int[] ipv4;
+		private final String[] overflow;
+
+		private AddressColumn(int[] ipv4, String[] overflow) {
+			this.ipv4 = ipv4;
+			this.overflow = overflow;
+		}
+
+		InetAddress get(int row) {
+			if (overflow != null && overflow[row] != null) {
+				return InetAddresses.forString(overflow[row]);
+			}
+			return (ipv4[row] == 0) ? null : InetAddresses.fromInteger(ipv4[row]);
+		}
+
+		long getFootprintBytes() {
+			long bytes = arrayBytes(ipv4.length, 4);
+			if (overflow != null) {
+				bytes += arrayBytes(overflow.length, 4);
+				for (String address : overflow) {
+					bytes += stringBytes(address);
+				}
+			}
+			return bytes;
+		}
+	}
+
+	/*
+	 * The current snapshot, replaced on every change
+	 */
+	private volatile Snapshot snapshot;
+
+	/*
+	 * The codes of the dictionary names, guarded by this
+	 */
+	private Map<String, Integer> codes = Maps.newHashMap();
+	private List<String> names = Lists.newArrayList();
+
+	public NovaFleetTable() {
+		snapshot = new Builder(0).build();
+	}
+
+	/**
+	 * Returns the current state of the fleet, without locking.
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Replaces the whole content of the table with the specified servers. The servers
+	 * not launched by the plugin and the deleted ones are left out.
+	 *
+	 * @param records the complete list of servers
+	 */
+	public synchronized void replaceAll(Iterable<NovaServerRecord> records) {
+		Snapshot current = snapshot;
+		codes = Maps.newHashMap();
+		names = Lists.newArrayList();
+		Builder builder = new Builder(current.size());
+		Map<String, Integer> rowsByVirtualInstanceId = Maps.newHashMap();
+		for (NovaServerRecord record : records) {
+			String virtualInstanceId = getVirtualInstanceId(current, record);
+			if (virtualInstanceId == null || isDeleted(record.getStatus())) {
+				continue;
+			}
+			Integer row = rowsByVirtualInstanceId.get(virtualInstanceId);
+			if (row == null) {
+				rowsByVirtualInstanceId.put(virtualInstanceId, builder.size);
+				builder.add(virtualInstanceId, record);
+			} else {
+				builder.set(row, virtualInstanceId, record);
+			}
+		}
+		snapshot = builder.build();
+	}
+
+	/**
+	 * Applies the latest known state of some servers. Deleted servers are removed, servers
+	 * not launched by the plugin are ignored.
+	 *
+	 * @param records the servers
+	 */
+	public synchronized void applyAll(Iterable<NovaServerRecord> records) {
+		Snapshot current = snapshot;
+		Builder builder = new Builder(current.size());
+		for (int row = 0; row < current.size(); row++) {
+			builder.copy(current, row);
+		}
+		boolean changed = false;
+		for (NovaServerRecord record : records) {
+			String virtualInstanceId = getVirtualInstanceId(current, record);
+			if (virtualInstanceId == null) {
+				continue;
+			}
+			int row = builder.find(virtualInstanceId);
+			if (isDeleted(record.getStatus())) {
+				// the virtual instance ID may already belong to a replacement server
+				if (row >= 0 && record.getId().equals(builder.novaInstanceIds.get(row))) {
+					builder.remove(row);
+					changed = true;
+				}
+			} else if (row >= 0) {
+				builder.set(row, virtualInstanceId, record);
+				changed = true;
+			} else {
+				builder.add(virtualInstanceId, record);
+				changed = true;
+			}
+		}
+		if (changed) {
+			snapshot = builder.build();
+		}
+	}
+
+	/**
+	 * Applies a status change of a server reported outside of a listing.
+	 *
+	 * @param novaInstanceId    the Nova instance ID
+	 * @param virtualInstanceId the virtual instance ID if known, may be <code>null</code>
+	 * @param status            the new status
+	 * @return <code>true</code> if the server is known and was updated
+	 */
+	public synchronized boolean applyStatus(String novaInstanceId, String virtualInstanceId, Status status) {
+		Snapshot current = snapshot;
+		int row = (virtualInstanceId == null) ? current.findByNovaInstanceId(novaInstanceId)
+				: current.findByVirtualInstanceId(virtualInstanceId);
+		if (row < 0 || !novaInstanceId.equals(current.getNovaInstanceId(row))) {
+			return false;
+		}
+		if (isDeleted(status)) {
+			Builder builder = new Builder(current.size());
+			for (int i = 0; i < current.size(); i++) {
+				if (i != row) {
+					builder.copy(current, i);
+				}
+			}
+			snapshot = builder.build();
+		} else {
+			snapshot = current.withStatus(row, status);
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the addresses of a server reported outside of a listing. The floating IP
+	 * already known is kept when none is reported.
+	 *
+	 * @param novaInstanceId    the Nova instance ID
+	 * @param virtualInstanceId the virtual instance ID if known, may be <code>null</code>
+	 * @param privateNetwork    the network of the private IP address
+	 * @param privateIpAddress  the private IP address
+	 * @param floatingIpAddress the floating IP address, <code>null</code> if not reported
+	 * @return <code>true</code> if the server is known and its addresses changed
+	 */
+	public synchronized boolean applyAddresses(String novaInstanceId, String virtualInstanceId,
+			String privateNetwork, InetAddress privateIpAddress, InetAddress floatingIpAddress) {
+		Snapshot current = snapshot;
+		int row = (virtualInstanceId == null) ? current.findByNovaInstanceId(novaInstanceId)
+				: current.findByVirtualInstanceId(virtualInstanceId);
+		if (row < 0 || !novaInstanceId.equals(current.getNovaInstanceId(row))) {
+			return false;
+		}
+		if (privateIpAddress.equals(current.getPrivateIpAddress(row))
+				&& (floatingIpAddress == null || floatingIpAddress.equals(current.getFloatingIpAddress(row)))) {
+			return false;
+		}
+		Builder builder = new Builder(current.size());
+		for (int i = 0; i < current.size(); i++) {
+			builder.copy(current, i);
+		}
+		builder.setAddresses(row, privateNetwork, privateIpAddress, floatingIpAddress);
+		snapshot = builder.build();
+		return true;
+	}
+
+	private static String getVirtualInstanceId(Snapshot current, NovaServerRecord record) {
+		String virtualInstanceId = record.getMetadata().get(NovaFleetView.DIRECTOR_ID_METADATA_KEY);
+		if (virtualInstanceId == null) {
+			// e.g. a deleted server, whose metadata is no longer returned
+			int row = current.findByNovaInstanceId(record.getId());
+			virtualInstanceId = (row < 0) ? null : current.getVirtualInstanceId(row);
+		}
+		return virtualInstanceId;
+	}
+
+	private static boolean isDeleted(Status status) {
+		return status == Status.DELETED || status == Status.SOFT_DELETED;
+	}
+
+	private int encode(String name) {
+		if (name == null) {
+			return NO_CODE;
+		}
+		Integer code = codes.get(name);
+		if (code == null) {
+			code = names.size();
+			codes.put(name, code);
+			names.add(name);
+		}
+		return code;
+	}
+
+	/**
+	 * Collects the rows of the next snapshot, guarded by the table.
+	 */
+	private final class Builder {
+
+		private int size;
+		private final IdColumnBuilder virtualInstanceIds;
+		private final IdColumnBuilder novaInstanceIds;
+		private final IdColumnBuilder floatingIpIds;
+		private final IdColumnBuilder portIds;
+		private byte[] statuses;
+		private final AddressColumnBuilder privateIps;
+		private final AddressColumnBuilder floatingIps;
+		private int[] privateNetworks;
+		private int[] flavors;
+		private int[] images;
+		private int[] keyNames;
+		private int[] vmStates;
+		private int[] taskStates;
+		private int[] faultMessages;
+		private long[] createdMillis;
+		private long[] updatedMillis;
+		private boolean[] removed;
+		private Map<String, Integer> rowsByVirtualInstanceId;
+
+		Builder(int capacity) {
+			capacity = Math.max(capacity, 16);
+			virtualInstanceIds = new IdColumnBuilder(capacity);
+			novaInstanceIds = new IdColumnBuilder(capacity);
+			floatingIpIds = new IdColumnBuilder(capacity);
+			portIds = new IdColumnBuilder(capacity);
+			statuses = new byte[capacity];
+			privateIps = new AddressColumnBuilder(capacity);
+			floatingIps = new AddressColumnBuilder(capacity);
+			privateNetworks = new int[capacity];
+			flavors = new int[capacity];
+			images = new int[capacity];
+			keyNames = new int[capacity];
+			vmStates = new int[capacity];
+			taskStates = new int[capacity];
+			faultMessages = new int[capacity];
+			createdMillis = new long[capacity];
+			updatedMillis = new long[capacity];
+			removed = new boolean[capacity];
+		}
+
+		void add(String virtualInstanceId, NovaServerRecord record) {
+			ensureCapacity();
+			set(size++, virtualInstanceId, record);
+		}
+
+		void set(int row, String virtualInstanceId, NovaServerRecord record) {
+			NovaServerAddresses addresses = NovaServerAddresses.of(record);
+			Map<String, String> metadata = record.getMetadata();
+			virtualInstanceIds.set(row, virtualInstanceId);
+			novaInstanceIds.set(row, record.getId());
+			floatingIpIds.set(row, addresses.getFloatingIpId());
+			portIds.set(row, metadata.get(NovaServerAddresses.PORT_ID_METADATA_KEY));
+			statuses[row] = (byte) record.getStatus().ordinal();
+			privateIps.set(row, addresses.getPrivateIpAddress());
+			floatingIps.set(row, addresses.getFloatingIpAddress());
+			privateNetworks[row] = encode(addresses.getPrivateNetwork());
+			flavors[row] = encode(record.getFlavorId());
+			images[row] = encode(record.getImageId());
+			keyNames[row] = encode(record.getKeyName());
+			vmStates[row] = encode(record.getVmState());
+			taskStates[row] = encode(record.getTaskState());
+			faultMessages[row] = encode(record.getFaultMessage());
+			createdMillis[row] = record.getCreatedMillis();
+			updatedMillis[row] = record.getUpdatedMillis();
+			if (rowsByVirtualInstanceId != null) {
+				rowsByVirtualInstanceId.put(virtualInstanceId, row);
+			}
+		}
+
+		void copy(Snapshot from, int fromRow) {
+			ensureCapacity();
+			int row = size++;
+			virtualInstanceIds.copy(from.virtualInstanceIds, fromRow, row);
+			novaInstanceIds.copy(from.novaInstanceIds, fromRow, row);
+			floatingIpIds.copy(from.floatingIpIds, fromRow, row);
+			portIds.copy(from.portIds, fromRow, row);
+			statuses[row] = from.statuses[fromRow];
+			privateIps.copy(from.privateIps, fromRow, row);
+			floatingIps.copy(from.floatingIps, fromRow, row);
+			// the codes of the current dictionary are kept until the next full replacement
+			privateNetworks[row] = from.privateNetworks[fromRow];
+			flavors[row] = from.flavors[fromRow];
+			images[row] = from.images[fromRow];
+			keyNames[row] = from.keyNames[fromRow];
+			vmStates[row] = from.vmStates[fromRow];
+			taskStates[row] = from.taskStates[fromRow];
+			faultMessages[row] = from.faultMessages[fromRow];
+			createdMillis[row] = from.createdMillis[fromRow];
+			updatedMillis[row] = from.updatedMillis[fromRow];
+		}
+
+		void setAddresses(int row, String privateNetwork, InetAddress privateIpAddress, InetAddress floatingIpAddress) {
+			privateIps.set(row, privateIpAddress);
+			privateNetworks[row] = encode(privateNetwork);
+			if (floatingIpAddress != null) {
+				floatingIps.set(row, floatingIpAddress);
+			}
+		}
+
+		int find(String virtualInstanceId) {
+			if (rowsByVirtualInstanceId == null) {
+				rowsByVirtualInstanceId = Maps.newHashMapWithExpectedSize(size);
+				for (int row = 0; row < size; row++) {
+					if (!removed[row]) {
+						rowsByVirtualInstanceId.put(virtualInstanceIds.get(row), row);
+					}
+				}
+			}
+			Integer row = rowsByVirtualInstanceId.get(virtualInstanceId);
+			return (row == null) ? -1 : row;
+		}
+
+		void remove(int row) {
+			removed[row] = true;
+			if (rowsByVirtualInstanceId != null) {
+				rowsByVirtualInstanceId.remove(virtualInstanceIds.get(row));
+			}
+		}
+
+		private void ensureCapacity() {
+			if (size < statuses.length) {
+				return;
+			}
+			int capacity = statuses.length * 2;
+			virtualInstanceIds.grow(capacity);
+			novaInstanceIds.grow(capacity);
+			floatingIpIds.grow(capacity);
+			portIds.grow(capacity);
+			statuses = Arrays.copyOf(statuses, capacity);
+			privateIps.grow(capacity);
+			floatingIps.grow(capacity);
+			privateNetworks = Arrays.copyOf(privateNetworks, capacity);
+			flavors = Arrays.copyOf(flavors, capacity);
+			images = Arrays.copyOf(images, capacity);
+			keyNames = Arrays.copyOf(keyNames, capacity);
+			vmStates = Arrays.copyOf(vmStates, capacity);
+			taskStates = Arrays.copyOf(taskStates, capacity);
+			faultMessages = Arrays.copyOf(faultMessages, capacity);
+			createdMillis = Arrays.copyOf(createdMillis, capacity);
+			updatedMillis = Arrays.copyOf(updatedMillis, capacity);
+			removed = Arrays.copyOf(removed, capacity);
+		}
+
+		Snapshot build() {
+			int[] rows = new int[size];
+			int count = 0;
+			for (int row = 0; row < size; row++) {
+				if (!removed[row]) {
+					rows[count++] = row;
+				}
+			}
+			rows = Arrays.copyOf(rows, count);
+			IdColumn builtVirtualInstanceIds = virtualInstanceIds.build(rows);
+			IdColumn builtNovaInstanceIds = novaInstanceIds.build(rows);
+			return new Snapshot(count, builtVirtualInstanceIds, builtNovaInstanceIds, floatingIpIds.build(rows),
+					portIds.build(rows), select(statuses, rows), privateIps.build(rows), floatingIps.build(rows),
+					select(privateNetworks, rows), select(flavors, rows), select(images, rows),
+					select(keyNames, rows), select(vmStates, rows), select(taskStates, rows),
+					select(faultMessages, rows), select(createdMillis, rows), select(updatedMillis, rows),
+					names.toArray(new String[names.size()]), index(builtVirtualInstanceIds, count),
+					index(builtNovaInstanceIds, count));
+		}
+	}
+
+	private static final class IdColumnBuilder {
+
+		private long[] bits;
+		private String[] overflow;
+
+		IdColumnBuilder(int capacity) {
+			bits = new long[2 * capacity];
+		}
+
+		void set(int row, String id) {
+			if (overflow != null) {
+				overflow[row] = null;
+			}
+			if (id == null) {
+				bits[2 * row] = 0;
+				bits[2 * row + 1] = 0;
+				return;
+			}
+			long msb = isUuid(id) ? parseHex(id, 0) : 0;
+			long lsb = isUuid(id) ? parseHex(id, 19) : 0;
+			bits[2 * row] = msb;
+			bits[2 * row + 1] = lsb;
+			if (msb == 0 && lsb == 0) {
+				// not a UUID, or the nil one which stands for a missing ID
+				if (overflow == null) {
+					overflow = new String[bits.length / 2];
+				}
+				overflow[row] = id;
+			}
+		}
+
+		String get(int row) {
+			if (overflow != null && overflow[row] != null) {
+				return overflow[row];
+			}
+			long msb = bits[2 * row];
+			long lsb = bits[2 * row + 1];
+			return (msb == 0 && lsb == 0) ? null : formatUuid(msb, lsb);
+		}
+
+		void copy(IdColumn from, int fromRow, int row) {
+			bits[2 * row] = from.bits[2 * fromRow];
+			bits[2 * row + 1] = from.bits[2 * fromRow + 1];
+			String id = from.getOverflow(fromRow);
+			if (id != null && overflow == null) {
+				overflow = new String[bits.length / 2];
+			}
+			if (overflow != null) {
+				overflow[row] = id;
+			}
+		}
+
+		void grow(int capacity) {
+			bits = Arrays.copyOf(bits, 2 * capacity);
+			if (overflow != null) {
+				overflow = Arrays.copyOf(overflow, capacity);
+			}
+		}
+
+		IdColumn build(int[] rows) {
+			long[] builtBits = new long[2 * rows.length];
+			String[] builtOverflow = null;
+			for (int i = 0; i < rows.length; i++) {
+				builtBits[2 * i] = bits[2 * rows[i]];
+				builtBits[2 * i + 1] = bits[2 * rows[i] + 1];
+				if (overflow != null && overflow[rows[i]] != null) {
+					if (builtOverflow == null) {
+						builtOverflow = new String[rows.length];
+					}
+					builtOverflow[i] = overflow[rows[i]];
+				}
+			}
+			return new IdColumn(builtBits, builtOverflow);
+		}
+	}
+
+	private static final class AddressColumnBuilder {
+
+		private int[] ipv4;
+		private String[] overflow;
+
+		AddressColumnBuilder(int capacity) {
+			ipv4 = new int[capacity];
+		}
+
+		void set(int row, InetAddress address) {
+			if (overflow != null) {
+				overflow[row] = null;
+			}
+			if (address == null || address instanceof Inet4Address) {
+				ipv4[row] = (address == null) ? 0 : InetAddresses.coerceToInteger(address);
+				return;
+			}
+			ipv4[row] = 0;
+			if (overflow == null) {
+				overflow = new String[ipv4.length];
+			}
+			overflow[row] = InetAddresses.toAddrString(address);
+		}
+
+		void copy(AddressColumn from, int fromRow, int row) {
+			ipv4[row] = from.ipv4[fromRow];
+			String address = (from.overflow == null) ? null : from.overflow[fromRow];
+			if (address != null && overflow == null) {
+				overflow = new String[ipv4.length];
+			}
+			if (overflow != null) {
+				overflow[row] = address;
+			}
+		}
+
+		void grow(int capacity) {
+			ipv4 = Arrays.copyOf(ipv4, capacity);
+			if (overflow != null) {
+				overflow = Arrays.copyOf(overflow, capacity);
+			}
+		}
+
+		AddressColumn build(int[] rows) {
+			String[] builtOverflow = null;
+			if (overflow != null) {
+				builtOverflow = new String[rows.length];
+				for (int i = 0; i < rows.length; i++) {
+					builtOverflow[i] = overflow[rows[i]];
+				}
+			}
+			return new AddressColumn(select(ipv4, rows), builtOverflow);
+		}
+	}
+
+	private static byte[] select(byte[] column, int[] rows) {
+		byte[] selected = new byte[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			selected[i] = column[rows[i]];
+		}
+		return selected;
+	}
+
+	private static int[] select(int[] column, int[] rows) {
+		int[] selected = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			selected[i] = column[rows[i]];
+		}
+		return selected;
+	}
+
+	private static long[] select(long[] column, int[] rows) {
+		long[] selected = new long[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			selected[i] = column[rows[i]];
+		}
+		return selected;
+	}
+
+	/**
+	 * Builds the hash index of an ID column, at most half full.
+	 */
+	private static int[] index(IdColumn ids, int size) {
+		int[] index = new int[Math.max(2, Integer.highestOneBit(Math.max(1, size)) * 4)];
+		int mask = index.length - 1;
+		for (int row = 0; row < size; row++) {
+			if (ids.get(row) == null) {
+				continue;
+			}
+			int slot = ids.hash(row) & mask;
+			while (index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = row + 1;
+		}
+		return index;
+	}
+
+	private static int hash(long msb, long lsb) {
+		long bits = msb ^ lsb;
+		return mix((int) (bits ^ (bits >>> 32)));
+	}
+
+	private static int mix(int hash) {
+		// the hash codes of similar IDs only differ in a few bits
+		int mixed = hash * 0x9E3779B9;
+		return mixed ^ (mixed >>> 16);
+	}
+
+	/**
+	 * Returns whether an ID is a UUID in the canonical lower-case form.
+	 */
+	static boolean isUuid(String id) {
+		if (id.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char c = id.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the 16 hex digits of a UUID half starting at the specified position,
+	 * skipping the dashes.
+	 */
+	private static long parseHex(String uuid, int start) {
+		long value = 0;
+		int digits = 0;
+		for (int i = start; digits < 16; i++) {
+			char c = uuid.charAt(i);
+			if (c != '-') {
+				value = (value << 4) | Character.digit(c, 16);
+				digits++;
+			}
+		}
+		return value;
+	}
+
+	private static String formatUuid(long msb, long lsb) {
+		char[] chars = new char[36];
+		formatHex(msb, chars, 0);
+		formatHex(lsb, chars, 19);
+		chars[8] = '-';
+		chars[13] = '-';
+		chars[18] = '-';
+		chars[23] = '-';
+		return new String(chars);
+	}
+
+	private static void formatHex(long value, char[] chars, int start) {
+		int position = start;
+		for (int digit = 15; digit >= 0; digit--) {
+			if (position == 8 || position == 13 || position == 18 || position == 23) {
+				position++;
+			}
+			chars[position++] = Character.forDigit((int) (value >>> (4 * digit)) & 0xF, 16);
+		}
+	}
+
+	private static long arrayBytes(int length, int elementBytes) {
+		return align(16 + (long) length * elementBytes);
+	}
+
+	private static long stringBytes(String value) {
+		// the string and its compact byte array
+		return (value == null) ? 0 : 24 + arrayBytes(value.length(), 1);
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+}
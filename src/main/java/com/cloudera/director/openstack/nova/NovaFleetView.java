@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.net.InetAddress;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * In-memory view of the Nova servers launched by the plugin, indexed by
+ * the Director virtual instance ID stored in the server metadata. The
+ * servers are kept in a compact {@link NovaFleetTable}, whose snapshots
+ * can be read without locking.
+ */
+public class NovaFleetView {
+
+	/**
+	 * The server metadata key holding the Director virtual instance ID.
+	 */
+	public static final String DIRECTOR_ID_METADATA_KEY = "DIRECTOR_ID";
+
+	private final NovaFleetTable table = new NovaFleetTable();
+
+	/**
+	 * The monitor notified on every change of the view.
+	 */
+	private final Object changeMonitor = new Object();
+
+	/**
+	 * The number of changes applied to the view, guarded by the change monitor.
+	 */
+	private long version;
+
+	/**
+	 * Returns the current state of the fleet, consistent across the servers read from it.
+	 */
+	public NovaFleetTable.Snapshot snapshot() {
+		return table.snapshot();
+	}
+
+	/**
+	 * Returns the status of the server for the specified virtual instance ID.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @return the status, or <code>null</code> if the server is unknown or deleted
+	 */
+	public Status getStatus(String virtualInstanceId) {
+		NovaFleetTable.Snapshot snapshot = table.snapshot();
+		int row = snapshot.findByVirtualInstanceId(virtualInstanceId);
+		return (row < 0) ? null : snapshot.getStatus(row);
+	}
+
+	/**
+	 * Returns the address index of the server for the specified virtual instance ID.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @return the address index, or <code>null</code> if the server is unknown or deleted
+	 */
+	public NovaServerAddresses getAddresses(String virtualInstanceId) {
+		NovaFleetTable.Snapshot snapshot = table.snapshot();
+		int row = snapshot.findByVirtualInstanceId(virtualInstanceId);
+		return (row < 0) ? null : snapshot.getAddresses(row);
+	}
+
+	/**
+	 * Returns the Nova instance ID for the specified virtual instance ID.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @return the Nova instance ID, or <code>null</code> if it is unknown or deleted
+	 */
+	public String getNovaInstanceId(String virtualInstanceId) {
+		NovaFleetTable.Snapshot snapshot = table.snapshot();
+		int row = snapshot.findByVirtualInstanceId(virtualInstanceId);
+		return (row < 0) ? null : snapshot.getNovaInstanceId(row);
+	}
+
+	/**
+	 * Returns the ID of the Neutron port created by the plugin for the specified virtual
+	 * instance ID.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @return the port ID, or <code>null</code> if the server is unknown or has no such port
+	 */
+	public String getPortId(String virtualInstanceId) {
+		NovaFleetTable.Snapshot snapshot = table.snapshot();
+		int row = snapshot.findByVirtualInstanceId(virtualInstanceId);
+		return (row < 0) ? null : snapshot.getPortId(row);
+	}
+
+	/**
+	 * Applies the latest known state of a server to the view. Deleted servers are
+	 * removed, servers not launched by the plugin are ignored.
+	 *
+	 * @param server the server
+	 */
+	public void apply(Server server) {
+		apply(NovaServerRecord.of(server));
+	}
+
+	/**
+	 * Applies the latest known state of a server to the view.
+	 *
+	 * @param record the server
+	 */
+	public void apply(NovaServerRecord record) {
+		applyAll(ImmutableList.of(record));
+	}
+
+	/**
+	 * Applies the latest known state of some servers to the view at once. Deleted servers
+	 * are removed, servers not launched by the plugin are ignored.
+	 *
+	 * @param records the servers
+	 */
+	public void applyAll(Iterable<NovaServerRecord> records) {
+		if (Iterables.isEmpty(records)) {
+			return;
+		}
+		table.applyAll(records);
+		signalChange();
+	}
+
+	/**
+	 * Applies a status change of a server reported outside of a listing, e.g. by a
+	 * Nova notification.
+	 *
+	 * @param novaInstanceId    the Nova instance ID
+	 * @param virtualInstanceId the virtual instance ID if known from the event, may be <code>null</code>
+	 * @param status            the new status
+	 * @return <code>true</code> if the server is known to the view and was updated
+	 */
+	public boolean applyStatus(String novaInstanceId, String virtualInstanceId, Status status) {
+		if (!table.applyStatus(novaInstanceId, virtualInstanceId, status)) {
+			return false;
+		}
+		signalChange();
+		return true;
+	}
+
+	/**
+	 * Applies the addresses of a server reported outside of a listing, e.g. by a
+	 * notification.
+	 *
+	 * @param novaInstanceId    the Nova instance ID
+	 * @param virtualInstanceId the virtual instance ID if known from the event, may be <code>null</code>
+	 * @param privateNetwork    the network of the private IP address
+	 * @param privateIpAddress  the private IP address
+	 * @param floatingIpAddress the floating IP address, <code>null</code> if not reported
+	 * @return <code>true</code> if the server is known to the view and was updated
+	 */
+	public boolean applyAddresses(String novaInstanceId, String virtualInstanceId, String privateNetwork,
+			InetAddress privateIpAddress, InetAddress floatingIpAddress) {
+		if (!table.applyAddresses(novaInstanceId, virtualInstanceId, privateNetwork, privateIpAddress,
+				floatingIpAddress)) {
+			return false;
+		}
+		signalChange();
+		return true;
+	}
+
+	/**
+	 * Returns the number of changes applied to the view so far.
+	 */
+	public long getVersion() {
+		synchronized (changeMonitor) {
+			return version;
+		}
+	}
+
+	/**
+	 * Waits until the view changes after the specified version, or the timeout elapses.
+	 *
+	 * @param seenVersion   the last version seen by the caller
+	 * @param timeoutMillis the maximum time to wait, in milliseconds
+	 * @return the current version
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public long awaitChange(long seenVersion, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (changeMonitor) {
+			long remaining = timeoutMillis;
+			while (version == seenVersion && remaining > 0) {
+				changeMonitor.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+			return version;
+		}
+	}
+
+	private void signalChange() {
+		synchronized (changeMonitor) {
+			version++;
+			changeMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Replaces the whole content of the view with the specified servers.
+	 *
+	 * @param records the complete list of servers
+	 */
+	public void replaceAll(Iterable<NovaServerRecord> records) {
+		table.replaceAll(records);
+		signalChange();
+	}
+
+	/**
+	 * Returns the number of live servers in the view.
+	 */
+	public int size() {
+		return table.snapshot().size();
+	}
+}
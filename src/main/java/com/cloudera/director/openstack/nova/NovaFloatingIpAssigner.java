@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.jclouds.openstack.nova.v2_0.domain.FloatingIP;
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackExecutors;
+import com.cloudera.director.openstack.neutron.NeutronClient;
+import com.cloudera.director.openstack.neutron.NeutronFloatingIp;
+import com.cloudera.director.openstack.neutron.NeutronPort;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Assigns the floating IPs of the instances of one allocation, once they have a private IP.
+ * <p>
+ * With the Nova backend, each floating IP is allocated from the pool and added to its
+ * server right away. With the Neutron backend, the instances are batched until
+ * {@link #flush()}: their ports are looked up in a single filtered request, and their
+ * floating IPs are created concurrently, already bound to the ports.
+ * <p>
+ * An instance whose floating IP cannot be assigned fails alone: its failure is returned by
+ * the next {@link #flush()}, and the floating IP created for it, if any, is released by
+ * the allocation rollback.
+ */
+public class NovaFloatingIpAssigner {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaFloatingIpAssigner.class);
+
+	private final NovaServerApi serverApi;
+	private final Optional<FloatingIPApi> floatingIpApi;
+	private final NeutronClient neutronClient;
+	private final String floatingIpPool;
+	private final boolean neutron;
+	private final int parallelism;
+	private final NovaAllocationJournal allocationJournal;
+	private final NovaAllocationRollback rollback;
+
+	/*
+	 * The instances waiting for a Neutron floating IP: the Nova instance IDs and the port
+	 * IDs if known, by virtual instance ID
+	 */
+	private final Map<String, String> pendingNovaInstanceIds = new LinkedHashMap<String, String>();
+	private final Map<String, String> pendingPortIds = new LinkedHashMap<String, String>();
+
+	/*
+	 * The failure reasons of the instances assigned since the last flush, by virtual
+	 * instance ID
+	 */
+	private final Map<String, String> failures = new ConcurrentHashMap<String, String>();
+
+	/*
+	 * The ID of the external network, looked up on first use
+	 */
+	private String floatingNetworkId;
+
+	/**
+	 * Creates an assigner for one allocation.
+	 *
+	 * @param serverApi         the server API
+	 * @param floatingIpApi     the Nova floating IP API, if available
+	 * @param neutronClient     the Neutron client
+	 * @param floatingIpPool    the floating IP pool, or external network with the Neutron
+	 *                          backend, <code>null</code> if no floating IP is assigned
+	 * @param neutron           whether the Neutron backend is used
+	 * @param parallelism       the maximum number of Neutron floating IPs created concurrently
+	 * @param allocationJournal the allocation journal
+	 * @param rollback          the allocation rollback
+	 */
+	public NovaFloatingIpAssigner(NovaServerApi serverApi, Optional<FloatingIPApi> floatingIpApi,
+			NeutronClient neutronClient, String floatingIpPool, boolean neutron, int parallelism,
+			NovaAllocationJournal allocationJournal, NovaAllocationRollback rollback) {
+		this.serverApi = serverApi;
+		this.floatingIpApi = floatingIpApi;
+		this.neutronClient = neutronClient;
+		this.floatingIpPool = floatingIpPool;
+		this.neutron = neutron;
+		this.parallelism = parallelism;
+		this.allocationJournal = allocationJournal;
+		this.rollback = rollback;
+	}
+
+	/**
+	 * Returns whether floating IPs are assigned.
+	 */
+	public boolean isEnabled() {
+		return floatingIpPool != null;
+	}
+
+	/**
+	 * Returns whether the floating IPs can be assigned to a server attached to a port
+	 * created beforehand, before Nova reports its address.
+	 */
+	public boolean isPortBound() {
+		return neutron;
+	}
+
+	/**
+	 * Assigns the floating IP of an instance that has a private IP, right away with the
+	 * Nova backend, on the next {@link #flush()} with the Neutron backend. The floating IP
+	 * recorded by the journal before an interruption is reused. A failure is returned by
+	 * the next {@link #flush()}.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @param novaInstanceId    the Nova instance ID
+	 * @param portId            the ID of the port of the instance, <code>null</code> if unknown
+	 */
+	public void assign(String virtualInstanceId, String novaInstanceId, String portId) {
+		if (floatingIpPool == null) {
+			return;
+		}
+		NovaAllocationJournal.Entry entry = allocationJournal.get(virtualInstanceId);
+		if (entry != null && entry.isFloatingIpAttached()) {
+			return;
+		}
+		if (neutron && (entry == null || entry.getFloatingIp() == null)) {
+			pendingNovaInstanceIds.put(virtualInstanceId, novaInstanceId);
+			if (portId != null) {
+				pendingPortIds.put(virtualInstanceId, portId);
+			}
+			return;
+		}
+
+		try {
+			if (neutron) {
+				// created bound to the port, only the metadata is missing
+				rollback.neutronFloatingIpHeld(virtualInstanceId, entry.getFloatingIp(), entry.getFloatingIpId());
+				attached(virtualInstanceId, novaInstanceId, entry.getFloatingIp(), entry.getFloatingIpId());
+				return;
+			}
+
+			String floatingIp;
+			String floatingIpId;
+			if (entry != null && entry.getFloatingIp() != null) {
+				floatingIp = entry.getFloatingIp();
+				floatingIpId = entry.getFloatingIpId();
+			} else {
+				FloatingIP floatingip = floatingIpApi.get().allocateFromPool(floatingIpPool);
+				floatingIp = floatingip.getIp();
+				floatingIpId = floatingip.getId();
+				allocationJournal.floatingIpAllocated(virtualInstanceId, floatingIp, floatingIpId);
+			}
+			rollback.floatingIpHeld(virtualInstanceId, floatingIp, floatingIpId);
+			floatingIpApi.get().addToServer(floatingIp, novaInstanceId);
+			attached(virtualInstanceId, novaInstanceId, floatingIp, floatingIpId);
+		} catch (RuntimeException e) {
+			failed(virtualInstanceId, novaInstanceId, e);
+		}
+	}
+
+	/**
+	 * Creates the pending Neutron floating IPs, and returns the failures of the instances
+	 * assigned since the previous flush. The floating IPs created are registered with the
+	 * rollback before they are attached.
+	 *
+	 * @return the failure reasons by virtual instance ID, empty if all were assigned
+	 * @throws InterruptedException if interrupted while waiting for the creations
+	 */
+	public Map<String, String> flush() throws InterruptedException {
+		if (!pendingNovaInstanceIds.isEmpty()) {
+			try {
+				createNeutronFloatingIps();
+			} catch (RuntimeException e) {
+				// the external network or the ports could not be looked up
+				for (Map.Entry<String, String> pending : pendingNovaInstanceIds.entrySet()) {
+					failed(pending.getKey(), pending.getValue(), e);
+				}
+			}
+			pendingNovaInstanceIds.clear();
+			pendingPortIds.clear();
+		}
+		Map<String, String> flushed = ImmutableMap.copyOf(failures);
+		failures.keySet().removeAll(flushed.keySet());
+		return flushed;
+	}
+
+	private void createNeutronFloatingIps() throws InterruptedException {
+		if (floatingNetworkId == null) {
+			floatingNetworkId = neutronClient.getExternalNetworkId(floatingIpPool);
+		}
+
+		// Look the missing ports up all at once
+		Map<String, String> portIdsByNovaInstanceId = new LinkedHashMap<String, String>();
+		List<String> unknownPortDevices = Lists.newArrayList();
+		for (Map.Entry<String, String> pending : pendingNovaInstanceIds.entrySet()) {
+			if (!pendingPortIds.containsKey(pending.getKey())) {
+				unknownPortDevices.add(pending.getValue());
+			}
+		}
+		for (NeutronPort port : neutronClient.listPortsByDevices(unknownPortDevices)) {
+			if (!portIdsByNovaInstanceId.containsKey(port.getDeviceId())) {
+				portIdsByNovaInstanceId.put(port.getDeviceId(), port.getId());
+			}
+		}
+
+		List<Callable<Void>> creations = Lists.newArrayListWithCapacity(pendingNovaInstanceIds.size());
+		for (Map.Entry<String, String> pending : pendingNovaInstanceIds.entrySet()) {
+			final String virtualInstanceId = pending.getKey();
+			final String novaInstanceId = pending.getValue();
+			final String portId = pendingPortIds.containsKey(virtualInstanceId)
+					? pendingPortIds.get(virtualInstanceId) : portIdsByNovaInstanceId.get(novaInstanceId);
+			if (portId == null) {
+				failed(virtualInstanceId, novaInstanceId, new IllegalStateException("No port found"));
+				continue;
+			}
+			creations.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					try {
+						NeutronFloatingIp floatingIp = neutronClient.createFloatingIp(floatingNetworkId, portId);
+						rollback.neutronFloatingIpHeld(virtualInstanceId, floatingIp.getFloatingIp(),
+								floatingIp.getId());
+						allocationJournal.floatingIpAllocated(virtualInstanceId, floatingIp.getFloatingIp(),
+								floatingIp.getId());
+						attached(virtualInstanceId, novaInstanceId, floatingIp.getFloatingIp(), floatingIp.getId());
+					} catch (RuntimeException e) {
+						failed(virtualInstanceId, novaInstanceId, e);
+					}
+					return null;
+				}
+			});
+		}
+
+		try {
+			OpenStackExecutors.invokeAll(creations, parallelism);
+		} catch (ExecutionException e) {
+			// the creations catch everything, this is unexpected
+			throw new IllegalStateException("Unexpected floating IP creation failure", e.getCause());
+		}
+		LOG.info("Created the Neutron floating IP(s) of {} instance(s)", creations.size());
+	}
+
+	private void failed(String virtualInstanceId, String novaInstanceId, RuntimeException e) {
+		LOG.warn("Unable to assign a floating IP to instance " + novaInstanceId + " of " + virtualInstanceId, e);
+		failures.put(virtualInstanceId, "Unable to assign a floating IP to instance " + novaInstanceId + ": "
+				+ e.getMessage());
+	}
+
+	private void attached(String virtualInstanceId, String novaInstanceId, String floatingIp, String floatingIpId) {
+		// Record the floating IP so that it can be told apart and released without listing
+		serverApi.updateMetadata(novaInstanceId, ImmutableMap.of(
+				NovaServerAddresses.FLOATING_IP_METADATA_KEY, floatingIp,
+				NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, floatingIpId));
+		allocationJournal.floatingIpAttached(virtualInstanceId);
+	}
+}
@@ -16,12 +16,10 @@
 package com.cloudera.director.openstack.nova;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.Iterator;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import org.jclouds.openstack.nova.v2_0.domain.Address;
 import org.jclouds.openstack.nova.v2_0.domain.Server;
 
 import com.cloudera.director.spi.v1.compute.util.AbstractComputeInstance;
@@ -29,12 +27,12 @@ import com.cloudera.director.spi.v1.util.DisplayPropertiesUtil;
 import com.cloudera.director.spi.v1.model.DisplayProperty;
 import com.cloudera.director.spi.v1.model.DisplayPropertyToken;
 import com.cloudera.director.spi.v1.model.util.SimpleDisplayPropertyBuilder;
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableMap;
 
 
 /**
- * Nova compute instance.
+ * Nova compute instance. Only the fields shown to Director are kept from the Nova server
+ * and its address index, and the display properties are computed on first use.
  */
 public class NovaInstance 
 	extends AbstractComputeInstance<NovaInstanceTemplate, Server>{
@@ -64,8 +62,8 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return instance.getImage().getId();
+			protected String getPropertyValue(NovaInstance instance) {
+				return instance.imageId;
 			}	
 		},
 		
@@ -78,13 +76,13 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return instance.getId();
+			protected String getPropertyValue(NovaInstance instance) {
+				return instance.novaInstanceId;
 			}
 		},
 		
 		/**
-		 * The instance type.
+		 * The instance type, the flavor ID as configured in the instance template.
 		 */
 		INSTANCE_TYPE(new SimpleDisplayPropertyBuilder()
 				.displayKey("instanceType")
@@ -92,8 +90,8 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return instance.getFlavor().getName();
+			protected String getPropertyValue(NovaInstance instance) {
+				return instance.flavorId;
 			}
 		},
 		
@@ -106,8 +104,8 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return instance.getKeyName();
+			protected String getPropertyValue(NovaInstance instance) {
+				return instance.keyName;
 			}
 		},
 		
@@ -117,8 +115,8 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override 
-			protected String getPropertyValue(Server instance) {
-				return instance.getCreated().toString();
+			protected String getPropertyValue(NovaInstance instance) {
+				return (instance.createdMillis == NO_CREATION_TIME) ? null : new Date(instance.createdMillis).toString();
 			}
 		},
 		
@@ -128,8 +126,9 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return NovaInstance.getPrivateIpAddress(instance).getHostAddress();
+			protected String getPropertyValue(NovaInstance instance) {
+				InetAddress privateIpAddress = instance.getPrivateIpAddress();
+				return (privateIpAddress == null) ? null : privateIpAddress.getHostAddress();
 			}
 		},
 		
@@ -139,19 +138,19 @@ public class NovaInstance
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return NovaInstance.getFloatingIpAddress(instance).getHostAddress();
+			protected String getPropertyValue(NovaInstance instance) {
+				return (instance.floatingIpAddress == null) ? null : instance.floatingIpAddress.getHostAddress();
 			}
 		},
 		
 		NETWORK_ID(new SimpleDisplayPropertyBuilder()
 				.displayKey("networkId")
-				.defaultDescription("The ID of the network in which the instance is running.")
+				.defaultDescription("The network in which the instance is running.")
 				.sensitive(false)
 				.build()) {
 			@Override
-			protected String getPropertyValue(Server instance) {
-				return new String("networkID");
+			protected String getPropertyValue(NovaInstance instance) {
+				return instance.privateNetwork;
 			}
 		};
 		
@@ -173,9 +172,9 @@ public class NovaInstance
 		 * Returns the value of the property from the specified instance.
 		 * 
 		 * @param instance the instance
-		 * @return the value of the property from the specified instance
+		 * @return the value of the property from the specified instance, or <code>null</code> if unknown
 		 */
-		protected abstract String getPropertyValue(Server instance);
+		protected abstract String getPropertyValue(NovaInstance instance);
 		
 		@Override
 		public DisplayProperty unwrap() {
@@ -186,68 +185,78 @@ public class NovaInstance
 	
 	public static final Type TYPE = new ResourceType("NovaInstance");	
 	
+	private static final long NO_CREATION_TIME = Long.MIN_VALUE;
+	
+	private final String novaInstanceId;
+	private final String imageId;
+	private final String flavorId;
+	private final String keyName;
+	private final long createdMillis;
+	private final InetAddress floatingIpAddress;
+	private final String privateNetwork;
+	
+	/*
+	 * The display properties, computed on first use
+	 */
+	private volatile Map<String, String> properties;
+	
 	protected NovaInstance(NovaInstanceTemplate template, String instanceId,
 			Server novaInstance) {
-		super(template, instanceId, getPrivateIpAddress(novaInstance));
+		this(template, instanceId, novaInstance, NovaServerAddresses.of(novaInstance));
 	}
-
-	public Map<String, String> getProperties() {
-		Map<String, String> properties = Maps.newHashMap();
-		Server instance = unwrap();
-		if (instance != null) {
-			for (NovaInstanceDisplayPropertyToken propertyToken : NovaInstanceDisplayPropertyToken.values()) {
-				properties.put(propertyToken.unwrap().getDisplayKey(), propertyToken.getPropertyValue(instance));
-			}
-		}
-		return properties;
+	
+	protected NovaInstance(NovaInstanceTemplate template, String instanceId,
+			Server novaInstance, NovaServerAddresses addresses) {
+		super(template, instanceId, addresses.getPrivateIpAddress());
+		this.novaInstanceId = novaInstance.getId();
+		this.imageId = (novaInstance.getImage() == null) ? null : novaInstance.getImage().getId();
+		this.flavorId = (novaInstance.getFlavor() == null) ? null : novaInstance.getFlavor().getId();
+		this.keyName = novaInstance.getKeyName();
+		this.createdMillis = (novaInstance.getCreated() == null) ?
+				NO_CREATION_TIME : novaInstance.getCreated().getTime();
+		this.floatingIpAddress = addresses.getFloatingIpAddress();
+		this.privateNetwork = addresses.getPrivateNetwork();
 	}
 	
 	/**
-	 * Returns the private IP address of the specified Nova instance.
-	 *
-	 * @param instance the instance
-	 * @return the private IP address of the specified Nova instance
-	 * @throws IllegalArgumentException if the instance does not have a valid private IP address
+	 * Creates an instance from a row of the fleet table.
 	 */
-	private static InetAddress getPrivateIpAddress(Server server) {
-	    Preconditions.checkNotNull(server, "instance is null");
-	    InetAddress privateIpAddress = null;
-	    try {
-	    	Iterator<Address> iterator = server.getAddresses().values().iterator();
-	    	Address address = null;
-	    	if (iterator.hasNext()) {
-	    		address = iterator.next();
-	    		privateIpAddress = InetAddress.getByName(address.getAddr());
-	    	}
-	    } catch (UnknownHostException e) {
-	      throw new IllegalArgumentException("Invalid private IP address", e);
-	    }
-	    return privateIpAddress;
+	protected NovaInstance(NovaInstanceTemplate template, String instanceId,
+			NovaFleetTable.Snapshot snapshot, int row) {
+		this(template, instanceId, snapshot, row, snapshot.getAddresses(row));
+	}
+	
+	private NovaInstance(NovaInstanceTemplate template, String instanceId,
+			NovaFleetTable.Snapshot snapshot, int row, NovaServerAddresses addresses) {
+		super(template, instanceId, addresses.getPrivateIpAddress());
+		this.novaInstanceId = snapshot.getNovaInstanceId(row);
+		this.imageId = snapshot.getImageId(row);
+		this.flavorId = snapshot.getFlavorId(row);
+		this.keyName = snapshot.getKeyName(row);
+		this.createdMillis = (snapshot.getCreatedMillis(row) == 0) ?
+				NO_CREATION_TIME : snapshot.getCreatedMillis(row);
+		this.floatingIpAddress = addresses.getFloatingIpAddress();
+		this.privateNetwork = addresses.getPrivateNetwork();
+	}
+	
+	public String getNovaInstanceId() {
+		return novaInstanceId;
 	}
 
-	/**
-	 * Returns the Public IP address of the specified Nova instance if it exists.
-	 *
-	 * @param instance the instance
-	 * @return the public IP address of the specified Nova instance
-	 */
-	private static InetAddress getFloatingIpAddress(Server server) {
-		Preconditions.checkNotNull(server, "instance is null");
-		InetAddress floatingIpAddress = null;
-		try {
-			Iterator<Address> iterator = server.getAddresses().values().iterator();
-			Address floatingAddress = null;
-			if (iterator.hasNext()) {
-				iterator.next();
-				if (iterator.hasNext()) {
-					floatingAddress = iterator.next();
-					floatingIpAddress = InetAddress.getByName(floatingAddress.getAddr());
+	public Map<String, String> getProperties() {
+		Map<String, String> result = properties;
+		if (result == null) {
+			ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+			for (NovaInstanceDisplayPropertyToken propertyToken : NovaInstanceDisplayPropertyToken.values()) {
+				String value = propertyToken.getPropertyValue(this);
+				if (value != null) {
+					builder.put(propertyToken.unwrap().getDisplayKey(), value);
 				}
 			}
-		} catch (UnknownHostException e) {
-			throw new IllegalArgumentException("Invalid floating IP address", e);
+			result = builder.build();
+			properties = result;
 		}
-		return floatingIpAddress;
+		return result;
 	}
-
+	
 }
@@ -8,6 +8,7 @@ import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
 
 import com.cloudera.director.spi.v1.model.InstanceStatus;
 import com.cloudera.director.spi.v1.model.util.AbstractInstanceState;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
 
@@ -33,6 +34,26 @@ public class NovaInstanceState extends AbstractInstanceState<Status> {
 		
 	}
 	
+	/**
+	 * The Director instance status of the Nova task states (OS-EXT-STS:task_state) that
+	 * tell more than the server status.
+	 */
+	private static final Map<String, InstanceStatus> TASK_STATE_MAP = ImmutableMap.of(
+			"deleting", InstanceStatus.DELETING,
+			"soft-deleting", InstanceStatus.DELETING,
+			"powering-off", InstanceStatus.STOPPING);
+	
+	/**
+	 * The Director instance status of the Nova VM states (OS-EXT-STS:vm_state) that tell
+	 * more than the server status.
+	 */
+	private static final Map<String, InstanceStatus> VM_STATE_MAP = ImmutableMap.of(
+			"error", InstanceStatus.FAILED,
+			"deleted", InstanceStatus.DELETED,
+			"soft-delete", InstanceStatus.DELETED,
+			"stopped", InstanceStatus.STOPPED,
+			"building", InstanceStatus.PENDING);
+	
 	/**
 	 * Returns the Director instance state for the specified Nova instance name.
 	 * 
@@ -44,6 +65,36 @@ public class NovaInstanceState extends AbstractInstanceState<Status> {
 				INSTANCE_STATE_MAP.get(Status.UNKNOWN) : INSTANCE_STATE_MAP.get(instanceStateName);
 		
 	}
+	
+	/**
+	 * Returns the Director instance state for the specified Nova server state. The task
+	 * state of a server in transition comes first, then its VM state, then its status.
+	 * 
+	 * @param status    the Nova server status
+	 * @param vmState   the Nova VM state, if known
+	 * @param taskState the Nova task state, if any
+	 * @return the corresponding Director instance state
+	 */
+	public static NovaInstanceState fromServerState(Status status, String vmState, String taskState) {
+		NovaInstanceState state = fromInstanceStateName(status);
+		InstanceStatus instanceStatus = (taskState == null) ? null : TASK_STATE_MAP.get(taskState);
+		if (instanceStatus == null && vmState != null) {
+			instanceStatus = VM_STATE_MAP.get(vmState);
+		}
+		return (instanceStatus == null || instanceStatus == state.getInstanceStatus()) ? state
+				: new NovaInstanceState(instanceStatus, status);
+	}
+	
+	/**
+	 * Returns whether a Nova server went to an error state it will not leave on its own.
+	 * 
+	 * @param status  the Nova server status
+	 * @param vmState the Nova VM state, if known
+	 * @return whether the server failed
+	 */
+	public static boolean isFailed(Status status, String vmState) {
+		return status == Status.ERROR || "error".equals(vmState);
+	}
     
 	/**
 	 * Add an entry in the specified map associating the specified Nova instance state name 
@@ -34,6 +34,16 @@ public class NovaInstanceTemplate extends ComputeInstanceTemplate{
 	 * A splitter for comma-separated lists.
 	 */
 	protected static final Splitter CSV_SPLITTER = Splitter.on(",").trimResults().omitEmptyStrings();
+	
+	/**
+	 * The floating IP backend using the Nova floating IP extension.
+	 */
+	public static final String FLOATING_IP_BACKEND_NOVA = "nova";
+	
+	/**
+	 * The floating IP backend using the Neutron API.
+	 */
+	public static final String FLOATING_IP_BACKEND_NEUTRON = "neutron";
 	  
 	/**
 	 * The list of configuration properties (including inherited properties).
@@ -110,6 +110,23 @@ public enum NovaInstanceTemplateConfigurationProperty implements ConfigurationPr
     			"The floating IP pool from which to allocate flaoting IP. "+
     			"And the default value is null, "+
     			"we'll not assign floating IP to the instance.")
+    		 .build()),
+     
+     /**
+      * The API managing the floating IPs of new instances.
+      */
+     FLOATING_IP_BACKEND(new SimpleConfigurationPropertyBuilder()
+    		 .configKey("floatingIpBackend")
+    		 .name("FloatingIP backend")
+    		 .defaultValue(NovaInstanceTemplate.FLOATING_IP_BACKEND_NOVA)
+    		 .widget(ConfigurationProperty.Widget.LIST)
+    		 .defaultDescription(
+    			"The API managing the floating IPs: \"nova\" for the Nova floating IP extension, "+
+    			"\"neutron\" to create them bound to the instance ports, with the floating IP pool "+
+    			"naming the external network.")
+    		 .addValidValues(
+    			NovaInstanceTemplate.FLOATING_IP_BACKEND_NOVA,
+    			NovaInstanceTemplate.FLOATING_IP_BACKEND_NEUTRON)
     		 .build());
      
 	/**
@@ -16,6 +16,7 @@
 package com.cloudera.director.openstack.nova;
 
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.AVAILABILITY_ZONE;
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.FLOATING_IP_BACKEND;
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.IMAGE;
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.KEY_NAME;
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.NETWORK_ID;
@@ -67,6 +68,9 @@ public class NovaInstanceTemplateConfigurationValidator implements Configuration
     @VisibleForTesting
     static final String INVALID_SECURITY_GROUP_NAME_MSG = "Invalid security group names";
     
+    @VisibleForTesting
+    static final String INVALID_FLOATING_IP_BACKEND_MSG = "Invalid floating IP backend: %s";
+    
     /**
      * The Nova provider
      */
@@ -93,6 +97,7 @@ public class NovaInstanceTemplateConfigurationValidator implements Configuration
     	checkKeyName(novaApi, region, configuration, accumulator, localizationContext);
     	checkSecurityGroupNames(novaApi, region, configuration, accumulator, localizationContext);
     	checkPrefix(configuration, accumulator, localizationContext);
+    	checkFloatingIpBackend(configuration, accumulator, localizationContext);
     }
     
     /**
@@ -237,5 +242,22 @@ public class NovaInstanceTemplateConfigurationValidator implements Configuration
     		}
     	}
     }
+    
+    /**
+     * Validates the configured floating IP backend.
+     * 
+     * @param configuration		the configuration to be validated
+     * @param accumulator		the exception condition accumulator
+     * @param localizationContext	the localization context
+     */
+    static void checkFloatingIpBackend(Configured configuration,
+    		PluginExceptionConditionAccumulator accumulator,
+    		LocalizationContext localizationContext) {
+    	String backend = configuration.getConfigurationValue(FLOATING_IP_BACKEND, localizationContext);
+    	if (backend != null && !NovaInstanceTemplate.FLOATING_IP_BACKEND_NOVA.equals(backend)
+    			&& !NovaInstanceTemplate.FLOATING_IP_BACKEND_NEUTRON.equals(backend)) {
+    		addError(accumulator, FLOATING_IP_BACKEND, localizationContext, null, INVALID_FLOATING_IP_BACKEND_MSG, backend);
+    	}
+    }
 
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.InetAddresses;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Applies the instance state transitions and addresses carried by Nova notifications to a
+ * fleet view, and has the waits of the region checked against the changed view. Both
+ * versioned notifications (<code>nova_object.data</code> payloads) and legacy
+ * notifications (<code>compute.instance.*</code> events) are understood, wrapped or not
+ * in an oslo.messaging envelope.
+ */
+public class NovaNotificationHandler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaNotificationHandler.class);
+
+	/**
+	 * The map from Nova vm_state to server status.
+	 */
+	private static final Map<String, Status> STATUS_BY_VM_STATE = ImmutableMap.<String, Status>builder()
+			.put("active", Status.ACTIVE)
+			.put("building", Status.BUILD)
+			.put("stopped", Status.SHUTOFF)
+			.put("paused", Status.PAUSED)
+			.put("suspended", Status.SUSPENDED)
+			.put("rescued", Status.RESCUE)
+			.put("resized", Status.VERIFY_RESIZE)
+			.put("shelved", Status.SHELVED)
+			.put("shelved_offloaded", Status.SHELVED_OFFLOADED)
+			.put("soft-delete", Status.SOFT_DELETED)
+			.put("deleted", Status.DELETED)
+			.put("error", Status.ERROR)
+			.build();
+
+	/**
+	 * The map from notification event type to server status, used when the payload
+	 * does not carry the vm_state.
+	 */
+	private static final Map<String, Status> STATUS_BY_EVENT_TYPE = ImmutableMap.<String, Status>builder()
+			.put("instance.create.end", Status.ACTIVE)
+			.put("instance.create.error", Status.ERROR)
+			.put("instance.delete.end", Status.DELETED)
+			.put("instance.soft_delete.end", Status.SOFT_DELETED)
+			.put("instance.power_off.end", Status.SHUTOFF)
+			.put("instance.power_on.end", Status.ACTIVE)
+			.build();
+
+	private static final String OSLO_MESSAGE = "oslo.message";
+	private static final String VERSIONED_DATA = "nova_object.data";
+	private static final String LEGACY_PREFIX = "compute.";
+
+	private final NovaFleetView fleetView;
+
+	/*
+	 * The scheduler of the waits on the view, null if none
+	 */
+	private final NovaPollScheduler pollScheduler;
+
+	public NovaNotificationHandler(NovaFleetView fleetView) {
+		this(fleetView, null);
+	}
+
+	public NovaNotificationHandler(NovaFleetView fleetView, NovaPollScheduler pollScheduler) {
+		this.fleetView = fleetView;
+		this.pollScheduler = pollScheduler;
+	}
+
+	public NovaFleetView getFleetView() {
+		return fleetView;
+	}
+
+	/**
+	 * Handles a raw notification message.
+	 *
+	 * @param body the message body
+	 * @return <code>true</code> if the message changed the state or the addresses of a
+	 *         known instance
+	 */
+	public boolean handle(byte[] body) {
+		try {
+			JsonObject message = new JsonParser().parse(new String(body, Charsets.UTF_8)).getAsJsonObject();
+			if (message.has(OSLO_MESSAGE)) {
+				message = new JsonParser().parse(message.get(OSLO_MESSAGE).getAsString()).getAsJsonObject();
+			}
+			return handle(message);
+		} catch (JsonParseException e) {
+			LOG.warn("Ignoring malformed Nova notification", e);
+		} catch (IllegalStateException e) {
+			LOG.warn("Ignoring malformed Nova notification", e);
+		}
+		return false;
+	}
+
+	private boolean handle(JsonObject message) {
+		String eventType = getString(message, "event_type");
+		if (eventType != null && eventType.startsWith(LEGACY_PREFIX)) {
+			eventType = eventType.substring(LEGACY_PREFIX.length());
+		}
+		if (eventType == null || !eventType.startsWith("instance.") || !message.has("payload")) {
+			return false;
+		}
+		JsonObject payload = message.getAsJsonObject("payload");
+		if (payload.has(VERSIONED_DATA)) {
+			payload = payload.getAsJsonObject(VERSIONED_DATA);
+		}
+
+		String novaInstanceId = getString(payload, "uuid");
+		if (novaInstanceId == null) {
+			novaInstanceId = getString(payload, "instance_id");
+		}
+		if (novaInstanceId == null) {
+			return false;
+		}
+
+		Status status = null;
+		String vmState = getString(payload, "state");
+		if (vmState != null) {
+			status = STATUS_BY_VM_STATE.get(vmState);
+		}
+		if (status == null) {
+			status = STATUS_BY_EVENT_TYPE.get(eventType);
+		}
+
+		String virtualInstanceId = null;
+		if (payload.has("metadata") && payload.get("metadata").isJsonObject()) {
+			virtualInstanceId = getString(payload.getAsJsonObject("metadata"),
+					NovaFleetView.DIRECTOR_ID_METADATA_KEY);
+		}
+
+		boolean applied = false;
+		if (status != null) {
+			applied = fleetView.applyStatus(novaInstanceId, virtualInstanceId, status);
+		}
+		if (applyAddresses(payload, novaInstanceId, virtualInstanceId)) {
+			applied = true;
+		}
+		LOG.debug("Notification {} for instance {}: status {} {}", eventType, novaInstanceId, status,
+				applied ? "applied" : "ignored");
+		if (applied && pollScheduler != null) {
+			pollScheduler.recheck();
+		}
+		return applied;
+	}
+
+	/**
+	 * Applies the addresses of a notification payload: the <code>fixed_ips</code> of
+	 * legacy notifications, with their floating IPs, or the <code>ip_addresses</code> of
+	 * versioned ones, which do not carry the floating IPs. The first IPv4 address is
+	 * preferred, as in the listings.
+	 *
+	 * @return <code>true</code> if the addresses of a known instance changed
+	 */
+	private boolean applyAddresses(JsonObject payload, String novaInstanceId, String virtualInstanceId) {
+		JsonArray ips = getArray(payload, "fixed_ips");
+		if (ips == null) {
+			ips = getArray(payload, "ip_addresses");
+		}
+		if (ips == null) {
+			return false;
+		}
+		String privateNetwork = null;
+		InetAddress privateIpAddress = null;
+		InetAddress floatingIpAddress = null;
+		for (JsonElement element : ips) {
+			JsonObject ip = element.getAsJsonObject();
+			if (ip.has(VERSIONED_DATA)) {
+				ip = ip.getAsJsonObject(VERSIONED_DATA);
+			}
+			InetAddress address = getAddress(ip);
+			if (address != null && isPreferred(address, privateIpAddress)) {
+				privateIpAddress = address;
+				privateNetwork = getString(ip, "label");
+			}
+			JsonArray floatingIps = getArray(ip, "floating_ips");
+			if (floatingIps != null) {
+				for (JsonElement floatingIp : floatingIps) {
+					address = getAddress(floatingIp.getAsJsonObject());
+					if (address != null && isPreferred(address, floatingIpAddress)) {
+						floatingIpAddress = address;
+					}
+				}
+			}
+		}
+		return privateIpAddress != null && fleetView.applyAddresses(novaInstanceId, virtualInstanceId,
+				privateNetwork, privateIpAddress, floatingIpAddress);
+	}
+
+	private static boolean isPreferred(InetAddress address, InetAddress current) {
+		return current == null || (address instanceof Inet4Address && !(current instanceof Inet4Address));
+	}
+
+	private static InetAddress getAddress(JsonObject ip) {
+		String address = getString(ip, "address");
+		return (address == null || !InetAddresses.isInetAddress(address)) ? null : InetAddresses.forString(address);
+	}
+
+	private static JsonArray getArray(JsonObject object, String member) {
+		JsonElement element = object.get(member);
+		return (element == null || !element.isJsonArray()) ? null : element.getAsJsonArray();
+	}
+
+	private static String getString(JsonObject object, String member) {
+		JsonElement element = object.get(member);
+		return (element == null || element.isJsonNull()) ? null : element.getAsString();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.annotations.VisibleForTesting;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Listens to the Nova notifications published on an AMQP bus and pushes the instance
+ * state transitions into the fleet view of a region. Polling stays in place as a
+ * fallback: a listener that cannot connect only logs a warning.
+ */
+public class NovaNotificationListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaNotificationListener.class);
+
+	/**
+	 * The started listeners by synchronizer.
+	 */
+	private static final ConcurrentMap<NovaStateSynchronizer, NovaNotificationListener> LISTENERS =
+			new ConcurrentHashMap<NovaStateSynchronizer, NovaNotificationListener>();
+
+	/**
+	 * Starts listening to the notifications of the synchronizer region, unless notifications
+	 * are not configured or a listener is already started for that region.
+	 *
+	 * @param tuning       the settings of the region
+	 * @param synchronizer the synchronizer of the region
+	 */
+	public static void startIfConfigured(OpenStackTuning tuning, NovaStateSynchronizer synchronizer) {
+		String uri = tuning.getNotificationsUri();
+		if (uri == null) {
+			return;
+		}
+		NovaNotificationListener listener = new NovaNotificationListener(uri,
+				tuning.getNotificationsExchange(),
+				tuning.getNotificationsTopic(),
+				new NovaNotificationHandler(synchronizer.getFleetView(),
+						NovaPollScheduler.forSynchronizer(synchronizer)));
+		if (LISTENERS.putIfAbsent(synchronizer, listener) == null) {
+			try {
+				listener.start();
+			} catch (Exception e) {
+				LOG.warn("Unable to listen to Nova notifications on " + listener.exchange
+						+ ", falling back to polling only", e);
+				LISTENERS.remove(synchronizer, listener);
+			}
+		}
+	}
+
+	private final String uri;
+	private final String exchange;
+	private final String topic;
+	private final NovaNotificationHandler handler;
+
+	/*
+	 * The connection to the bus, null until started
+	 */
+	private Connection connection;
+
+	NovaNotificationListener(String uri, String exchange, String topic, NovaNotificationHandler handler) {
+		this.uri = uri;
+		this.exchange = exchange;
+		this.topic = topic;
+		this.handler = handler;
+	}
+
+	/**
+	 * Connects to the bus and binds a private queue to the info and error notifications.
+	 *
+	 * @throws Exception if the bus cannot be reached or the exchange does not exist
+	 */
+	synchronized void start() throws Exception {
+		ConnectionFactory factory = new ConnectionFactory();
+		factory.setUri(uri);
+		factory.setAutomaticRecoveryEnabled(true);
+		connection = factory.newConnection();
+
+		Channel channel = connection.createChannel();
+		String queue = channel.queueDeclare().getQueue();
+		channel.queueBind(queue, exchange, topic + ".info");
+		channel.queueBind(queue, exchange, topic + ".error");
+		channel.basicConsume(queue, true, createConsumer(channel));
+		LOG.info("Listening to Nova notifications on exchange {} topic {}", exchange, topic);
+	}
+
+	/**
+	 * Disconnects from the bus.
+	 */
+	synchronized void stop() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (IOException e) {
+				LOG.warn("Unable to close the notification connection", e);
+			}
+			connection = null;
+		}
+	}
+
+	/**
+	 * Creates the consumer delivering the messages of the specified channel to the handler.
+	 *
+	 * @param channel the channel
+	 * @return the consumer
+	 */
+	@VisibleForTesting
+	DefaultConsumer createConsumer(Channel channel) {
+		return new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope,
+					AMQP.BasicProperties properties, byte[] body) {
+				try {
+					handler.handle(body);
+				} catch (RuntimeException e) {
+					LOG.warn("Unable to handle Nova notification", e);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackExecutors;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Completes the waits of the provisioning operations of all the providers of a region
+ * from a single poll per tick: every tick brings the fleet view of the region up to date
+ * with one batched listing, and completes the waits whose condition holds in it. The
+ * load on Nova stays the same however many operations are waiting. The ticks only run
+ * while something is waiting. The timer is shared by all regions, the polls themselves
+ * run on the request executor, at most one at a time per region, so that a slow region
+ * does not hold up the others.
+ */
+public class NovaPollScheduler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaPollScheduler.class);
+
+	/**
+	 * The number of consecutive failed polls after which the pending waits fail.
+	 */
+	static final int MAX_FAILED_POLLS = 3;
+
+	/**
+	 * The timer shared by the pollers of all regions, which only hands the polls over to
+	 * the request executor.
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("nova-poll-scheduler-%d").build());
+
+	/**
+	 * The pollers by region synchronizer.
+	 */
+	private static final ConcurrentMap<NovaStateSynchronizer, NovaPollScheduler> POLLERS =
+			new ConcurrentHashMap<NovaStateSynchronizer, NovaPollScheduler>();
+
+	/**
+	 * A condition awaited on a server.
+	 */
+	public static enum Condition {
+
+		/**
+		 * The server got its private IP address.
+		 */
+		PRIVATE_IP {
+			@Override
+			boolean isMet(NovaFleetTable.Snapshot snapshot, int row) {
+				return row >= 0 && snapshot.getPrivateIpAddress(row) != null;
+			}
+		},
+
+		/**
+		 * The server is active.
+		 */
+		ACTIVE {
+			@Override
+			boolean isMet(NovaFleetTable.Snapshot snapshot, int row) {
+				return row >= 0 && snapshot.getStatus(row) == Status.ACTIVE;
+			}
+		},
+
+		/**
+		 * The server is gone. Only checked against a view synchronized after the wait started,
+		 * since a server not yet listed is not in the view either.
+		 */
+		DELETED {
+			@Override
+			boolean isMet(NovaFleetTable.Snapshot snapshot, int row) {
+				return row < 0;
+			}
+		},
+
+		/**
+		 * The server has a floating IP address.
+		 */
+		FLOATING_IP {
+			@Override
+			boolean isMet(NovaFleetTable.Snapshot snapshot, int row) {
+				return row >= 0 && snapshot.getFloatingIpAddress(row) != null;
+			}
+		};
+
+		abstract boolean isMet(NovaFleetTable.Snapshot snapshot, int row);
+	}
+
+	/**
+	 * Returns the poller shared by all providers targeting the region of the specified
+	 * synchronizer.
+	 *
+	 * @param synchronizer the region synchronizer
+	 * @return the poller of the region
+	 */
+	public static NovaPollScheduler forSynchronizer(NovaStateSynchronizer synchronizer) {
+		NovaPollScheduler poller = POLLERS.get(synchronizer);
+		if (poller == null) {
+			NovaPollScheduler created = new NovaPollScheduler(synchronizer);
+			poller = POLLERS.putIfAbsent(synchronizer, created);
+			if (poller == null) {
+				poller = created;
+			}
+		}
+		return poller;
+	}
+
+	/**
+	 * A pending wait.
+	 */
+	private static final class Waiter {
+
+		private final String novaInstanceId;
+		private final Condition condition;
+		private final long startedMillis;
+		private final SettableFuture<Void> future = SettableFuture.create();
+
+		Waiter(String novaInstanceId, Condition condition, long startedMillis) {
+			this.novaInstanceId = novaInstanceId;
+			this.condition = condition;
+			this.startedMillis = startedMillis;
+		}
+	}
+
+	private final NovaStateSynchronizer synchronizer;
+
+	/*
+	 * The pending waits, guarded by this
+	 */
+	private final List<Waiter> waiters = Lists.newArrayList();
+
+	/*
+	 * The server API of the latest wait, guarded by this
+	 */
+	private NovaServerApi serverApi;
+
+	/*
+	 * The scheduled ticks, null while nothing is waiting, guarded by this
+	 */
+	private ScheduledFuture<?> tickTask;
+
+	private volatile long intervalMillis = OpenStackTuning.DEFAULTS.getAllocatePollIntervalMillis();
+
+	/*
+	 * Whether a tick of the region is running on the request executor
+	 */
+	private final AtomicBoolean ticking = new AtomicBoolean();
+
+	private final AtomicLong polls = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+
+	/*
+	 * The number of consecutive failed polls, only used by the ticks, which never overlap
+	 */
+	private int failedPolls;
+
+	NovaPollScheduler(NovaStateSynchronizer synchronizer) {
+		this.synchronizer = synchronizer;
+	}
+
+	/**
+	 * Applies the polling interval of the region, from the next start of the ticks.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		intervalMillis = tuning.getAllocatePollIntervalMillis();
+	}
+
+	/**
+	 * Waits for a condition on a server. The returned future completes once the condition
+	 * holds, or fails with a {@link NovaServerFailedException} as soon as the server is seen
+	 * in error, or with the poll failure once Nova failed {@link #MAX_FAILED_POLLS} polls in a
+	 * row. Cancelling it removes the wait.
+	 *
+	 * @param serverApi      the server API of the region
+	 * @param novaInstanceId the Nova instance ID
+	 * @param condition      the awaited condition
+	 * @return the future of the wait
+	 */
+	public synchronized ListenableFuture<Void> await(NovaServerApi serverApi, String novaInstanceId,
+			Condition condition) {
+		Waiter waiter = new Waiter(novaInstanceId, condition, System.currentTimeMillis());
+		waiters.add(waiter);
+		this.serverApi = serverApi;
+		if (tickTask == null) {
+			long interval = intervalMillis;
+			tickTask = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					submitTick();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		return waiter.future;
+	}
+
+	/**
+	 * Completes the waits that hold in the current view without waiting for the next
+	 * tick, e.g. once a notification changed the view. Nova is not polled.
+	 */
+	public void recheck() {
+		synchronized (this) {
+			if (waiters.isEmpty()) {
+				return;
+			}
+		}
+		SCHEDULER.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<Waiter> pending;
+				synchronized (NovaPollScheduler.this) {
+					removeDone();
+					pending = Lists.newArrayList(waiters);
+				}
+				complete(pending);
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of pending waits, of polls sent and of waits completed.
+	 */
+	public Map<String, Long> getMetrics() {
+		long pending;
+		synchronized (this) {
+			pending = waiters.size();
+		}
+		return ImmutableMap.of(
+				"pendingWaits", pending,
+				"polls", polls.get(),
+				"completedWaits", completed.get());
+	}
+
+	/**
+	 * Runs a tick on the request executor, unless the previous one is still running, in
+	 * which case this tick is skipped.
+	 */
+	private void submitTick() {
+		if (!ticking.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			OpenStackExecutors.getRequestExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						tick();
+					} finally {
+						ticking.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the executors are being reconfigured, the next tick gets the new one
+			ticking.set(false);
+		}
+	}
+
+	/**
+	 * Completes the waits that hold in the current view, then polls Nova once for the
+	 * others, unless the view was just synchronized.
+	 */
+	private void tick() {
+		List<Waiter> pending;
+		NovaServerApi api;
+		synchronized (this) {
+			removeDone();
+			if (waiters.isEmpty()) {
+				if (tickTask != null) {
+					tickTask.cancel(false);
+					tickTask = null;
+				}
+				return;
+			}
+			pending = Lists.newArrayList(waiters);
+			api = serverApi;
+		}
+		if (complete(pending) == pending.size()) {
+			return;
+		}
+		try {
+			long lastSyncMillis = synchronizer.getLastSyncMillis();
+			synchronizer.synchronizeIfOlderThan(api, intervalMillis);
+			if (synchronizer.getLastSyncMillis() != lastSyncMillis) {
+				polls.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			// the scheduler is shutting down
+			Thread.currentThread().interrupt();
+			return;
+		} catch (RuntimeException e) {
+			// the next poll lists every server, in case the high-water mark is the problem
+			synchronizer.invalidate();
+			if (++failedPolls < MAX_FAILED_POLLS) {
+				LOG.warn("Unable to poll the servers of region " + synchronizer.getRegion() + ", retrying", e);
+				return;
+			}
+			LOG.error("Unable to poll the servers of region " + synchronizer.getRegion() + " " + failedPolls
+					+ " times in a row, failing " + pending.size() + " wait(s)", e);
+			failedPolls = 0;
+			for (Waiter waiter : pending) {
+				waiter.future.setException(e);
+			}
+			return;
+		}
+		failedPolls = 0;
+		complete(pending);
+		LOG.debug("Poll scheduler metrics of region {}: {}", synchronizer.getRegion(), getMetrics());
+	}
+
+	/**
+	 * Completes the waits whose condition holds in the current view.
+	 *
+	 * @param pending the pending waits
+	 * @return the number of waits done
+	 */
+	private int complete(List<Waiter> pending) {
+		NovaFleetTable.Snapshot snapshot = synchronizer.getFleetView().snapshot();
+		long lastSyncMillis = synchronizer.getLastSyncMillis();
+		int done = 0;
+		for (Waiter waiter : pending) {
+			boolean checkable = waiter.condition != Condition.DELETED || lastSyncMillis >= waiter.startedMillis;
+			if (checkable && !waiter.future.isDone()) {
+				int row = snapshot.findByNovaInstanceId(waiter.novaInstanceId);
+				if (waiter.condition.isMet(snapshot, row)) {
+					if (waiter.future.set(null)) {
+						completed.incrementAndGet();
+					}
+				} else if (waiter.condition != Condition.DELETED && row >= 0 && snapshot.isFailed(row)) {
+					// a server in error never meets the condition, so the wait ends on the poll that sees it
+					waiter.future.setException(new NovaServerFailedException(waiter.novaInstanceId,
+							getFailureReason(snapshot, row)));
+				}
+			}
+			if (waiter.future.isDone()) {
+				done++;
+			}
+		}
+		return done;
+	}
+
+	private static String getFailureReason(NovaFleetTable.Snapshot snapshot, int row) {
+		String faultMessage = snapshot.getFaultMessage(row);
+		if (faultMessage != null) {
+			return faultMessage;
+		}
+		String vmState = snapshot.getVmState(row);
+		return (vmState != null) ? "vm_state " + vmState : "status " + snapshot.getStatus(row);
+	}
+
+	private void removeDone() {
+		Iterator<Waiter> iterator = waiters.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().future.isDone()) {
+				iterator.remove();
+			}
+		}
+	}
+}
@@ -15,29 +15,30 @@
  */
 package com.cloudera.director.openstack.nova;
 
+import java.io.File;
+import java.net.InetAddress;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.jclouds.ContextBuilder;
-import org.jclouds.apis.ApiMetadata;
-import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
 import org.jclouds.openstack.nova.v2_0.NovaApi;
-import org.jclouds.openstack.nova.v2_0.NovaApiMetadata;
-import org.jclouds.openstack.nova.v2_0.domain.Address;
 import org.jclouds.openstack.nova.v2_0.domain.FloatingIP;
-import org.jclouds.openstack.nova.v2_0.domain.Server;
 import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
 import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
 import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
-import org.jclouds.openstack.nova.v2_0.features.ServerApi;
-import org.jclouds.openstack.nova.v2_0.options.CreateServerOptions;
-import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
-import org.jclouds.openstack.v2_0.options.PaginationOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,8 +50,16 @@ import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigura
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.AVAILABILITY_ZONE;
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.KEY_NAME;
 import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.FLOATING_IP_POOL;
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.FLOATING_IP_BACKEND;
 
 import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackExecutors;
+import com.cloudera.director.openstack.OpenStackHttpTransport;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.cloudera.director.openstack.neutron.NeutronClient;
+import com.cloudera.director.openstack.neutron.NeutronFloatingIp;
+import com.cloudera.director.openstack.neutron.NeutronPort;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
 import com.cloudera.director.spi.v1.compute.util.AbstractComputeProvider;
 import com.cloudera.director.spi.v1.model.ConfigurationProperty;
 import com.cloudera.director.spi.v1.model.Configured;
@@ -65,22 +74,22 @@ import com.cloudera.director.spi.v1.provider.ResourceProviderMetadata;
 import com.cloudera.director.spi.v1.provider.util.SimpleResourceProviderMetadata;
 import com.cloudera.director.spi.v1.util.ConfigurationPropertiesUtil;
 import com.google.common.base.Optional;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.FluentIterable;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ListMultimap;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.inject.Module;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.typesafe.config.Config;
 
 public class NovaProvider extends AbstractComputeProvider<NovaInstance, NovaInstanceTemplate> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(NovaProvider.class);
 	
-	private static final ApiMetadata NOVA_API_METADATA = new NovaApiMetadata();
 	
 	/**
 	 * The provider configuration properties.
@@ -115,76 +124,289 @@ public class NovaProvider extends AbstractComputeProvider<NovaInstance, NovaInst
 	/*
 	 * The configuration of the OpenStack environment
 	 */
-	@SuppressWarnings("unused")
 	private Config openstackConfig;
 	
 	/*
-	 * The nova api for OpenStack Nova service
+	 * The nova api for OpenStack Nova service, built on first use and shared by the
+	 * providers with the same credentials
 	 */
-	private final NovaApi novaApi;
+	private final NovaApiSupplier novaApi;
+	
+	/*
+	 * The engine sending the server and floating IP calls: the nova api, or the plugin's
+	 * own REST client
+	 */
+	private final NovaEngine novaEngine;
 	
 	/*
 	 * Region of the provider
 	 */
 	private String region;
 	
+	/*
+	 * The incremental synchronizer of the region fleet view
+	 */
+	private final NovaStateSynchronizer stateSynchronizer;
+	
+	/*
+	 * The coalescer of the concurrent identical reads of the region
+	 */
+	private final NovaReadCoalescer readCoalescer;
+	
+	/*
+	 * The scheduler of the waits of the region operations
+	 */
+	private final NovaPollScheduler pollScheduler;
+	
+	/*
+	 * The background reconciler of the fleet view, null when disabled
+	 */
+	private final NovaFleetReconciler fleetReconciler;
+	
+	/*
+	 * The Neutron client of the region
+	 */
+	private final NeutronClient neutronClient;
+	
+	/*
+	 * The journal of the allocation progress
+	 */
+	private final NovaAllocationJournal allocationJournal;
+	
+	/*
+	 * The pool of booted standby servers, null when disabled
+	 */
+	private final NovaStandbyPool standbyPool;
+	
+	/*
+	 * The current performance settings, reloaded when the configuration file changes
+	 */
+	private final Supplier<OpenStackTuning> tuningSupplier;
+	
 	
 	public NovaProvider(Configured configuration, OpenStackCredentials credentials,
-			Config openstackConfig, LocalizationContext localizationContext) {
+			Config openstackConfig, Supplier<OpenStackTuning> tuningSupplier, File configurationDirectory,
+			LocalizationContext localizationContext) {
 		super(configuration, METADATA, localizationContext);
 		this.credentials = credentials;
 		this.openstackConfig = openstackConfig;
-		this.novaApi = buildNovaAPI();
+		this.novaApi = NovaApiSupplier.forCredentials(credentials);
 		this.region = configuration.getConfigurationValue(REGION, localizationContext);
+		this.tuningSupplier = tuningSupplier;
+		OpenStackTuning tuning = tuningSupplier.get().forRegion(region);
+		this.novaEngine = OpenStackTuning.NOVA_ENGINE_REST.equals(tuning.getNovaEngine())
+				? RestNovaEngine.forCredentials(credentials) : novaApi;
+		this.stateSynchronizer = NovaStateSynchronizer.forRegion(credentials, region);
+		this.readCoalescer = NovaReadCoalescer.forSynchronizer(stateSynchronizer);
+		this.pollScheduler = NovaPollScheduler.forSynchronizer(stateSynchronizer);
+		this.fleetReconciler = NovaFleetReconciler.fromConfig(tuning, stateSynchronizer, novaEngine);
+		NovaFleetSnapshotStore.startIfConfigured(tuning, configurationDirectory, stateSynchronizer);
+		NovaNotificationListener.startIfConfigured(tuning, stateSynchronizer);
+		this.allocationJournal = NovaAllocationJournal.forDirectory(tuning, configurationDirectory);
+		this.standbyPool = NovaStandbyPool.fromConfig(tuning, stateSynchronizer, novaEngine);
+		this.neutronClient = NeutronClient.forRegion(credentials, region);
+		applyTuning(tuning);
+	}
+	
+	/**
+	 * Returns the current settings of the region, and applies them to the components
+	 * shared by the providers of the region, so that a reloaded configuration takes
+	 * effect without waiting for new components.
+	 */
+	private OpenStackTuning getTuning() {
+		OpenStackTuning tuning = tuningSupplier.get().forRegion(region);
+		applyTuning(tuning);
+		return tuning;
+	}
+	
+	private void applyTuning(OpenStackTuning tuning) {
+		stateSynchronizer.tune(tuning);
+		readCoalescer.tune(tuning);
+		pollScheduler.tune(tuning);
+		neutronClient.tune(tuning);
+		novaEngine.tune(region, tuning);
+		if (fleetReconciler != null) {
+			fleetReconciler.tune(tuning);
+		}
+		if (standbyPool != null) {
+			standbyPool.tune(tuning);
+		}
 	}
 	
 	public NovaApi getNovaApi() {
-		return novaApi;
+		return novaApi.get();
 	}
 	
 	public String getRegion() {
 		return region;
 	}
 	
+	/**
+	 * Returns the metrics of the components of the region, each prefixed with the name of
+	 * its component: <code>coalescer</code>, <code>pollScheduler</code>, <code>http</code>
+	 * for the connection pool shared by all regions and, when enabled,
+	 * <code>reconciler</code> and <code>standby</code>.
+	 *
+	 * @return the metrics of the region components
+	 */
+	public Map<String, Long> getMetrics() {
+		ImmutableMap.Builder<String, Long> metrics = ImmutableMap.builder();
+		putMetrics(metrics, "coalescer", readCoalescer.getMetrics());
+		putMetrics(metrics, "pollScheduler", pollScheduler.getMetrics());
+		putMetrics(metrics, "http", OpenStackHttpTransport.getMetrics());
+		if (fleetReconciler != null) {
+			putMetrics(metrics, "reconciler", fleetReconciler.getMetrics());
+		}
+		if (standbyPool != null) {
+			putMetrics(metrics, "standby", standbyPool.getMetrics());
+		}
+		return metrics.build();
+	}
 	
-	private NovaApi buildNovaAPI() {	
-		Iterable<Module> modules = ImmutableSet.<Module>of(new SLF4JLoggingModule());
-		String endpoint = credentials.getEndpoint();
-		String identity = credentials.getIdentity();
-		String credential = credentials.getCredential();
-		
-		
-		return ContextBuilder.newBuilder(NOVA_API_METADATA)
-				.endpoint(endpoint)
-				.credentials(identity, credential)
-				.modules(modules)
-				.buildApi(NovaApi.class);
+	private static void putMetrics(ImmutableMap.Builder<String, Long> metrics, String component,
+			Map<String, Long> componentMetrics) {
+		for (Map.Entry<String, Long> metric : componentMetrics.entrySet()) {
+			metrics.put(component + "." + metric.getKey(), metric.getValue());
+		}
 	}
 	
+	
 	public NovaInstanceTemplate createResourceTemplate(String name,
 			Configured configuration, Map<String, String> tags) {
 		return new NovaInstanceTemplate(name, configuration, tags, this.getLocalizationContext());
 	}
 	
 	
-	private void createAndAssignFloatingIP(FloatingIPApi floatingIpApi,
-			String floatingipPool, String instanceId) {
-		if (floatingipPool != null) {
-	            FloatingIP floatingip = floatingIpApi.allocateFromPool(floatingipPool);
-        	    floatingIpApi.addToServer(floatingip.getIp(), instanceId);
+	public void allocate(NovaInstanceTemplate template, Collection<String> instanceIds,
+			int minCount) throws InterruptedException {
+		await(allocateAsync(template, instanceIds, minCount));
+	}
+	
+	public void delete(NovaInstanceTemplate template, Collection<String> virtualInstanceIds)
+			throws InterruptedException {
+		await(deleteAsync(template, virtualInstanceIds));
+	}
+	
+	public Collection<NovaInstance> find(NovaInstanceTemplate template,
+			Collection<String> virtualInstanceIds) throws InterruptedException {
+		return await(findAsync(template, virtualInstanceIds));
+	}
+	
+	public Map<String, InstanceState> getInstanceState(NovaInstanceTemplate template, 
+			Collection<String> virtualInstanceIds) {
+		try {
+			return await(getInstanceStateAsync(template, virtualInstanceIds));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnrecoverableProviderException("Interrupted while getting the instance states", e);
 		}
 	}
-
-	public void allocate(NovaInstanceTemplate template, Collection<String> instanceIds,
+	
+	/**
+	 * Allocates the specified instances on the plugin executor.
+	 *
+	 * @param template    the instance template
+	 * @param instanceIds the virtual instance IDs
+	 * @param minCount    the minimum number of instances to allocate
+	 * @return the future of the allocation, whose cancellation interrupts the allocation
+	 *         including its polling
+	 */
+	public ListenableFuture<Void> allocateAsync(final NovaInstanceTemplate template,
+			final Collection<String> instanceIds, final int minCount) {
+		return OpenStackExecutors.getOperationExecutor().submit(new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				doAllocate(template, instanceIds, minCount);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Deletes the specified instances on the plugin executor.
+	 *
+	 * @param template           the instance template
+	 * @param virtualInstanceIds the virtual instance IDs
+	 * @return the future of the deletion
+	 */
+	public ListenableFuture<Void> deleteAsync(final NovaInstanceTemplate template,
+			final Collection<String> virtualInstanceIds) {
+		return OpenStackExecutors.getOperationExecutor().submit(new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				doDelete(template, virtualInstanceIds);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Finds the specified instances on the plugin executor.
+	 *
+	 * @param template           the instance template
+	 * @param virtualInstanceIds the virtual instance IDs
+	 * @return the future of the found instances
+	 */
+	public ListenableFuture<Collection<NovaInstance>> findAsync(final NovaInstanceTemplate template,
+			final Collection<String> virtualInstanceIds) {
+		return OpenStackExecutors.getOperationExecutor().submit(new Callable<Collection<NovaInstance>>() {
+			@Override
+			public Collection<NovaInstance> call() throws InterruptedException {
+				return doFind(template, virtualInstanceIds);
+			}
+		});
+	}
+	
+	/**
+	 * Gets the states of the specified instances on the plugin executor.
+	 *
+	 * @param template           the instance template
+	 * @param virtualInstanceIds the virtual instance IDs
+	 * @return the future of the instance states by virtual instance ID
+	 */
+	public ListenableFuture<Map<String, InstanceState>> getInstanceStateAsync(
+			final NovaInstanceTemplate template, final Collection<String> virtualInstanceIds) {
+		return OpenStackExecutors.getOperationExecutor().submit(new Callable<Map<String, InstanceState>>() {
+			@Override
+			public Map<String, InstanceState> call() throws InterruptedException {
+				return doGetInstanceState(template, virtualInstanceIds);
+			}
+		});
+	}
+	
+	/**
+	 * Waits for the result of an asynchronous operation, cancelling it if the calling
+	 * thread is interrupted.
+	 *
+	 * @param future the future of the operation
+	 * @return the result of the operation
+	 * @throws InterruptedException if the calling thread or the operation was interrupted
+	 */
+	private static <T> T await(ListenableFuture<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+	
+	private void doAllocate(NovaInstanceTemplate template, Collection<String> instanceIds,
 			int minCount) throws InterruptedException {
 		LocalizationContext providerLocalizationContext = getLocalizationContext();
 		LocalizationContext templateLocalizationContext =
 				SimpleResourceTemplate.getTemplateLocalizationContext(providerLocalizationContext);
 		
 		// Provisioning the cluster
-		ServerApi  serverApi = novaApi.getServerApi(region);
-		Optional<FloatingIPApi> floatingIpApi = novaApi.getFloatingIPApi(region);
-		final Set<String> instancesWithNoPrivateIp = Sets.newHashSet();
+		NovaServerApi serverApi = novaEngine.getServerApi(region);
+		Optional<FloatingIPApi> floatingIpApi = novaEngine.getFloatingIPApi(region);
+		final Map<String, String> instancesWithNoPrivateIp = new HashMap<String, String>();
+		OpenStackTuning templateTuning = getTuning().forTemplate(template.getName());
+		final NovaAllocationRollback rollback = new NovaAllocationRollback(serverApi, floatingIpApi,
+				neutronClient, allocationJournal, templateTuning.getRollbackParallelism());
 		
 		String image = template.getConfigurationValue(IMAGE, templateLocalizationContext);
 		String flavor = template.getConfigurationValue(TYPE, templateLocalizationContext);
@@ -193,126 +415,588 @@ public class NovaProvider extends AbstractComputeProvider<NovaInstance, NovaInst
 		String securityGroups = template.getConfigurationValue(SECURITY_GROUP_NAMES, templateLocalizationContext);
 		String keyName = template.getConfigurationValue(KEY_NAME, templateLocalizationContext);
 		String floatingipPool = template.getConfigurationValue(FLOATING_IP_POOL, templateLocalizationContext);
+		String floatingIpBackend = template.getConfigurationValue(FLOATING_IP_BACKEND, templateLocalizationContext);
+		boolean neutronFloatingIps = NovaInstanceTemplate.FLOATING_IP_BACKEND_NEUTRON.equals(floatingIpBackend);
+		NovaFloatingIpAssigner floatingIpAssigner = new NovaFloatingIpAssigner(serverApi, floatingIpApi,
+				neutronClient, floatingipPool, neutronFloatingIps, templateTuning.getFloatingIpParallelism(),
+				allocationJournal, rollback);
 		List<String> securityGroupNames = NovaInstanceTemplate.CSV_SPLITTER.splitToList(securityGroups);
+		NovaServerSignature signature = new NovaServerSignature(image, flavor, network, azone,
+				securityGroupNames, keyName);
 		
-		for (String currentId : instanceIds) {
-			String decoratedInstanceName = decorateInstanceName(template, currentId, templateLocalizationContext);
-
-			// Tag all the new instances so that we can easily find them later on
-			Map<String, String> tags = new HashMap<String, String>();
-			tags.put("DIRECTOR_ID", currentId);
-			tags.put("INSTANCE_NAME", decoratedInstanceName);
+		// Reuse the instances that already have a healthy server, e.g. from an interrupted
+		// or retried allocation, so that only the missing ones are booted
+		Map<String, String> existingNovaInstanceIds = findExistingInstances(serverApi,
+				new NovaAllocationRollback(serverApi, floatingIpApi, neutronClient, allocationJournal,
+						templateTuning.getRollbackParallelism()),
+				neutronFloatingIps, instanceIds);
+		
+		// Boot, assign and wait all or nothing: on any failure, everything the allocation
+		// holds is released
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		int successfulOperationCount;
+		try {
+			// Claim the standby servers first, only the other instances are booted
+			Map<String, String> instanceNamesToBoot = new LinkedHashMap<String, String>();
+			for (String currentId : instanceIds) {
+				String existingNovaInstanceId = existingNovaInstanceIds.get(currentId);
+				if (existingNovaInstanceId != null) {
+					LOG.info("Reusing existing instance {} for {}", existingNovaInstanceId, currentId);
+					rollback.serverHeld(currentId, existingNovaInstanceId);
+					NovaAllocationJournal.Entry entry = allocationJournal.get(currentId);
+					if (entry != null && entry.getFloatingIpId() != null && neutronFloatingIps) {
+						rollback.neutronFloatingIpHeld(currentId, entry.getFloatingIp(), entry.getFloatingIpId());
+					} else if (entry != null && entry.getFloatingIp() != null && !neutronFloatingIps) {
+						rollback.floatingIpHeld(currentId, entry.getFloatingIp(), entry.getFloatingIpId());
+					}
+					instancesWithNoPrivateIp.put(existingNovaInstanceId, currentId);
+					continue;
+				}
+				
+				String decoratedInstanceName = decorateInstanceName(template, currentId, templateLocalizationContext);
+				String novaInstanceId = claimStandbyServer(serverApi, signature, currentId, decoratedInstanceName,
+						getInstanceTags(currentId, decoratedInstanceName), rollback);
+				if (novaInstanceId == null) {
+					instanceNamesToBoot.put(currentId, decoratedInstanceName);
+				} else {
+					serverStarted(serverApi, floatingIpAssigner, currentId, novaInstanceId, null, rollback,
+							instancesWithNoPrivateIp);
+				}
+			}
+			
+			// Create the ports of the instances to boot all at once, so that their private IPs
+			// are known before they boot
+			Map<String, NeutronPort> ports = createPorts(signature, instanceNamesToBoot,
+					templateTuning.isNeutronPortsEnabled(), rollback);
+			
+			for (Map.Entry<String, String> instanceToBoot : instanceNamesToBoot.entrySet()) {
+				String currentId = instanceToBoot.getKey();
+				String decoratedInstanceName = instanceToBoot.getValue();
+				
+				// Tag all the new instances so that we can easily find them later on
+				Map<String, String> tags = getInstanceTags(currentId, decoratedInstanceName);
+				NeutronPort port = ports.get(currentId);
+				NovaCreateServerOptions createServerOps;
+				if (port == null) {
+					createServerOps = signature.toCreateServerOptions(tags);
+				} else {
+					tags.put(NovaServerAddresses.PORT_ID_METADATA_KEY, port.getId());
+					createServerOps = signature.toCreateServerOptions(tags, port.getId());
+				}
+				
+				ServerCreated currentServer = serverApi.create(decoratedInstanceName, image, flavor, createServerOps);
+				
+				String novaInstanceId = currentServer.getId();
+				if (Strings.isNullOrEmpty(novaInstanceId)) {
+					// the response is all there is, waiting would not give the server an ID
+					failures.put(currentId, "Nova accepted the server " + decoratedInstanceName + " without an ID");
+					throw new IllegalStateException("Nova returned no ID for the server of instance " + currentId);
+				}
+				serverStarted(serverApi, floatingIpAssigner, currentId, novaInstanceId, port, rollback,
+						instancesWithNoPrivateIp);
+			}
+			Map<String, String> floatingIpFailures = new LinkedHashMap<String, String>(floatingIpAssigner.flush());
+			allocationJournal.sync();
 			
-			CreateServerOptions createServerOps = new CreateServerOptions()
-								.keyPairName(keyName)
-								.networks(network)
-								.availabilityZone(azone)
-								.securityGroupNames(securityGroupNames)
-								.metadata(tags);
+			// Wait until all of them to have a private IP, from the polls of the region shared
+			// by all the operations in flight, giving up early once too many failed
+			int maxFailureCount = instanceIds.size() - minCount;
+			Map<String, String> failedInstances = awaitPrivateIps(serverApi, floatingIpAssigner,
+					instancesWithNoPrivateIp, floatingIpFailures, maxFailureCount,
+					templateTuning.getAllocateIpTimeoutMillis());
+			Set<String> failedInstanceIds = Sets.newHashSet(instancesWithNoPrivateIp.values());
+			failedInstanceIds.addAll(floatingIpFailures.keySet());
 			
-			ServerCreated currentServer = serverApi.create(decoratedInstanceName, image, flavor, createServerOps);
+			// Only the instances accepting SSH connections are usable by Director, no need to
+			// probe them when the allocation already failed
+			Set<String> unreachableInstanceIds = (failedInstances.size() + floatingIpFailures.size() > maxFailureCount)
+					? Collections.<String>emptySet()
+					: awaitUnreachableInstances(NovaSshReadinessProbe.fromConfig(templateTuning), instanceIds,
+							failedInstanceIds);
 			
-			String novaInstanceId = currentServer.getId();			
-			while (novaInstanceId.isEmpty()) {
-				TimeUnit.SECONDS.sleep(5);
-				novaInstanceId = currentServer.getId();
+			successfulOperationCount = instanceIds.size() - failedInstanceIds.size()
+					- unreachableInstanceIds.size();
+			failures.putAll(failedInstances);
+			failures.putAll(floatingIpFailures);
+		} catch (RuntimeException e) {
+			throw rollBack(rollback, failures, e);
+		}
+		
+		if (successfulOperationCount < minCount) {
+			throw rollBack(rollback, failures, null);
+		}
+		
+		for (String currentId : instanceIds) {
+			allocationJournal.completed(currentId);
+		}
+		allocationJournal.sync();
+	}
+	
+	/**
+	 * Releases everything a failed allocation holds, without asking Nova what it is.
+	 *
+	 * @param rollback the allocation rollback
+	 * @param failures the reasons of the failed instances by virtual instance ID
+	 * @param cause    the failure that stopped the allocation, <code>null</code> if too many
+	 *                 instances failed
+	 * @return the exception to throw, detailing the failures and the rollback report
+	 * @throws InterruptedException if interrupted while waiting for the releases
+	 */
+	private static UnrecoverableProviderException rollBack(NovaAllocationRollback rollback,
+			Map<String, String> failures, RuntimeException cause) throws InterruptedException {
+		PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+		if (cause != null) {
+			LOG.warn("Allocation failed, rolling back", cause);
+			accumulator.addError(null, "Allocation failed: " + cause.getMessage());
+		}
+		for (Map.Entry<String, String> failedInstance : failures.entrySet()) {
+			accumulator.addError(null, "Instance " + failedInstance.getKey() + " failed: "
+					+ failedInstance.getValue());
+		}
+		NovaAllocationRollback.Report report = rollback.rollback();
+		for (NovaAllocationRollback.InstanceOutcome failure : report.getFailures()) {
+			accumulator.addError(null, "Unable to release " + failure);
+		}
+		PluginExceptionDetails pluginExceptionDetails = new PluginExceptionDetails(accumulator.getConditionsByKey());
+		return new UnrecoverableProviderException("Problem allocating instances.", cause, pluginExceptionDetails);
+	}
+	
+	/**
+	 * Waits for the specified servers to get a private IP, and assigns their floating IP
+	 * as soon as they do. A server seen in error is not waited for any longer, and the wait
+	 * fails if Nova cannot be polled.
+	 *
+	 * @param serverApi                the server API
+	 * @param floatingIpAssigner       the floating IP assigner of the allocation
+	 * @param instancesWithNoPrivateIp the virtual instance IDs of the servers without private
+	 *                                 IP by Nova instance ID, left with those still without
+	 * @param floatingIpFailures       the reasons of the floating IP failures by virtual
+	 *                                 instance ID, added to as the floating IPs are assigned
+	 * @param maxFailureCount          the number of failed servers the allocation tolerates,
+	 *                                 the wait stops once more failed
+	 * @param timeoutMillis            how long to wait, in milliseconds
+	 * @return the Nova fault, or state, of the failed servers by virtual instance ID
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private Map<String, String> awaitPrivateIps(NovaServerApi serverApi, NovaFloatingIpAssigner floatingIpAssigner,
+			Map<String, String> instancesWithNoPrivateIp, Map<String, String> floatingIpFailures,
+			int maxFailureCount, long timeoutMillis) throws InterruptedException {
+		final BlockingQueue<String> doneNovaInstanceIds = new LinkedBlockingQueue<String>();
+		final ConcurrentMap<String, String> failureReasons = new ConcurrentHashMap<String, String>();
+		final AtomicReference<Throwable> pollFailure = new AtomicReference<Throwable>();
+		Map<String, String> failedInstances = new LinkedHashMap<String, String>();
+		List<ListenableFuture<Void>> waits = Lists.newArrayList();
+		try {
+			for (final String novaInstanceId : instancesWithNoPrivateIp.keySet()) {
+				ListenableFuture<Void> wait = pollScheduler.await(serverApi, novaInstanceId,
+						NovaPollScheduler.Condition.PRIVATE_IP);
+				Futures.addCallback(wait, new FutureCallback<Void>() {
+					@Override
+					public void onSuccess(Void result) {
+						doneNovaInstanceIds.add(novaInstanceId);
+					}
+					
+					@Override
+					public void onFailure(Throwable t) {
+						if (t instanceof NovaServerFailedException) {
+							failureReasons.put(novaInstanceId, ((NovaServerFailedException) t).getReason());
+							doneNovaInstanceIds.add(novaInstanceId);
+						} else if (!(t instanceof CancellationException)) {
+							// Nova could not be polled, the allocation fails
+							pollFailure.compareAndSet(null, t);
+							doneNovaInstanceIds.add(novaInstanceId);
+						}
+					}
+				}, MoreExecutors.sameThreadExecutor());
+				waits.add(wait);
 			}
 			
-			if (serverApi.get(novaInstanceId).getAddresses() == null) {
-				instancesWithNoPrivateIp.add(novaInstanceId);
-			} else {
-				createAndAssignFloatingIP(floatingIpApi.get(), floatingipPool, novaInstanceId);
-				LOG.info("<< Instance {} got IP {}", novaInstanceId, serverApi.get(novaInstanceId).getAccessIPv4());
+			long pollingDeadline = System.currentTimeMillis() + timeoutMillis;
+			while (instancesWithNoPrivateIp.size() > failedInstances.size()
+					&& failedInstances.size() + floatingIpFailures.size() <= maxFailureCount) {
+				LOG.info(">> Waiting for {} instance(s) to get an IP",
+						instancesWithNoPrivateIp.size() - failedInstances.size());
+				String done = doneNovaInstanceIds.poll(pollingDeadline - System.currentTimeMillis(),
+						TimeUnit.MILLISECONDS);
+				if (done == null) {
+					break;
+				}
+				if (pollFailure.get() != null) {
+					throw Throwables.propagate(pollFailure.get());
+				}
+				List<String> readyNovaInstanceIds = Lists.newArrayList(done);
+				doneNovaInstanceIds.drainTo(readyNovaInstanceIds);
+				NovaFleetView fleetView = stateSynchronizer.getFleetView();
+				for (String novaInstanceId : readyNovaInstanceIds) {
+					String failureReason = failureReasons.get(novaInstanceId);
+					if (failureReason != null) {
+						// the failed server stays without IP, and is released with the others
+						String virtualInstanceId = instancesWithNoPrivateIp.get(novaInstanceId);
+						LOG.warn("<< Instance {} of {} failed: {}", novaInstanceId, virtualInstanceId, failureReason);
+						failedInstances.put(virtualInstanceId, failureReason);
+						continue;
+					}
+					String virtualInstanceId = instancesWithNoPrivateIp.remove(novaInstanceId);
+					if (virtualInstanceId != null) {
+						allocationJournal.ipReady(virtualInstanceId);
+						floatingIpAssigner.assign(virtualInstanceId, novaInstanceId, null);
+						NovaServerAddresses addresses = fleetView.getAddresses(virtualInstanceId);
+						LOG.info("<< Instance {} got IP {}", novaInstanceId,
+								(addresses == null) ? null : addresses.getPrivateIpAddress());
+					}
+				}
+				floatingIpFailures.putAll(floatingIpAssigner.flush());
+			}
+		} finally {
+			for (ListenableFuture<Void> wait : waits) {
+				wait.cancel(false);
 			}
 		}
+		return failedInstances;
+	}
+	
+	/**
+	 * Returns the metadata identifying a new instance.
+	 *
+	 * @param virtualInstanceId the virtual instance ID
+	 * @param instanceName      the decorated instance name
+	 * @return the mutable metadata
+	 */
+	private static Map<String, String> getInstanceTags(String virtualInstanceId, String instanceName) {
+		Map<String, String> tags = new HashMap<String, String>();
+		tags.put(NovaFleetView.DIRECTOR_ID_METADATA_KEY, virtualInstanceId);
+		tags.put("INSTANCE_NAME", instanceName);
+		return tags;
+	}
+	
+	/**
+	 * Records a server created or claimed for an instance, and assigns its floating IP
+	 * if its private IP is already known. The private IP of a server attached to a port
+	 * created beforehand is known without asking Nova.
+	 *
+	 * @param serverApi                the server API
+	 * @param floatingIpAssigner       the floating IP assigner of the allocation
+	 * @param virtualInstanceId        the virtual instance ID
+	 * @param novaInstanceId           the Nova instance ID
+	 * @param port                     the port of the server, <code>null</code> if none
+	 * @param rollback                 the allocation rollback
+	 * @param instancesWithNoPrivateIp the virtual instance IDs of the servers still without
+	 *                                 private IP, by Nova instance ID
+	 */
+	private void serverStarted(NovaServerApi serverApi, NovaFloatingIpAssigner floatingIpAssigner,
+			String virtualInstanceId, String novaInstanceId, NeutronPort port, NovaAllocationRollback rollback,
+			Map<String, String> instancesWithNoPrivateIp) {
+		allocationJournal.created(virtualInstanceId, novaInstanceId);
+		rollback.serverHeld(virtualInstanceId, novaInstanceId);
 		
-		// Wait until all of them to have a private IP
-		int totalTimePollingSeconds = 0;
-		int pollingTimeoutSeconds = 180;
-		boolean timeoutExceeded = false;
-		while (!instancesWithNoPrivateIp.isEmpty() && !timeoutExceeded) {
-			LOG.info(">> Waiting for {} instance(s) to be active",
-					instancesWithNoPrivateIp.size());
-		    
-			for (String novaInstanceId : instancesWithNoPrivateIp) {
-				if (serverApi.get(novaInstanceId).getAddresses() != null) {
-					instancesWithNoPrivateIp.remove(novaInstanceId);
-					createAndAssignFloatingIP(floatingIpApi.get(), floatingipPool, novaInstanceId);
+		// Nova floating IPs can only be added once Nova knows the port address
+		if (port != null && port.getFixedIp() != null
+				&& (!floatingIpAssigner.isEnabled() || floatingIpAssigner.isPortBound())) {
+			allocationJournal.ipReady(virtualInstanceId);
+			floatingIpAssigner.assign(virtualInstanceId, novaInstanceId, port.getId());
+			LOG.info("<< Instance {} got IP {} from port {}", novaInstanceId, port.getFixedIp(), port.getId());
+			return;
+		}
+		
+		// the others are found in the polls of the region
+		instancesWithNoPrivateIp.put(novaInstanceId, virtualInstanceId);
+	}
+	
+	/**
+	 * Creates the Neutron ports of the specified instances in a single bulk request, when
+	 * port pre-creation is enabled.
+	 *
+	 * @param signature     the server signature, giving the network and security groups
+	 * @param instanceNames the instance names by virtual instance ID
+	 * @param enabled       whether port pre-creation is enabled
+	 * @param rollback      the allocation rollback
+	 * @return the ports by virtual instance ID, empty if port pre-creation is disabled
+	 */
+	private Map<String, NeutronPort> createPorts(NovaServerSignature signature, Map<String, String> instanceNames,
+			boolean enabled, NovaAllocationRollback rollback) {
+		Map<String, NeutronPort> ports = new HashMap<String, NeutronPort>();
+		if (!enabled || instanceNames.isEmpty()) {
+			return ports;
+		}
+		List<String> virtualInstanceIds = Lists.newArrayList(instanceNames.keySet());
+		List<NeutronPort> created = neutronClient.createPorts(signature.getNetwork(),
+				Lists.newArrayList(instanceNames.values()),
+				neutronClient.getSecurityGroupIds(signature.getSecurityGroupNames()));
+		for (int i = 0; i < created.size(); i++) {
+			ports.put(virtualInstanceIds.get(i), created.get(i));
+			rollback.portHeld(virtualInstanceIds.get(i), created.get(i).getId());
+		}
+		return ports;
+	}
+	
+	/**
+	 * Returns the Nova instance IDs of the specified instances that already have a healthy
+	 * server, journaling the allocation request of the others before anything is booted.
+	 * The instances are looked up all at once in the fleet view, synchronized by a single
+	 * listing indexed by {@link NovaFleetView#DIRECTOR_ID_METADATA_KEY}, and a journaled
+	 * server is only reused if the view still knows it. Servers in error are released with
+	 * their floating IP and port, so that they get replaced.
+	 *
+	 * @param serverApi          the server API
+	 * @param errorRollback      the rollback releasing the servers in error
+	 * @param neutronFloatingIps whether the floating IPs are Neutron floating IPs
+	 * @param virtualInstanceIds the virtual instance IDs
+	 * @return the Nova instance IDs of the reusable instances by virtual instance ID
+	 * @throws InterruptedException if interrupted while synchronizing the fleet view or
+	 *                              releasing the servers in error
+	 */
+	private Map<String, String> findExistingInstances(NovaServerApi serverApi, NovaAllocationRollback errorRollback,
+			boolean neutronFloatingIps, Collection<String> virtualInstanceIds) throws InterruptedException {
+		Map<String, String> existingNovaInstanceIds = new HashMap<String, String>();
+		Set<String> failedInstanceIds = Sets.newHashSet();
+		NovaFleetTable.Snapshot snapshot = stateSynchronizer.synchronize(serverApi).snapshot();
+		for (String currentId : virtualInstanceIds) {
+			NovaAllocationJournal.Entry entry = allocationJournal.get(currentId);
+			if (entry == null) {
+				allocationJournal.requested(currentId);
+			}
+			int row = snapshot.findByVirtualInstanceId(currentId);
+			if (row < 0) {
+				if (entry != null && entry.getNovaInstanceId() != null) {
+					LOG.info("Journaled instance {} of {} is gone, booting a new one",
+							entry.getNovaInstanceId(), currentId);
+				}
+				continue;
+			}
+			String novaInstanceId = snapshot.getNovaInstanceId(row);
+			if (snapshot.getStatus(row) == Status.ERROR) {
+				LOG.info("Replacing instance {} of {} which is in error", novaInstanceId, currentId);
+				errorRollback.serverHeld(currentId, novaInstanceId);
+				String floatingIpId = snapshot.getFloatingIpId(row);
+				InetAddress floatingIpAddress = snapshot.getFloatingIpAddress(row);
+				String floatingIp = (floatingIpAddress == null) ? null : floatingIpAddress.getHostAddress();
+				if (floatingIpId != null && neutronFloatingIps) {
+					errorRollback.neutronFloatingIpHeld(currentId, floatingIp, floatingIpId);
+				} else if (floatingIpId != null) {
+					errorRollback.floatingIpHeld(currentId, floatingIp, floatingIpId);
 				}
+				if (snapshot.getPortId(row) != null) {
+					errorRollback.portHeld(currentId, snapshot.getPortId(row));
+				}
+				failedInstanceIds.add(currentId);
+				continue;
 			}
+			existingNovaInstanceIds.put(currentId, novaInstanceId);
+			if (entry != null && novaInstanceId.equals(entry.getNovaInstanceId())) {
+				continue;
+			}
+			allocationJournal.created(currentId, novaInstanceId);
 			
-			if (!instancesWithNoPrivateIp.isEmpty()) {
-				LOG.info("Waiting 5 seconds until next check, {} instance(s) still don't have an IP",
-						instancesWithNoPrivateIp.size());
-				
-				if (totalTimePollingSeconds > pollingTimeoutSeconds) {
-					timeoutExceeded = true;
-		        }        
-				TimeUnit.SECONDS.sleep(5);
-				totalTimePollingSeconds += 5;
+			// Keep the floating IP attached by a previous allocation
+			NovaServerAddresses addresses = snapshot.getAddresses(row);
+			InetAddress floatingIpAddress = addresses.getFloatingIpAddress();
+			if (floatingIpAddress != null) {
+				allocationJournal.floatingIpAllocated(currentId, floatingIpAddress.getHostAddress(),
+						addresses.getFloatingIpId());
+				allocationJournal.floatingIpAttached(currentId);
 			}
 		}
 		
-		int successfulOperationCount = instanceIds.size() - instancesWithNoPrivateIp.size();
-		if (successfulOperationCount < minCount) {
-			PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
-			BiMap<String, String> virtualInstanceIdsByNovaInstanceId = 
-					getNovaInstanceIdsByVirtualInstanceId(instanceIds);
-			
-			for (String currentId : instanceIds) {
-				try{
-					String novaInstanceId = virtualInstanceIdsByNovaInstanceId.get(currentId);
-					novaApi.getServerApi(region).delete(novaInstanceId);
-				} catch (Exception e) {
-					accumulator.addError(null, e.getMessage());
-				}
+		if (!failedInstanceIds.isEmpty()) {
+			NovaAllocationRollback.Report report = errorRollback.rollback();
+			for (NovaAllocationRollback.InstanceOutcome failure : report.getFailures()) {
+				LOG.warn("Unable to release instance in error {}", failure);
+			}
+			// the release ended their journal entries, the replacements start over
+			for (String currentId : failedInstanceIds) {
+				allocationJournal.requested(currentId);
+			}
+		}
+		allocationJournal.sync();
+		return existingNovaInstanceIds;
+	}
+	
+	/**
+	 * Waits for the instances that got a private IP to accept SSH connections, when the
+	 * readiness stage is enabled.
+	 *
+	 * @param readinessProbe              the readiness probe, <code>null</code> if disabled
+	 * @param virtualInstanceIds          the virtual instance IDs of the allocation
+	 * @param failedInstanceIds           the virtual instance IDs of the instances without IP
+	 *                                    or floating IP
+	 * @return the virtual instance IDs of the other instances that are not reachable
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private Set<String> awaitUnreachableInstances(NovaSshReadinessProbe readinessProbe,
+			Collection<String> virtualInstanceIds, Collection<String> failedInstanceIds)
+			throws InterruptedException {
+		Set<String> unreachableInstanceIds = Sets.newHashSet();
+		if (readinessProbe == null) {
+			return unreachableInstanceIds;
+		}
+		
+		NovaFleetView fleetView = stateSynchronizer.synchronize(novaEngine.getServerApi(region));
+		Map<String, InetAddress> privateIpAddresses = new HashMap<String, InetAddress>();
+		for (String currentId : virtualInstanceIds) {
+			if (failedInstanceIds.contains(currentId)) {
+				continue;
+			}
+			NovaServerAddresses addresses = fleetView.getAddresses(currentId);
+			InetAddress privateIpAddress = (addresses == null) ? null : addresses.getPrivateIpAddress();
+			if (privateIpAddress == null) {
+				unreachableInstanceIds.add(currentId);
+			} else {
+				privateIpAddresses.put(currentId, privateIpAddress);
 			}
-			PluginExceptionDetails pluginExceptionDetails = new PluginExceptionDetails(accumulator.getConditionsByKey());
-			throw new UnrecoverableProviderException("Problem allocating instances.", pluginExceptionDetails);
+		}
+		
+		Set<String> reachableInstanceIds = readinessProbe.awaitReachable(privateIpAddresses);
+		for (String currentId : privateIpAddresses.keySet()) {
+			if (!reachableInstanceIds.contains(currentId)) {
+				LOG.info("Instance {} does not accept SSH connections", currentId);
+				unreachableInstanceIds.add(currentId);
+			}
+		}
+		return unreachableInstanceIds;
+	}
+	
+	/**
+	 * Claims a booted server of the standby pool and tags it for the specified instance.
+	 * A claimed server that cannot be tagged is deleted right away, so that the instance
+	 * is booted instead; if it cannot be deleted either, it is left to the rollback.
+	 *
+	 * @param serverApi         the server API
+	 * @param signature         the signature of the server to claim
+	 * @param virtualInstanceId the virtual instance ID
+	 * @param instanceName      the name of the instance
+	 * @param tags              the metadata of the instance
+	 * @param rollback          the rollback of the allocation
+	 * @return the Nova instance ID of the claimed server, or <code>null</code> if the
+	 *         instance has to be booted
+	 */
+	private String claimStandbyServer(NovaServerApi serverApi, NovaServerSignature signature,
+			String virtualInstanceId, String instanceName, Map<String, String> tags,
+			NovaAllocationRollback rollback) {
+		if (standbyPool == null) {
+			return null;
+		}
+		String novaInstanceId = standbyPool.claim(signature);
+		if (novaInstanceId == null) {
+			return null;
+		}
+		try {
+			serverApi.updateMetadata(novaInstanceId, tags);
+			serverApi.deleteMetadata(novaInstanceId, NovaStandbyPool.STANDBY_METADATA_KEY);
+			serverApi.rename(novaInstanceId, instanceName);
+			LOG.info("Claimed standby server {} for instance {}", novaInstanceId, instanceName);
+			return novaInstanceId;
+		} catch (RuntimeException e) {
+			LOG.warn("Unable to claim standby server " + novaInstanceId + ", booting a new one", e);
+		}
+		try {
+			serverApi.delete(novaInstanceId);
+			return null;
+		} catch (RuntimeException e) {
+			// the claimed server may already carry the Director ID, it must not outlive the
+			// allocation
+			rollback.serverHeld(virtualInstanceId, novaInstanceId);
+			throw e;
 		}
 	}
 	
-	private String findFloatingIPByAddress(FloatingIPApi floatingIpApi, String floatingIp) {
-		FluentIterable<FloatingIP> floatingipList = floatingIpApi.list();
-		for ( FloatingIP ip : floatingipList) {
-			if (ip.getIp().compareTo(floatingIp) == 0) {
-				return ip.getId();
+	/**
+	 * Returns the floating IP IDs by address, listing the floating IPs of the tenant once,
+	 * together with the concurrent listings.
+	 *
+	 * @param floatingIpApi the floating IP API
+	 * @return the floating IP IDs by address
+	 * @throws InterruptedException if interrupted while waiting for a shared listing
+	 */
+	private Map<String, String> getFloatingIPIdsByAddress(FloatingIPApi floatingIpApi)
+			throws InterruptedException {
+		Map<String, String> floatingIpIdsByAddress = new HashMap<String, String>();
+		for (FloatingIP ip : readCoalescer.listFloatingIps(floatingIpApi)) {
+			floatingIpIdsByAddress.put(ip.getIp(), ip.getId());
+		}
+		return floatingIpIdsByAddress;
+	}
+
+	/**
+	 * Returns the Neutron floating IP IDs by address of the specified instances whose
+	 * floating IP is not recorded in the server metadata, looking up their ports and then
+	 * their floating IPs with one filtered request each.
+	 *
+	 * @param fleetView          the fleet view
+	 * @param virtualInstanceIds the virtual instance IDs
+	 * @return the floating IP IDs by address
+	 */
+	private Map<String, String> getNeutronFloatingIpIdsByAddress(NovaFleetView fleetView,
+			Collection<String> virtualInstanceIds) {
+		List<String> novaInstanceIds = Lists.newArrayList();
+		for (String currentId : virtualInstanceIds) {
+			NovaServerAddresses addresses = fleetView.getAddresses(currentId);
+			if (addresses != null && addresses.getFloatingIpAddress() != null && addresses.getFloatingIpId() == null) {
+				novaInstanceIds.add(fleetView.getNovaInstanceId(currentId));
 			}
 		}
-		return null;
+		List<String> portIds = Lists.newArrayList();
+		for (NeutronPort port : neutronClient.listPortsByDevices(novaInstanceIds)) {
+			portIds.add(port.getId());
+		}
+		Map<String, String> floatingIpIdsByAddress = new HashMap<String, String>();
+		for (NeutronFloatingIp floatingIp : neutronClient.listFloatingIpsByPorts(portIds)) {
+			floatingIpIdsByAddress.put(floatingIp.getFloatingIp(), floatingIp.getId());
+		}
+		return floatingIpIdsByAddress;
 	}
 
-	public void delete(NovaInstanceTemplate template, Collection<String> virtualInstanceIds)
+	private void doDelete(NovaInstanceTemplate template, Collection<String> virtualInstanceIds)
 			throws InterruptedException {
 		if (virtualInstanceIds.isEmpty()) {
 			return;
 		}
 		
-		BiMap<String, String> virtualInstanceIdsByNovaInstanceId = 
-				getNovaInstanceIdsByVirtualInstanceId(virtualInstanceIds);
+		NovaServerApi serverApi = novaEngine.getServerApi(region);
+		Optional<FloatingIPApi> floatingIpApi = novaEngine.getFloatingIPApi(region);
+		NovaFleetView fleetView = stateSynchronizer.synchronize(serverApi);
+		String floatingIpBackend = template.getConfigurationValue(FLOATING_IP_BACKEND,
+				SimpleResourceTemplate.getTemplateLocalizationContext(getLocalizationContext()));
+		boolean neutronFloatingIps = NovaInstanceTemplate.FLOATING_IP_BACKEND_NEUTRON.equals(floatingIpBackend);
 		
-		ServerApi serverApi = novaApi.getServerApi(region);
-		Optional<FloatingIPApi> floatingIpApi = novaApi.getFloatingIPApi(region);
+		// only needed for floating IPs not recorded in the server metadata
+		Map<String, String> floatingIpIdsByAddress = null;
 		
 		for (String currentId : virtualInstanceIds) {
-			String novaInstanceId = virtualInstanceIdsByNovaInstanceId.get(currentId);
-			
-			//find the floating IP address if it exists
-			String floatingIp = null;
-			Iterator<Address> iterator = serverApi.get(novaInstanceId).getAddresses().values().iterator();
-			if (iterator.hasNext()) {
-				//discard the first one (the fixed IP)
-				iterator.next();
-				if (iterator.hasNext()) {
-					floatingIp = iterator.next().getAddr();
-				}
+			String novaInstanceId = fleetView.getNovaInstanceId(currentId);
+			if (novaInstanceId == null) {
+				LOG.info("Instance {} is already gone", currentId);
+				allocationJournal.released(currentId);
+				continue;
 			}
 			
-			//disassociate and delete the floating IP
-			if (floatingIp != null) {
-				String floatingipID = findFloatingIPByAddress(floatingIpApi.get(), floatingIp);
+			//disassociate and delete the floating IP if it exists
+			NovaServerAddresses addresses = fleetView.getAddresses(currentId);
+			InetAddress floatingIpAddress = addresses.getFloatingIpAddress();
+			if (floatingIpAddress != null && neutronFloatingIps) {
+				String floatingipID = addresses.getFloatingIpId();
+				if (floatingipID == null) {
+					if (floatingIpIdsByAddress == null) {
+						floatingIpIdsByAddress = getNeutronFloatingIpIdsByAddress(fleetView, virtualInstanceIds);
+					}
+					floatingipID = floatingIpIdsByAddress.get(floatingIpAddress.getHostAddress());
+				}
+				// deleting a Neutron floating IP also unbinds it from its port
+				if (floatingipID != null) {
+					neutronClient.deleteFloatingIp(floatingipID);
+				}
+			} else if (floatingIpAddress != null && floatingIpApi.isPresent()) {
+				String floatingIp = floatingIpAddress.getHostAddress();
+				String floatingipID = addresses.getFloatingIpId();
+				if (floatingipID == null) {
+					if (floatingIpIdsByAddress == null) {
+						floatingIpIdsByAddress = getFloatingIPIdsByAddress(floatingIpApi.get());
+					}
+					floatingipID = floatingIpIdsByAddress.get(floatingIp);
+				}
 				floatingIpApi.get().removeFromServer(floatingIp, novaInstanceId);
-				floatingIpApi.get().delete(floatingipID);
+				if (floatingipID != null) {
+					floatingIpApi.get().delete(floatingipID);
+				}
 			}
 			
 			//delete the server
@@ -320,45 +1004,49 @@ public class NovaProvider extends AbstractComputeProvider<NovaInstance, NovaInst
 			if (!deleted) {
 				LOG.info("Unable to terminate instance {}", novaInstanceId);
 			}
+			
+			//delete the port created before booting the server, which Nova keeps
+			String portId = fleetView.getPortId(currentId);
+			if (portId != null) {
+				neutronClient.deletePort(portId);
+			}
+			allocationJournal.released(currentId);
 		}
+		allocationJournal.sync();
 	}
 
-	public Collection<NovaInstance> find(NovaInstanceTemplate template,
+	private Collection<NovaInstance> doFind(NovaInstanceTemplate template,
 			Collection<String> virtualInstanceIds) throws InterruptedException {
 		
 		final Collection<NovaInstance> novaInstances =
 				Lists.newArrayListWithExpectedSize(virtualInstanceIds.size());
-		BiMap<String, String> virtualInstanceIdsByNovaInstanceId = 
-				getNovaInstanceIdsByVirtualInstanceId(virtualInstanceIds);
-		
-		ServerApi serverApi = novaApi.getServerApi(region);
+		NovaFleetTable.Snapshot snapshot = getFleetView().snapshot();
 		
 		for (String currentId : virtualInstanceIds) {
-			String novaInstanceId = virtualInstanceIdsByNovaInstanceId.get(currentId);
-			novaInstances.add(new NovaInstance(template, currentId, serverApi.get(novaInstanceId)));
+			int row = snapshot.findByVirtualInstanceId(currentId);
+			if (row >= 0) {
+				novaInstances.add(new NovaInstance(template, currentId, snapshot, row));
+			}
 		}
 		
 		return novaInstances;
 	}
 
-	public Map<String, InstanceState> getInstanceState(NovaInstanceTemplate template, 
-			Collection<String> virtualInstanceIds) {
+	private Map<String, InstanceState> doGetInstanceState(NovaInstanceTemplate template, 
+			Collection<String> virtualInstanceIds) throws InterruptedException {
 		
 		Map<String, InstanceState> instanceStateByInstanceId = new HashMap<String, InstanceState >();
 		
-		BiMap<String, String> virtualInstanceIdsByNovaInstanceId = 
-				getNovaInstanceIdsByVirtualInstanceId(virtualInstanceIds);
+		NovaFleetTable.Snapshot snapshot = getFleetView().snapshot();
 		  
 		for (String currentId : virtualInstanceIds) {
-			String novaInstanceId = virtualInstanceIdsByNovaInstanceId.get(currentId);
-			if (novaInstanceId == null) {
+			int row = snapshot.findByVirtualInstanceId(currentId);
+			if (row < 0) {
 				InstanceState instanceStateDel = NovaInstanceState.fromInstanceStateName(Status.DELETED);
 				instanceStateByInstanceId.put(currentId, instanceStateDel);
 				continue;	
 			}
-			Status instance_state =  novaApi.getServerApi(region).get(novaInstanceId).getStatus();
-			InstanceState instanceState = NovaInstanceState.fromInstanceStateName(instance_state);
-			instanceStateByInstanceId.put(currentId, instanceState);
+			instanceStateByInstanceId.put(currentId, snapshot.getInstanceState(row));
 		}
 		
 		return instanceStateByInstanceId;
@@ -374,26 +1062,19 @@ public class NovaProvider extends AbstractComputeProvider<NovaInstance, NovaInst
 	}
 	
 	/**
-	 * Returns a map from virtual instance ID to corresponding instance ID for the specified
-	 * virtual instance IDs.
+	 * Returns the fleet view of the region, served by the background reconciler when it is
+	 * enabled and fresh enough, synchronized with Nova otherwise.
 	 *
-	 * @param virtualInstanceIds the virtual instance IDs
-	 * @return the map from virtual instance ID to corresponding Nova instance ID
-	 */
-	private BiMap<String, String> getNovaInstanceIdsByVirtualInstanceId(
-	      Collection<String> virtualInstanceIds) {
-		final BiMap<String, String> novaInstanceIdsByVirtualInstanceId = HashBiMap.create();
-		for (String instanceName : virtualInstanceIds) {
-			ListMultimap<String, String> multimap = ArrayListMultimap.create();
-			multimap.put("name", instanceName) ;
-			ServerApi serverApi = novaApi.getServerApi(region);
-			PaginatedCollection<Server> servers = serverApi.listInDetail(PaginationOptions.Builder.queryParameters(multimap));
-			if (servers.isEmpty()) {
-				continue;
+	 * @return the fleet view
+	 * @throws InterruptedException if interrupted while synchronizing the fleet view
+	 */
+	private NovaFleetView getFleetView() throws InterruptedException {
+		if (fleetReconciler != null) {
+			NovaFleetView fleetView = fleetReconciler.read();
+			if (fleetView != null) {
+				return fleetView;
 			}
-			novaInstanceIdsByVirtualInstanceId.put(instanceName, servers.get(0).getId());	
 		}
-		
-		return novaInstanceIdsByVirtualInstanceId;
+		return stateSynchronizer.synchronize(novaEngine.getServerApi(region));
 	}
 }
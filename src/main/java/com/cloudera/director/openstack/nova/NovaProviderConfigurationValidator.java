@@ -16,10 +16,7 @@
 package com.cloudera.director.openstack.nova;
 
 import com.google.common.annotations.VisibleForTesting;
-import org.jclouds.ContextBuilder;
-import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
 import org.jclouds.openstack.nova.v2_0.NovaApi;
-import org.jclouds.openstack.nova.v2_0.NovaApiMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,8 +28,6 @@ import com.cloudera.director.spi.v1.model.ConfigurationValidator;
 import com.cloudera.director.spi.v1.model.Configured;
 import com.cloudera.director.spi.v1.model.LocalizationContext;
 import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
-import com.google.common.collect.ImmutableSet;
-import com.google.inject.Module;
 
 /**
  * Validate OpenStack Nova provider configuration.
@@ -68,16 +63,7 @@ public class NovaProviderConfigurationValidator implements ConfigurationValidato
 			LocalizationContext localizationContext) {
 		String regionName = configuration.getConfigurationValue(REGION, localizationContext);
 		LOG.info(">> Querying Region '{}'", regionName);
-		Iterable<Module> modules = ImmutableSet.<Module>of(new SLF4JLoggingModule());
-		String endpoint = credentials.getEndpoint();
-		String identity = credentials.getIdentity();
-		String credential = credentials.getCredential();
-		
-		NovaApi novapi = ContextBuilder.newBuilder(new NovaApiMetadata())
-				  .endpoint(endpoint)
-	              .credentials(identity, credential)
-	              .modules(modules)
-	              .buildApi(NovaApi.class);
+		NovaApi novapi = NovaApiSupplier.forCredentials(credentials).get();
 		if (!novapi.getConfiguredRegions().contains(regionName)) {
 			addError(accumulator, REGION, localizationContext, null, REGION_NOT_FOUND_MSG, regionName);
 		}	
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.openstack.nova.v2_0.domain.FloatingIP;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Coalesces the concurrent identical read-only Nova requests of one region: while a
+ * request is in flight, the threads issuing the same request wait for it and share its
+ * result instead of sending their own. Nothing is cached once the request completes, so
+ * the results are never staler than those of an uncoalesced call. The requests actually
+ * sent can also be rate limited.
+ */
+public class NovaReadCoalescer {
+
+	/**
+	 * The coalescers by region synchronizer.
+	 */
+	private static final ConcurrentMap<NovaStateSynchronizer, NovaReadCoalescer> COALESCERS =
+			new ConcurrentHashMap<NovaStateSynchronizer, NovaReadCoalescer>();
+
+	/**
+	 * Returns the coalescer shared by all providers targeting the region of the specified
+	 * synchronizer.
+	 *
+	 * @param synchronizer the region synchronizer
+	 * @return the coalescer of the region
+	 */
+	public static NovaReadCoalescer forSynchronizer(NovaStateSynchronizer synchronizer) {
+		NovaReadCoalescer coalescer = COALESCERS.get(synchronizer);
+		if (coalescer == null) {
+			NovaReadCoalescer created = new NovaReadCoalescer();
+			coalescer = COALESCERS.putIfAbsent(synchronizer, created);
+			if (coalescer == null) {
+				coalescer = created;
+			}
+		}
+		return coalescer;
+	}
+
+	/*
+	 * The requests in flight by request key
+	 */
+	private final ConcurrentMap<String, SettableFuture<Object>> inFlight =
+			new ConcurrentHashMap<String, SettableFuture<Object>>();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/*
+	 * The limiter of the requests sent to Nova, null if unlimited
+	 */
+	private volatile RateLimiter rateLimiter;
+
+	@VisibleForTesting
+	NovaReadCoalescer() {
+	}
+
+	/**
+	 * Applies the read rate limit of the region.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		double maxReadsPerSecond = tuning.getMaxReadsPerSecond();
+		RateLimiter limiter = rateLimiter;
+		if (maxReadsPerSecond <= 0) {
+			rateLimiter = null;
+		} else if (limiter == null) {
+			rateLimiter = RateLimiter.create(maxReadsPerSecond);
+		} else if (limiter.getRate() != maxReadsPerSecond) {
+			limiter.setRate(maxReadsPerSecond);
+		}
+	}
+
+	/**
+	 * Gets a server, sharing the request with the concurrent gets of the same server.
+	 *
+	 * @param serverApi      the server API of the region
+	 * @param novaInstanceId the Nova instance ID
+	 * @return the server, or <code>null</code> if it does not exist
+	 * @throws InterruptedException if interrupted while waiting for a shared request
+	 */
+	public Server getServer(final NovaServerApi serverApi, final String novaInstanceId)
+			throws InterruptedException {
+		return execute("server:" + novaInstanceId, new Callable<Server>() {
+			@Override
+			public Server call() {
+				return serverApi.get(novaInstanceId);
+			}
+		});
+	}
+
+	/**
+	 * Lists all the servers of the region in detail, sharing the listing with the
+	 * concurrent ones.
+	 *
+	 * @param serverApi the server API of the region
+	 * @return the servers
+	 * @throws InterruptedException if interrupted while waiting for a shared listing
+	 */
+	public List<Server> listServersInDetail(final NovaServerApi serverApi)
+			throws InterruptedException {
+		return execute("servers:detail", new Callable<List<Server>>() {
+			@Override
+			public List<Server> call() {
+				return serverApi.listInDetail();
+			}
+		});
+	}
+
+	/**
+	 * Lists all the servers of the region as records, sharing the listing with the
+	 * concurrent ones. The lightweight engine decodes the records directly, the jclouds
+	 * servers are projected once listed.
+	 *
+	 * @param serverApi the server API of the region
+	 * @return the server records
+	 * @throws InterruptedException if interrupted while waiting for a shared listing
+	 */
+	public List<NovaServerRecord> listServerRecordsInDetail(final NovaServerApi serverApi)
+			throws InterruptedException {
+		return execute("servers:records", new Callable<List<NovaServerRecord>>() {
+			@Override
+			public List<NovaServerRecord> call() {
+				return serverApi.listRecordsInDetail();
+			}
+		});
+	}
+
+	/**
+	 * Lists the floating IPs of the tenant, sharing the listing with the concurrent ones.
+	 *
+	 * @param floatingIpApi the floating IP API of the region
+	 * @return the floating IPs
+	 * @throws InterruptedException if interrupted while waiting for a shared listing
+	 */
+	public List<FloatingIP> listFloatingIps(final FloatingIPApi floatingIpApi)
+			throws InterruptedException {
+		return execute("floatingips", new Callable<List<FloatingIP>>() {
+			@Override
+			public List<FloatingIP> call() {
+				return ImmutableList.copyOf(floatingIpApi.list());
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of requests and how many of them were served by a request
+	 * already in flight.
+	 */
+	public Map<String, Long> getMetrics() {
+		long requestCount = requests.get();
+		long coalescedCount = coalesced.get();
+		return ImmutableMap.of(
+				"requests", requestCount,
+				"coalesced", coalescedCount,
+				"calls", requestCount - coalescedCount);
+	}
+
+	/**
+	 * Runs the specified request unless an identical one is in flight, in which case its
+	 * result is awaited instead. Failures are rethrown to every waiting thread. A waiting
+	 * thread that is interrupted stops waiting, the shared request goes on for the others.
+	 *
+	 * @param key     the key identifying the request within the region
+	 * @param request the request
+	 * @return the result of the request
+	 * @throws InterruptedException if interrupted while waiting for the shared request
+	 */
+	@SuppressWarnings("unchecked")
+	@VisibleForTesting
+	<T> T execute(String key, Callable<T> request) throws InterruptedException {
+		SettableFuture<Object> created = SettableFuture.create();
+		SettableFuture<Object> shared = inFlight.putIfAbsent(key, created);
+		requests.incrementAndGet();
+		if (shared != null) {
+			coalesced.incrementAndGet();
+			try {
+				return (T) shared.get();
+			} catch (ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
+			}
+		}
+
+		try {
+			RateLimiter limiter = rateLimiter;
+			if (limiter != null) {
+				limiter.acquire();
+			}
+			T result = request.call();
+			created.set(result);
+			return result;
+		} catch (Exception e) {
+			created.setException(e);
+			throw Throwables.propagate(e);
+		} catch (Error e) {
+			created.setException(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, created);
+		}
+	}
+}
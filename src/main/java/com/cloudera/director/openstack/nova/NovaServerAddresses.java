@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Address;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.net.InetAddresses;
+
+/**
+ * Index of the addresses of a Nova server by network and by type (fixed or floating),
+ * built once from the server.
+ * <p>
+ * The type of an address is the one Nova lists (<code>OS-EXT-IPS:type</code>) when known,
+ * which is the case of the records decoded by the lightweight engine. Otherwise, with
+ * jclouds, the floating IP allocated by the plugin is recorded in the server metadata,
+ * which identifies it exactly, and other floating IPs are guessed per network: Nova lists
+ * the fixed addresses of a network before the floating ones, so within each network only
+ * the first address of each IP version is taken as fixed.
+ */
+public final class NovaServerAddresses {
+
+	/**
+	 * The server metadata key holding the floating IP address allocated by the plugin.
+	 */
+	public static final String FLOATING_IP_METADATA_KEY = "FLOATING_IP";
+
+	/**
+	 * The server metadata key holding the Nova ID of the floating IP allocated by the plugin.
+	 */
+	public static final String FLOATING_IP_ID_METADATA_KEY = "FLOATING_IP_ID";
+
+	/**
+	 * The server metadata key holding the ID of the Neutron port created by the plugin
+	 * before booting the server, which Nova does not delete with the server.
+	 */
+	public static final String PORT_ID_METADATA_KEY = "PORT_ID";
+
+	/**
+	 * The Nova types (<code>OS-EXT-IPS:type</code>) of the addresses.
+	 */
+	public static final String FIXED_ADDRESS_TYPE = "fixed";
+	public static final String FLOATING_ADDRESS_TYPE = "floating";
+
+	/**
+	 * The type of a server address.
+	 */
+	public static enum AddressType {
+		FIXED, FLOATING
+	}
+
+	/**
+	 * An address of a server, with its network and type.
+	 */
+	public static final class TypedAddress {
+
+		private final String network;
+		private final InetAddress address;
+		private final AddressType type;
+
+		TypedAddress(String network, InetAddress address, AddressType type) {
+			this.network = network;
+			this.address = address;
+			this.type = type;
+		}
+
+		public String getNetwork() {
+			return network;
+		}
+
+		public InetAddress getAddress() {
+			return address;
+		}
+
+		public AddressType getType() {
+			return type;
+		}
+	}
+
+	/**
+	 * Builds the address index of the specified server.
+	 *
+	 * @param server the server
+	 * @return the address index, leaving out any address that is not an IP literal
+	 */
+	public static NovaServerAddresses of(Server server) {
+		Preconditions.checkNotNull(server, "server is null");
+		return of(server.getMetadata(), Multimaps.transformValues(server.getAddresses(),
+				new Function<Address, String>() {
+					@Override
+					public String apply(Address address) {
+						return address.getAddr();
+					}
+				}), ImmutableMap.<String, String>of());
+	}
+
+	/**
+	 * Builds the address index of the specified server record.
+	 *
+	 * @param record the server record
+	 * @return the address index, leaving out any address that is not an IP literal
+	 */
+	public static NovaServerAddresses of(NovaServerRecord record) {
+		Preconditions.checkNotNull(record, "record is null");
+		return of(record.getMetadata(), record.getAddresses(), record.getAddressTypes());
+	}
+
+	/**
+	 * Builds the address index of a server from its private and floating IP addresses only.
+	 *
+	 * @param privateNetwork    the network of the private IP address, may be <code>null</code>
+	 * @param privateIpAddress  the private IP address, may be <code>null</code>
+	 * @param floatingIpAddress the floating IP address, may be <code>null</code>
+	 * @param floatingIpId      the Nova ID of the floating IP allocated by the plugin, may be <code>null</code>
+	 * @return the address index
+	 */
+	public static NovaServerAddresses of(String privateNetwork, InetAddress privateIpAddress,
+			InetAddress floatingIpAddress, String floatingIpId) {
+		ImmutableList.Builder<TypedAddress> addresses = ImmutableList.builder();
+		if (privateIpAddress != null) {
+			addresses.add(new TypedAddress(privateNetwork, privateIpAddress, AddressType.FIXED));
+		}
+		if (floatingIpAddress != null) {
+			addresses.add(new TypedAddress(privateNetwork, floatingIpAddress, AddressType.FLOATING));
+		}
+		return new NovaServerAddresses(addresses.build(), floatingIpId);
+	}
+
+	private static NovaServerAddresses of(Map<String, String> metadata, Multimap<String, String> addressesByNetwork,
+			Map<String, String> addressTypes) {
+		if (metadata == null) {
+			metadata = ImmutableMap.of();
+		}
+		String recordedFloatingIp = metadata.get(FLOATING_IP_METADATA_KEY);
+
+		ImmutableList.Builder<TypedAddress> addresses = ImmutableList.builder();
+		for (Map.Entry<String, Collection<String>> network : addressesByNetwork.asMap().entrySet()) {
+			boolean fixedV4Seen = false;
+			boolean fixedV6Seen = false;
+			for (String addr : network.getValue()) {
+				if (addr == null || !InetAddresses.isInetAddress(addr)) {
+					continue;
+				}
+				InetAddress inetAddress = InetAddresses.forString(addr);
+				String listedType = addressTypes.get(addr);
+				AddressType type;
+				if (listedType != null) {
+					type = FLOATING_ADDRESS_TYPE.equals(listedType) ? AddressType.FLOATING : AddressType.FIXED;
+				} else if (recordedFloatingIp != null) {
+					type = recordedFloatingIp.equals(addr) ? AddressType.FLOATING : AddressType.FIXED;
+				} else if (inetAddress instanceof Inet4Address) {
+					type = fixedV4Seen ? AddressType.FLOATING : AddressType.FIXED;
+					fixedV4Seen = true;
+				} else {
+					type = fixedV6Seen ? AddressType.FLOATING : AddressType.FIXED;
+					fixedV6Seen = true;
+				}
+				addresses.add(new TypedAddress(network.getKey(), inetAddress, type));
+			}
+		}
+		return new NovaServerAddresses(addresses.build(), metadata.get(FLOATING_IP_ID_METADATA_KEY));
+	}
+
+	private final List<TypedAddress> addresses;
+	private final String floatingIpId;
+
+	private NovaServerAddresses(List<TypedAddress> addresses, String floatingIpId) {
+		this.addresses = addresses;
+		this.floatingIpId = floatingIpId;
+	}
+
+	/**
+	 * Returns all the addresses of the server.
+	 */
+	public List<TypedAddress> getAddresses() {
+		return addresses;
+	}
+
+	/**
+	 * Returns the private IP address of the server, preferring IPv4.
+	 *
+	 * @return the first fixed address, or <code>null</code> if none
+	 */
+	public InetAddress getPrivateIpAddress() {
+		TypedAddress address = first(AddressType.FIXED);
+		return (address == null) ? null : address.getAddress();
+	}
+
+	/**
+	 * Returns the network of the private IP address.
+	 *
+	 * @return the network name, or <code>null</code> if the server has no fixed address
+	 */
+	public String getPrivateNetwork() {
+		TypedAddress address = first(AddressType.FIXED);
+		return (address == null) ? null : address.getNetwork();
+	}
+
+	/**
+	 * Returns the floating IP address of the server, preferring IPv4.
+	 *
+	 * @return the first floating address, or <code>null</code> if none
+	 */
+	public InetAddress getFloatingIpAddress() {
+		TypedAddress address = first(AddressType.FLOATING);
+		return (address == null) ? null : address.getAddress();
+	}
+
+	/**
+	 * Returns the Nova ID of the floating IP allocated by the plugin.
+	 *
+	 * @return the floating IP ID, or <code>null</code> if it was not recorded
+	 */
+	public String getFloatingIpId() {
+		return floatingIpId;
+	}
+
+	private TypedAddress first(AddressType type) {
+		TypedAddress firstOfType = null;
+		for (TypedAddress address : addresses) {
+			if (address.getType() == type) {
+				if (address.getAddress() instanceof Inet4Address) {
+					return address;
+				}
+				if (firstOfType == null) {
+					firstOfType = address;
+				}
+			}
+		}
+		return firstOfType;
+	}
+}
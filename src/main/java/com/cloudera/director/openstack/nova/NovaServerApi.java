@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+
+/**
+ * The server calls made by the providers, implemented by each {@link NovaEngine}. The
+ * semantics are those of the jclouds server API, e.g. <code>null</code> for a missing
+ * server.
+ */
+public interface NovaServerApi {
+
+	/**
+	 * Gets a server.
+	 *
+	 * @param id the server ID
+	 * @return the server, or <code>null</code> if it does not exist
+	 */
+	Server get(String id);
+
+	/**
+	 * Lists all the servers in detail, following the pages.
+	 */
+	List<Server> listInDetail();
+
+	/**
+	 * Lists all the servers as records, following the pages.
+	 */
+	List<NovaServerRecord> listRecordsInDetail();
+
+	/**
+	 * Lists one page of servers as records.
+	 *
+	 * @param options the pagination and filtering options
+	 * @return the page
+	 */
+	PaginatedCollection<NovaServerRecord> listRecordsInDetail(PaginationOptions options);
+
+	/**
+	 * Creates a server.
+	 *
+	 * @param name      the server name
+	 * @param imageRef  the image ID
+	 * @param flavorRef the flavor ID
+	 * @param options   the create options
+	 * @return the created server
+	 */
+	ServerCreated create(String name, String imageRef, String flavorRef, NovaCreateServerOptions options);
+
+	/**
+	 * Deletes a server.
+	 *
+	 * @param id the server ID
+	 * @return <code>false</code> if the server does not exist
+	 */
+	boolean delete(String id);
+
+	/**
+	 * Adds or replaces metadata values of a server.
+	 *
+	 * @param id       the server ID
+	 * @param metadata the metadata values
+	 * @return the metadata of the server
+	 */
+	Map<String, String> updateMetadata(String id, Map<String, String> metadata);
+
+	/**
+	 * Deletes a metadata value of a server, doing nothing if it has none.
+	 *
+	 * @param id  the server ID
+	 * @param key the metadata key
+	 */
+	void deleteMetadata(String id, String key);
+
+	/**
+	 * Renames a server.
+	 *
+	 * @param id      the server ID
+	 * @param newName the new name
+	 */
+	void rename(String id, String newName);
+}
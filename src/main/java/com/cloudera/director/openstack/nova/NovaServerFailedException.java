@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+/**
+ * Thrown when a Nova server waited on went to an error state, with the reason given by Nova.
+ */
+public class NovaServerFailedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String novaInstanceId;
+	private final String reason;
+
+	public NovaServerFailedException(String novaInstanceId, String reason) {
+		super("Server " + novaInstanceId + " failed: " + reason);
+		this.novaInstanceId = novaInstanceId;
+		this.reason = reason;
+	}
+
+	public String getNovaInstanceId() {
+		return novaInstanceId;
+	}
+
+	/**
+	 * Returns the fault message of the server, or its state when Nova gave no fault.
+	 */
+	public String getReason() {
+		return reason;
+	}
+}
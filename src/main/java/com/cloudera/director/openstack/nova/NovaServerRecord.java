@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Address;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.ServerExtendedStatus;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The fields of a Nova server read by the plugin, and only them: a much smaller object than
+ * the jclouds {@link Server}, for the fleet-wide listings. The addresses are kept as IP
+ * literals by network, with their Nova type when listed, the times as milliseconds since
+ * the epoch, 0 when unknown.
+ */
+public final class NovaServerRecord {
+
+	/**
+	 * Builds a record.
+	 */
+	public static final class Builder {
+
+		private String id;
+		private String name;
+		private Server.Status status = Server.Status.UNRECOGNIZED;
+		private ImmutableMap<String, String> metadata = ImmutableMap.of();
+		private ImmutableListMultimap<String, String> addresses = ImmutableListMultimap.of();
+		private ImmutableMap<String, String> addressTypes = ImmutableMap.of();
+		private String flavorId;
+		private String imageId;
+		private String keyName;
+		private long createdMillis;
+		private long updatedMillis;
+		private String vmState;
+		private String taskState;
+		private String faultMessage;
+
+		private Builder() {
+		}
+
+		public Builder id(String id) {
+			this.id = id;
+			return this;
+		}
+
+		public Builder name(String name) {
+			this.name = name;
+			return this;
+		}
+
+		public Builder status(Server.Status status) {
+			this.status = status;
+			return this;
+		}
+
+		public Builder metadata(Map<String, String> metadata) {
+			this.metadata = ImmutableMap.copyOf(metadata);
+			return this;
+		}
+
+		public Builder addresses(ImmutableListMultimap<String, String> addresses) {
+			this.addresses = addresses;
+			return this;
+		}
+
+		public Builder addressTypes(Map<String, String> addressTypes) {
+			this.addressTypes = ImmutableMap.copyOf(addressTypes);
+			return this;
+		}
+
+		public Builder flavorId(String flavorId) {
+			this.flavorId = flavorId;
+			return this;
+		}
+
+		public Builder imageId(String imageId) {
+			this.imageId = imageId;
+			return this;
+		}
+
+		public Builder keyName(String keyName) {
+			this.keyName = keyName;
+			return this;
+		}
+
+		public Builder createdMillis(long createdMillis) {
+			this.createdMillis = createdMillis;
+			return this;
+		}
+
+		public Builder updatedMillis(long updatedMillis) {
+			this.updatedMillis = updatedMillis;
+			return this;
+		}
+
+		public Builder vmState(String vmState) {
+			this.vmState = vmState;
+			return this;
+		}
+
+		public Builder taskState(String taskState) {
+			this.taskState = taskState;
+			return this;
+		}
+
+		public Builder faultMessage(String faultMessage) {
+			this.faultMessage = faultMessage;
+			return this;
+		}
+
+		public NovaServerRecord build() {
+			return new NovaServerRecord(this);
+		}
+	}
+
+	/**
+	 * Projects the jclouds servers to records.
+	 */
+	public static final Function<Server, NovaServerRecord> FROM_SERVER = new Function<Server, NovaServerRecord>() {
+		@Override
+		public NovaServerRecord apply(Server server) {
+			return of(server);
+		}
+	};
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Returns the record of a jclouds server.
+	 *
+	 * @param server the server
+	 * @return the projected fields of the server
+	 */
+	public static NovaServerRecord of(Server server) {
+		ImmutableListMultimap.Builder<String, String> addresses = ImmutableListMultimap.builder();
+		for (Map.Entry<String, Address> address : server.getAddresses().entries()) {
+			if (address.getValue().getAddr() != null) {
+				addresses.put(address.getKey(), address.getValue().getAddr());
+			}
+		}
+		ServerExtendedStatus extendedStatus = server.getExtendedStatus().orNull();
+		return builder()
+				.id(server.getId())
+				.name(server.getName())
+				.status(server.getStatus())
+				.metadata((server.getMetadata() == null) ? ImmutableMap.<String, String>of() : server.getMetadata())
+				.addresses(addresses.build())
+				.flavorId((server.getFlavor() == null) ? null : server.getFlavor().getId())
+				.imageId((server.getImage() == null) ? null : server.getImage().getId())
+				.keyName(server.getKeyName())
+				.createdMillis((server.getCreated() == null) ? 0 : server.getCreated().getTime())
+				.updatedMillis((server.getUpdated() == null) ? 0 : server.getUpdated().getTime())
+				.vmState((extendedStatus == null) ? null : extendedStatus.getVmState())
+				.taskState((extendedStatus == null) ? null : extendedStatus.getTaskState())
+				.build();
+	}
+
+	private final String id;
+	private final String name;
+	private final Server.Status status;
+	private final ImmutableMap<String, String> metadata;
+	private final ImmutableListMultimap<String, String> addresses;
+	private final ImmutableMap<String, String> addressTypes;
+	private final String flavorId;
+	private final String imageId;
+	private final String keyName;
+	private final long createdMillis;
+	private final long updatedMillis;
+	private final String vmState;
+	private final String taskState;
+	private final String faultMessage;
+
+	private NovaServerRecord(Builder builder) {
+		this.id = Preconditions.checkNotNull(builder.id, "id is null");
+		this.name = builder.name;
+		this.status = builder.status;
+		this.metadata = builder.metadata;
+		this.addresses = builder.addresses;
+		this.addressTypes = builder.addressTypes;
+		this.flavorId = builder.flavorId;
+		this.imageId = builder.imageId;
+		this.keyName = builder.keyName;
+		this.createdMillis = builder.createdMillis;
+		this.updatedMillis = builder.updatedMillis;
+		this.vmState = builder.vmState;
+		this.taskState = builder.taskState;
+		this.faultMessage = builder.faultMessage;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Server.Status getStatus() {
+		return status;
+	}
+
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Returns the IP literals of the server by network, in the order listed by Nova.
+	 */
+	public ImmutableListMultimap<String, String> getAddresses() {
+		return addresses;
+	}
+
+	/**
+	 * Returns the Nova type (<code>OS-EXT-IPS:type</code>, fixed or floating) of the IP
+	 * literals listed with one, empty for the servers projected from jclouds, which does
+	 * not keep it.
+	 */
+	public Map<String, String> getAddressTypes() {
+		return addressTypes;
+	}
+
+	public String getFlavorId() {
+		return flavorId;
+	}
+
+	/**
+	 * Returns the image ID, <code>null</code> for the servers booted from a volume.
+	 */
+	public String getImageId() {
+		return imageId;
+	}
+
+	public String getKeyName() {
+		return keyName;
+	}
+
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+
+	public long getUpdatedMillis() {
+		return updatedMillis;
+	}
+
+	/**
+	 * Returns the <code>OS-EXT-STS:vm_state</code> of the server, <code>null</code> if the
+	 * extension is not enabled.
+	 */
+	public String getVmState() {
+		return vmState;
+	}
+
+	/**
+	 * Returns the <code>OS-EXT-STS:task_state</code> of the server, <code>null</code> when no
+	 * task is running or the extension is not enabled.
+	 */
+	public String getTaskState() {
+		return taskState;
+	}
+
+	/**
+	 * Returns the message of the fault of a server in error, <code>null</code> if none was
+	 * returned.
+	 */
+	public String getFaultMessage() {
+		return faultMessage;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("id", id)
+				.add("name", name)
+				.add("status", status)
+				.add("vmState", vmState)
+				.add("taskState", taskState)
+				.toString();
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Network;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
+
+/**
+ * The parameters a server is booted with: any two servers with the same signature are
+ * interchangeable until they are tagged for a Director instance.
+ */
+public final class NovaServerSignature {
+
+	private final String image;
+	private final String flavor;
+	private final String network;
+	private final String availabilityZone;
+	private final List<String> securityGroupNames;
+	private final String keyName;
+
+	/*
+	 * The stable key of the signature, computed once
+	 */
+	private final String key;
+
+	public NovaServerSignature(String image, String flavor, String network, String availabilityZone,
+			List<String> securityGroupNames, String keyName) {
+		this.image = image;
+		this.flavor = flavor;
+		this.network = network;
+		this.availabilityZone = availabilityZone;
+		this.securityGroupNames = ImmutableList.copyOf(securityGroupNames);
+		this.keyName = keyName;
+		this.key = Hashing.sha1().hashString(Joiner.on('|').useForNull("").join(image, flavor, network,
+				availabilityZone, Joiner.on(',').join(Ordering.natural().sortedCopy(securityGroupNames)),
+				keyName), Charsets.UTF_8).toString();
+	}
+
+	public String getImage() {
+		return image;
+	}
+
+	public String getFlavor() {
+		return flavor;
+	}
+
+	public String getNetwork() {
+		return network;
+	}
+
+	public List<String> getSecurityGroupNames() {
+		return securityGroupNames;
+	}
+
+	/**
+	 * Returns a stable key identifying the signature, suitable for server metadata.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the options to create a server with this signature.
+	 *
+	 * @param metadata the server metadata
+	 * @return the create options
+	 */
+	public NovaCreateServerOptions toCreateServerOptions(Map<String, String> metadata) {
+		NovaCreateServerOptions options = new NovaCreateServerOptions().metadata(metadata);
+		options.keyPairName(keyName)
+				.networks(network)
+				.availabilityZone(availabilityZone)
+				.securityGroupNames(securityGroupNames);
+		return options;
+	}
+
+	/**
+	 * Returns the options to create a server with this signature, attached to a port
+	 * created beforehand on the signature network with the signature security groups.
+	 *
+	 * @param metadata the server metadata
+	 * @param portId   the ID of the port
+	 * @return the create options
+	 */
+	public NovaCreateServerOptions toCreateServerOptions(Map<String, String> metadata, String portId) {
+		NovaCreateServerOptions options = new NovaCreateServerOptions().metadata(metadata);
+		options.keyPairName(keyName)
+				.novaNetworks(ImmutableSet.of(Network.builder().portUuid(portId).build()))
+				.availabilityZone(availabilityZone);
+		return options;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof NovaServerSignature) && key.equals(((NovaServerSignature) o).key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("image", image)
+				.add("flavor", flavor)
+				.add("network", network)
+				.add("availabilityZone", availabilityZone)
+				.add("securityGroupNames", securityGroupNames)
+				.add("keyName", keyName)
+				.toString();
+	}
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackExecutors;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Waits for the SSH daemon of new instances to accept connections. All the instances are
+ * probed concurrently from a single thread with one NIO selector: a probe connects, reads
+ * the <code>SSH-</code> protocol banner and closes, and is retried until the deadline if
+ * the instance is not up yet. Optionally, the instances that answered are also checked
+ * with a full sshj key exchange.
+ */
+public class NovaSshReadinessProbe {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaSshReadinessProbe.class);
+
+	private static final byte[] SSH_BANNER_PREFIX = "SSH-".getBytes(Charsets.US_ASCII);
+
+	/**
+	 * Creates a probe from the plugin settings.
+	 *
+	 * @param tuning the settings of the region or template
+	 * @return the probe, or <code>null</code> if the readiness stage is disabled
+	 */
+	public static NovaSshReadinessProbe fromConfig(OpenStackTuning tuning) {
+		if (!tuning.isReadinessEnabled()) {
+			return null;
+		}
+		return new NovaSshReadinessProbe(tuning.getReadinessPort(), tuning.getReadinessTimeoutMillis(),
+				tuning.getReadinessAttemptTimeoutMillis(), tuning.getReadinessRetryDelayMillis(),
+				tuning.isReadinessSshjCheck(), tuning.getReadinessSshjParallelism());
+	}
+
+	/**
+	 * The probe state of one instance.
+	 */
+	private static final class Target implements Comparable<Target> {
+
+		private final String id;
+		private final InetSocketAddress address;
+
+		/*
+		 * The local time of the next connection attempt, or of the start of the current one
+		 */
+		private long attemptMillis;
+
+		/*
+		 * The banner bytes read so far
+		 */
+		private final ByteBuffer banner = ByteBuffer.allocate(SSH_BANNER_PREFIX.length);
+
+		private Target(String id, InetSocketAddress address) {
+			this.id = id;
+			this.address = address;
+		}
+
+		@Override
+		public int compareTo(Target other) {
+			return (attemptMillis < other.attemptMillis) ? -1 : ((attemptMillis == other.attemptMillis) ? 0 : 1);
+		}
+	}
+
+	private final int port;
+	private final long timeoutMillis;
+
+	/*
+	 * How long a single connection attempt may take before it is retried
+	 */
+	private final long attemptTimeoutMillis;
+
+	/*
+	 * The delay before retrying an instance that refused or dropped the connection
+	 */
+	private final long retryDelayMillis;
+
+	private final boolean sshjCheck;
+
+	/*
+	 * The number of concurrent sshj checks
+	 */
+	private final int sshjParallelism;
+
+	NovaSshReadinessProbe(int port, long timeoutMillis, long attemptTimeoutMillis, long retryDelayMillis,
+			boolean sshjCheck, int sshjParallelism) {
+		this.port = port;
+		this.timeoutMillis = timeoutMillis;
+		this.attemptTimeoutMillis = attemptTimeoutMillis;
+		this.retryDelayMillis = retryDelayMillis;
+		this.sshjCheck = sshjCheck;
+		this.sshjParallelism = sshjParallelism;
+	}
+
+	/**
+	 * Waits until the specified instances accept SSH connections, or the timeout elapses.
+	 *
+	 * @param addressesById the addresses to probe by instance ID
+	 * @return the IDs of the reachable instances
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public Set<String> awaitReachable(Map<String, InetAddress> addressesById) throws InterruptedException {
+		if (addressesById.isEmpty()) {
+			return Sets.newHashSet();
+		}
+		long started = System.currentTimeMillis();
+		Set<String> reachable;
+		try {
+			reachable = probe(addressesById, started + timeoutMillis);
+		} catch (IOException e) {
+			LOG.warn("Unable to probe SSH readiness, considering all the instances reachable", e);
+			return Sets.newHashSet(addressesById.keySet());
+		}
+		if (sshjCheck && !reachable.isEmpty()) {
+			reachable = checkWithSshj(reachable, addressesById);
+		}
+		LOG.info("{} of {} instance(s) accept SSH connections on port {} after {} ms", reachable.size(),
+				addressesById.size(), port, System.currentTimeMillis() - started);
+		return reachable;
+	}
+
+	private Set<String> probe(Map<String, InetAddress> addressesById, long deadline)
+			throws IOException, InterruptedException {
+		Set<String> reachable = Sets.newHashSet();
+		PriorityQueue<Target> pending = new PriorityQueue<Target>();
+		for (Map.Entry<String, InetAddress> address : addressesById.entrySet()) {
+			pending.add(new Target(address.getKey(), new InetSocketAddress(address.getValue(), port)));
+		}
+
+		Selector selector = Selector.open();
+		try {
+			while ((!pending.isEmpty() || !selector.keys().isEmpty()) && System.currentTimeMillis() < deadline) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				long now = System.currentTimeMillis();
+
+				// start the attempts that are due
+				while (!pending.isEmpty() && pending.peek().attemptMillis <= now) {
+					connect(selector, pending.poll(), now, pending);
+				}
+
+				// retry the attempts that take too long
+				for (SelectionKey key : selector.keys()) {
+					Target target = (Target) key.attachment();
+					if (key.isValid() && now - target.attemptMillis > attemptTimeoutMillis) {
+						retry(key, target, now, pending);
+					}
+				}
+
+				long wait = deadline - now;
+				if (!pending.isEmpty()) {
+					wait = Math.min(wait, pending.peek().attemptMillis - now);
+				}
+				if (!selector.keys().isEmpty()) {
+					wait = Math.min(wait, attemptTimeoutMillis);
+				}
+				selector.select(Math.max(1, wait));
+
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					SelectionKey key = selected.next();
+					selected.remove();
+					handle(key, reachable, System.currentTimeMillis(), pending);
+				}
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeQuietly(key);
+			}
+			selector.close();
+		}
+		return reachable;
+	}
+
+	private void connect(Selector selector, Target target, long now, PriorityQueue<Target> pending) {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			target.attemptMillis = now;
+			target.banner.clear();
+			if (channel.connect(target.address)) {
+				channel.register(selector, SelectionKey.OP_READ, target);
+			} else {
+				channel.register(selector, SelectionKey.OP_CONNECT, target);
+			}
+		} catch (IOException e) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+					// nothing more to release
+				}
+			}
+			target.attemptMillis = now + retryDelayMillis;
+			pending.add(target);
+		}
+	}
+
+	private void handle(SelectionKey key, Set<String> reachable, long now, PriorityQueue<Target> pending) {
+		Target target = (Target) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		try {
+			if (key.isConnectable()) {
+				channel.finishConnect();
+				key.interestOps(SelectionKey.OP_READ);
+			} else if (key.isReadable()) {
+				if (channel.read(target.banner) < 0) {
+					// sshd not ready yet, or refusing connections
+					retry(key, target, now, pending);
+					return;
+				}
+				if (!target.banner.hasRemaining()) {
+					closeQuietly(key);
+					if (isSshBanner(target.banner)) {
+						reachable.add(target.id);
+					} else {
+						LOG.warn("Instance {} does not talk SSH on port {}", target.id, target.address.getPort());
+					}
+				}
+			}
+		} catch (IOException e) {
+			retry(key, target, now, pending);
+		}
+	}
+
+	private void retry(SelectionKey key, Target target, long now, PriorityQueue<Target> pending) {
+		closeQuietly(key);
+		target.attemptMillis = now + retryDelayMillis;
+		pending.add(target);
+	}
+
+	private static boolean isSshBanner(ByteBuffer banner) {
+		banner.flip();
+		for (byte expected : SSH_BANNER_PREFIX) {
+			if (banner.get() != expected) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void closeQuietly(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ignored) {
+			// nothing more to release
+		}
+	}
+
+	/**
+	 * Checks the specified instances with a full sshj key exchange.
+	 */
+	private Set<String> checkWithSshj(Set<String> ids, final Map<String, InetAddress> addressesById)
+			throws InterruptedException {
+		List<String> checkedIds = Lists.newArrayList(ids);
+		List<Callable<Boolean>> checks = Lists.newArrayListWithCapacity(checkedIds.size());
+		for (final String id : checkedIds) {
+			checks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return checkWithSshj(id, addressesById.get(id));
+				}
+			});
+		}
+
+		List<Boolean> results;
+		try {
+			results = OpenStackExecutors.invokeAll(checks, sshjParallelism);
+		} catch (ExecutionException e) {
+			LOG.warn("sshj checks failed, keeping the banner check results", e.getCause());
+			return ids;
+		}
+		Set<String> reachable = Sets.newHashSet();
+		for (int i = 0; i < checkedIds.size(); i++) {
+			if (results.get(i)) {
+				reachable.add(checkedIds.get(i));
+			}
+		}
+		return reachable;
+	}
+
+	private boolean checkWithSshj(String id, InetAddress address) {
+		SSHClient client = new SSHClient();
+		client.addHostKeyVerifier(new PromiscuousVerifier());
+		client.setConnectTimeout((int) attemptTimeoutMillis);
+		client.setTimeout((int) attemptTimeoutMillis);
+		try {
+			client.connect(address, port);
+			LOG.debug("Instance {} runs {}", id, client.getTransport().getServerVersion());
+			return true;
+		} catch (IOException e) {
+			LOG.info("Instance {} failed the SSH key exchange: {}", id, e.getMessage());
+			return false;
+		} finally {
+			try {
+				client.disconnect();
+			} catch (IOException ignored) {
+				// nothing more to release
+			}
+		}
+	}
+}
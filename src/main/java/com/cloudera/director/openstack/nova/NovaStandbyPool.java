@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps servers booted ahead of time for the templates recently allocated in a region,
+ * so that an allocation can claim an ACTIVE server instead of waiting for a boot.
+ * <p>
+ * Standby servers have neutral names and carry the key of their
+ * {@link NovaServerSignature} in their metadata. They are not tagged with a Director ID,
+ * so the fleet view ignores them until they are claimed. The pool of a signature is
+ * replenished in the background after each claim, and evicted once the signature has not
+ * been allocated for a while.
+ */
+public class NovaStandbyPool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaStandbyPool.class);
+
+	/**
+	 * The server metadata key holding the signature key of a standby server.
+	 */
+	public static final String STANDBY_METADATA_KEY = "DIRECTOR_STANDBY";
+
+	/**
+	 * The name prefix of the standby servers.
+	 */
+	private static final String STANDBY_NAME_PREFIX = "director-standby-";
+
+	/**
+	 * The scheduler shared by the pools of all regions.
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("nova-standby-pool-%d").build());
+
+	/**
+	 * The pools by synchronizer, one per region.
+	 */
+	private static final ConcurrentMap<NovaStateSynchronizer, NovaStandbyPool> POOLS =
+			new ConcurrentHashMap<NovaStateSynchronizer, NovaStandbyPool>();
+
+	/**
+	 * Returns the standby pool of the synchronizer region, which then calls Nova through
+	 * the specified engine, e.g. one built with a changed credential.
+	 *
+	 * @param tuning       the settings of the region
+	 * @param synchronizer the synchronizer of the region
+	 * @param novaEngine   the Nova engine
+	 * @return the pool, or <code>null</code> if standby pools are disabled
+	 */
+	public static NovaStandbyPool fromConfig(OpenStackTuning tuning, NovaStateSynchronizer synchronizer,
+			NovaEngine novaEngine) {
+		if (!tuning.isStandbyEnabled()) {
+			return null;
+		}
+		NovaStandbyPool pool = POOLS.get(synchronizer);
+		if (pool == null) {
+			NovaStandbyPool created = new NovaStandbyPool(synchronizer.getRegion(), novaEngine,
+					NovaReadCoalescer.forSynchronizer(synchronizer),
+					tuning.getStandbySize(), tuning.getStandbyMaxSize(),
+					tuning.getStandbyIntervalMillis(), tuning.getStandbyIdleTimeoutMillis());
+			pool = POOLS.putIfAbsent(synchronizer, created);
+			if (pool == null) {
+				pool = created;
+				pool.start();
+			}
+		}
+		pool.novaEngine = novaEngine;
+		return pool;
+	}
+
+	/**
+	 * The standby servers of one signature.
+	 */
+	private static final class SignaturePool {
+
+		private final String key;
+
+		/*
+		 * The signature, null for servers adopted after a restart until it is allocated again
+		 */
+		private NovaServerSignature signature;
+
+		/*
+		 * The booted servers ready to be claimed
+		 */
+		private final Deque<String> ready = new ArrayDeque<String>();
+
+		/*
+		 * The servers still booting
+		 */
+		private final Deque<String> booting = new ArrayDeque<String>();
+
+		/*
+		 * The local time of the last allocation of the signature
+		 */
+		private long lastUsedMillis = System.currentTimeMillis();
+
+		private SignaturePool(String key) {
+			this.key = key;
+		}
+
+		private int size() {
+			return ready.size() + booting.size();
+		}
+	}
+
+	private final String region;
+	private volatile NovaEngine novaEngine;
+	private final NovaReadCoalescer readCoalescer;
+	private volatile int targetSize;
+	private volatile int maxSize;
+	private final long intervalMillis;
+	private volatile long idleTimeoutMillis;
+
+	/*
+	 * The pools by signature key, guarded by this
+	 */
+	private final Map<String, SignaturePool> pools = new LinkedHashMap<String, SignaturePool>();
+
+	/*
+	 * Whether the standby servers left by a previous run were adopted
+	 */
+	private boolean adopted;
+
+	/*
+	 * The scheduled replenishment, null when stopped
+	 */
+	private ScheduledFuture<?> replenishTask;
+
+	private final AtomicLong claimHits = new AtomicLong();
+	private final AtomicLong coldBoots = new AtomicLong();
+	private final AtomicLong adoptedServers = new AtomicLong();
+	private final AtomicLong evictedServers = new AtomicLong();
+
+	NovaStandbyPool(String region, NovaEngine novaEngine, NovaReadCoalescer readCoalescer, int targetSize,
+			int maxSize, long intervalMillis, long idleTimeoutMillis) {
+		this.region = region;
+		this.novaEngine = novaEngine;
+		this.readCoalescer = readCoalescer;
+		this.targetSize = targetSize;
+		this.maxSize = maxSize;
+		this.intervalMillis = intervalMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Applies the pool sizes and idle timeout of the region, from the next replenishment
+	 * on. The replenishment interval is kept until the pool is recreated.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		targetSize = tuning.getStandbySize();
+		maxSize = tuning.getStandbyMaxSize();
+		idleTimeoutMillis = tuning.getStandbyIdleTimeoutMillis();
+	}
+
+	/**
+	 * Claims a booted standby server of the specified signature, registering the signature
+	 * for replenishment. The claimed server keeps its neutral name and metadata until the
+	 * caller re-tags it.
+	 *
+	 * @param signature the server signature
+	 * @return the Nova instance ID of the claimed server, or <code>null</code> if none is ready
+	 */
+	public String claim(NovaServerSignature signature) {
+		String novaInstanceId;
+		synchronized (this) {
+			SignaturePool pool = pools.get(signature.getKey());
+			if (pool == null) {
+				pool = new SignaturePool(signature.getKey());
+				pools.put(signature.getKey(), pool);
+			}
+			pool.signature = signature;
+			pool.lastUsedMillis = System.currentTimeMillis();
+			novaInstanceId = pool.ready.poll();
+		}
+		if (novaInstanceId == null) {
+			coldBoots.incrementAndGet();
+		} else {
+			claimHits.incrementAndGet();
+		}
+		replenishSoon();
+		return novaInstanceId;
+	}
+
+	/**
+	 * Returns the number of claims served by a standby server and of those left to a cold
+	 * boot, the number of standby servers adopted after a restart and evicted when idle,
+	 * and the number of servers ready and booting.
+	 */
+	public Map<String, Long> getMetrics() {
+		long ready = 0;
+		long booting = 0;
+		synchronized (this) {
+			for (SignaturePool pool : pools.values()) {
+				ready += pool.ready.size();
+				booting += pool.booting.size();
+			}
+		}
+		return ImmutableMap.<String, Long>builder()
+				.put("claimHits", claimHits.get())
+				.put("coldBoots", coldBoots.get())
+				.put("adoptedServers", adoptedServers.get())
+				.put("evictedServers", evictedServers.get())
+				.put("readyServers", ready)
+				.put("bootingServers", booting)
+				.build();
+	}
+
+	synchronized void start() {
+		LOG.info("Starting the standby pool of region {} with {} server(s) per template", region, targetSize);
+		replenishTask = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				replenish();
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background replenishment, leaving the standby servers to be adopted by the
+	 * next pool of the region.
+	 */
+	synchronized void stop() {
+		if (replenishTask != null) {
+			replenishTask.cancel(false);
+			replenishTask = null;
+		}
+	}
+
+	private void replenishSoon() {
+		SCHEDULER.execute(new Runnable() {
+			@Override
+			public void run() {
+				replenish();
+			}
+		});
+	}
+
+	/**
+	 * Promotes the booted servers, drops the failed ones, evicts the idle signatures and
+	 * boots the missing servers, within the pool size limit.
+	 */
+	private void replenish() {
+		try {
+			NovaServerApi serverApi = novaEngine.getServerApi(region);
+			if (!adopted) {
+				adopt(serverApi);
+				adopted = true;
+			}
+			updateBooting(serverApi);
+			evictIdle(serverApi);
+			boot(serverApi);
+			LOG.debug("Standby pool metrics of region {}: {}", region, getMetrics());
+		} catch (InterruptedException e) {
+			// the scheduler is shutting down
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			LOG.warn("Unable to replenish the standby pool of region " + region, e);
+		}
+	}
+
+	/**
+	 * Adopts the standby servers left by a previous run of the plugin, so that they are
+	 * claimed or evicted instead of leaked.
+	 */
+	private void adopt(NovaServerApi serverApi) throws InterruptedException {
+		for (Server server : readCoalescer.listServersInDetail(serverApi)) {
+			String key = (server.getMetadata() == null) ? null : server.getMetadata().get(STANDBY_METADATA_KEY);
+			if (key == null || server.getMetadata().containsKey(NovaFleetView.DIRECTOR_ID_METADATA_KEY)) {
+				continue;
+			}
+			synchronized (this) {
+				SignaturePool pool = pools.get(key);
+				if (pool == null) {
+					pool = new SignaturePool(key);
+					pools.put(key, pool);
+				}
+				pool.booting.add(server.getId());
+			}
+			adoptedServers.incrementAndGet();
+		}
+	}
+
+	private void updateBooting(NovaServerApi serverApi) throws InterruptedException {
+		Map<String, String> keysByBooting = new LinkedHashMap<String, String>();
+		synchronized (this) {
+			for (SignaturePool pool : pools.values()) {
+				for (String novaInstanceId : pool.booting) {
+					keysByBooting.put(novaInstanceId, pool.key);
+				}
+			}
+		}
+		for (Map.Entry<String, String> booting : keysByBooting.entrySet()) {
+			Server server = readCoalescer.getServer(serverApi, booting.getKey());
+			Status status = (server == null) ? Status.DELETED : server.getStatus();
+			if (status == Status.BUILD) {
+				continue;
+			}
+			synchronized (this) {
+				SignaturePool pool = pools.get(booting.getValue());
+				if (pool == null || !pool.booting.remove(booting.getKey())) {
+					continue;
+				}
+				if (status == Status.ACTIVE && !server.getAddresses().isEmpty()) {
+					pool.ready.add(booting.getKey());
+					continue;
+				}
+			}
+			LOG.info("Dropping standby server {} in status {}", booting.getKey(), status);
+			if (status != Status.DELETED) {
+				serverApi.delete(booting.getKey());
+			}
+		}
+	}
+
+	private void evictIdle(NovaServerApi serverApi) {
+		Map<String, String> evicted = new LinkedHashMap<String, String>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<SignaturePool> iterator = pools.values().iterator();
+			while (iterator.hasNext()) {
+				SignaturePool pool = iterator.next();
+				if (now - pool.lastUsedMillis > idleTimeoutMillis) {
+					iterator.remove();
+					for (String novaInstanceId : pool.ready) {
+						evicted.put(novaInstanceId, pool.key);
+					}
+					for (String novaInstanceId : pool.booting) {
+						evicted.put(novaInstanceId, pool.key);
+					}
+				}
+			}
+		}
+		for (String novaInstanceId : evicted.keySet()) {
+			LOG.info("Evicting idle standby server {}", novaInstanceId);
+			serverApi.delete(novaInstanceId);
+			evictedServers.incrementAndGet();
+		}
+	}
+
+	private void boot(NovaServerApi serverApi) {
+		while (true) {
+			NovaServerSignature signature = null;
+			synchronized (this) {
+				int total = 0;
+				for (SignaturePool pool : pools.values()) {
+					total += pool.size();
+				}
+				if (total >= maxSize) {
+					return;
+				}
+				for (SignaturePool pool : pools.values()) {
+					if (pool.signature != null && pool.size() < targetSize) {
+						signature = pool.signature;
+						break;
+					}
+				}
+			}
+			if (signature == null) {
+				return;
+			}
+
+			ServerCreated created = serverApi.create(STANDBY_NAME_PREFIX + UUID.randomUUID(),
+					signature.getImage(), signature.getFlavor(), signature.toCreateServerOptions(
+							ImmutableMap.of(STANDBY_METADATA_KEY, signature.getKey())));
+			LOG.info("Booting standby server {} for {}", created.getId(), signature);
+			boolean evicted;
+			synchronized (this) {
+				SignaturePool pool = pools.get(signature.getKey());
+				evicted = (pool == null);
+				if (!evicted) {
+					pool.booting.add(created.getId());
+				}
+			}
+			if (evicted) {
+				serverApi.delete(created.getId());
+				return;
+			}
+		}
+	}
+}
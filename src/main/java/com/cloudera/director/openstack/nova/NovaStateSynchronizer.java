@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps a {@link NovaFleetView} up to date for one region. The first call lists every
+ * server, later calls only ask Nova for the servers changed since the last seen update
+ * (<code>changes-since</code>), which also returns the deleted ones.
+ */
+public class NovaStateSynchronizer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NovaStateSynchronizer.class);
+
+	/**
+	 * The synchronizers by endpoint, identity and region.
+	 */
+	private static final ConcurrentMap<String, NovaStateSynchronizer> SYNCHRONIZERS =
+			new ConcurrentHashMap<String, NovaStateSynchronizer>();
+
+	/**
+	 * Returns the synchronizer shared by all providers targeting the specified region.
+	 *
+	 * @param credentials the OpenStack credentials
+	 * @param region      the region
+	 * @return the synchronizer for the region
+	 */
+	public static NovaStateSynchronizer forRegion(OpenStackCredentials credentials, String region) {
+		String key = credentials.getEndpoint() + "|" + credentials.getIdentity() + "|" + region;
+		NovaStateSynchronizer synchronizer = SYNCHRONIZERS.get(key);
+		if (synchronizer == null) {
+			NovaStateSynchronizer created = new NovaStateSynchronizer(key, region);
+			synchronizer = SYNCHRONIZERS.putIfAbsent(key, created);
+			if (synchronizer == null) {
+				synchronizer = created;
+			}
+		}
+		return synchronizer;
+	}
+
+	/*
+	 * The endpoint, identity and region
+	 */
+	private final String key;
+
+	/*
+	 * The region
+	 */
+	private final String region;
+
+	/*
+	 * The view kept up to date
+	 */
+	private final NovaFleetView fleetView = new NovaFleetView();
+
+	/*
+	 * The latest update time seen from Nova, in milliseconds since the epoch, null until
+	 * the first full listing
+	 */
+	private Long highWaterMark;
+
+	/*
+	 * The local time of the last full listing
+	 */
+	private long lastFullSyncMillis;
+	
+	/*
+	 * The local time of the last successful synchronization, 0 if none
+	 */
+	private volatile long lastSyncMillis;
+
+	/*
+	 * How far before the high-water mark to start each incremental query, so that
+	 * updates committed concurrently with the previous query are not missed
+	 */
+	private volatile long changesSinceOverlapMillis = OpenStackTuning.DEFAULTS.getChangesSinceOverlapMillis();
+
+	/*
+	 * How often the view is rebuilt from a full listing, in case an update was missed
+	 */
+	private volatile long fullSyncIntervalMillis = OpenStackTuning.DEFAULTS.getFullSyncIntervalMillis();
+
+	NovaStateSynchronizer(String key, String region) {
+		this.key = key;
+		this.region = region;
+	}
+
+	/**
+	 * Applies the synchronization settings of the region.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		changesSinceOverlapMillis = tuning.getChangesSinceOverlapMillis();
+		fullSyncIntervalMillis = tuning.getFullSyncIntervalMillis();
+	}
+
+	/**
+	 * Returns the endpoint, identity and region synchronized, which identify the fleet.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public NovaFleetView getFleetView() {
+		return fleetView;
+	}
+	
+	public long getLastSyncMillis() {
+		return lastSyncMillis;
+	}
+	
+	/**
+	 * Brings the fleet view up to date with Nova, unless it was already synchronized
+	 * within the specified delay.
+	 *
+	 * @param serverApi    the server API for the region
+	 * @param maxAgeMillis the maximum age of the view, in milliseconds
+	 * @return the fleet view
+	 * @throws InterruptedException if interrupted while waiting for a shared listing
+	 */
+	public NovaFleetView synchronizeIfOlderThan(NovaServerApi serverApi, long maxAgeMillis)
+			throws InterruptedException {
+		if (System.currentTimeMillis() - lastSyncMillis < maxAgeMillis) {
+			return fleetView;
+		}
+		return synchronize(serverApi);
+	}
+
+	/**
+	 * Brings the fleet view up to date with Nova. A failed incremental listing falls back
+	 * to a full listing. The full listings are made outside the monitor of the
+	 * synchronizer, so that the concurrent ones of the region are shared.
+	 *
+	 * @param serverApi the server API for the region
+	 * @return the up-to-date fleet view
+	 * @throws InterruptedException if interrupted while waiting for a shared listing
+	 */
+	public NovaFleetView synchronize(NovaServerApi serverApi) throws InterruptedException {
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			if (synchronizeIncrementally(serverApi, now)) {
+				return fleetView;
+			}
+		}
+		List<NovaServerRecord> servers = NovaReadCoalescer.forSynchronizer(this).listServerRecordsInDetail(serverApi);
+		synchronized (this) {
+			if (now < lastSyncMillis) {
+				// a synchronization started after this listing was already applied
+				return fleetView;
+			}
+			fleetView.replaceAll(servers);
+			// an empty tenant has no mark to start from, keep listing it in full
+			highWaterMark = servers.isEmpty() ? null : advance(0, servers);
+			lastFullSyncMillis = now;
+			lastSyncMillis = now;
+		}
+		LOG.debug("Full sync of region {}: {} server(s) listed", region, servers.size());
+		return fleetView;
+	}
+
+	/**
+	 * Returns the latest update time seen from Nova, in milliseconds since the epoch.
+	 *
+	 * @return the high-water mark, or <code>null</code> until the first full listing
+	 */
+	public synchronized Long getHighWaterMillis() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Restores the fleet view saved by a previous run of the plugin, unless it was already
+	 * synchronized. The view is not considered synchronized, so the next synchronization
+	 * only lists the servers changed since the saved high-water mark, or every server if
+	 * the saved view is older than the full synchronization interval.
+	 *
+	 * @param records         the saved servers
+	 * @param highWaterMillis the saved high-water mark
+	 * @param savedMillis     the local time at which the view was saved
+	 * @return <code>true</code> if the view was restored
+	 */
+	public synchronized boolean restore(Iterable<NovaServerRecord> records, long highWaterMillis, long savedMillis) {
+		if (highWaterMark != null || lastSyncMillis != 0) {
+			return false;
+		}
+		fleetView.replaceAll(records);
+		highWaterMark = highWaterMillis;
+		lastFullSyncMillis = savedMillis;
+		return true;
+	}
+
+	/**
+	 * Forces the next synchronization to list every server.
+	 */
+	public synchronized void invalidate() {
+		highWaterMark = null;
+	}
+
+	/**
+	 * Applies the servers changed since the high-water mark, if the view has one and is
+	 * not due for a full listing.
+	 *
+	 * @param serverApi the server API for the region
+	 * @param now       the local time of the synchronization
+	 * @return <code>true</code> if the view was brought up to date
+	 */
+	private boolean synchronizeIncrementally(NovaServerApi serverApi, long now) {
+		if (highWaterMark == null || now - lastFullSyncMillis > fullSyncIntervalMillis) {
+			return false;
+		}
+		try {
+			List<NovaServerRecord> changed = listChangedServers(serverApi, highWaterMark - changesSinceOverlapMillis);
+			fleetView.applyAll(changed);
+			highWaterMark = advance(highWaterMark, changed);
+			lastSyncMillis = now;
+			LOG.debug("Incremental sync of region {}: {} server(s) changed", region, changed.size());
+			return true;
+		} catch (RuntimeException e) {
+			// e.g. a restored mark Nova rejects, the full listing rebuilds the view anyway
+			LOG.warn("Incremental sync of region " + region + " failed, listing every server", e);
+			highWaterMark = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Lists all the servers changed since the specified time, following pagination markers.
+	 *
+	 * @param serverApi          the server API
+	 * @param changesSinceMillis the time from which to list changes, in milliseconds since
+	 *                           the epoch
+	 * @return the changed servers, including deleted ones
+	 */
+	private static List<NovaServerRecord> listChangedServers(NovaServerApi serverApi, long changesSinceMillis) {
+		List<NovaServerRecord> changed = Lists.newArrayList();
+		PaginationOptions options = changesSince(changesSinceMillis);
+		while (true) {
+			PaginatedCollection<NovaServerRecord> page = serverApi.listRecordsInDetail(options);
+			Iterables.addAll(changed, page);
+			// the next marker is the query of the next link, not the marker itself
+			String marker = page.nextMarker().isPresent()
+					? Iterables.getFirst(page.nextPaginationOptions().buildQueryParameters().get("marker"), null)
+					: null;
+			if (marker == null) {
+				return changed;
+			}
+			options = changesSince(changesSinceMillis).marker(marker);
+		}
+	}
+
+	/**
+	 * Returns the options listing the servers changed since the specified time. The
+	 * <code>changes-since</code> option of jclouds is sent in seconds since the epoch,
+	 * which Nova rejects, so the ISO 8601 time is set as a plain query parameter instead.
+	 * The time is rounded down to the second.
+	 *
+	 * @param changesSinceMillis the time from which to list changes, in milliseconds since
+	 *                           the epoch
+	 * @return the pagination options
+	 */
+	static PaginationOptions changesSince(long changesSinceMillis) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return new PaginationOptions().queryParameters(
+				ImmutableMultimap.of("changes-since", format.format(new Date(changesSinceMillis))));
+	}
+
+	/**
+	 * Returns the latest update time among the specified servers and the current mark.
+	 *
+	 * @param mark    the current high-water mark
+	 * @param servers the servers
+	 * @return the new high-water mark
+	 */
+	private static long advance(long mark, Iterable<NovaServerRecord> servers) {
+		long latest = mark;
+		for (NovaServerRecord server : servers) {
+			latest = Math.max(latest, server.getUpdatedMillis());
+		}
+		return latest;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+import com.cloudera.director.openstack.OpenStackAccess;
+import com.cloudera.director.openstack.OpenStackRestClient;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.collect.Multimap;
+
+/**
+ * A minimal client of the Nova v2 API of one region. Responses are decoded while they are
+ * read, without building a JSON tree nor a string of the body.
+ */
+public class NovaRestClient extends OpenStackRestClient {
+
+	/**
+	 * Creates a client.
+	 *
+	 * @param access   the Keystone access
+	 * @param region   the region
+	 * @param endpoint the Nova endpoint, or <code>null</code> to look it up in the catalog
+	 */
+	NovaRestClient(OpenStackAccess access, String region, URI endpoint) {
+		super(access, "compute", region, "", endpoint);
+		tune(OpenStackTuning.DEFAULTS);
+	}
+
+	/**
+	 * Applies the request timeouts of the region.
+	 *
+	 * @param tuning the settings of the region
+	 */
+	public void tune(OpenStackTuning tuning) {
+		setTimeouts(tuning.getNovaRestConnectTimeoutMillis(), tuning.getNovaRestReadTimeoutMillis());
+	}
+
+	@Override
+	protected NovaRestException rejected(String message, int statusCode) {
+		return new NovaRestException(message, statusCode);
+	}
+
+	@Override
+	protected NovaRestException unreachable(String message, IOException cause) {
+		return new NovaRestException(message, cause);
+	}
+
+	/**
+	 * Returns the query string of the specified parameters, empty if there is none.
+	 *
+	 * @param parameters the query parameters
+	 * @return the query string, starting with <code>?</code>
+	 */
+	static String toQueryString(Multimap<String, String> parameters) {
+		StringBuilder query = new StringBuilder();
+		for (Map.Entry<String, String> parameter : parameters.entries()) {
+			query.append(query.length() == 0 ? '?' : '&')
+					.append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+		}
+		return query.toString();
+	}
+}
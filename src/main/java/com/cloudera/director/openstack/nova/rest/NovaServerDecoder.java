@@ -0,0 +1,712 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.date.DateService;
+import org.jclouds.date.internal.SimpleDateFormatDateService;
+import org.jclouds.openstack.nova.v2_0.domain.Address;
+import org.jclouds.openstack.nova.v2_0.domain.FloatingIP;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
+import org.jclouds.openstack.nova.v2_0.domain.ServerExtendedStatus;
+import org.jclouds.openstack.v2_0.domain.Link;
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
+import org.jclouds.openstack.v2_0.domain.Resource;
+
+import com.cloudera.director.openstack.OpenStackRestClient;
+import com.cloudera.director.openstack.nova.NovaServerRecord;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Decodes the Nova responses straight from the stream into the jclouds domain objects, so
+ * that both engines return the same objects. Only the members read by the plugin are
+ * decoded, the others are skipped without being materialized. The record decoders go
+ * further and keep only the fields of a {@link NovaServerRecord}.
+ */
+final class NovaServerDecoder {
+
+	private static final DateService DATE_SERVICE = new SimpleDateFormatDateService();
+
+	/**
+	 * The server statuses by name, since {@link Server.Status#fromValue(String)} allocates
+	 * on every call.
+	 */
+	private static final Map<String, Server.Status> STATUSES;
+
+	static {
+		ImmutableMap.Builder<String, Server.Status> statuses = ImmutableMap.builder();
+		for (Server.Status status : Server.Status.values()) {
+			statuses.put(status.name(), status);
+		}
+		STATUSES = statuses.build();
+	}
+
+	private NovaServerDecoder() {
+	}
+
+	/**
+	 * Decodes a <code>{"server": {...}}</code> response.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<Server> SERVER = new OpenStackRestClient.ResponseDecoder<Server>() {
+		@Override
+		public Server decode(JsonReader reader) throws IOException {
+			Server server = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("server".equals(reader.nextName())) {
+					server = readServer(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return server;
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"servers": [...], "servers_links": [...]}</code> response.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<PaginatedCollection<Server>> SERVER_PAGE =
+			new OpenStackRestClient.ResponseDecoder<PaginatedCollection<Server>>() {
+		@Override
+		public PaginatedCollection<Server> decode(JsonReader reader) throws IOException {
+			List<Server> servers = Lists.newArrayList();
+			List<Link> links = Lists.newArrayList();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("servers".equals(name)) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						servers.add(readServer(reader));
+					}
+					reader.endArray();
+				} else if ("servers_links".equals(name)) {
+					readLinks(reader, links);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return new PaginatedCollection<Server>(servers, links) {
+			};
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"server": {...}}</code> response to the projected fields only.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<NovaServerRecord> SERVER_RECORD =
+			new OpenStackRestClient.ResponseDecoder<NovaServerRecord>() {
+		@Override
+		public NovaServerRecord decode(JsonReader reader) throws IOException {
+			NovaServerRecord record = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("server".equals(reader.nextName())) {
+					record = readServerRecord(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return record;
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"servers": [...], "servers_links": [...]}</code> response to the
+	 * projected fields only.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<PaginatedCollection<NovaServerRecord>> SERVER_RECORD_PAGE =
+			new OpenStackRestClient.ResponseDecoder<PaginatedCollection<NovaServerRecord>>() {
+		@Override
+		public PaginatedCollection<NovaServerRecord> decode(JsonReader reader) throws IOException {
+			List<NovaServerRecord> records = Lists.newArrayList();
+			List<Link> links = Lists.newArrayList();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("servers".equals(name)) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						records.add(readServerRecord(reader));
+					}
+					reader.endArray();
+				} else if ("servers_links".equals(name)) {
+					readLinks(reader, links);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return new PaginatedCollection<NovaServerRecord>(records, links) {
+			};
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"server": {...}}</code> response to a server creation.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<ServerCreated> SERVER_CREATED =
+			new OpenStackRestClient.ResponseDecoder<ServerCreated>() {
+		@Override
+		public ServerCreated decode(JsonReader reader) throws IOException {
+			ServerCreated.Builder created = ServerCreated.builder();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!"server".equals(reader.nextName())) {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if ("id".equals(name)) {
+						created.id(reader.nextString());
+					} else if ("adminPass".equals(name)) {
+						created.adminPass(reader.nextString());
+					} else if ("OS-DCF:diskConfig".equals(name)) {
+						created.diskConfig(reader.nextString());
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+			return created.build();
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"metadata": {...}}</code> response.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<Map<String, String>> METADATA =
+			new OpenStackRestClient.ResponseDecoder<Map<String, String>>() {
+		@Override
+		public Map<String, String> decode(JsonReader reader) throws IOException {
+			return readMember(reader, "metadata");
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"meta": {...}}</code> response.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<Map<String, String>> META =
+			new OpenStackRestClient.ResponseDecoder<Map<String, String>>() {
+		@Override
+		public Map<String, String> decode(JsonReader reader) throws IOException {
+			return readMember(reader, "meta");
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"floating_ip": {...}}</code> response.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<FloatingIP> FLOATING_IP =
+			new OpenStackRestClient.ResponseDecoder<FloatingIP>() {
+		@Override
+		public FloatingIP decode(JsonReader reader) throws IOException {
+			FloatingIP floatingIp = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("floating_ip".equals(reader.nextName())) {
+					floatingIp = readFloatingIp(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return floatingIp;
+		}
+	};
+
+	/**
+	 * Decodes a <code>{"floating_ips": [...]}</code> response.
+	 */
+	static final OpenStackRestClient.ResponseDecoder<List<FloatingIP>> FLOATING_IPS =
+			new OpenStackRestClient.ResponseDecoder<List<FloatingIP>>() {
+		@Override
+		public List<FloatingIP> decode(JsonReader reader) throws IOException {
+			List<FloatingIP> floatingIps = Lists.newArrayList();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("floating_ips".equals(reader.nextName())) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						floatingIps.add(readFloatingIp(reader));
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return floatingIps;
+		}
+	};
+
+	static Server readServer(JsonReader reader) throws IOException {
+		Server.Builder<?> server = Server.builder();
+		String taskState = null;
+		String vmState = null;
+		int powerState = 0;
+		boolean extendedStatus = false;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+				extendedStatus |= name.startsWith("OS-EXT-STS:");
+				continue;
+			}
+			if ("id".equals(name)) {
+				server.id(readString(reader));
+			} else if ("name".equals(name)) {
+				server.name(readString(reader));
+			} else if ("tenant_id".equals(name)) {
+				server.tenantId(readString(reader));
+			} else if ("user_id".equals(name)) {
+				server.userId(readString(reader));
+			} else if ("created".equals(name)) {
+				server.created(readDate(reader));
+			} else if ("updated".equals(name)) {
+				server.updated(readDate(reader));
+			} else if ("hostId".equals(name)) {
+				server.hostId(readString(reader));
+			} else if ("accessIPv4".equals(name)) {
+				server.accessIPv4(readString(reader));
+			} else if ("accessIPv6".equals(name)) {
+				server.accessIPv6(readString(reader));
+			} else if ("status".equals(name)) {
+				server.status(readStatus(reader));
+			} else if ("image".equals(name)) {
+				// an empty string for the servers booted from a volume
+				if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+					server.image(readResource(reader));
+				} else {
+					reader.skipValue();
+				}
+			} else if ("flavor".equals(name)) {
+				server.flavor(readResource(reader));
+			} else if ("key_name".equals(name)) {
+				server.keyName(readString(reader));
+			} else if ("config_drive".equals(name)) {
+				server.configDrive(readString(reader));
+			} else if ("addresses".equals(name)) {
+				server.addresses(readAddresses(reader));
+			} else if ("metadata".equals(name)) {
+				server.metadata(readStringMap(reader));
+			} else if ("OS-EXT-STS:task_state".equals(name)) {
+				taskState = readString(reader);
+				extendedStatus = true;
+			} else if ("OS-EXT-STS:vm_state".equals(name)) {
+				vmState = readString(reader);
+				extendedStatus = true;
+			} else if ("OS-EXT-STS:power_state".equals(name)) {
+				powerState = reader.nextInt();
+				extendedStatus = true;
+			} else if ("OS-EXT-AZ:availability_zone".equals(name)) {
+				server.availabilityZone(readString(reader));
+			} else if ("OS-DCF:diskConfig".equals(name)) {
+				server.diskConfig(readString(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (extendedStatus) {
+			server.extendedStatus(ServerExtendedStatus.builder()
+					.taskState(taskState)
+					.vmState(vmState)
+					.powerState(powerState)
+					.build());
+		}
+		return server.build();
+	}
+
+	/**
+	 * Reads the projected fields of a server, skipping all the others.
+	 */
+	static NovaServerRecord readServerRecord(JsonReader reader) throws IOException {
+		NovaServerRecord.Builder record = NovaServerRecord.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+			} else if ("id".equals(name)) {
+				record.id(readString(reader));
+			} else if ("name".equals(name)) {
+				record.name(readString(reader));
+			} else if ("status".equals(name)) {
+				record.status(readStatus(reader));
+			} else if ("metadata".equals(name)) {
+				record.metadata(readStringMap(reader));
+			} else if ("addresses".equals(name)) {
+				readAddressLiterals(reader, record);
+			} else if ("flavor".equals(name)) {
+				record.flavorId(readId(reader));
+			} else if ("image".equals(name)) {
+				// an empty string for the servers booted from a volume
+				if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+					record.imageId(readId(reader));
+				} else {
+					reader.skipValue();
+				}
+			} else if ("key_name".equals(name)) {
+				record.keyName(readString(reader));
+			} else if ("created".equals(name)) {
+				record.createdMillis(readMillis(reader));
+			} else if ("updated".equals(name)) {
+				record.updatedMillis(readMillis(reader));
+			} else if ("OS-EXT-STS:vm_state".equals(name)) {
+				record.vmState(readString(reader));
+			} else if ("OS-EXT-STS:task_state".equals(name)) {
+				record.taskState(readString(reader));
+			} else if ("fault".equals(name)) {
+				record.faultMessage(readFaultMessage(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return record.build();
+	}
+
+	static FloatingIP readFloatingIp(JsonReader reader) throws IOException {
+		FloatingIP.Builder<?> floatingIp = FloatingIP.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+				continue;
+			}
+			if ("id".equals(name)) {
+				floatingIp.id(readString(reader));
+			} else if ("ip".equals(name)) {
+				floatingIp.ip(readString(reader));
+			} else if ("fixed_ip".equals(name)) {
+				floatingIp.fixedIp(readString(reader));
+			} else if ("instance_id".equals(name)) {
+				floatingIp.instanceId(readString(reader));
+			} else if ("pool".equals(name)) {
+				floatingIp.pool(readString(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return floatingIp.build();
+	}
+
+	private static Resource readResource(JsonReader reader) throws IOException {
+		Resource.Builder<?> resource = Resource.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("id".equals(name) && reader.peek() != JsonToken.NULL) {
+				resource.id(readString(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return resource.build();
+	}
+
+	private static String readId(JsonReader reader) throws IOException {
+		String id = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("id".equals(name) && reader.peek() != JsonToken.NULL) {
+				id = readString(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return id;
+	}
+
+	/**
+	 * Reads the IP literals of a server by network, with their <code>OS-EXT-IPS:type</code>.
+	 */
+	private static void readAddressLiterals(JsonReader reader, NovaServerRecord.Builder record) throws IOException {
+		ImmutableListMultimap.Builder<String, String> addresses = ImmutableListMultimap.builder();
+		Map<String, String> addressTypes = Maps.newHashMap();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String network = reader.nextName();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				String addr = null;
+				String type = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (reader.peek() == JsonToken.NULL) {
+						reader.nextNull();
+					} else if ("addr".equals(name)) {
+						addr = readString(reader);
+					} else if ("OS-EXT-IPS:type".equals(name)) {
+						type = readString(reader);
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				if (addr != null) {
+					addresses.put(network, addr);
+					if (type != null) {
+						addressTypes.put(addr, type);
+					}
+				}
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+		record.addresses(addresses.build()).addressTypes(addressTypes);
+	}
+
+	private static ImmutableListMultimap<String, Address> readAddresses(JsonReader reader) throws IOException {
+		ImmutableListMultimap.Builder<String, Address> addresses = ImmutableListMultimap.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String network = reader.nextName();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				String addr = null;
+				int version = 4;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if ("addr".equals(name)) {
+						addr = readString(reader);
+					} else if ("version".equals(name)) {
+						version = reader.nextInt();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				if (addr != null) {
+					addresses.put(network, (version == 6) ? Address.createV6(addr) : Address.createV4(addr));
+				}
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+		return addresses.build();
+	}
+
+	private static void readLinks(JsonReader reader, List<Link> links) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String rel = null;
+			String href = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("rel".equals(name)) {
+					rel = readString(reader);
+				} else if ("href".equals(name)) {
+					href = readString(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (rel != null && href != null) {
+				links.add(Link.create(Link.Relation.fromValue(rel), URI.create(href)));
+			}
+		}
+		reader.endArray();
+	}
+
+	/**
+	 * Reads the message of a server fault, e.g. <code>No valid host was found</code>.
+	 */
+	private static String readFaultMessage(JsonReader reader) throws IOException {
+		String message = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ("message".equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+				message = readString(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return message;
+	}
+
+	private static Map<String, String> readMember(JsonReader reader, String member) throws IOException {
+		Map<String, String> map = ImmutableMap.of();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (member.equals(reader.nextName())) {
+				map = readStringMap(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return map;
+	}
+
+	private static Map<String, String> readStringMap(JsonReader reader) throws IOException {
+		ImmutableMap.Builder<String, String> map = ImmutableMap.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+			} else {
+				map.put(key, readString(reader));
+			}
+		}
+		reader.endObject();
+		return map.build();
+	}
+
+	private static Date readDate(JsonReader reader) throws IOException {
+		return new Date(readMillis(reader));
+	}
+
+	private static Server.Status readStatus(JsonReader reader) throws IOException {
+		String value = readString(reader);
+		Server.Status status = STATUSES.get(value);
+		return (status != null) ? status : Server.Status.fromValue(value);
+	}
+
+	/**
+	 * Reads a date as milliseconds since the epoch. The <code>yyyy-MM-ddTHH:mm:ss</code>
+	 * dates of Nova, in UTC or with an offset, are parsed by hand since the jclouds date
+	 * service allocates several objects per date; any other format goes through it.
+	 */
+	static long readMillis(JsonReader reader) throws IOException {
+		String date = reader.nextString();
+		long millis = parseIso8601Millis(date);
+		return (millis != Long.MIN_VALUE) ? millis : DATE_SERVICE.iso8601DateOrSecondsDateParse(date).getTime();
+	}
+
+	/**
+	 * Parses <code>yyyy-MM-ddTHH:mm:ss[.SSS][Z|+HH:mm|-HH:mm]</code>, without a zone in UTC.
+	 *
+	 * @return the milliseconds since the epoch, or {@link Long#MIN_VALUE} for another format
+	 */
+	static long parseIso8601Millis(String date) {
+		int length = date.length();
+		if (length < 19 || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+				|| date.charAt(13) != ':' || date.charAt(16) != ':') {
+			return Long.MIN_VALUE;
+		}
+		int year = digits(date, 0, 4);
+		int month = digits(date, 5, 2);
+		int day = digits(date, 8, 2);
+		int hour = digits(date, 11, 2);
+		int minute = digits(date, 14, 2);
+		int second = digits(date, 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+				|| minute > 59 || second < 0 || second > 60) {
+			return Long.MIN_VALUE;
+		}
+		int index = 19;
+		int millis = 0;
+		if (index < length && date.charAt(index) == '.') {
+			int scale = 100;
+			index++;
+			while (index < length && Character.isDigit(date.charAt(index))) {
+				millis += (date.charAt(index) - '0') * scale;
+				scale /= 10;
+				index++;
+			}
+		}
+		int offsetMinutes = 0;
+		if (index < length) {
+			char zone = date.charAt(index);
+			if (zone == 'Z' && index + 1 == length) {
+				offsetMinutes = 0;
+			} else if ((zone == '+' || zone == '-') && index + 6 == length && date.charAt(index + 3) == ':') {
+				int offsetHours = digits(date, index + 1, 2);
+				int offsetRest = digits(date, index + 4, 2);
+				if (offsetHours < 0 || offsetRest < 0) {
+					return Long.MIN_VALUE;
+				}
+				offsetMinutes = (zone == '+' ? 1 : -1) * (offsetHours * 60 + offsetRest);
+			} else {
+				return Long.MIN_VALUE;
+			}
+		}
+		long seconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second
+				- offsetMinutes * 60L;
+		return seconds * 1000 + millis;
+	}
+
+	/**
+	 * Returns the number of days between the epoch and a date of the proleptic Gregorian
+	 * calendar.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = (month <= 2) ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+
+	/**
+	 * Returns the value of the decimal digits at the specified position, -1 if any is not
+	 * a digit.
+	 */
+	private static int digits(String value, int start, int count) {
+		int result = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a string, number or boolean as a string.
+	 */
+	private static String readString(JsonReader reader) throws IOException {
+		return (reader.peek() == JsonToken.BOOLEAN) ? String.valueOf(reader.nextBoolean()) : reader.nextString();
+	}
+}
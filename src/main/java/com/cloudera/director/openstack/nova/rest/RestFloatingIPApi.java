@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import static com.cloudera.director.openstack.nova.rest.NovaRestClient.encode;
+
+import java.net.HttpURLConnection;
+
+import org.jclouds.openstack.nova.v2_0.domain.FloatingIP;
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+
+import com.google.common.collect.FluentIterable;
+import com.google.gson.JsonObject;
+
+/**
+ * The floating IP calls of the REST engine, with the same semantics as jclouds.
+ */
+public class RestFloatingIPApi implements FloatingIPApi {
+
+	private final NovaRestClient client;
+	private final RestServerApi serverApi;
+
+	public RestFloatingIPApi(NovaRestClient client, RestServerApi serverApi) {
+		this.client = client;
+		this.serverApi = serverApi;
+	}
+
+	@Override
+	public FluentIterable<FloatingIP> list() {
+		return FluentIterable.from(client.request("GET", "/os-floating-ips", null, NovaServerDecoder.FLOATING_IPS));
+	}
+
+	/**
+	 * Returns a floating IP, <code>null</code> if it does not exist.
+	 */
+	@Override
+	public FloatingIP get(String id) {
+		try {
+			return client.request("GET", "/os-floating-ips/" + encode(id), null, NovaServerDecoder.FLOATING_IP);
+		} catch (NovaRestException e) {
+			if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public FloatingIP create() {
+		return client.request("POST", "/os-floating-ips", new JsonObject(), NovaServerDecoder.FLOATING_IP);
+	}
+
+	@Override
+	public FloatingIP allocateFromPool(String pool) {
+		JsonObject body = new JsonObject();
+		body.addProperty("pool", pool);
+		return client.request("POST", "/os-floating-ips", body, NovaServerDecoder.FLOATING_IP);
+	}
+
+	/**
+	 * Releases a floating IP, doing nothing if it does not exist.
+	 */
+	@Override
+	public void delete(String id) {
+		try {
+			client.request("DELETE", "/os-floating-ips/" + encode(id), null, null);
+		} catch (NovaRestException e) {
+			if (e.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void addToServer(String address, String serverId) {
+		JsonObject floatingIp = new JsonObject();
+		floatingIp.addProperty("address", address);
+		serverApi.action(serverId, "addFloatingIp", floatingIp);
+	}
+
+	@Override
+	public void removeFromServer(String address, String serverId) {
+		JsonObject floatingIp = new JsonObject();
+		floatingIp.addProperty("address", address);
+		serverApi.action(serverId, "removeFloatingIp", floatingIp);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+
+import com.cloudera.director.openstack.OpenStackAccess;
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.cloudera.director.openstack.nova.NovaEngine;
+import com.google.common.base.Optional;
+
+/**
+ * The Nova engine sending the requests with the plugin's own REST client instead of
+ * jclouds: no injector to build, no intermediate JSON tree nor response string per
+ * request, and persistent connections reused between requests. Keystone authentication
+ * is shared with the other clients of the credentials through {@link OpenStackAccess}.
+ */
+public class RestNovaEngine implements NovaEngine {
+
+	/**
+	 * The engines by endpoint and identity, replaced with their access.
+	 */
+	private static final ConcurrentMap<String, RestNovaEngine> ENGINES =
+			new ConcurrentHashMap<String, RestNovaEngine>();
+
+	/**
+	 * Returns the engine shared by everything using the specified credentials.
+	 *
+	 * @param credentials the OpenStack credentials
+	 * @return the engine
+	 */
+	public static RestNovaEngine forCredentials(OpenStackCredentials credentials) {
+		String key = credentials.getEndpoint() + "|" + credentials.getIdentity();
+		OpenStackAccess access = OpenStackAccess.forCredentials(credentials);
+		while (true) {
+			RestNovaEngine engine = ENGINES.get(key);
+			if (engine != null && engine.access == access) {
+				return engine;
+			}
+			RestNovaEngine created = new RestNovaEngine(access);
+			if ((engine == null) ? ENGINES.putIfAbsent(key, created) == null
+					: ENGINES.replace(key, engine, created)) {
+				return created;
+			}
+		}
+	}
+
+	private final OpenStackAccess access;
+
+	/**
+	 * The clients by region.
+	 */
+	private final ConcurrentMap<String, NovaRestClient> clients = new ConcurrentHashMap<String, NovaRestClient>();
+
+	RestNovaEngine(OpenStackAccess access) {
+		this.access = access;
+	}
+
+	@Override
+	public Set<String> getConfiguredRegions() {
+		return access.getRegions("compute");
+	}
+
+	@Override
+	public RestServerApi getServerApi(String region) {
+		return new RestServerApi(getClient(region));
+	}
+
+	/**
+	 * Returns the floating IP API of a region. The extension is always assumed available,
+	 * a region without it rejects the calls.
+	 */
+	@Override
+	public Optional<FloatingIPApi> getFloatingIPApi(String region) {
+		NovaRestClient client = getClient(region);
+		return Optional.<FloatingIPApi>of(new RestFloatingIPApi(client, new RestServerApi(client)));
+	}
+
+	@Override
+	public void tune(String region, OpenStackTuning tuning) {
+		getClient(region).tune(tuning);
+	}
+
+	private NovaRestClient getClient(String region) {
+		NovaRestClient client = clients.get(region);
+		if (client == null) {
+			NovaRestClient created = new NovaRestClient(access, region, null);
+			client = clients.putIfAbsent(region, created);
+			if (client == null) {
+				client = created;
+			}
+		}
+		return client;
+	}
+}
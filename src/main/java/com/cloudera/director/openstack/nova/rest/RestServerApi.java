@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import static com.cloudera.director.openstack.nova.rest.NovaRestClient.encode;
+
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.BlockDeviceMapping;
+import org.jclouds.openstack.nova.v2_0.domain.Network;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+
+import com.cloudera.director.openstack.nova.NovaCreateServerOptions;
+import com.cloudera.director.openstack.nova.NovaServerApi;
+import com.cloudera.director.openstack.nova.NovaServerRecord;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * The server calls of the REST engine, with the same semantics as jclouds.
+ */
+public class RestServerApi implements NovaServerApi {
+
+	private final NovaRestClient client;
+
+	public RestServerApi(NovaRestClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Lists all the servers, following the pages.
+	 */
+	@Override
+	public List<Server> listInDetail() {
+		List<Server> servers = Lists.newArrayList();
+		PaginationOptions options = new PaginationOptions();
+		while (true) {
+			PaginatedCollection<Server> page = listInDetail(options);
+			servers.addAll(page.toList());
+			if (!page.nextMarker().isPresent()) {
+				return servers;
+			}
+			// the query of the next link
+			options = page.nextPaginationOptions();
+		}
+	}
+
+	/**
+	 * Lists one page of servers in detail.
+	 *
+	 * @param options the pagination and filtering options
+	 * @return the page
+	 */
+	PaginatedCollection<Server> listInDetail(PaginationOptions options) {
+		return client.request("GET", "/servers/detail" + NovaRestClient.toQueryString(options.buildQueryParameters()),
+				null, NovaServerDecoder.SERVER_PAGE);
+	}
+
+	/**
+	 * Lists all the servers as records, following the pages. Only the projected fields
+	 * are decoded, which makes a fleet-wide listing much cheaper than
+	 * {@link #listInDetail()}.
+	 */
+	@Override
+	public List<NovaServerRecord> listRecordsInDetail() {
+		List<NovaServerRecord> records = Lists.newArrayList();
+		PaginationOptions options = new PaginationOptions();
+		while (true) {
+			PaginatedCollection<NovaServerRecord> page = listRecordsInDetail(options);
+			records.addAll(page.toList());
+			if (!page.nextMarker().isPresent()) {
+				return records;
+			}
+			options = page.nextPaginationOptions();
+		}
+	}
+
+	/**
+	 * Lists one page of servers as records.
+	 *
+	 * @param options the pagination and filtering options
+	 * @return the page
+	 */
+	@Override
+	public PaginatedCollection<NovaServerRecord> listRecordsInDetail(PaginationOptions options) {
+		return client.request("GET", "/servers/detail" + NovaRestClient.toQueryString(options.buildQueryParameters()),
+				null, NovaServerDecoder.SERVER_RECORD_PAGE);
+	}
+
+	/**
+	 * Gets a server as a record.
+	 *
+	 * @param id the server ID
+	 * @return the record, or <code>null</code> if the server does not exist
+	 */
+	public NovaServerRecord getRecord(String id) {
+		try {
+			return client.request("GET", "/servers/" + encode(id), null, NovaServerDecoder.SERVER_RECORD);
+		} catch (NovaRestException e) {
+			if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public Server get(String id) {
+		try {
+			return client.request("GET", "/servers/" + encode(id), null, NovaServerDecoder.SERVER);
+		} catch (NovaRestException e) {
+			if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a server, sending all the create options.
+	 */
+	@Override
+	public ServerCreated create(String name, String imageRef, String flavorRef, NovaCreateServerOptions options) {
+		JsonObject server = new JsonObject();
+		server.addProperty("name", name);
+		server.addProperty("imageRef", imageRef);
+		server.addProperty("flavorRef", flavorRef);
+		addCreateOptions(server, options);
+		JsonObject body = new JsonObject();
+		body.add("server", server);
+		return client.request("POST", "/servers", body, NovaServerDecoder.SERVER_CREATED);
+	}
+
+	private static void addCreateOptions(JsonObject server, NovaCreateServerOptions options) {
+		if (options.getKeyPairName() != null) {
+			server.addProperty("key_name", options.getKeyPairName());
+		}
+		if (options.getAvailabilityZone() != null) {
+			server.addProperty("availability_zone", options.getAvailabilityZone());
+		}
+		if (options.getAdminPass() != null) {
+			server.addProperty("adminPass", options.getAdminPass());
+		}
+		if (!options.getSecurityGroupNames().isEmpty()) {
+			JsonArray securityGroups = new JsonArray();
+			for (String securityGroupName : options.getSecurityGroupNames()) {
+				JsonObject securityGroup = new JsonObject();
+				securityGroup.addProperty("name", securityGroupName);
+				securityGroups.add(securityGroup);
+			}
+			server.add("security_groups", securityGroups);
+		}
+		if (!options.getNetworks().isEmpty() || !options.getNovaNetworks().isEmpty()) {
+			JsonArray networks = new JsonArray();
+			for (String networkId : options.getNetworks()) {
+				JsonObject network = new JsonObject();
+				network.addProperty("uuid", networkId);
+				networks.add(network);
+			}
+			for (Network novaNetwork : options.getNovaNetworks()) {
+				JsonObject network = new JsonObject();
+				if (novaNetwork.getNetworkUuid() != null) {
+					network.addProperty("uuid", novaNetwork.getNetworkUuid());
+				}
+				if (novaNetwork.getPortUuid() != null) {
+					network.addProperty("port", novaNetwork.getPortUuid());
+				}
+				if (novaNetwork.getFixedIp() != null) {
+					network.addProperty("fixed_ip", novaNetwork.getFixedIp());
+				}
+				networks.add(network);
+			}
+			server.add("networks", networks);
+		}
+		if (options.getDiskConfig() != null) {
+			server.addProperty("OS-DCF:diskConfig", options.getDiskConfig());
+		}
+		if (options.getConfigDrive()) {
+			server.addProperty("config_drive", "true");
+		}
+		if (!options.getBlockDeviceMappings().isEmpty()) {
+			JsonArray mappings = new JsonArray();
+			for (BlockDeviceMapping mapping : options.getBlockDeviceMappings()) {
+				mappings.add(toJson(mapping));
+			}
+			server.add("block_device_mapping_v2", mappings);
+		}
+		if (!options.getPersonality().isEmpty()) {
+			JsonArray personality = new JsonArray();
+			for (Map.Entry<String, byte[]> file : options.getPersonality().entrySet()) {
+				JsonObject entry = new JsonObject();
+				entry.addProperty("path", file.getKey());
+				entry.addProperty("contents", BaseEncoding.base64().encode(file.getValue()));
+				personality.add(entry);
+			}
+			server.add("personality", personality);
+		}
+		if (!options.getMetadata().isEmpty()) {
+			server.add("metadata", toJson(options.getMetadata()));
+		}
+		if (options.getUserData() != null) {
+			server.addProperty("user_data", BaseEncoding.base64().encode(options.getUserData()));
+		}
+	}
+
+	/**
+	 * Returns a block device mapping in the <code>block_device_mapping_v2</code> format,
+	 * with only the fields set.
+	 */
+	private static JsonObject toJson(BlockDeviceMapping mapping) {
+		JsonObject object = new JsonObject();
+		object.addProperty("uuid", mapping.getUuid());
+		object.addProperty("device_name", mapping.getDeviceName());
+		object.addProperty("device_type", mapping.getDeviceType());
+		object.addProperty("volume_size", mapping.getVolumeSize());
+		object.addProperty("source_type", mapping.getSourceType());
+		object.addProperty("destination_type", mapping.getDestinationType());
+		object.addProperty("disk_bus", mapping.getDiskBus());
+		object.addProperty("no_device", mapping.getNoDevice());
+		object.addProperty("guest_format", mapping.getGuestFormat());
+		object.addProperty("boot_index", mapping.getBootIndex());
+		object.addProperty("delete_on_termination", mapping.getDeleteOnTermination());
+		for (Map.Entry<String, JsonElement> field : Lists.newArrayList(object.entrySet())) {
+			if (field.getValue().isJsonNull()) {
+				object.remove(field.getKey());
+			}
+		}
+		return object;
+	}
+
+	/**
+	 * Deletes a server.
+	 *
+	 * @return <code>false</code> if the server does not exist
+	 */
+	@Override
+	public boolean delete(String id) {
+		try {
+			client.request("DELETE", "/servers/" + encode(id), null, null);
+			return true;
+		} catch (NovaRestException e) {
+			if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void rename(String id, String newName) {
+		JsonObject server = new JsonObject();
+		server.addProperty("name", newName);
+		JsonObject body = new JsonObject();
+		body.add("server", server);
+		client.request("PUT", "/servers/" + encode(id), body, null);
+	}
+
+	@Override
+	public Map<String, String> updateMetadata(String id, Map<String, String> metadata) {
+		return client.request("POST", "/servers/" + encode(id) + "/metadata", metadataBody("metadata", metadata),
+				NovaServerDecoder.METADATA);
+	}
+
+	/**
+	 * Deletes a metadata value of a server, doing nothing if it has none.
+	 */
+	@Override
+	public void deleteMetadata(String id, String key) {
+		try {
+			client.request("DELETE", "/servers/" + encode(id) + "/metadata/" + encode(key), null, null);
+		} catch (NovaRestException e) {
+			if (e.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Sends an action to a server.
+	 *
+	 * @param id     the server ID
+	 * @param action the action name
+	 * @param value  the action parameters
+	 */
+	void action(String id, String action, JsonElement value) {
+		JsonObject body = new JsonObject();
+		body.add(action, value);
+		client.request("POST", "/servers/" + encode(id) + "/action", body, null);
+	}
+
+	private static JsonObject metadataBody(String member, Map<String, String> metadata) {
+		JsonObject body = new JsonObject();
+		body.add(member, toJson(metadata));
+		return body;
+	}
+
+	private static JsonObject toJson(Map<String, String> map) {
+		JsonObject object = new JsonObject();
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			object.addProperty(entry.getKey(), entry.getValue());
+		}
+		return object;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.typesafe.config.Config;
+
+/**
+ * Tests {@link OpenStackConfigReloader}.
+ */
+public class OpenStackConfigReloaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testValidChangesArePublishedAndInvalidOnesIgnored() throws Exception {
+		File configFile = folder.newFile(Configurations.CONFIGURATION_FILE_NAME);
+		Files.write("nova.rollback.parallelism = 4\n", configFile, Charsets.UTF_8);
+		OpenStackConfigReloader reloader = new OpenStackConfigReloader(configFile,
+				OpenStackConfigReloader.parse(configFile));
+		final List<Integer> published = Lists.newArrayList();
+		reloader.addListener(new OpenStackConfigReloader.Listener() {
+			@Override
+			public void reloaded(Config openstackConfig, OpenStackTuning tuning) {
+				published.add(tuning.getRollbackParallelism());
+			}
+		});
+		assertThat(reloader.get().getRollbackParallelism()).isEqualTo(4);
+
+		// unchanged
+		assertThat(reloader.reload()).isFalse();
+
+		Files.write("nova.rollback.parallelism = 12\n", configFile, Charsets.UTF_8);
+		assertThat(reloader.reload()).isTrue();
+		assertThat(reloader.get().getRollbackParallelism()).isEqualTo(12);
+
+		// invalid, the previous snapshot stays
+		Files.write("nova.rollback.parallelism = -1\n", configFile, Charsets.UTF_8);
+		assertThat(reloader.reload()).isFalse();
+		Files.write("nova.rollback.parallelism = {\n", configFile, Charsets.UTF_8);
+		assertThat(reloader.reload()).isFalse();
+		assertThat(reloader.get().getRollbackParallelism()).isEqualTo(12);
+		assertThat(reloader.getConfig().getInt("nova.rollback.parallelism")).isEqualTo(12);
+
+		assertThat(published).containsExactly(12);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests {@link OpenStackExecutors}.
+ */
+public class OpenStackExecutorsTest {
+
+	@After
+	public void tearDown() {
+		OpenStackExecutors.configure(null);
+	}
+
+	@Test
+	public void testInvokeAllKeepsOrderAndBoundsParallelism() throws Exception {
+		OpenStackExecutors.configure(ConfigFactory.parseString("executor.mode = platform"));
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<Callable<Integer>> tasks = Lists.newArrayList();
+		for (int i = 0; i < 20; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = running.incrementAndGet();
+					while (true) {
+						int max = maxRunning.get();
+						if (current <= max || maxRunning.compareAndSet(max, current)) {
+							break;
+						}
+					}
+					TimeUnit.MILLISECONDS.sleep(5);
+					running.decrementAndGet();
+					return value;
+				}
+			});
+		}
+
+		List<Integer> results = OpenStackExecutors.invokeAll(tasks, 3);
+
+		assertThat(results).hasSize(20);
+		for (int i = 0; i < 20; i++) {
+			assertThat(results.get(i)).isEqualTo(i);
+		}
+		assertThat(maxRunning.get()).isLessThanOrEqualTo(3);
+		assertThat(OpenStackExecutors.isUsingVirtualThreads()).isFalse();
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests {@link OpenStackTuning}.
+ */
+public class OpenStackTuningTest {
+
+	@Test
+	public void testRegionAndTemplateOverridesFallBackToTheRoot() {
+		OpenStackTuning tuning = OpenStackTuning.fromConfig(ConfigFactory.parseString(
+				"nova.rollback.parallelism = 4\n"
+				+ "nova.allocate.ipTimeout = 60s\n"
+				+ "regions.regionOne.nova.rollback.parallelism = 6\n"
+				+ "templates.\"big nodes\".nova.allocate.ipTimeout = 10m\n"));
+
+		assertThat(tuning.getRollbackParallelism()).isEqualTo(4);
+		assertThat(tuning.getAllocatePollIntervalMillis()).isEqualTo(5000);
+
+		OpenStackTuning regionTuning = tuning.forRegion("regionOne");
+		assertThat(regionTuning.getRollbackParallelism()).isEqualTo(6);
+		assertThat(regionTuning.getAllocateIpTimeoutMillis()).isEqualTo(60000);
+		assertThat(tuning.forRegion("regionTwo")).isSameAs(tuning);
+
+		OpenStackTuning templateTuning = regionTuning.forTemplate("big nodes");
+		assertThat(templateTuning.getRollbackParallelism()).isEqualTo(6);
+		assertThat(templateTuning.getAllocateIpTimeoutMillis()).isEqualTo(600000);
+	}
+
+	@Test(expected = ConfigException.BadValue.class)
+	public void testNonPositiveParallelismIsRejected() {
+		OpenStackTuning.fromConfig(ConfigFactory.parseString("nova.allocate.floatingIpParallelism = 0"));
+	}
+
+	@Test(expected = ConfigException.BadValue.class)
+	public void testInvalidRegionOverrideIsRejected() {
+		OpenStackTuning.fromConfig(ConfigFactory.parseString("regions.regionOne.nova.readiness.port = 70000"))
+				.forRegion("regionOne");
+	}
+}
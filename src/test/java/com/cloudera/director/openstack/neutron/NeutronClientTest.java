@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.neutron;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackAccess;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link NeutronClient} against a local stub Neutron endpoint.
+ */
+public class NeutronClientTest {
+
+	private HttpServer neutron;
+	private OpenStackAccess access;
+	private NeutronClient client;
+	private final AtomicInteger rejectedTokens = new AtomicInteger();
+	private final List<Integer> listedDeviceIds = Collections.synchronizedList(Lists.<Integer>newArrayList());
+	private final Set<Integer> listingPorts = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+
+	@Before
+	public void setUp() throws Exception {
+		neutron = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		neutron.createContext("/v2.0/ports", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"valid".equals(exchange.getRequestHeaders().getFirst("X-Auth-Token"))) {
+					rejectedTokens.incrementAndGet();
+					respond(exchange, 401, "{}");
+				} else if ("POST".equals(exchange.getRequestMethod())) {
+					JsonObject request = new JsonParser().parse(CharStreams.toString(
+							new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8))).getAsJsonObject();
+					JsonArray ports = new JsonArray();
+					int address = 10;
+					for (JsonElement portRequest : request.getAsJsonArray("ports")) {
+						JsonObject port = portRequest.getAsJsonObject();
+						port.addProperty("id", "port-" + port.get("name").getAsString());
+						port.add("fixed_ips", new JsonParser().parse(
+								"[{\"subnet_id\": \"subnet\", \"ip_address\": \"10.0.0." + address++ + "\"}]"));
+						ports.add(port);
+					}
+					JsonObject response = new JsonObject();
+					response.add("ports", ports);
+					respond(exchange, 201, response.toString());
+				} else if ("GET".equals(exchange.getRequestMethod())) {
+					// one port per listed server
+					JsonArray ports = new JsonArray();
+					for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+						if (parameter.startsWith("device_id=")) {
+							JsonObject port = new JsonObject();
+							port.addProperty("id", "port-" + parameter.substring("device_id=".length()));
+							port.addProperty("device_id", parameter.substring("device_id=".length()));
+							ports.add(port);
+						}
+					}
+					listedDeviceIds.add(ports.size());
+					listingPorts.add(exchange.getRemoteAddress().getPort());
+					JsonObject response = new JsonObject();
+					response.add("ports", ports);
+					respond(exchange, 200, response.toString());
+				} else if ("DELETE".equals(exchange.getRequestMethod())) {
+					respond(exchange, exchange.getRequestURI().getPath().endsWith("/gone") ? 404 : 204, null);
+				}
+			}
+		});
+		neutron.start();
+
+		access = mock(OpenStackAccess.class);
+		when(access.getToken()).thenReturn("expired", "valid");
+		client = new NeutronClient(access, "regionOne",
+				URI.create("http://127.0.0.1:" + neutron.getAddress().getPort() + "/"));
+	}
+
+	@After
+	public void tearDown() {
+		neutron.stop(0);
+	}
+
+	@Test
+	public void testCreatesPortsInBulkWithFixedIps() {
+		List<NeutronPort> ports = client.createPorts("net", ImmutableList.of("a", "b"), ImmutableList.of("sg"));
+
+		assertThat(ports).hasSize(2);
+		assertThat(ports.get(0).getId()).isEqualTo("port-a");
+		assertThat(ports.get(0).getFixedIp()).isEqualTo("10.0.0.10");
+		assertThat(ports.get(1).getId()).isEqualTo("port-b");
+		assertThat(ports.get(1).getFixedIp()).isEqualTo("10.0.0.11");
+		assertThat(ports.get(1).getNetworkId()).isEqualTo("net");
+
+		// the expired token was renewed once
+		assertThat(rejectedTokens.get()).isEqualTo(1);
+		verify(access).invalidate();
+
+		// deleting a missing port is not an error
+		client.deletePort("gone");
+	}
+
+	@Test
+	public void testListsPortsOfManyServersInBatches() {
+		List<String> deviceIds = Lists.newArrayList();
+		for (int i = 0; i < 2 * NeutronClient.MAX_IDS_PER_QUERY + 20; i++) {
+			deviceIds.add("server-" + i);
+		}
+
+		List<NeutronPort> ports = client.listPortsByDevices(deviceIds);
+
+		assertThat(ports).hasSize(deviceIds.size());
+		assertThat(ports.get(deviceIds.size() - 1).getDeviceId()).isEqualTo("server-" + (deviceIds.size() - 1));
+		assertThat(listedDeviceIds).containsExactly(NeutronClient.MAX_IDS_PER_QUERY, NeutronClient.MAX_IDS_PER_QUERY,
+				20);
+		// the batches share one kept-alive connection
+		assertThat(listingPorts).hasSize(1);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+		byte[] bytes = body.getBytes(Charsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests {@link NovaAllocationJournal}, reopening the journal file the way a restarted
+ * plugin would.
+ */
+public class NovaAllocationJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReopenedJournalResumesUnfinishedAllocations() throws Exception {
+		File directory = folder.newFolder();
+		NovaAllocationJournal journal = new NovaAllocationJournal(journalFile(directory));
+		journal.open();
+		journal.requested("a");
+		journal.created("a", "nova-a");
+		journal.ipReady("a");
+		journal.floatingIpAllocated("a", "172.24.4.10", "fip-a");
+		journal.requested("b");
+		journal.requested("c");
+		journal.created("c", "nova-c");
+		journal.completed("c");
+		journal.sync();
+
+		NovaAllocationJournal reopened = new NovaAllocationJournal(journalFile(directory));
+		reopened.open();
+
+		NovaAllocationJournal.Entry a = reopened.get("a");
+		assertThat(a.getNovaInstanceId()).isEqualTo("nova-a");
+		assertThat(a.isIpReady()).isTrue();
+		assertThat(a.getFloatingIp()).isEqualTo("172.24.4.10");
+		assertThat(a.getFloatingIpId()).isEqualTo("fip-a");
+		assertThat(a.isFloatingIpAttached()).isFalse();
+		assertThat(reopened.get("b").getNovaInstanceId()).isNull();
+		assertThat(reopened.get("c")).isNull();
+	}
+
+	@Test
+	public void testTornRecordIsDropped() throws Exception {
+		File directory = folder.newFolder();
+		NovaAllocationJournal journal = new NovaAllocationJournal(journalFile(directory));
+		journal.open();
+		journal.requested("a");
+		journal.sync();
+
+		FileOutputStream out = new FileOutputStream(journalFile(directory), true);
+		try {
+			out.write("1234\tCREATED\ta\tnova".getBytes(Charsets.UTF_8));
+		} finally {
+			out.close();
+		}
+
+		NovaAllocationJournal reopened = new NovaAllocationJournal(journalFile(directory));
+		reopened.open();
+		assertThat(reopened.get("a").getNovaInstanceId()).isNull();
+
+		reopened.created("a", "nova-a");
+		reopened.sync();
+		NovaAllocationJournal again = new NovaAllocationJournal(journalFile(directory));
+		again.open();
+		assertThat(again.get("a").getNovaInstanceId()).isEqualTo("nova-a");
+	}
+
+	@Test
+	public void testValidLastRecordWithoutNewlineIsKept() throws Exception {
+		File directory = folder.newFolder();
+		NovaAllocationJournal journal = new NovaAllocationJournal(journalFile(directory));
+		journal.open();
+		journal.requested("a");
+		journal.created("a", "nova-a");
+		journal.sync();
+
+		// drop the newline of the last record
+		RandomAccessFile file = new RandomAccessFile(journalFile(directory), "rw");
+		try {
+			file.setLength(file.length() - 1);
+		} finally {
+			file.close();
+		}
+
+		NovaAllocationJournal reopened = new NovaAllocationJournal(journalFile(directory));
+		reopened.open();
+		assertThat(reopened.get("a").getNovaInstanceId()).isEqualTo("nova-a");
+
+		reopened.requested("b");
+		reopened.sync();
+		NovaAllocationJournal again = new NovaAllocationJournal(journalFile(directory));
+		again.open();
+		assertThat(again.get("a").getNovaInstanceId()).isEqualTo("nova-a");
+		assertThat(again.get("b")).isNotNull();
+		assertThat(Files.toString(journalFile(directory), Charsets.UTF_8)).doesNotContain("\u0000");
+	}
+
+	@Test
+	public void testDisabledJournalRecordsNothing() {
+		NovaAllocationJournal journal = NovaAllocationJournal.forDirectory(OpenStackTuning.fromConfig(
+				ConfigFactory.parseString("nova.journal.enabled = false")), folder.getRoot());
+		journal.requested("a");
+
+		assertThat(journal.isEnabled()).isFalse();
+		assertThat(new File(folder.getRoot(), NovaAllocationJournal.JOURNAL_FILE_NAME)).doesNotExist();
+	}
+
+	private static File journalFile(File directory) {
+		return new File(directory, NovaAllocationJournal.JOURNAL_FILE_NAME);
+	}
+}
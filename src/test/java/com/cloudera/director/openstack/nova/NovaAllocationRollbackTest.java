@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+/**
+ * Tests {@link NovaAllocationRollback}.
+ */
+public class NovaAllocationRollbackTest {
+
+	@Test
+	public void testReleasesServersAndFloatingIpsAndReportsFailures() throws Exception {
+		NovaServerApi serverApi = mock(NovaServerApi.class);
+		FloatingIPApi floatingIpApi = mock(FloatingIPApi.class);
+		when(serverApi.delete("nova-a")).thenReturn(true);
+		doThrow(new IllegalStateException("boom")).when(serverApi).delete("nova-b");
+
+		NovaAllocationRollback rollback = new NovaAllocationRollback(serverApi, Optional.of(floatingIpApi), null,
+				new NovaAllocationJournal(null), 4);
+		rollback.serverHeld("a", "nova-a");
+		rollback.floatingIpHeld("a", "172.24.4.10", "fip-a");
+		rollback.serverHeld("b", "nova-b");
+
+		NovaAllocationRollback.Report report = rollback.rollback();
+
+		verify(floatingIpApi).removeFromServer("172.24.4.10", "nova-a");
+		verify(floatingIpApi).delete("fip-a");
+		verify(serverApi).delete("nova-a");
+		assertThat(report.getOutcomes()).hasSize(2);
+		assertThat(report.getOutcomes().get(0).isServerReleased()).isTrue();
+		assertThat(report.getOutcomes().get(0).isFloatingIpReleased()).isTrue();
+		assertThat(report.getFailures()).hasSize(1);
+		assertThat(report.getFailures().get(0).getVirtualInstanceId()).isEqualTo("b");
+		assertThat(report.getFailures().get(0).getError()).isEqualTo("boom");
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackAccess;
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+
+/**
+ * Tests {@link NovaApiSupplier}, and that the clients shared by credentials follow a
+ * changed credential.
+ */
+public class NovaApiSupplierTest {
+
+	@Test
+	public void testApiIsBuiltOnFirstUseAndShared() {
+		OpenStackCredentials credentials = new OpenStackCredentials("http://localhost:5000/v2.0/",
+				"tenant", "user", "secret");
+		NovaApiSupplier supplier = NovaApiSupplier.forCredentials(credentials);
+		assertThat(supplier.isBuilt()).isFalse();
+		assertThat(supplier.getStartupMetrics().get("buildMillis")).isEqualTo(-1L);
+
+		NovaApi novaApi = supplier.get();
+		assertThat(supplier.isBuilt()).isTrue();
+		assertThat(supplier.getStartupMetrics().get("buildMillis")).isGreaterThanOrEqualTo(0L);
+
+		NovaApiSupplier shared = NovaApiSupplier.forCredentials(new OpenStackCredentials(
+				"http://localhost:5000/v2.0/", "tenant", "user", "secret"));
+		assertThat(shared).isSameAs(supplier);
+		assertThat(shared.get()).isSameAs(novaApi);
+	}
+
+	@Test
+	public void testChangedCredentialReplacesTheSharedClients() {
+		OpenStackCredentials credentials = new OpenStackCredentials("http://localhost:5001/v2.0/",
+				"tenant", "user", "secret");
+		NovaApiSupplier supplier = NovaApiSupplier.forCredentials(credentials);
+		OpenStackAccess access = OpenStackAccess.forCredentials(credentials);
+		RestNovaEngine engine = RestNovaEngine.forCredentials(credentials);
+
+		// the password changed in Director
+		OpenStackCredentials changed = new OpenStackCredentials("http://localhost:5001/v2.0/",
+				"tenant", "user", "changed");
+		assertThat(NovaApiSupplier.forCredentials(changed)).isNotSameAs(supplier)
+				.isSameAs(NovaApiSupplier.forCredentials(changed));
+		assertThat(OpenStackAccess.forCredentials(changed)).isNotSameAs(access)
+				.isSameAs(OpenStackAccess.forCredentials(changed));
+		assertThat(RestNovaEngine.forCredentials(changed)).isNotSameAs(engine)
+				.isSameAs(RestNovaEngine.forCredentials(changed));
+	}
+}
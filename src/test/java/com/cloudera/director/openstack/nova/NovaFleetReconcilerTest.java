@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.cloudera.director.openstack.nova.rest.NovaStub;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests the background refresh of {@link NovaFleetReconciler} against a local Nova stub,
+ * refreshing every 20 milliseconds.
+ */
+public class NovaFleetReconcilerTest {
+
+	private NovaStub nova;
+	private NovaEngine novaEngine;
+
+	@Before
+	public void setUp() throws Exception {
+		nova = new NovaStub(25, 10);
+		novaEngine = RestNovaEngine.forCredentials(
+				new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret"));
+	}
+
+	@After
+	public void tearDown() {
+		nova.stop();
+	}
+
+	@Test
+	public void testIdleRefreshStopsAndRestartsOnRead() throws Exception {
+		NovaFleetReconciler reconciler = new NovaFleetReconciler(new NovaStateSynchronizer("test", NovaStub.REGION),
+				novaEngine, 20, TimeUnit.SECONDS.toMillis(10), 200);
+		// the view is not served until the first refresh
+		assertThat(reconciler.read()).isNull();
+		awaitRefreshes(reconciler, 1L);
+		assertThat(reconciler.getMetrics().get("running")).isEqualTo(1L);
+		assertThat(reconciler.read().size()).isEqualTo(25);
+
+		// without reads, the refresh stops once the idle timeout is exceeded
+		awaitStopped(reconciler);
+		long refreshes = reconciler.getMetrics().get("refreshes");
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertThat(reconciler.getMetrics().get("refreshes")).isEqualTo(refreshes);
+
+		assertThat(reconciler.read()).isNotNull();
+		assertThat(reconciler.getMetrics().get("running")).isEqualTo(1L);
+		awaitRefreshes(reconciler, refreshes + 1);
+	}
+
+	@Test
+	public void testStaleViewIsNotServed() throws Exception {
+		NovaFleetReconciler reconciler = new NovaFleetReconciler(new NovaStateSynchronizer("test", NovaStub.REGION),
+				novaEngine, 20, 100, 50);
+		reconciler.read();
+		awaitRefreshes(reconciler, 1L);
+		awaitStopped(reconciler);
+
+		// once stopped, the view ages beyond the staleness bound
+		while (reconciler.getRefreshLagMillis() <= 100) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(reconciler.read()).isNull();
+		assertThat(reconciler.getMetrics().get("staleReads")).isEqualTo(2L);
+
+		// the read restarted the refresh, which serves the view again
+		awaitRefreshes(reconciler, 2L);
+		assertThat(reconciler.getRefreshLagMillis()).isLessThanOrEqualTo(100);
+	}
+
+	@Test
+	public void testRegionSharesOneTunedReconciler() {
+		NovaStateSynchronizer synchronizer = new NovaStateSynchronizer("test", NovaStub.REGION);
+		NovaFleetReconciler reconciler = NovaFleetReconciler.fromConfig(OpenStackTuning.fromConfig(
+				ConfigFactory.parseString("nova.reconciler.enabled = true")), synchronizer, novaEngine);
+		assertThat(NovaFleetReconciler.fromConfig(OpenStackTuning.fromConfig(
+				ConfigFactory.parseString("nova.reconciler.enabled = true")), synchronizer, novaEngine))
+				.isSameAs(reconciler);
+
+		// a reloaded configuration reaches the shared reconciler
+		reconciler.tune(OpenStackTuning.fromConfig(ConfigFactory.parseString(
+				"nova.reconciler.enabled = true\nnova.reconciler.maxStaleness = 1500ms")));
+		assertThat(reconciler.getMetrics().get("maxStalenessMillis")).isEqualTo(1500L);
+	}
+
+	/**
+	 * Waits up to 10 seconds for the reconciler to refresh at least the specified number of times.
+	 */
+	private static void awaitRefreshes(NovaFleetReconciler reconciler, long refreshes)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (reconciler.getMetrics().get("refreshes") < refreshes && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(reconciler.getMetrics().get("refreshes")).isGreaterThanOrEqualTo(refreshes);
+	}
+
+	/**
+	 * Waits up to 10 seconds for the background refresh of the reconciler to stop.
+	 */
+	private static void awaitStopped(NovaFleetReconciler reconciler) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (reconciler.getMetrics().get("running") != 0 && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(reconciler.getMetrics().get("running")).isEqualTo(0L);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.nova.rest.NovaStub;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+import com.cloudera.director.spi.v1.model.InstanceStatus;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests {@link NovaFleetSnapshotStore}, restoring a saved snapshot the way a restarted
+ * plugin would.
+ */
+public class NovaFleetSnapshotStoreTest {
+
+	private static final String KEY = "https://keystone:5000/v2.0|tenant:user|RegionOne";
+	private static final String NOVA_ID = "9c4b1e5a-3c1d-4a7b-8d2f-0b6f3e2a1c11";
+	private static final String VIRTUAL_ID = "2f0e8c4d-52a6-4b1e-9f3a-7d4c1b8e6a22";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRestoredSnapshotWarmsTheFleetView() throws Exception {
+		File file = new File(folder.newFolder(), NovaFleetSnapshotStore.getFileName(KEY));
+		NovaFleetSnapshotStore.write(file, KEY, 5000L, table().snapshot());
+
+		NovaStateSynchronizer synchronizer = new NovaStateSynchronizer(KEY, "RegionOne");
+		NovaFleetSnapshotStore store = new NovaFleetSnapshotStore(file, synchronizer);
+		assertThat(store.restore()).isTrue();
+		assertThat(synchronizer.getHighWaterMillis()).isEqualTo(5000L);
+		// the restored view still has to be reconciled with Nova
+		assertThat(synchronizer.getLastSyncMillis()).isEqualTo(0L);
+
+		NovaFleetTable.Snapshot snapshot = synchronizer.getFleetView().snapshot();
+		assertThat(snapshot.size()).isEqualTo(2);
+		int row = snapshot.findByVirtualInstanceId(VIRTUAL_ID);
+		assertThat(snapshot.getNovaInstanceId(row)).isEqualTo(NOVA_ID);
+		assertThat(snapshot.getStatus(row)).isEqualTo(Status.ACTIVE);
+		assertThat(snapshot.getPrivateIpAddress(row).getHostAddress()).isEqualTo("10.0.0.5");
+		assertThat(snapshot.getFloatingIpAddress(row).getHostAddress()).isEqualTo("172.24.4.3");
+		assertThat(snapshot.getFloatingIpId(row)).isEqualTo("fip-1");
+		assertThat(snapshot.getPortId(row)).isEqualTo("port-1");
+		assertThat(snapshot.getPrivateNetwork(row)).isEqualTo("private");
+		assertThat(snapshot.getFlavorId(row)).isEqualTo("m1.large");
+		assertThat(snapshot.getCreatedMillis(row)).isEqualTo(1000L);
+		assertThat(snapshot.getUpdatedMillis(row)).isEqualTo(2000L);
+		int failedRow = snapshot.findByVirtualInstanceId("legacy-instance");
+		assertThat(snapshot.isFailed(failedRow)).isTrue();
+		assertThat(snapshot.getFaultMessage(failedRow)).isEqualTo("No valid host was found.");
+		assertThat(snapshot.getInstanceState(failedRow).getInstanceStatus()).isEqualTo(InstanceStatus.FAILED);
+
+		// a view already restored or synchronized is left alone
+		assertThat(store.restore()).isFalse();
+	}
+
+	@Test
+	public void testRestoredSnapshotIsReconciledIncrementally() throws Exception {
+		NovaStub nova = new NovaStub(25, 10);
+		try {
+			NovaServerApi serverApi = RestNovaEngine.forCredentials(new OpenStackCredentials(nova.getEndpoint(), "tenant",
+					"user", "secret")).getServerApi(NovaStub.REGION);
+			NovaStateSynchronizer previous = new NovaStateSynchronizer(KEY, NovaStub.REGION);
+			previous.synchronize(serverApi);
+			File file = new File(folder.newFolder(), NovaFleetSnapshotStore.getFileName(KEY));
+			NovaFleetSnapshotStore.write(file, KEY, previous.getHighWaterMillis(),
+					previous.getFleetView().snapshot());
+
+			// changed while the plugin was down
+			long changeMillis = previous.getHighWaterMillis() + TimeUnit.MINUTES.toMillis(1);
+			nova.update("server-7", "SHUTOFF", changeMillis);
+			nova.delete("server-8", changeMillis);
+
+			NovaStateSynchronizer synchronizer = new NovaStateSynchronizer(KEY, NovaStub.REGION);
+			assertThat(new NovaFleetSnapshotStore(file, synchronizer).restore()).isTrue();
+			NovaFleetView fleetView = synchronizer.synchronize(serverApi);
+			assertThat(nova.fullListings.get()).isEqualTo(1);
+			assertThat(nova.changesSince).hasSize(1);
+			assertThat(fleetView.size()).isEqualTo(24);
+			assertThat(fleetView.getStatus("instance-7")).isEqualTo(Status.SHUTOFF);
+			assertThat(fleetView.getStatus("instance-8")).isNull();
+			assertThat(synchronizer.getHighWaterMillis()).isEqualTo(changeMillis);
+		} finally {
+			nova.stop();
+		}
+	}
+
+	@Test
+	public void testSnapshotOfAnotherFleetIsIgnored() throws Exception {
+		File file = folder.newFile();
+		NovaFleetSnapshotStore.write(file, KEY, 5000L, table().snapshot());
+
+		assertThat(NovaFleetSnapshotStore.read(file, KEY + "2")).isNull();
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptedSnapshotIsRejected() throws Exception {
+		File file = folder.newFile();
+		NovaFleetSnapshotStore.write(file, KEY, 5000L, table().snapshot());
+		RandomAccessFile corrupted = new RandomAccessFile(file, "rw");
+		try {
+			corrupted.seek(corrupted.length() / 2);
+			int value = corrupted.read();
+			corrupted.seek(corrupted.length() / 2);
+			corrupted.write(value ^ 0xFF);
+		} finally {
+			corrupted.close();
+		}
+
+		NovaFleetSnapshotStore.read(file, KEY);
+	}
+
+	private static NovaFleetTable table() {
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(ImmutableList.of(
+				NovaServerRecord.builder()
+						.id(NOVA_ID)
+						.status(Status.ACTIVE)
+						.metadata(ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, VIRTUAL_ID,
+								NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, "fip-1",
+								NovaServerAddresses.PORT_ID_METADATA_KEY, "port-1"))
+						.addresses(ImmutableListMultimap.of("private", "10.0.0.5", "private", "172.24.4.3"))
+						.flavorId("m1.large")
+						.createdMillis(1000L)
+						.updatedMillis(2000L)
+						.build(),
+				NovaServerRecord.builder()
+						.id("legacy-server")
+						.status(Status.ERROR)
+						.vmState("error")
+						.faultMessage("No valid host was found.")
+						.metadata(ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, "legacy-instance"))
+						.build()));
+		return table;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link NovaFleetTable}.
+ */
+public class NovaFleetTableTest {
+
+	private static final String NOVA_ID = "9c4b1e5a-3c1d-4a7b-8d2f-0b6f3e2a1c11";
+	private static final String VIRTUAL_ID = "2f0e8c4d-52a6-4b1e-9f3a-7d4c1b8e6a22";
+
+	@Test
+	public void testColumnsRoundTrip() {
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(ImmutableList.of(
+				record(NOVA_ID, VIRTUAL_ID, Status.ACTIVE)
+						.addresses(ImmutableListMultimap.of("private", "10.0.0.5", "private", "172.24.4.3"))
+						.metadata(ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, VIRTUAL_ID,
+								NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, "fip-1",
+								NovaServerAddresses.PORT_ID_METADATA_KEY, "5d1e0c7a-8f2b-4c3d-9e4f-1a2b3c4d5e6f"))
+						.createdMillis(1000L)
+						.updatedMillis(2000L)
+						.build(),
+				record("legacy-server", "legacy-instance", Status.BUILD).build(),
+				record("unmanaged", null, Status.ACTIVE).build()));
+
+		NovaFleetTable.Snapshot snapshot = table.snapshot();
+		assertThat(snapshot.size()).isEqualTo(2);
+
+		int row = snapshot.findByVirtualInstanceId(VIRTUAL_ID);
+		assertThat(snapshot.findByNovaInstanceId(NOVA_ID)).isEqualTo(row);
+		assertThat(snapshot.getNovaInstanceId(row)).isEqualTo(NOVA_ID);
+		assertThat(snapshot.getStatus(row)).isEqualTo(Status.ACTIVE);
+		assertThat(snapshot.getPrivateIpAddress(row).getHostAddress()).isEqualTo("10.0.0.5");
+		assertThat(snapshot.getFloatingIpAddress(row).getHostAddress()).isEqualTo("172.24.4.3");
+		assertThat(snapshot.getFloatingIpId(row)).isEqualTo("fip-1");
+		assertThat(snapshot.getPortId(row)).isEqualTo("5d1e0c7a-8f2b-4c3d-9e4f-1a2b3c4d5e6f");
+		assertThat(snapshot.getPrivateNetwork(row)).isEqualTo("private");
+		assertThat(snapshot.getFlavorId(row)).isEqualTo("m1.large");
+		assertThat(snapshot.getImageId(row)).isEqualTo("image");
+		assertThat(snapshot.getCreatedMillis(row)).isEqualTo(1000L);
+		assertThat(snapshot.getUpdatedMillis(row)).isEqualTo(2000L);
+
+		int legacyRow = snapshot.findByVirtualInstanceId("legacy-instance");
+		assertThat(snapshot.getNovaInstanceId(legacyRow)).isEqualTo("legacy-server");
+		assertThat(snapshot.getPrivateIpAddress(legacyRow)).isNull();
+		assertThat(snapshot.getPortId(legacyRow)).isNull();
+		assertThat(snapshot.findByNovaInstanceId("unmanaged")).isEqualTo(-1);
+	}
+
+	@Test
+	public void testApplyAllUpsertsAndRemovesDeletedServers() {
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(ImmutableList.of(record(NOVA_ID, VIRTUAL_ID, Status.BUILD).build()));
+		NovaFleetTable.Snapshot before = table.snapshot();
+
+		String otherVirtualId = UUID.randomUUID().toString();
+		table.applyAll(ImmutableList.of(
+				record(NOVA_ID, VIRTUAL_ID, Status.ACTIVE).build(),
+				record(UUID.randomUUID().toString(), otherVirtualId, Status.BUILD).build()));
+		NovaFleetTable.Snapshot after = table.snapshot();
+		assertThat(after.size()).isEqualTo(2);
+		assertThat(after.getStatus(after.findByVirtualInstanceId(VIRTUAL_ID))).isEqualTo(Status.ACTIVE);
+		assertThat(before.getStatus(before.findByVirtualInstanceId(VIRTUAL_ID))).isEqualTo(Status.BUILD);
+
+		// deleted servers are listed without their metadata
+		table.applyAll(ImmutableList.of(record(NOVA_ID, null, Status.DELETED).build()));
+		assertThat(table.snapshot().findByVirtualInstanceId(VIRTUAL_ID)).isEqualTo(-1);
+		assertThat(table.snapshot().findByVirtualInstanceId(otherVirtualId)).isGreaterThanOrEqualTo(0);
+	}
+
+	@Test
+	public void testApplyStatus() {
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(ImmutableList.of(record(NOVA_ID, VIRTUAL_ID, Status.BUILD).build()));
+
+		assertThat(table.applyStatus("unknown", null, Status.ACTIVE)).isFalse();
+		assertThat(table.applyStatus(NOVA_ID, null, Status.ACTIVE)).isTrue();
+		assertThat(table.snapshot().getStatus(0)).isEqualTo(Status.ACTIVE);
+		assertThat(table.applyStatus(NOVA_ID, VIRTUAL_ID, Status.DELETED)).isTrue();
+		assertThat(table.snapshot().size()).isEqualTo(0);
+	}
+
+	@Test
+	public void testFootprintOfLargeFleet() {
+		int count = 100000;
+		List<NovaServerRecord> records = Lists.newArrayListWithCapacity(count);
+		for (int i = 0; i < count; i++) {
+			records.add(record(UUID.randomUUID().toString(), UUID.randomUUID().toString(), Status.ACTIVE)
+					.addresses(ImmutableListMultimap.of("private", "10.1." + (i >> 8 & 255) + "." + (i & 255)))
+					.createdMillis(i)
+					.updatedMillis(i)
+					.build());
+		}
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(records);
+
+		NovaFleetTable.Snapshot snapshot = table.snapshot();
+		assertThat(snapshot.size()).isEqualTo(count);
+		NovaServerRecord last = records.get(count - 1);
+		int row = snapshot.findByNovaInstanceId(last.getId());
+		assertThat(snapshot.getVirtualInstanceId(row))
+				.isEqualTo(last.getMetadata().get(NovaFleetView.DIRECTOR_ID_METADATA_KEY));
+		assertThat(snapshot.getFootprintBytes() / count).isLessThan(150);
+	}
+
+	private static NovaServerRecord.Builder record(String novaInstanceId, String virtualInstanceId, Status status) {
+		return NovaServerRecord.builder()
+				.id(novaInstanceId)
+				.name("director-" + virtualInstanceId)
+				.status(status)
+				.flavorId("m1.large")
+				.imageId("image")
+				.keyName("director")
+				.metadata((virtualInstanceId == null) ? ImmutableMap.<String, String>of()
+						: ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, virtualInstanceId));
+	}
+}
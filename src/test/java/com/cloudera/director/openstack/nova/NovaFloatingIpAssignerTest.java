@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.neutron.NeutronClient;
+import com.cloudera.director.openstack.neutron.NeutronFloatingIp;
+import com.cloudera.director.openstack.neutron.NeutronPort;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests {@link NovaFloatingIpAssigner}.
+ */
+public class NovaFloatingIpAssignerTest {
+
+	@Test
+	public void testNeutronFloatingIpsAreCreatedBoundToPortsLookedUpOnce() throws Exception {
+		NovaServerApi serverApi = mock(NovaServerApi.class);
+		FloatingIPApi floatingIpApi = mock(FloatingIPApi.class);
+		NeutronClient neutronClient = mock(NeutronClient.class);
+		when(neutronClient.getExternalNetworkId("public")).thenReturn("ext-net");
+		when(neutronClient.listPortsByDevices(ImmutableList.of("nova-b")))
+				.thenReturn(ImmutableList.of(new NeutronPort("port-b", null, "net", "nova-b", "10.0.0.11")));
+		when(neutronClient.createFloatingIp("ext-net", "port-a"))
+				.thenReturn(new NeutronFloatingIp("fip-a", "172.24.4.10", "port-a"));
+		when(neutronClient.createFloatingIp("ext-net", "port-b"))
+				.thenReturn(new NeutronFloatingIp("fip-b", "172.24.4.11", "port-b"));
+		NovaAllocationJournal journal = new NovaAllocationJournal(null);
+		NovaAllocationRollback rollback = new NovaAllocationRollback(serverApi, Optional.of(floatingIpApi),
+				neutronClient, journal, 4);
+
+		NovaFloatingIpAssigner assigner = new NovaFloatingIpAssigner(serverApi, Optional.of(floatingIpApi),
+				neutronClient, "public", true, 4, journal, rollback);
+		assigner.assign("a", "nova-a", "port-a");
+		assigner.assign("b", "nova-b", null);
+		assertThat(assigner.flush()).isEmpty();
+
+		verify(neutronClient, times(1)).listPortsByDevices(ImmutableList.of("nova-b"));
+		verify(serverApi).updateMetadata("nova-a", ImmutableMap.of(
+				NovaServerAddresses.FLOATING_IP_METADATA_KEY, "172.24.4.10",
+				NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, "fip-a"));
+		verify(serverApi).updateMetadata("nova-b", ImmutableMap.of(
+				NovaServerAddresses.FLOATING_IP_METADATA_KEY, "172.24.4.11",
+				NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, "fip-b"));
+		verifyNoMoreInteractions(floatingIpApi);
+
+		// the rollback deletes the Neutron floating IPs without going through Nova
+		NovaAllocationRollback.Report report = rollback.rollback();
+		assertThat(report.getFailures()).isEmpty();
+		verify(neutronClient).deleteFloatingIp("fip-a");
+		verify(neutronClient).deleteFloatingIp("fip-b");
+		verifyNoMoreInteractions(floatingIpApi);
+	}
+
+	@Test
+	public void testFailedInstancesDoNotAbortTheBatch() throws Exception {
+		NovaServerApi serverApi = mock(NovaServerApi.class);
+		FloatingIPApi floatingIpApi = mock(FloatingIPApi.class);
+		NeutronClient neutronClient = mock(NeutronClient.class);
+		when(neutronClient.getExternalNetworkId("public")).thenReturn("ext-net");
+		// the port of b is not found
+		when(neutronClient.listPortsByDevices(ImmutableList.of("nova-b"))).thenReturn(ImmutableList.<NeutronPort>of());
+		when(neutronClient.createFloatingIp("ext-net", "port-a"))
+				.thenReturn(new NeutronFloatingIp("fip-a", "172.24.4.10", "port-a"));
+		when(neutronClient.createFloatingIp("ext-net", "port-c"))
+				.thenThrow(new IllegalStateException("Quota exceeded for floatingip"));
+		when(neutronClient.createFloatingIp("ext-net", "port-d"))
+				.thenReturn(new NeutronFloatingIp("fip-d", "172.24.4.13", "port-d"));
+		doThrow(new IllegalStateException("Server not found")).when(serverApi)
+				.updateMetadata(eq("nova-d"), anyMapOf(String.class, String.class));
+		NovaAllocationJournal journal = new NovaAllocationJournal(null);
+		NovaAllocationRollback rollback = new NovaAllocationRollback(serverApi, Optional.of(floatingIpApi),
+				neutronClient, journal, 4);
+
+		NovaFloatingIpAssigner assigner = new NovaFloatingIpAssigner(serverApi, Optional.of(floatingIpApi),
+				neutronClient, "public", true, 4, journal, rollback);
+		assigner.assign("a", "nova-a", "port-a");
+		assigner.assign("b", "nova-b", null);
+		assigner.assign("c", "nova-c", "port-c");
+		assigner.assign("d", "nova-d", "port-d");
+		Map<String, String> failures = assigner.flush();
+
+		assertThat(failures).hasSize(3).containsKeys("b", "c", "d");
+		assertThat(failures.get("b")).contains("No port found");
+		assertThat(failures.get("c")).contains("Quota exceeded");
+		verify(serverApi).updateMetadata("nova-a", ImmutableMap.of(
+				NovaServerAddresses.FLOATING_IP_METADATA_KEY, "172.24.4.10",
+				NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, "fip-a"));
+		// the failures are only reported once
+		assertThat(assigner.flush()).isEmpty();
+
+		// the floating IP created for d was registered before its failed attachment
+		rollback.rollback();
+		verify(neutronClient).deleteFloatingIp("fip-a");
+		verify(neutronClient).deleteFloatingIp("fip-d");
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Address;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.jclouds.openstack.v2_0.domain.Resource;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+
+/**
+ * Tests the display properties of {@link NovaInstance}.
+ */
+public class NovaInstanceTest {
+
+	private static final long CREATED_MILLIS = 1433152800000L;
+
+	private static final Map<String, String> METADATA =
+			ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, "virtual-1");
+
+	@Test
+	public void testServerAndFleetRowShowTheSameProperties() {
+		NovaInstanceTemplate template = mock(NovaInstanceTemplate.class);
+		NovaInstance fromServer = new NovaInstance(template, "virtual-1", Server.builder()
+				.id("nova-1")
+				.name("director-virtual-1")
+				.tenantId("tenant")
+				.userId("user")
+				.created(new Date(CREATED_MILLIS))
+				.status(Status.ACTIVE)
+				.image(Resource.builder().id("image").build())
+				.flavor(Resource.builder().id("3").name("m1.large").build())
+				.keyName("director")
+				.addresses(ImmutableMultimap.of("private", Address.createV4("10.0.0.5")))
+				.metadata(METADATA)
+				.build());
+
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(ImmutableList.of(NovaServerRecord.builder()
+				.id("nova-1")
+				.name("director-virtual-1")
+				.status(Status.ACTIVE)
+				.flavorId("3")
+				.imageId("image")
+				.keyName("director")
+				.createdMillis(CREATED_MILLIS)
+				.addresses(ImmutableListMultimap.of("private", "10.0.0.5"))
+				.metadata(METADATA)
+				.build()));
+		NovaInstance fromRow = new NovaInstance(template, "virtual-1", table.snapshot(), 0);
+
+		// the flavor is shown by ID, as configured in the template, whatever Nova returned
+		assertThat(fromServer.getProperties()).containsEntry("instanceType", "3")
+				.containsEntry("instanceID", "nova-1")
+				.containsEntry("privateIpAddress", "10.0.0.5")
+				.isEqualTo(fromRow.getProperties());
+	}
+
+	@Test
+	public void testPropertiesAreComputedOnce() {
+		NovaFleetTable table = new NovaFleetTable();
+		table.replaceAll(ImmutableList.of(NovaServerRecord.builder()
+				.id("nova-1")
+				.status(Status.BUILD)
+				.flavorId("3")
+				.metadata(METADATA)
+				.build()));
+		NovaInstance instance = new NovaInstance(mock(NovaInstanceTemplate.class), "virtual-1", table.snapshot(), 0);
+
+		Map<String, String> properties = instance.getProperties();
+		assertThat(properties).containsEntry("instanceType", "3").doesNotContainKey("launchTime")
+				.doesNotContainKey("privateIpAddress");
+		assertThat(instance.getProperties()).isSameAs(properties);
+	}
+}
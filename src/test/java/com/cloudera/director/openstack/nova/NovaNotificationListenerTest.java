@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.jclouds.openstack.v2_0.domain.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests {@link NovaNotificationListener}, delivering messages the way the broker would.
+ */
+public class NovaNotificationListenerTest {
+
+	private static final String NOVA_ID = "9c4b1e5a-3c1d-4a7b-8d2f-0b6f3e2a1c11";
+	private static final String VIRTUAL_ID = "2f0e8c4d-52a6-4b1e-9f3a-7d4c1b8e6a22";
+
+	private NovaFleetView fleetView;
+	private NovaPollScheduler pollScheduler;
+	private DefaultConsumer consumer;
+
+	@Before
+	public void setUp() {
+		NovaStateSynchronizer synchronizer = new NovaStateSynchronizer("test", "RegionOne");
+		fleetView = synchronizer.getFleetView();
+		fleetView.apply(server(NOVA_ID, VIRTUAL_ID, Status.BUILD));
+		// only the notifications complete the waits
+		pollScheduler = new NovaPollScheduler(synchronizer);
+		pollScheduler.tune(OpenStackTuning.fromConfig(ConfigFactory.parseString("nova.allocate.pollInterval = 1h")));
+		NovaNotificationListener listener = new NovaNotificationListener("amqp://localhost", "nova",
+				"versioned_notifications", new NovaNotificationHandler(fleetView, pollScheduler));
+		consumer = listener.createConsumer(mock(Channel.class));
+	}
+
+	@Test
+	public void testVersionedCreateEndActivatesInstance() throws Exception {
+		long version = fleetView.getVersion();
+		deliver("{\"oslo.version\": \"2.0\", \"oslo.message\": \"{\\\"event_type\\\": \\\"instance.create.end\\\", "
+				+ "\\\"payload\\\": {\\\"nova_object.data\\\": {\\\"uuid\\\": \\\"" + NOVA_ID + "\\\", "
+				+ "\\\"state\\\": \\\"active\\\"}}}\"}");
+
+		assertThat(fleetView.getStatus(VIRTUAL_ID)).isEqualTo(Status.ACTIVE);
+		assertThat(fleetView.awaitChange(version, 0)).isGreaterThan(version);
+	}
+
+	@Test
+	public void testDeleteEndRemovesInstance() throws Exception {
+		deliver("{\"event_type\": \"instance.delete.end\", \"payload\": {\"nova_object.data\": "
+				+ "{\"uuid\": \"" + NOVA_ID + "\", \"metadata\": {\"DIRECTOR_ID\": \"" + VIRTUAL_ID + "\"}}}}");
+
+		assertThat(fleetView.getStatus(VIRTUAL_ID)).isNull();
+	}
+
+	@Test
+	public void testVersionedCreateEndCompletesWaitForPrivateIp() throws Exception {
+		NovaServerApi serverApi = mock(NovaServerApi.class);
+		ListenableFuture<Void> wait = pollScheduler.await(serverApi, NOVA_ID, NovaPollScheduler.Condition.PRIVATE_IP);
+		deliver("{\"event_type\": \"instance.create.end\", \"payload\": {\"nova_object.data\": "
+				+ "{\"uuid\": \"" + NOVA_ID + "\", \"state\": \"active\", \"ip_addresses\": [{\"nova_object.data\": "
+				+ "{\"address\": \"fd00::5\", \"label\": \"private\", \"version\": 6}}, {\"nova_object.data\": "
+				+ "{\"address\": \"10.0.0.5\", \"label\": \"private\", \"version\": 4}}]}}}");
+
+		wait.get(5, TimeUnit.SECONDS);
+		verifyZeroInteractions(serverApi);
+		NovaServerAddresses addresses = fleetView.getAddresses(VIRTUAL_ID);
+		assertThat(addresses.getPrivateIpAddress()).isEqualTo(InetAddresses.forString("10.0.0.5"));
+		assertThat(addresses.getPrivateNetwork()).isEqualTo("private");
+		assertThat(fleetView.getStatus(VIRTUAL_ID)).isEqualTo(Status.ACTIVE);
+	}
+
+	@Test
+	public void testLegacyUpdateAppliesFixedAndFloatingIps() throws Exception {
+		long version = fleetView.getVersion();
+		deliver("{\"event_type\": \"compute.instance.update\", \"payload\": {\"instance_id\": \"" + NOVA_ID
+				+ "\", \"state\": \"active\", \"fixed_ips\": [{\"address\": \"10.0.0.5\", \"label\": \"private\", "
+				+ "\"type\": \"fixed\", \"version\": 4, \"floating_ips\": [{\"address\": \"172.24.4.9\", "
+				+ "\"type\": \"floating\", \"version\": 4}]}]}}");
+
+		NovaServerAddresses addresses = fleetView.getAddresses(VIRTUAL_ID);
+		assertThat(addresses.getPrivateIpAddress()).isEqualTo(InetAddresses.forString("10.0.0.5"));
+		assertThat(addresses.getFloatingIpAddress()).isEqualTo(InetAddresses.forString("172.24.4.9"));
+		assertThat(fleetView.getStatus(VIRTUAL_ID)).isEqualTo(Status.ACTIVE);
+		assertThat(fleetView.awaitChange(version, 0)).isGreaterThan(version);
+
+		// the same addresses again change nothing
+		version = fleetView.getVersion();
+		deliver("{\"event_type\": \"compute.instance.exists\", \"payload\": {\"instance_id\": \"" + NOVA_ID
+				+ "\", \"fixed_ips\": [{\"address\": \"10.0.0.5\", \"label\": \"private\"}]}}");
+		assertThat(fleetView.getVersion()).isEqualTo(version);
+	}
+
+	@Test
+	public void testUnknownAndMalformedMessagesAreIgnored() throws Exception {
+		deliver("{\"event_type\": \"instance.create.end\", \"payload\": {\"uuid\": \"unknown\", \"state\": \"active\"}}");
+		deliver("not json");
+		deliver("{\"event_type\": \"compute.metrics.update\", \"payload\": {}}");
+
+		assertThat(fleetView.getStatus(VIRTUAL_ID)).isEqualTo(Status.BUILD);
+	}
+
+	private void deliver(String body) throws Exception {
+		consumer.handleDelivery("tag", new Envelope(1L, false, "nova", "versioned_notifications.info"),
+				null, body.getBytes(Charsets.UTF_8));
+	}
+
+	static Server server(String novaInstanceId, String virtualInstanceId, Status status) {
+		return Server.builder()
+				.id(novaInstanceId)
+				.name("director-" + virtualInstanceId)
+				.tenantId("tenant")
+				.userId("user")
+				.created(new Date())
+				.updated(new Date())
+				.status(status)
+				.image(Resource.builder().id("image").build())
+				.flavor(Resource.builder().id("flavor").build())
+				.metadata(ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, virtualInstanceId))
+				.build();
+	}
+}
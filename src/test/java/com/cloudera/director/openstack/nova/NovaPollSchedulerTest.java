@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.openstack.nova.v2_0.domain.Address;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.jclouds.openstack.v2_0.domain.Link;
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
+import org.jclouds.openstack.v2_0.domain.Resource;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.cloudera.director.openstack.nova.rest.NovaRestException;
+import com.cloudera.director.openstack.nova.rest.NovaStub;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests {@link NovaPollScheduler}, ticking every millisecond.
+ */
+public class NovaPollSchedulerTest {
+
+	private NovaServerApi serverApi;
+	private NovaStateSynchronizer synchronizer;
+	private NovaPollScheduler pollScheduler;
+
+	@Before
+	public void setUp() {
+		serverApi = mock(NovaServerApi.class);
+		synchronizer = new NovaStateSynchronizer("test", "RegionOne");
+		pollScheduler = new NovaPollScheduler(synchronizer);
+		pollScheduler.tune(OpenStackTuning.fromConfig(ConfigFactory.parseString("nova.allocate.pollInterval = 1ms")));
+	}
+
+	@Test
+	public void testWaitsOfAllOperationsShareOnePollPerTick() throws Exception {
+		List<NovaServerRecord> booting = Lists.newArrayList();
+		List<NovaServerRecord> booted = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			booting.add(server("nova-" + i, "virtual-" + i, Status.BUILD, null));
+			booted.add(server("nova-" + i, "virtual-" + i, Status.ACTIVE, "10.0.0." + (i + 2)));
+		}
+		when(serverApi.listRecordsInDetail()).thenReturn(booting);
+		when(serverApi.listRecordsInDetail(any(PaginationOptions.class))).thenReturn(page(booted));
+
+		List<ListenableFuture<Void>> waits = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			waits.add(pollScheduler.await(serverApi, "nova-" + i, NovaPollScheduler.Condition.PRIVATE_IP));
+		}
+		Futures.allAsList(waits).get(5, TimeUnit.SECONDS);
+
+		// one full listing, then one incremental listing per tick, whatever the number of waits
+		long polls = pollScheduler.getMetrics().get("polls");
+		verify(serverApi, times(1)).listRecordsInDetail();
+		verify(serverApi, times((int) polls - 1)).listRecordsInDetail(any(PaginationOptions.class));
+		verify(serverApi, never()).get(anyString());
+	}
+
+	@Test
+	public void testSlowRegionDoesNotHoldUpTheOthers() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger slowPolls = new AtomicInteger();
+		NovaServerApi slowServerApi = mock(NovaServerApi.class);
+		when(slowServerApi.listRecordsInDetail()).thenAnswer(new Answer<List<NovaServerRecord>>() {
+			@Override
+			public List<NovaServerRecord> answer(InvocationOnMock invocation) throws Throwable {
+				slowPolls.incrementAndGet();
+				release.await();
+				return ImmutableList.of(server("nova-1", "virtual-1", Status.ACTIVE, "10.0.0.2"));
+			}
+		});
+		NovaPollScheduler slowPollScheduler = new NovaPollScheduler(new NovaStateSynchronizer("test", "RegionTwo"));
+		slowPollScheduler.tune(OpenStackTuning.fromConfig(ConfigFactory.parseString("nova.allocate.pollInterval = 1ms")));
+		ListenableFuture<Void> slowWait = slowPollScheduler.await(slowServerApi, "nova-1",
+				NovaPollScheduler.Condition.ACTIVE);
+
+		try {
+			when(serverApi.listRecordsInDetail()).thenReturn(
+					ImmutableList.of(server("nova-1", "virtual-1", Status.ACTIVE, "10.0.0.2")));
+			pollScheduler.await(serverApi, "nova-1", NovaPollScheduler.Condition.ACTIVE).get(5, TimeUnit.SECONDS);
+
+			// the ticks of the slow region are skipped while its poll is in flight
+			assertThat(slowWait.isDone()).isFalse();
+			assertThat(slowPolls.get()).isEqualTo(1);
+		} finally {
+			release.countDown();
+		}
+		slowWait.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testWaitsForDeletion() throws Exception {
+		when(serverApi.listRecordsInDetail()).thenReturn(
+				ImmutableList.of(server("nova-1", "virtual-1", Status.ACTIVE, "10.0.0.2")));
+		when(serverApi.listRecordsInDetail(any(PaginationOptions.class))).thenReturn(page(ImmutableList.<NovaServerRecord>of()));
+		pollScheduler.await(serverApi, "nova-1", NovaPollScheduler.Condition.ACTIVE).get(5, TimeUnit.SECONDS);
+
+		ListenableFuture<Void> unknown = pollScheduler.await(serverApi, "nova-2", NovaPollScheduler.Condition.ACTIVE);
+		ListenableFuture<Void> deleted = pollScheduler.await(serverApi, "nova-1", NovaPollScheduler.Condition.DELETED);
+		TimeUnit.MILLISECONDS.sleep(50);
+		assertThat(deleted.isDone()).isFalse();
+
+		// deleted servers are listed without their metadata
+		when(serverApi.listRecordsInDetail(any(PaginationOptions.class))).thenReturn(page(ImmutableList.of(
+				server("nova-1", null, Status.DELETED, null))));
+		deleted.get(5, TimeUnit.SECONDS);
+		assertThat(unknown.isDone()).isFalse();
+		unknown.cancel(false);
+	}
+
+	@Test
+	public void testWaitOnFailedServerFailsOnFirstPoll() throws Exception {
+		when(serverApi.listRecordsInDetail()).thenReturn(
+				ImmutableList.of(server("nova-1", "virtual-1", Status.ERROR, null)));
+		when(serverApi.listRecordsInDetail(any(PaginationOptions.class))).thenReturn(page(ImmutableList.<NovaServerRecord>of()));
+
+		ListenableFuture<Void> wait = pollScheduler.await(serverApi, "nova-1", NovaPollScheduler.Condition.PRIVATE_IP);
+		try {
+			wait.get(5, TimeUnit.SECONDS);
+			fail("The wait on a failed server should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(NovaServerFailedException.class);
+			assertThat(((NovaServerFailedException) e.getCause()).getReason()).isEqualTo("status ERROR");
+		}
+		assertThat(pollScheduler.getMetrics().get("polls")).isEqualTo(1L);
+	}
+
+	@Test
+	public void testFailedPollIsRetriedWithFullListing() throws Exception {
+		NovaStub nova = new NovaStub(10, 10);
+		try {
+			NovaServerApi stubServerApi = serverApi(nova);
+			synchronizer.synchronize(stubServerApi);
+			ListenableFuture<Void> wait = pollScheduler.await(stubServerApi, "server-5",
+					NovaPollScheduler.Condition.ACTIVE);
+			assertThat(wait.isDone()).isFalse();
+
+			// both the incremental listing and its fallback fail, the next tick lists every server
+			nova.failingListings.set(2);
+			nova.update("server-5", "ACTIVE", NovaStub.getGeneratedUpdatedMillis(9) + 60000);
+			wait.get(5, TimeUnit.SECONDS);
+			assertThat(nova.fullListings.get()).isGreaterThanOrEqualTo(2);
+		} finally {
+			nova.stop();
+		}
+	}
+
+	@Test
+	public void testWaitsFailWhenNovaCannotBePolled() throws Exception {
+		NovaStub nova = new NovaStub(10, 10);
+		try {
+			nova.failingListings.set(Integer.MAX_VALUE);
+			ListenableFuture<Void> wait = pollScheduler.await(serverApi(nova), "server-5",
+					NovaPollScheduler.Condition.ACTIVE);
+			try {
+				wait.get(5, TimeUnit.SECONDS);
+				fail("The wait should fail once Nova failed " + NovaPollScheduler.MAX_FAILED_POLLS + " polls");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause()).isInstanceOf(NovaRestException.class);
+			}
+		} finally {
+			nova.stop();
+		}
+	}
+
+	private static NovaServerApi serverApi(NovaStub nova) {
+		return RestNovaEngine.forCredentials(new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret"))
+				.getServerApi(NovaStub.REGION);
+	}
+
+	private static PaginatedCollection<NovaServerRecord> page(List<NovaServerRecord> servers) {
+		return new PaginatedCollection<NovaServerRecord>(servers, ImmutableSet.<Link>of()) {
+		};
+	}
+
+	private static NovaServerRecord server(String novaInstanceId, String virtualInstanceId, Status status,
+			String privateIp) {
+		return NovaServerRecord.of(Server.builder()
+				.id(novaInstanceId)
+				.name("director-" + virtualInstanceId)
+				.tenantId("tenant")
+				.userId("user")
+				.created(new Date())
+				.updated(new Date())
+				.status(status)
+				.image(Resource.builder().id("image").build())
+				.flavor(Resource.builder().id("flavor").build())
+				.addresses((privateIp == null) ? ImmutableMultimap.<String, Address>of()
+						: ImmutableMultimap.of("private", Address.createV4(privateIp)))
+				.metadata((virtualInstanceId == null) ? ImmutableMap.<String, String>of()
+						: ImmutableMap.of(NovaFleetView.DIRECTOR_ID_METADATA_KEY, virtualInstanceId))
+				.build());
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.FLOATING_IP_BACKEND;
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.IMAGE;
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.NETWORK_ID;
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.SECURITY_GROUP_NAMES;
+import static com.cloudera.director.openstack.nova.NovaInstanceTemplateConfigurationProperty.TYPE;
+import static com.cloudera.director.openstack.nova.NovaProviderConfigurationProperty.REGION;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.cloudera.director.openstack.nova.rest.NovaStub;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+import com.cloudera.director.spi.v1.model.ConfigurationPropertyToken;
+import com.cloudera.director.spi.v1.model.Configured;
+import com.cloudera.director.spi.v1.model.LocalizationContext;
+import com.cloudera.director.spi.v1.model.exception.UnrecoverableProviderException;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests the allocations of {@link NovaProvider} against a local Nova stub, with the
+ * lightweight engine polling every 10 milliseconds.
+ */
+public class NovaProviderTest {
+
+	private static final List<String> INSTANCE_IDS = ImmutableList.of("a", "b");
+
+	private static final Map<ConfigurationPropertyToken, String> TEMPLATE_CONFIGURATION =
+			ImmutableMap.<ConfigurationPropertyToken, String>of(
+					IMAGE, "image-id",
+					TYPE, "3",
+					NETWORK_ID, "network-id",
+					SECURITY_GROUP_NAMES, "default");
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final Map<ConfigurationPropertyToken, String> templateConfiguration =
+			Maps.newHashMap(TEMPLATE_CONFIGURATION);
+
+	private NovaStub nova;
+	private OpenStackCredentials credentials;
+	private Configured configuration;
+	private Supplier<OpenStackTuning> tuning;
+	private NovaStateSynchronizer synchronizer;
+	private NovaProvider provider;
+	private NovaInstanceTemplate template;
+
+	@Before
+	public void setUp() throws Exception {
+		nova = new NovaStub(0, 10);
+		credentials = new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret");
+		synchronizer = NovaStateSynchronizer.forRegion(credentials, NovaStub.REGION);
+
+		configuration = mock(Configured.class);
+		when(configuration.getConfigurationValue(eq(REGION), any(LocalizationContext.class)))
+				.thenReturn(NovaStub.REGION);
+		tuning = Suppliers.ofInstance(OpenStackTuning.fromConfig(ConfigFactory.parseString(
+				"nova.engine = rest\n"
+				+ "nova.allocate.pollInterval = 10ms\n")));
+		provider = new NovaProvider(configuration, credentials, ConfigFactory.empty(), tuning, null,
+				mock(LocalizationContext.class));
+
+		template = mock(NovaInstanceTemplate.class);
+		when(template.getName()).thenReturn("test");
+		when(template.getInstanceNamePrefix()).thenReturn("test");
+		when(template.getConfigurationValue(any(ConfigurationPropertyToken.class), any(LocalizationContext.class)))
+				.thenAnswer(new Answer<String>() {
+					@Override
+					public String answer(InvocationOnMock invocation) {
+						return templateConfiguration.get(invocation.getArguments()[0]);
+					}
+				});
+	}
+
+	@After
+	public void tearDown() {
+		nova.stop();
+	}
+
+	@Test
+	public void testCancelledAllocationAbandonsItsWaits() throws Exception {
+		final NovaPollScheduler pollScheduler = NovaPollScheduler.forSynchronizer(synchronizer);
+		Supplier<Map<String, Long>> metrics = new Supplier<Map<String, Long>>() {
+			@Override
+			public Map<String, Long> get() {
+				return pollScheduler.getMetrics();
+			}
+		};
+		// the created servers stay building, without IP
+		ListenableFuture<Void> allocation = provider.allocateAsync(template, INSTANCE_IDS, INSTANCE_IDS.size());
+		awaitMetric(metrics, "pendingWaits", 2L);
+		assertThat(nova.created).hasSize(2);
+
+		assertThat(allocation.cancel(true)).isTrue();
+		// the waits are removed on the next tick, which then stops
+		awaitMetric(metrics, "pendingWaits", 0L);
+	}
+
+	@Test
+	public void testCancelledAllocationAbandonsCoalescedReads() throws Exception {
+		final NovaReadCoalescer coalescer = NovaReadCoalescer.forSynchronizer(synchronizer);
+		Supplier<Map<String, Long>> metrics = new Supplier<Map<String, Long>>() {
+			@Override
+			public Map<String, Long> get() {
+				return coalescer.getMetrics();
+			}
+		};
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// a listing of the region in flight, which the allocation shares
+			Future<List<NovaServerRecord>> listing = executor.submit(new Callable<List<NovaServerRecord>>() {
+				@Override
+				public List<NovaServerRecord> call() throws Exception {
+					return coalescer.execute("servers:records", new Callable<List<NovaServerRecord>>() {
+						@Override
+						public List<NovaServerRecord> call() throws InterruptedException {
+							release.await();
+							return Collections.emptyList();
+						}
+					});
+				}
+			});
+			awaitMetric(metrics, "requests", 1L);
+
+			ListenableFuture<Void> allocation = provider.allocateAsync(template, INSTANCE_IDS, INSTANCE_IDS.size());
+			awaitMetric(metrics, "coalesced", 1L);
+			assertThat(allocation.cancel(true)).isTrue();
+
+			// an allocation still waiting would boot the servers once the listing is shared
+			release.countDown();
+			assertThat(listing.get()).isEmpty();
+			TimeUnit.MILLISECONDS.sleep(200);
+			assertThat(nova.created).isEmpty();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailedCreationReleasesTheServersAlreadyBooted() throws Exception {
+		// the third server is rejected for quota
+		nova.remainingCreates.set(2);
+		List<String> instanceIds = ImmutableList.of("a", "b", "c");
+		try {
+			provider.allocateAsync(template, instanceIds, instanceIds.size()).get(10, TimeUnit.SECONDS);
+			fail("The allocation should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(UnrecoverableProviderException.class);
+			assertThat(e.getCause().getCause()).hasMessageContaining("Quota exceeded");
+		}
+		assertThat(nova.created).hasSize(2);
+		assertThat(nova.exists("created-1")).isFalse();
+		assertThat(nova.exists("created-2")).isFalse();
+	}
+
+	@Test
+	public void testServerCreatedWithoutIdFailsTheAllocation() throws Exception {
+		// the second server is accepted without an ID
+		nova.createsBeforeIdlessOne.set(1);
+		List<String> instanceIds = ImmutableList.of("a", "b");
+		try {
+			provider.allocateAsync(template, instanceIds, instanceIds.size()).get(10, TimeUnit.SECONDS);
+			fail("The allocation should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(UnrecoverableProviderException.class);
+			assertThat(e.getCause().getCause()).hasMessageContaining("no ID");
+		}
+		assertThat(nova.created).hasSize(2);
+		assertThat(nova.exists("created-1")).isFalse();
+	}
+
+	@Test
+	public void testFailedAllocationReleasesTheNeutronFloatingIpOfAReusedServer() throws Exception {
+		templateConfiguration.put(FLOATING_IP_BACKEND, NovaInstanceTemplate.FLOATING_IP_BACKEND_NEUTRON);
+		String reusedId = nova.add("test-a", "ACTIVE", "{\"DIRECTOR_ID\": \"a\"}");
+		File directory = temporaryFolder.getRoot();
+		NovaAllocationJournal journal = NovaAllocationJournal.forDirectory(OpenStackTuning.DEFAULTS, directory);
+		journal.requested("a");
+		journal.created("a", reusedId);
+		journal.floatingIpAllocated("a", "172.24.4.2", "fip-a");
+		journal.sync();
+		NovaProvider journaled = new NovaProvider(configuration, credentials, ConfigFactory.empty(), tuning,
+				directory, mock(LocalizationContext.class));
+
+		// b is rejected for quota, the reused server of a is released with its floating IP
+		nova.remainingCreates.set(0);
+		try {
+			journaled.allocateAsync(template, INSTANCE_IDS, INSTANCE_IDS.size()).get(10, TimeUnit.SECONDS);
+			fail("The allocation should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(UnrecoverableProviderException.class);
+		}
+		assertThat(nova.exists(reusedId)).isFalse();
+		assertThat(nova.deletedFloatingIps).containsExactly("fip-a");
+	}
+
+	@Test
+	public void testOnlyHealthyServersOfTheViewAreReused() throws Exception {
+		templateConfiguration.put(FLOATING_IP_BACKEND, NovaInstanceTemplate.FLOATING_IP_BACKEND_NEUTRON);
+		String failedId = nova.add("test-a", "ERROR", "{\"DIRECTOR_ID\": \"a\", \"FLOATING_IP\": \"172.24.4.2\","
+				+ " \"FLOATING_IP_ID\": \"fip-a\", \"PORT_ID\": \"port-a\"}");
+		// a previous run journaled a server of b, deleted since
+		File directory = temporaryFolder.getRoot();
+		NovaAllocationJournal journal = NovaAllocationJournal.forDirectory(OpenStackTuning.DEFAULTS, directory);
+		journal.requested("b");
+		journal.created("b", "deleted-server");
+		journal.sync();
+		NovaProvider journaled = new NovaProvider(configuration, credentials, ConfigFactory.empty(), tuning,
+				directory, mock(LocalizationContext.class));
+
+		ListenableFuture<Void> allocation = journaled.allocateAsync(template, INSTANCE_IDS, INSTANCE_IDS.size());
+		awaitCreated(3);
+
+		// the server in error was released with its floating IP and port, and both were booted
+		assertThat(nova.exists(failedId)).isFalse();
+		assertThat(nova.deletedFloatingIps).containsExactly("fip-a");
+		assertThat(nova.deletedPorts).containsExactly("port-a");
+		assertThat(nova.created.get(1) + nova.created.get(2)).contains("\"test-a\"").contains("\"test-b\"");
+
+		nova.update("created-2", "ACTIVE", System.currentTimeMillis());
+		nova.update("created-3", "ACTIVE", System.currentTimeMillis());
+		allocation.get(10, TimeUnit.SECONDS);
+		assertThat(journal.get("a")).isNull();
+		assertThat(journal.get("b")).isNull();
+	}
+
+	@Test
+	public void testStandbyServerFailingItsRetagIsDeletedBeforeTheBoot() throws Exception {
+		NovaServerSignature signature = new NovaServerSignature("image-id", "3", "network-id", null,
+				ImmutableList.of("default"), null);
+		String standbyId = nova.add("director-standby-1", "ACTIVE",
+				"{\"" + NovaStandbyPool.STANDBY_METADATA_KEY + "\": \"" + signature.getKey() + "\"}");
+		OpenStackTuning standbyTuning = OpenStackTuning.fromConfig(ConfigFactory.parseString(
+				"nova.engine = rest\n"
+				+ "nova.allocate.pollInterval = 10ms\n"
+				+ "nova.standby.enabled = true\n"
+				+ "nova.standby.size = 1\n"
+				+ "nova.standby.interval = 10ms\n"));
+		final NovaProvider standby = new NovaProvider(configuration, credentials, ConfigFactory.empty(),
+				Suppliers.ofInstance(standbyTuning), null, mock(LocalizationContext.class));
+		NovaStandbyPool pool = NovaStandbyPool.fromConfig(standbyTuning, synchronizer,
+				RestNovaEngine.forCredentials(credentials));
+		try {
+			Supplier<Map<String, Long>> metrics = new Supplier<Map<String, Long>>() {
+				@Override
+				public Map<String, Long> get() {
+					return standby.getMetrics();
+				}
+			};
+			awaitMetric(metrics, "standby.readyServers", 1L);
+
+			// the claimed server cannot be tagged, so it is deleted and the instance booted
+			nova.failingMetadataUpdates.set(1);
+			ListenableFuture<Void> allocation = standby.allocateAsync(template, ImmutableList.of("a"), 1);
+			awaitCreated(3);
+			assertThat(nova.exists(standbyId)).isFalse();
+			assertThat(nova.created.get(1) + nova.created.get(2)).contains("\"test-a\"");
+
+			nova.update("created-2", "ACTIVE", System.currentTimeMillis());
+			nova.update("created-3", "ACTIVE", System.currentTimeMillis());
+			allocation.get(10, TimeUnit.SECONDS);
+			assertThat(metrics.get()).containsEntry("standby.claimHits", 1L);
+		} finally {
+			pool.stop();
+		}
+	}
+
+	@Test
+	public void testMetricsOfTheRegionComponents() {
+		assertThat(provider.getMetrics()).containsKeys("coalescer.requests", "pollScheduler.pendingWaits",
+				"http.inFlight", "http.maxConnectionsPerHost")
+				.doesNotContainKey("reconciler.refreshLagMillis");
+
+		NovaProvider reconciled = new NovaProvider(configuration, credentials, ConfigFactory.empty(),
+				Suppliers.ofInstance(OpenStackTuning.fromConfig(ConfigFactory.parseString("nova.reconciler.enabled = true"))),
+				null, mock(LocalizationContext.class));
+		assertThat(reconciled.getMetrics()).containsKeys("reconciler.refreshLagMillis", "reconciler.staleReads",
+				"reconciler.running");
+	}
+
+	/**
+	 * Waits up to 10 seconds for the stub to have the specified number of servers created.
+	 */
+	private void awaitCreated(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (nova.created.size() < count && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(nova.created).hasSize(count);
+	}
+
+	/**
+	 * Waits up to 10 seconds for a metric to reach a value.
+	 */
+	private static void awaitMetric(Supplier<Map<String, Long>> metrics, String name, long value)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (metrics.get().get(name) != value && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(metrics.get().get(name)).isEqualTo(value);
+	}
+}
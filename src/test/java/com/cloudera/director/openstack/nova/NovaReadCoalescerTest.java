@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link NovaReadCoalescer}.
+ */
+public class NovaReadCoalescerTest {
+
+	@Test
+	public void testConcurrentIdenticalRequestsShareOneCall() throws Exception {
+		final NovaReadCoalescer coalescer = new NovaReadCoalescer();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> request = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				calls.incrementAndGet();
+				release.await();
+				return "ACTIVE";
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = Lists.newArrayList();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws InterruptedException {
+						return coalescer.execute("server:1", request);
+					}
+				}));
+			}
+			while (coalescer.getMetrics().get("requests") < 4) {
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+			release.countDown();
+
+			for (Future<String> result : results) {
+				assertThat(result.get()).isEqualTo("ACTIVE");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(calls.get()).isEqualTo(1);
+		assertThat(coalescer.getMetrics().get("coalesced")).isEqualTo(3L);
+
+		// nothing is cached once the request completed
+		assertThat(coalescer.execute("server:1", request)).isEqualTo("ACTIVE");
+		assertThat(calls.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void testInterruptedWaiterStopsWaiting() throws Exception {
+		final NovaReadCoalescer coalescer = new NovaReadCoalescer();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> request = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				release.await();
+				return "ACTIVE";
+			}
+		};
+		Callable<String> execute = new Callable<String>() {
+			@Override
+			public String call() throws InterruptedException {
+				return coalescer.execute("server:1", request);
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> sent = executor.submit(execute);
+			while (coalescer.getMetrics().get("requests") < 1) {
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+			final Thread waiter = Thread.currentThread();
+			executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					while (coalescer.getMetrics().get("coalesced") < 1) {
+						TimeUnit.MILLISECONDS.sleep(5);
+					}
+					waiter.interrupt();
+					return null;
+				}
+			});
+			try {
+				coalescer.execute("server:1", request);
+				throw new AssertionError("The coalesced wait was not interrupted");
+			} catch (InterruptedException e) {
+				// expected
+			}
+
+			// the shared request goes on for the others
+			assertThat(sent.isDone()).isFalse();
+			release.countDown();
+			assertThat(sent.get()).isEqualTo("ACTIVE");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
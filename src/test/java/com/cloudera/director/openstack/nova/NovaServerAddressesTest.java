@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.jclouds.openstack.nova.v2_0.domain.Address;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.jclouds.openstack.v2_0.domain.Resource;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Tests {@link NovaServerAddresses}.
+ */
+public class NovaServerAddressesTest {
+
+	@Test
+	public void testMultipleNetworksWithoutFloatingIp() {
+		Multimap<String, Address> addresses = LinkedHashMultimap.create();
+		addresses.put("data", Address.createV4("10.0.0.5"));
+		addresses.put("storage", Address.createV4("10.1.0.5"));
+
+		NovaServerAddresses index = NovaServerAddresses.of(server(addresses, ImmutableMap.<String, String>of()));
+
+		assertThat(index.getPrivateIpAddress().getHostAddress()).isEqualTo("10.0.0.5");
+		assertThat(index.getPrivateNetwork()).isEqualTo("data");
+		assertThat(index.getFloatingIpAddress()).isNull();
+		assertThat(index.getFloatingIpId()).isNull();
+	}
+
+	@Test
+	public void testFloatingIpFollowsFixedIpOfItsNetwork() {
+		Multimap<String, Address> addresses = LinkedHashMultimap.create();
+		addresses.put("data", Address.createV6("fd00::5"));
+		addresses.put("data", Address.createV4("10.0.0.5"));
+		addresses.put("data", Address.createV4("172.24.4.10"));
+
+		NovaServerAddresses index = NovaServerAddresses.of(server(addresses, ImmutableMap.<String, String>of()));
+
+		assertThat(index.getPrivateIpAddress().getHostAddress()).isEqualTo("10.0.0.5");
+		assertThat(index.getFloatingIpAddress().getHostAddress()).isEqualTo("172.24.4.10");
+	}
+
+	@Test
+	public void testRecordedFloatingIpWins() {
+		Multimap<String, Address> addresses = LinkedHashMultimap.create();
+		addresses.put("public", Address.createV4("172.24.4.10"));
+		addresses.put("data", Address.createV4("10.0.0.5"));
+
+		NovaServerAddresses index = NovaServerAddresses.of(server(addresses, ImmutableMap.of(
+				NovaServerAddresses.FLOATING_IP_METADATA_KEY, "172.24.4.10",
+				NovaServerAddresses.FLOATING_IP_ID_METADATA_KEY, "fip-1")));
+
+		assertThat(index.getPrivateIpAddress().getHostAddress()).isEqualTo("10.0.0.5");
+		assertThat(index.getFloatingIpAddress().getHostAddress()).isEqualTo("172.24.4.10");
+		assertThat(index.getFloatingIpId()).isEqualTo("fip-1");
+	}
+
+	@Test
+	public void testListedTypesWinOverOrder() {
+		// two fixed IPs on one network, which the order alone would take for a floating one
+		NovaServerRecord record = NovaServerRecord.builder()
+				.id("server")
+				.addresses(ImmutableListMultimap.of("data", "10.0.0.5", "data", "10.0.0.6", "data", "172.24.4.10"))
+				.addressTypes(ImmutableMap.of(
+						"10.0.0.5", NovaServerAddresses.FIXED_ADDRESS_TYPE,
+						"10.0.0.6", NovaServerAddresses.FIXED_ADDRESS_TYPE,
+						"172.24.4.10", NovaServerAddresses.FLOATING_ADDRESS_TYPE))
+				.build();
+
+		NovaServerAddresses index = NovaServerAddresses.of(record);
+
+		assertThat(index.getPrivateIpAddress().getHostAddress()).isEqualTo("10.0.0.5");
+		assertThat(index.getFloatingIpAddress().getHostAddress()).isEqualTo("172.24.4.10");
+		int floatingCount = 0;
+		for (NovaServerAddresses.TypedAddress address : index.getAddresses()) {
+			if (address.getType() == NovaServerAddresses.AddressType.FLOATING) {
+				floatingCount++;
+			}
+		}
+		assertThat(floatingCount).isEqualTo(1);
+	}
+
+	@Test
+	public void testHostNamesAreNeverResolved() {
+		Multimap<String, Address> addresses = LinkedHashMultimap.create();
+		addresses.put("data", Address.createV4("node1.example.com"));
+
+		NovaServerAddresses index = NovaServerAddresses.of(server(addresses, ImmutableMap.<String, String>of()));
+
+		assertThat(index.getPrivateIpAddress()).isNull();
+	}
+
+	private static Server server(Multimap<String, Address> addresses, Map<String, String> metadata) {
+		return Server.builder()
+				.id("server")
+				.name("server")
+				.tenantId("tenant")
+				.userId("user")
+				.created(new Date())
+				.status(Status.ACTIVE)
+				.image(Resource.builder().id("image").build())
+				.flavor(Resource.builder().id("flavor").build())
+				.addresses(addresses)
+				.metadata(metadata)
+				.build();
+	}
+}
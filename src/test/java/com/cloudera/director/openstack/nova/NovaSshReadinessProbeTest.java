@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests {@link NovaSshReadinessProbe} against a local fake SSH daemon.
+ */
+public class NovaSshReadinessProbeTest {
+
+	private ServerSocket sshd;
+	private Thread acceptor;
+
+	@Before
+	public void setUp() throws Exception {
+		sshd = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		acceptor = new Thread() {
+			@Override
+			public void run() {
+				while (!sshd.isClosed()) {
+					try {
+						Socket socket = sshd.accept();
+						socket.getOutputStream().write("SSH-2.0-OpenSSH_7.4\r\n".getBytes(Charsets.US_ASCII));
+						socket.close();
+					} catch (IOException e) {
+						return;
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sshd.close();
+		acceptor.join();
+	}
+
+	@Test
+	public void testOnlyInstancesWithSshBannerAreReachable() throws Exception {
+		NovaSshReadinessProbe probe = new NovaSshReadinessProbe(sshd.getLocalPort(), 1000, 10000, 3000, false, 8);
+
+		Set<String> reachable = probe.awaitReachable(ImmutableMap.of(
+				"up", InetAddress.getByName("127.0.0.1"),
+				"down", InetAddress.getByName("127.0.0.2")));
+
+		assertThat(reachable).containsOnly("up");
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.nova.rest.NovaStub;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests {@link NovaStandbyPool} against a local Nova stub, replenishing every 20
+ * milliseconds with one standby server per signature.
+ */
+public class NovaStandbyPoolTest {
+
+	private static final NovaServerSignature SIGNATURE = new NovaServerSignature("image-id", "3", "network-id",
+			null, ImmutableList.of("default"), null);
+
+	private NovaStub nova;
+	private NovaEngine novaEngine;
+	private NovaReadCoalescer readCoalescer;
+	private NovaStandbyPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		nova = new NovaStub(0, 10);
+		novaEngine = RestNovaEngine.forCredentials(
+				new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret"));
+		readCoalescer = NovaReadCoalescer.forSynchronizer(new NovaStateSynchronizer("test", NovaStub.REGION));
+	}
+
+	@After
+	public void tearDown() {
+		if (pool != null) {
+			pool.stop();
+		}
+		nova.stop();
+	}
+
+	@Test
+	public void testClaimedServerIsNotEvicted() throws Exception {
+		pool = new NovaStandbyPool(NovaStub.REGION, novaEngine, readCoalescer, 1, 2, 20, 500);
+		pool.start();
+		assertThat(pool.claim(SIGNATURE)).isNull();
+		awaitBooted("created-1");
+		awaitMetric(pool, "readyServers", 1L);
+
+		// the claim takes the ready server, and boots its replacement
+		assertThat(pool.claim(SIGNATURE)).isEqualTo("created-1");
+		awaitMetric(pool, "bootingServers", 1L);
+
+		// once the signature is idle, only the replacement is evicted
+		awaitMetric(pool, "evictedServers", 1L);
+		assertThat(nova.exists("created-1")).isTrue();
+		assertThat(nova.exists("created-2")).isFalse();
+		assertThat(pool.getMetrics()).containsEntry("claimHits", 1L).containsEntry("coldBoots", 1L)
+				.containsEntry("readyServers", 0L).containsEntry("bootingServers", 0L);
+	}
+
+	@Test
+	public void testStandbyServersAreAdoptedOnRestart() throws Exception {
+		pool = new NovaStandbyPool(NovaStub.REGION, novaEngine, readCoalescer, 1, 2, 20, TimeUnit.MINUTES.toMillis(1));
+		pool.start();
+		pool.claim(SIGNATURE);
+		awaitMetric(pool, "bootingServers", 1L);
+		pool.stop();
+
+		// the pool of the next run adopts the standby server left booting
+		pool = new NovaStandbyPool(NovaStub.REGION, novaEngine, readCoalescer, 1, 2, 20, TimeUnit.MINUTES.toMillis(1));
+		pool.start();
+		awaitMetric(pool, "adoptedServers", 1L);
+		awaitBooted("created-1");
+		awaitMetric(pool, "readyServers", 1L);
+		assertThat(nova.created).hasSize(1);
+
+		assertThat(pool.claim(SIGNATURE)).isEqualTo("created-1");
+		assertThat(pool.getMetrics()).containsEntry("claimHits", 1L).containsEntry("coldBoots", 0L);
+	}
+
+	/**
+	 * Waits up to 10 seconds for a server to be created, then completes its boot.
+	 */
+	private void awaitBooted(String id) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (!nova.exists(id) && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(nova.exists(id)).isTrue();
+		nova.update(id, "ACTIVE", System.currentTimeMillis());
+	}
+
+	/**
+	 * Waits up to 10 seconds for a metric of the pool to reach a value.
+	 */
+	private static void awaitMetric(NovaStandbyPool pool, String name, long value) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (pool.getMetrics().get(name) != value && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertThat(pool.getMetrics().get(name)).isEqualTo(value);
+	}
+}
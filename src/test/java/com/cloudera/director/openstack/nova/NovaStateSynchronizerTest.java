@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.nova.rest.NovaStub;
+import com.cloudera.director.openstack.nova.rest.RestNovaEngine;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link NovaStateSynchronizer} against a local Nova stub, with both engines.
+ */
+public class NovaStateSynchronizerTest {
+
+	/**
+	 * A change after the latest update of the generated servers, 2015-06-01T10:09:00Z.
+	 */
+	private static final long CHANGE_MILLIS = NovaStub.getGeneratedUpdatedMillis(9) + TimeUnit.MINUTES.toMillis(5);
+
+	private NovaStub nova;
+	private OpenStackCredentials credentials;
+
+	@Before
+	public void setUp() throws Exception {
+		// small pages, so that the changes are listed over two pages
+		nova = new NovaStub(25, 3);
+		credentials = new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret");
+	}
+
+	@After
+	public void tearDown() {
+		nova.stop();
+	}
+
+	@Test
+	public void testIncrementalSyncWithRestEngine() throws Exception {
+		assertIncrementalSync(RestNovaEngine.forCredentials(credentials).getServerApi(NovaStub.REGION));
+	}
+
+	@Test
+	public void testIncrementalSyncWithJclouds() throws Exception {
+		assertIncrementalSync(NovaApiSupplier.forCredentials(credentials).getServerApi(NovaStub.REGION));
+	}
+
+	private void assertIncrementalSync(NovaServerApi serverApi) throws InterruptedException {
+		NovaStateSynchronizer synchronizer = new NovaStateSynchronizer("test", NovaStub.REGION);
+		NovaFleetView fleetView = synchronizer.synchronize(serverApi);
+		assertThat(fleetView.size()).isEqualTo(25);
+		assertThat(synchronizer.getHighWaterMillis()).isEqualTo(NovaStub.getGeneratedUpdatedMillis(9));
+		assertThat(nova.changesSince).isEmpty();
+
+		nova.update("server-7", "SHUTOFF", CHANGE_MILLIS);
+		nova.delete("server-8", CHANGE_MILLIS);
+		synchronizer.synchronize(serverApi);
+
+		// the high-water mark less the overlap, in ISO 8601, on every page
+		assertThat(nova.changesSince).hasSize(2).containsOnly("2015-06-01T10:08:55Z");
+		assertThat(fleetView.size()).isEqualTo(24);
+		assertThat(fleetView.getStatus("instance-7")).isEqualTo(Status.SHUTOFF);
+		assertThat(fleetView.getStatus("instance-8")).isNull();
+		assertThat(fleetView.getStatus("instance-9")).isEqualTo(Status.ACTIVE);
+		assertThat(synchronizer.getHighWaterMillis()).isEqualTo(CHANGE_MILLIS);
+	}
+
+	@Test
+	public void testFailedIncrementalSyncFallsBackToFullListing() throws Exception {
+		NovaServerApi serverApi = RestNovaEngine.forCredentials(credentials).getServerApi(NovaStub.REGION);
+		NovaStateSynchronizer synchronizer = new NovaStateSynchronizer("test", NovaStub.REGION);
+		synchronizer.synchronize(serverApi);
+
+		nova.delete("server-8", CHANGE_MILLIS);
+		nova.failingListings.set(1);
+		NovaFleetView fleetView = synchronizer.synchronize(serverApi);
+		assertThat(nova.fullListings.get()).isEqualTo(2);
+		assertThat(fleetView.size()).isEqualTo(24);
+		assertThat(synchronizer.getHighWaterMillis()).isEqualTo(NovaStub.getGeneratedUpdatedMillis(9));
+	}
+
+	@Test
+	public void testConcurrentFullSyncsShareOneListing() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final NovaServerApi serverApi = mock(NovaServerApi.class);
+		when(serverApi.listRecordsInDetail()).thenAnswer(new Answer<List<NovaServerRecord>>() {
+			@Override
+			public List<NovaServerRecord> answer(InvocationOnMock invocation) throws InterruptedException {
+				release.await();
+				return ImmutableList.of();
+			}
+		});
+		final NovaStateSynchronizer synchronizer = new NovaStateSynchronizer("test", NovaStub.REGION);
+		NovaReadCoalescer coalescer = NovaReadCoalescer.forSynchronizer(synchronizer);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<NovaFleetView>> results = Lists.newArrayList();
+			for (int i = 0; i < 2; i++) {
+				results.add(executor.submit(new Callable<NovaFleetView>() {
+					@Override
+					public NovaFleetView call() throws InterruptedException {
+						return synchronizer.synchronize(serverApi);
+					}
+				}));
+			}
+			// neither synchronization holds the other back while listing
+			while (coalescer.getMetrics().get("requests") < 2) {
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+			release.countDown();
+			for (Future<NovaFleetView> result : results) {
+				assertThat(result.get().size()).isEqualTo(0);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		verify(serverApi, times(1)).listRecordsInDetail();
+		assertThat(coalescer.getMetrics().get("coalesced")).isEqualTo(1L);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.OpenStackHttpTransport;
+import com.cloudera.director.openstack.OpenStackTuning;
+import com.cloudera.director.openstack.nova.NovaApiSupplier;
+import com.google.common.collect.ImmutableList;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Tests that the jclouds Nova API sends its requests through the configured
+ * {@link OpenStackHttpTransport}.
+ */
+public class NovaApiTransportTest {
+
+	private NovaStub nova;
+	private OpenStackCredentials credentials;
+
+	@Before
+	public void setUp() throws Exception {
+		nova = new NovaStub(25, 10);
+		credentials = new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret");
+	}
+
+	@After
+	public void tearDown() {
+		nova.stop();
+		OpenStackHttpTransport.configure(OpenStackTuning.DEFAULTS);
+	}
+
+	@Test
+	public void testDefaultDriverRequestsGzipAndReusesConnections() {
+		OpenStackHttpTransport.configure(OpenStackTuning.DEFAULTS);
+		long gzipResponses = OpenStackHttpTransport.getMetrics().get("gzipResponses");
+		long requests = OpenStackHttpTransport.getMetrics().get("requests");
+
+		List<Server> servers = ImmutableList.copyOf(NovaApiSupplier.forCredentials(credentials)
+				.getServerApi(NovaStub.REGION).listInDetail());
+
+		assertThat(servers).hasSize(25);
+		assertThat(servers.get(24).getName()).isEqualTo("instance-24");
+		// three pages, all compressed, on one connection
+		assertThat(nova.gzipped.get()).isGreaterThanOrEqualTo(3);
+		assertThat(nova.clientPorts).hasSize(1);
+		assertThat(OpenStackHttpTransport.getMetrics().get("gzipResponses") - gzipResponses).isGreaterThanOrEqualTo(3);
+		assertThat(OpenStackHttpTransport.getMetrics().get("requests") - requests).isGreaterThanOrEqualTo(3);
+		assertThat(OpenStackHttpTransport.getMetrics().get("inFlight")).isEqualTo(0);
+	}
+
+	@Test
+	public void testJdkDriverIsSelectable() {
+		OpenStackHttpTransport.configure(OpenStackTuning.fromConfig(
+				ConfigFactory.parseString("http { driver = jdk }")));
+
+		List<Server> servers = ImmutableList.copyOf(NovaApiSupplier.forCredentials(credentials)
+				.getServerApi(NovaStub.REGION).listInDetail());
+
+		assertThat(servers).hasSize(25);
+		assertThat(nova.gzipped.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void testChangedSettingsRebuildTheSharedApi() {
+		OpenStackHttpTransport.configure(OpenStackTuning.DEFAULTS);
+		NovaApiSupplier supplier = NovaApiSupplier.forCredentials(credentials);
+		ImmutableList.copyOf(supplier.getServerApi(NovaStub.REGION).listInDetail());
+		int gzipped = nova.gzipped.get();
+		assertThat(gzipped).isGreaterThan(0);
+
+		OpenStackHttpTransport.configure(OpenStackTuning.fromConfig(ConfigFactory.parseString("http.gzip = false")));
+		List<Server> servers = ImmutableList.copyOf(supplier.getServerApi(NovaStub.REGION).listInDetail());
+
+		assertThat(servers).hasSize(25);
+		assertThat(nova.gzipped.get()).isEqualTo(gzipped);
+	}
+}
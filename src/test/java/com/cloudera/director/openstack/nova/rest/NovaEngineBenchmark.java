@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.nova.NovaApiSupplier;
+import com.cloudera.director.openstack.nova.NovaServerApi;
+import com.cloudera.director.openstack.nova.NovaServerRecord;
+
+/**
+ * Compares the jclouds and REST engines listing a fleet from a local stub: startup time,
+ * then time and memory allocated per full listing, and the heap retained by the listed
+ * fleet. The <code>records</code> run lists the projected {@link NovaServerRecord}s. The
+ * costs are given per 1000 servers. Not run by the build, run it with
+ * <code>NovaEngineBenchmark [fleet size] [page size] [rounds]</code>.
+ */
+public class NovaEngineBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int fleetSize = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int pageSize = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 50;
+
+		NovaStub nova = new NovaStub(fleetSize, pageSize);
+		try {
+			OpenStackCredentials credentials = new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret");
+			final RestServerApi restServerApi = RestNovaEngine.forCredentials(credentials).getServerApi(NovaStub.REGION);
+			run("records", new Callable<List<?>>() {
+				@Override
+				public List<?> call() {
+					return restServerApi.listRecordsInDetail();
+				}
+			}, rounds);
+			run("rest", listing(restServerApi), rounds);
+			run("jclouds", listing(NovaApiSupplier.forCredentials(credentials).getServerApi(NovaStub.REGION)), rounds);
+		} finally {
+			nova.stop();
+		}
+	}
+
+	private static Callable<List<?>> listing(final NovaServerApi serverApi) {
+		return new Callable<List<?>>() {
+			@Override
+			public List<?> call() {
+				return serverApi.listInDetail();
+			}
+		};
+	}
+
+	private static void run(String name, Callable<List<?>> listing, int rounds) throws Exception {
+		long started = System.nanoTime();
+		int servers = listing.call().size();
+		long startupMillis = (System.nanoTime() - started) / 1000000;
+
+		// warm up, then measure
+		for (int i = 0; i < rounds; i++) {
+			listing.call();
+		}
+		long allocated = getAllocatedBytes();
+		started = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			listing.call();
+		}
+		long micros = (System.nanoTime() - started) / 1000 / rounds;
+		allocated = (getAllocatedBytes() - allocated) / rounds;
+
+		long before = getUsedHeap();
+		List<?> retained = listing.call();
+		long retainedBytes = getUsedHeap() - before;
+
+		System.out.printf("%-8s %d servers: first listing %d ms; per 1000 servers %d us, %d KB allocated"
+				+ " and %d KB retained%n", name, retained.size(), startupMillis, micros * 1000 / servers,
+				allocated / servers * 1000 / 1024, retainedBytes / servers * 1000 / 1024);
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static long getUsedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stub of Keystone and of the Nova calls of the plugin, serving a fleet of
+ * generated servers in pages. The generated servers are <code>server-0</code> to
+ * <code>server-(fleetSize - 1)</code>, the created ones <code>created-1</code> onwards,
+ * which only get an address once they are no longer building. Servers can be changed and
+ * deleted, and are listed with <code>changes-since</code> as
+ * Nova does, deleted ones included. The Neutron ports and floating IPs deleted are
+ * recorded.
+ */
+public class NovaStub {
+
+	public static final String TENANT_ID = "tenant-id";
+	public static final String REGION = "regionOne";
+
+	private static final String GENERATED_PREFIX = "server-";
+	private static final String CREATED_PREFIX = "created-";
+
+	private final HttpServer server;
+	private final int fleetSize;
+	private final int pageSize;
+
+	/*
+	 * The bodies of the server creations received
+	 */
+	public final List<String> created = Lists.newCopyOnWriteArrayList();
+
+	/*
+	 * The client ports of the Nova requests, one per connection
+	 */
+	final Set<Integer> clientPorts = Sets.newConcurrentHashSet();
+
+	/*
+	 * The number of responses compressed because the client accepted gzip
+	 */
+	final AtomicInteger gzipped = new AtomicInteger();
+
+	/*
+	 * The number of full listings received, counting their first page only
+	 */
+	public final AtomicInteger fullListings = new AtomicInteger();
+
+	/*
+	 * The changes-since values of the listings received
+	 */
+	public final List<String> changesSince = Lists.newCopyOnWriteArrayList();
+
+	/*
+	 * The number of the next listings to fail with a server error
+	 */
+	public final AtomicInteger failingListings = new AtomicInteger();
+
+	/*
+	 * The number of server creations accepted before the next ones are rejected for quota
+	 */
+	public final AtomicInteger remainingCreates = new AtomicInteger(Integer.MAX_VALUE);
+
+	/*
+	 * The number of server creations accepted before the next one is answered without an ID
+	 */
+	public final AtomicInteger createsBeforeIdlessOne = new AtomicInteger(Integer.MAX_VALUE);
+
+	/*
+	 * The number of the next metadata updates to fail with a 500
+	 */
+	public final AtomicInteger failingMetadataUpdates = new AtomicInteger();
+
+	/*
+	 * The IDs of the Neutron ports and floating IPs deleted
+	 */
+	public final List<String> deletedPorts = Lists.newCopyOnWriteArrayList();
+	public final List<String> deletedFloatingIps = Lists.newCopyOnWriteArrayList();
+
+	/*
+	 * The status of the servers changed since they were generated or created, DELETED once
+	 * deleted, and the time of their change
+	 */
+	private final ConcurrentMap<String, String> changedStatuses = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, Long> changedMillis = new ConcurrentHashMap<String, Long>();
+
+	/*
+	 * The created servers as requested, by ID
+	 */
+	private final ConcurrentMap<String, JsonObject> createdServers = new ConcurrentHashMap<String, JsonObject>();
+
+	public NovaStub(int fleetSize, int pageSize) throws IOException {
+		this.fleetSize = fleetSize;
+		this.pageSize = pageSize;
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v2.0/tokens", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, access());
+			}
+		});
+		server.createContext("/v2/" + TENANT_ID + "/servers", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleServers(exchange);
+			}
+		});
+		server.createContext("/neutron/v2.0/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleNeutron(exchange);
+			}
+		});
+		server.start();
+	}
+
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/v2.0/";
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * Changes the status of a server.
+	 *
+	 * @param id           the server ID
+	 * @param status       the new status
+	 * @param changeMillis the time of the change, in milliseconds since the epoch
+	 */
+	public void update(String id, String status, long changeMillis) {
+		changedMillis.put(id, changeMillis);
+		changedStatuses.put(id, status);
+	}
+
+	/**
+	 * Deletes a server.
+	 *
+	 * @param id           the server ID
+	 * @param changeMillis the time of the deletion, in milliseconds since the epoch
+	 */
+	public void delete(String id, long changeMillis) {
+		update(id, "DELETED", changeMillis);
+	}
+
+	/**
+	 * Adds a server as if it had been created by a previous run.
+	 *
+	 * @param name     the server name
+	 * @param status   the server status
+	 * @param metadata the server metadata, in JSON
+	 * @return the server ID
+	 */
+	public synchronized String add(String name, String status, String metadata) {
+		JsonObject request = new JsonObject();
+		request.addProperty("name", name);
+		request.add("metadata", new JsonParser().parse(metadata));
+		JsonObject body = new JsonObject();
+		body.add("server", request);
+		created.add(body.toString());
+		String createdId = CREATED_PREFIX + created.size();
+		createdServers.put(createdId, request);
+		update(createdId, status, System.currentTimeMillis());
+		return createdId;
+	}
+
+	/**
+	 * Returns whether a server exists and is not deleted.
+	 */
+	public boolean exists(String id) {
+		return getPosition(id) >= 0 && !"DELETED".equals(changedStatuses.get(id));
+	}
+
+	/**
+	 * Returns the time of the last change of a generated server, in milliseconds since
+	 * the epoch.
+	 */
+	public static long getGeneratedUpdatedMillis(int i) {
+		return NovaServerDecoder.parseIso8601Millis(getGeneratedUpdated(i));
+	}
+
+	private void handleServers(HttpExchange exchange) throws IOException {
+		clientPorts.add(exchange.getRemoteAddress().getPort());
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		String id = path.substring(path.lastIndexOf('/') + 1);
+		int metadataStart = path.indexOf("/metadata");
+		if (metadataStart >= 0) {
+			String serverPath = path.substring(0, metadataStart);
+			handleMetadata(exchange, serverPath.substring(serverPath.lastIndexOf('/') + 1), id);
+		} else if ("POST".equals(method)) {
+			String body = CharStreams.toString(new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8));
+			if (remainingCreates.getAndDecrement() <= 0) {
+				remainingCreates.set(0);
+				respond(exchange, 403, "{\"forbidden\": {\"code\": 403, \"message\": \"Quota exceeded for instances\"}}");
+				return;
+			}
+			created.add(body);
+			String createdId = CREATED_PREFIX + created.size();
+			if (createsBeforeIdlessOne.getAndDecrement() <= 0) {
+				createsBeforeIdlessOne.set(Integer.MAX_VALUE);
+				respond(exchange, 202, "{\"server\": {\"id\": \"\", \"adminPass\": \"x\"}}");
+				return;
+			}
+			createdServers.put(createdId, new JsonParser().parse(body).getAsJsonObject().getAsJsonObject("server"));
+			update(createdId, "BUILD", System.currentTimeMillis());
+			respond(exchange, 202, "{\"server\": {\"id\": \"" + createdId + "\", \"adminPass\": \"x\"}}");
+		} else if ("detail".equals(id)) {
+			if (failingListings.getAndDecrement() > 0) {
+				respond(exchange, 500, "{\"computeFault\": {\"code\": 500, \"message\": \"Unavailable\"}}");
+				return;
+			}
+			failingListings.set(Math.max(failingListings.get(), 0));
+			String query = exchange.getRequestURI().getRawQuery();
+			String since = getParameter(query, "changes-since");
+			if (since == null) {
+				String marker = getParameter(query, "marker");
+				if (marker == null) {
+					fullListings.incrementAndGet();
+				}
+				respond(exchange, 200, page(marker, Long.MIN_VALUE));
+				return;
+			}
+			changesSince.add(since);
+			long sinceMillis = NovaServerDecoder.parseIso8601Millis(since);
+			if (sinceMillis == Long.MIN_VALUE) {
+				respond(exchange, 400, "{\"badRequest\": {\"code\": 400, \"message\": \"Invalid changes-since value\"}}");
+			} else {
+				respond(exchange, 200, page(getParameter(query, "marker"), sinceMillis));
+			}
+		} else if (!exists(id)) {
+			respond(exchange, 404, "{\"itemNotFound\": {\"code\": 404}}");
+		} else if ("DELETE".equals(method)) {
+			delete(id, System.currentTimeMillis());
+			respond(exchange, 204, null);
+		} else if ("PUT".equals(method)) {
+			JsonObject server = createdServers.get(id);
+			String body = CharStreams.toString(new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8));
+			if (server != null) {
+				server.add("name", new JsonParser().parse(body).getAsJsonObject().getAsJsonObject("server").get("name"));
+			}
+			respond(exchange, 200, "{\"server\": " + server(getPosition(id)) + "}");
+		} else {
+			respond(exchange, 200, "{\"server\": " + server(getPosition(id)) + "}");
+		}
+	}
+
+	/**
+	 * Updates or deletes the metadata of a created server, failing the first
+	 * {@link #failingMetadataUpdates} calls.
+	 *
+	 * @param id  the server ID
+	 * @param key the last segment of the path, the key of the metadata deleted
+	 */
+	private void handleMetadata(HttpExchange exchange, String id, String key) throws IOException {
+		if (!exists(id)) {
+			respond(exchange, 404, "{\"itemNotFound\": {\"code\": 404}}");
+			return;
+		}
+		if (failingMetadataUpdates.getAndDecrement() > 0) {
+			respond(exchange, 500, "{\"computeFault\": {\"code\": 500, \"message\": \"Unavailable\"}}");
+			return;
+		}
+		failingMetadataUpdates.set(Math.max(failingMetadataUpdates.get(), 0));
+		JsonObject server = createdServers.get(id);
+		JsonObject metadata = (server == null) ? new JsonObject() : server.getAsJsonObject("metadata");
+		if (metadata == null) {
+			metadata = new JsonObject();
+			server.add("metadata", metadata);
+		}
+		if ("DELETE".equals(exchange.getRequestMethod())) {
+			metadata.remove(key);
+			respond(exchange, 204, null);
+			return;
+		}
+		String body = CharStreams.toString(new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8));
+		for (Map.Entry<String, JsonElement> entry
+				: new JsonParser().parse(body).getAsJsonObject().getAsJsonObject("metadata").entrySet()) {
+			metadata.add(entry.getKey(), entry.getValue());
+		}
+		respond(exchange, 200, "{\"metadata\": " + metadata + "}");
+	}
+
+	/**
+	 * Deletes Neutron ports and floating IPs, the only Neutron calls served.
+	 */
+	private void handleNeutron(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String id = path.substring(path.lastIndexOf('/') + 1);
+		if (!"DELETE".equals(exchange.getRequestMethod())) {
+			respond(exchange, 404, "{\"NeutronError\": {\"message\": \"Not served\"}}");
+		} else if (path.startsWith("/neutron/v2.0/ports/")) {
+			deletedPorts.add(id);
+			respond(exchange, 204, null);
+		} else if (path.startsWith("/neutron/v2.0/floatingips/")) {
+			deletedFloatingIps.add(id);
+			respond(exchange, 204, null);
+		} else {
+			respond(exchange, 404, "{\"NeutronError\": {\"message\": \"Not served\"}}");
+		}
+	}
+
+	/**
+	 * Returns a page of servers: the live ones, or those changed since the specified time,
+	 * deleted ones included.
+	 *
+	 * @param marker      the ID of the last server of the previous page, <code>null</code> for
+	 *                    the first page
+	 * @param sinceMillis the changes-since time, {@link Long#MIN_VALUE} to list the live servers
+	 */
+	private String page(String marker, long sinceMillis) {
+		int start = (marker == null) ? 0 : getPosition(marker) + 1;
+		int end = fleetSize + created.size();
+		StringBuilder page = new StringBuilder("{\"servers\": [");
+		int count = 0;
+		int last = -1;
+		for (int position = start; position < end && count < pageSize; position++) {
+			String id = getId(position);
+			String status = changedStatuses.get(id);
+			Long changeMillis = changedMillis.get(id);
+			boolean listed = (sinceMillis == Long.MIN_VALUE) ? !"DELETED".equals(status)
+					: ((changeMillis == null) ? getGeneratedUpdatedMillis(position) : changeMillis) >= sinceMillis;
+			if (listed) {
+				page.append(count++ > 0 ? ", " : "").append(server(position));
+				last = position;
+			}
+		}
+		page.append("]");
+		if (count == pageSize && last < end - 1) {
+			page.append(", \"servers_links\": [{\"href\": \"http://127.0.0.1:").append(server.getAddress().getPort())
+					.append("/v2/").append(TENANT_ID).append("/servers/detail?marker=").append(getId(last));
+			if (sinceMillis != Long.MIN_VALUE) {
+				page.append("&changes-since=").append(format(sinceMillis));
+			}
+			page.append("\", \"rel\": \"next\"}]");
+		}
+		return page.append("}").toString();
+	}
+
+	/**
+	 * Returns the position of a server in the listings, -1 if it was never generated or
+	 * created.
+	 */
+	private int getPosition(String id) {
+		try {
+			if (id.startsWith(GENERATED_PREFIX)) {
+				int i = Integer.parseInt(id.substring(GENERATED_PREFIX.length()));
+				return (i >= 0 && i < fleetSize) ? i : -1;
+			}
+			if (id.startsWith(CREATED_PREFIX)) {
+				return createdServers.containsKey(id)
+						? fleetSize + Integer.parseInt(id.substring(CREATED_PREFIX.length())) - 1 : -1;
+			}
+		} catch (NumberFormatException e) {
+			// not a stub ID
+		}
+		return -1;
+	}
+
+	private String getId(int position) {
+		return (position < fleetSize) ? GENERATED_PREFIX + position : CREATED_PREFIX + (position - fleetSize + 1);
+	}
+
+	/**
+	 * Returns a server as it currently is.
+	 */
+	private String server(int position) {
+		String id = getId(position);
+		String status = changedStatuses.get(id);
+		String updated = (status == null) ? getGeneratedUpdated(position) : format(changedMillis.get(id));
+		if (position < fleetSize) {
+			return server(id, "instance-" + position, (status == null) ? getGeneratedStatus(position) : status,
+					updated, "{\"DIRECTOR_ID\": \"instance-" + position + "\", \"FLOATING_IP\": \"172.24.4."
+							+ (position % 250 + 2) + "\"}", position, true);
+		}
+		JsonObject request = createdServers.get(id);
+		JsonObject metadata = request.getAsJsonObject("metadata");
+		return server(id, request.get("name").getAsString(), status, updated,
+				(metadata == null) ? "{}" : metadata.toString(), position, !"BUILD".equals(status));
+	}
+
+	/**
+	 * Returns the status a server is generated in: every 5th server is building, and
+	 * every 50th, from the 4th, failed to boot.
+	 */
+	private static String getGeneratedStatus(int i) {
+		return (i % 5 == 0) ? "BUILD" : (i % 50 == 3) ? "ERROR" : "ACTIVE";
+	}
+
+	private static String getGeneratedUpdated(int i) {
+		return "2015-06-01T10:0" + (i % 10) + ":00Z";
+	}
+
+	/**
+	 * Returns a server, a deleted one without its metadata as Nova does.
+	 */
+	private static String server(String id, String name, String status, String updated, String metadata, int i,
+			boolean addressed) {
+		boolean building = "BUILD".equals(status);
+		boolean failed = "ERROR".equals(status);
+		boolean deleted = "DELETED".equals(status);
+		return "{\"id\": \"" + id + "\", \"name\": \"" + name + "\", \"status\": \"" + status + "\","
+				+ " \"tenant_id\": \"" + TENANT_ID + "\", \"user_id\": \"user-id\","
+				+ " \"created\": \"2015-06-01T10:00:00Z\", \"updated\": \"" + updated + "\","
+				+ " \"hostId\": \"host-" + (i % 7) + "\", \"accessIPv4\": \"\", \"accessIPv6\": \"\","
+				+ " \"image\": {\"id\": \"image-id\", \"links\": [{\"href\": \"http://nova/images/image-id\","
+				+ " \"rel\": \"bookmark\"}]}, \"flavor\": {\"id\": \"3\", \"links\": [{\"href\": \"http://nova/flavors/3\","
+				+ " \"rel\": \"bookmark\"}]}, \"key_name\": \"director\", \"config_drive\": \"\","
+				+ " \"addresses\": " + (addressed ? addresses(i) : "{}") + ","
+				+ " \"metadata\": " + (deleted ? "{}" : metadata) + ","
+				+ " \"links\": [{\"href\": \"http://nova/servers/" + id + "\", \"rel\": \"self\"}],"
+				+ " \"security_groups\": [{\"name\": \"default\"}], \"progress\": 0,"
+				+ " \"OS-EXT-STS:task_state\": " + (building ? "\"spawning\"" : "null") + ","
+				+ " \"OS-EXT-STS:vm_state\": \""
+				+ (building ? "building" : failed ? "error" : deleted ? "deleted" : "active") + "\","
+				+ " \"OS-EXT-STS:power_state\": " + (building || deleted ? 0 : 1) + ","
+				+ " \"OS-EXT-AZ:availability_zone\": \"nova\", \"OS-DCF:diskConfig\": \"MANUAL\","
+				+ (failed ? " \"fault\": {\"code\": 500, \"created\": \"2015-06-01T10:01:00Z\","
+						+ " \"message\": \"No valid host was found.\", \"details\": {\"trace\": [1, 2]}}," : "")
+				+ " \"os-extended-volumes:volumes_attached\": []}";
+	}
+
+	private static String addresses(int i) {
+		return "{\"private\": [{\"OS-EXT-IPS-MAC:mac_addr\": \"fa:16:3e:00:00:01\", \"version\": 4,"
+				+ " \"addr\": \"10.0." + (i / 250) + "." + (i % 250 + 2) + "\", \"OS-EXT-IPS:type\": \"fixed\"},"
+				+ " {\"version\": 4, \"addr\": \"172.24.4." + (i % 250 + 2) + "\", \"OS-EXT-IPS:type\": \"floating\"}]}";
+	}
+
+	private static String getParameter(String query, String name) throws IOException {
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(name + "=")) {
+				return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static String format(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(millis));
+	}
+
+	private String access() {
+		return "{\"access\": {\"token\": {\"id\": \"token\", \"expires\": \"2099-01-01T00:00:00Z\","
+				+ " \"tenant\": {\"id\": \"" + TENANT_ID + "\", \"name\": \"tenant\"}},"
+				+ " \"serviceCatalog\": [{\"type\": \"compute\", \"name\": \"nova\", \"endpoints\": [{\"region\": \""
+				+ REGION + "\", \"publicURL\": \"http://127.0.0.1:" + server.getAddress().getPort() + "/v2/"
+				+ TENANT_ID + "\", \"tenantId\": \"" + TENANT_ID + "\"}]},"
+				+ " {\"type\": \"network\", \"name\": \"neutron\", \"endpoints\": [{\"region\": \""
+				+ REGION + "\", \"publicURL\": \"http://127.0.0.1:" + server.getAddress().getPort() + "/neutron\","
+				+ " \"tenantId\": \"" + TENANT_ID + "\"}]}],"
+				+ " \"user\": {\"id\": \"user-id\", \"name\": \"user\", \"roles\": []}}}";
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+		byte[] bytes = body.getBytes(Charsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			gzipped.incrementAndGet();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(status, 0);
+			OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+			out.write(bytes);
+			out.close();
+			return;
+		}
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+}
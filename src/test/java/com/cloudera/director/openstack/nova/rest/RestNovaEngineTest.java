@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015 Intel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.director.openstack.nova.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.jclouds.date.DateService;
+import org.jclouds.date.internal.SimpleDateFormatDateService;
+import org.jclouds.openstack.nova.v2_0.domain.BlockDeviceMapping;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.openstack.OpenStackCredentials;
+import com.cloudera.director.openstack.nova.NovaApiSupplier;
+import com.cloudera.director.openstack.nova.NovaCreateServerOptions;
+import com.cloudera.director.openstack.nova.NovaServerApi;
+import com.cloudera.director.openstack.nova.NovaServerAddresses;
+import com.cloudera.director.openstack.nova.NovaServerRecord;
+import com.cloudera.director.openstack.nova.NovaServerSignature;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests {@link RestNovaEngine} against a local stub, and that it decodes the servers as
+ * jclouds does.
+ */
+public class RestNovaEngineTest {
+
+	private NovaStub nova;
+	private OpenStackCredentials credentials;
+
+	@Before
+	public void setUp() throws Exception {
+		nova = new NovaStub(25, 10);
+		credentials = new OpenStackCredentials(nova.getEndpoint(), "tenant", "user", "secret");
+	}
+
+	@After
+	public void tearDown() {
+		nova.stop();
+	}
+
+	@Test
+	public void testServersAreDecodedAsByJclouds() {
+		RestNovaEngine engine = RestNovaEngine.forCredentials(credentials);
+		assertThat(engine.getConfiguredRegions()).containsExactly(NovaStub.REGION);
+
+		List<Server> servers = engine.getServerApi(NovaStub.REGION).listInDetail();
+		List<Server> expected = NovaApiSupplier.forCredentials(credentials).getServerApi(NovaStub.REGION)
+				.listInDetail();
+
+		// all the pages were followed
+		assertThat(servers).hasSize(25);
+		assertThat(expected).hasSize(25);
+		for (int i = 0; i < servers.size(); i++) {
+			Server server = servers.get(i);
+			Server jclouds = expected.get(i);
+			assertThat(server.getId()).isEqualTo(jclouds.getId());
+			assertThat(server.getName()).isEqualTo(jclouds.getName());
+			assertThat(server.getStatus()).isEqualTo(jclouds.getStatus());
+			assertThat(server.getCreated()).isEqualTo(jclouds.getCreated());
+			assertThat(server.getUpdated()).isEqualTo(jclouds.getUpdated());
+			assertThat(server.getImage().getId()).isEqualTo(jclouds.getImage().getId());
+			assertThat(server.getFlavor().getId()).isEqualTo(jclouds.getFlavor().getId());
+			assertThat(server.getKeyName()).isEqualTo(jclouds.getKeyName());
+			assertThat(server.getAddresses()).isEqualTo(jclouds.getAddresses());
+			assertThat(server.getMetadata()).isEqualTo(jclouds.getMetadata());
+			assertThat(server.getExtendedStatus()).isEqualTo(jclouds.getExtendedStatus());
+			assertThat(server.getAvailabilityZone()).isEqualTo(jclouds.getAvailabilityZone());
+		}
+	}
+
+	@Test
+	public void testRecordsProjectTheServers() {
+		RestServerApi serverApi = RestNovaEngine.forCredentials(credentials).getServerApi(NovaStub.REGION);
+
+		List<NovaServerRecord> records = serverApi.listRecordsInDetail();
+		List<Server> servers = serverApi.listInDetail();
+
+		assertThat(records).hasSize(25);
+		for (int i = 0; i < records.size(); i++) {
+			NovaServerRecord record = records.get(i);
+			Server server = servers.get(i);
+			assertThat(record.getId()).isEqualTo(server.getId());
+			assertThat(record.getName()).isEqualTo(server.getName());
+			assertThat(record.getStatus()).isEqualTo(server.getStatus());
+			assertThat(record.getMetadata()).isEqualTo(server.getMetadata());
+			assertThat(record.getFlavorId()).isEqualTo(server.getFlavor().getId());
+			assertThat(record.getImageId()).isEqualTo(server.getImage().getId());
+			assertThat(record.getKeyName()).isEqualTo(server.getKeyName());
+			assertThat(record.getCreatedMillis()).isEqualTo(server.getCreated().getTime());
+			assertThat(record.getUpdatedMillis()).isEqualTo(server.getUpdated().getTime());
+			assertThat(record.getVmState()).isEqualTo(server.getExtendedStatus().get().getVmState());
+			assertThat(record.getTaskState()).isEqualTo(server.getExtendedStatus().get().getTaskState());
+			assertThat(NovaServerAddresses.of(record).getPrivateIpAddress())
+					.isEqualTo(NovaServerAddresses.of(server).getPrivateIpAddress());
+			assertThat(NovaServerAddresses.of(record).getFloatingIpAddress())
+					.isEqualTo(NovaServerAddresses.of(server).getFloatingIpAddress());
+		}
+		assertThat(records.get(0).getAddressTypes()).isEqualTo(ImmutableMap.of(
+				"10.0.0.2", NovaServerAddresses.FIXED_ADDRESS_TYPE,
+				"172.24.4.2", NovaServerAddresses.FLOATING_ADDRESS_TYPE));
+		assertThat(records.get(3).getFaultMessage()).isEqualTo("No valid host was found.");
+		assertThat(records.get(4).getFaultMessage()).isNull();
+		assertThat(serverApi.getRecord("server-7").getName()).isEqualTo("instance-7");
+		assertThat(serverApi.getRecord("server-99")).isNull();
+	}
+
+	@Test
+	public void testIso8601DatesAreParsedAsByJclouds() {
+		DateService dateService = new SimpleDateFormatDateService();
+		for (String date : ImmutableList.of("2015-06-01T10:00:00Z", "2016-02-29T23:59:59.123Z",
+				"1999-12-31T20:30:00+02:00", "2015-06-01T10:00:00-05:30", "2015-06-01T10:00:00")) {
+			assertThat(NovaServerDecoder.parseIso8601Millis(date))
+					.as(date).isEqualTo(dateService.iso8601DateOrSecondsDateParse(date).getTime());
+		}
+		assertThat(NovaServerDecoder.parseIso8601Millis("June 1st, 2015")).isEqualTo(Long.MIN_VALUE);
+	}
+
+	@Test
+	public void testServerCalls() {
+		NovaServerApi serverApi = RestNovaEngine.forCredentials(credentials).getServerApi(NovaStub.REGION);
+
+		assertThat(serverApi.get("server-5").getExtendedStatus().get().getTaskState()).isEqualTo("spawning");
+		assertThat(serverApi.get("server-99")).isNull();
+		assertThat(serverApi.delete("server-3")).isTrue();
+		assertThat(serverApi.delete("server-99")).isFalse();
+
+		NovaServerSignature signature = new NovaServerSignature("image-id", "3", "net-id", "nova",
+				ImmutableList.of("default"), "director");
+		String id = serverApi.create("instance", "image-id", "3",
+				signature.toCreateServerOptions(ImmutableMap.of("DIRECTOR_ID", "instance"))).getId();
+		assertThat(id).isEqualTo("created-1");
+		assertThat(nova.created.get(0))
+				.contains("\"imageRef\":\"image-id\"")
+				.contains("\"networks\":[{\"uuid\":\"net-id\"}]")
+				.contains("\"security_groups\":[{\"name\":\"default\"}]")
+				.contains("\"metadata\":{\"DIRECTOR_ID\":\"instance\"}");
+	}
+
+	@Test
+	public void testCreateSendsAllTheOptions() {
+		NovaServerApi serverApi = RestNovaEngine.forCredentials(credentials).getServerApi(NovaStub.REGION);
+
+		NovaCreateServerOptions options = new NovaCreateServerOptions()
+				.userData("#cloud-config".getBytes(Charsets.UTF_8))
+				.adminPass("secret")
+				.writeFileToPath("motd".getBytes(Charsets.UTF_8), "/etc/motd");
+		options.blockDeviceMappings(ImmutableSet.of(BlockDeviceMapping.builder()
+				.uuid("volume-id")
+				.sourceType("volume")
+				.destinationType("volume")
+				.bootIndex(0)
+				.deleteOnTermination(true)
+				.build()));
+		serverApi.create("instance", "image-id", "3", options);
+		assertThat(nova.created.get(0))
+				.contains("\"adminPass\":\"secret\"")
+				.contains("\"user_data\":\"I2Nsb3VkLWNvbmZpZw==\"")
+				.contains("\"personality\":[{\"path\":\"/etc/motd\",\"contents\":\"bW90ZA==\"}]")
+				.contains("\"block_device_mapping_v2\":[{\"uuid\":\"volume-id\",\"source_type\":\"volume\","
+						+ "\"destination_type\":\"volume\",\"boot_index\":0,\"delete_on_termination\":true}]");
+	}
+}